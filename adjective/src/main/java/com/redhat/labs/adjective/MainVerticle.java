@@ -2,11 +2,20 @@ package com.redhat.labs.adjective;
 
 import com.redhat.labs.adjective.services.AdjectiveService;
 import com.redhat.labs.adjective.services.AdjectiveServiceImpl;
+import com.redhat.labs.rhoar.vertx.db.BulkIngest;
+import com.redhat.labs.rhoar.vertx.db.WriteBehind;
+import com.redhat.labs.rhoar.vertx.discovery.EndpointAnnouncer;
+import com.redhat.labs.rhoar.vertx.json.JsonResponses;
+import com.redhat.labs.rhoar.vertx.launcher.PerProcess;
+import com.redhat.labs.rhoar.vertx.launcher.StartupTimer;
+import com.redhat.labs.rhoar.vertx.metrics.RouteMetrics;
+import com.redhat.labs.rhoar.vertx.schema.ChangelogChecksum;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.reactivex.Maybe;
 import io.vertx.config.ConfigRetrieverOptions;
 import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -38,7 +47,9 @@ public class MainVerticle extends AbstractVerticle {
 
     private static final Logger LOG = LoggerFactory.getLogger(MainVerticle.class);
 
-    AdjectiveService service;
+    AdjectiveServiceImpl service;
+
+    private String saveRetryAfter;
 
     /**
      * Initialize and start the {@link MainVerticle}
@@ -46,12 +57,37 @@ public class MainVerticle extends AbstractVerticle {
      */
     @Override
     public void start(io.vertx.core.Future<Void> startFuture) {
-        this.initConfigRetriever()                      // Attempt to retrieve the application's configuration
-            .flatMap(this::asyncLoadDbSchema)           // Use the config to load the DB schema
-            .flatMap(this::provisionRouter)             // Provision the OpenAPI3RouterFactory
-            .flatMap(this::createHttpServer)            // Mount the OpenAPI3Router and create the HTTP server
+        StartupTimer timer = new StartupTimer(vertx.getDelegate(), "adjective");
+        Maybe.zip(
+            this.initConfigRetriever()                  // Attempt to retrieve the application's configuration
+                .compose(timer.phase("config"))
+                .flatMap(config -> this.asyncLoadDbSchema(config)   // Use the config to load the DB schema
+                    .compose(timer.phase("schema"))),
+            this.loadContract()                         // Meanwhile, parse the OpenAPI contract, which needs neither
+                .compose(timer.phase("contract")),
+            (schemaLoaded, factory) -> factory)
+            .doOnSuccess(this::provisionService)        // Create the service and register the Service Proxy
+            .flatMap(factory -> this.createHttpServer(factory)   // Mount the OpenAPI3Router and create the HTTP server
+                .compose(timer.phase("http")))
+            .doOnSuccess(this::announceEndpoint)        // Let the insult service find this instance, if enabled
             .doOnError(startFuture::fail)               // If ANY step fails, fail the Verticle deployment
-            .subscribe(m -> startFuture.complete());    // If ALL steps succeed, complete the Verticle deployment
+            .subscribe(m -> {                           // If ALL steps succeed, complete the Verticle deployment
+                LOG.info("Started in " + timer.ready());
+                startFuture.complete();
+            });
+    }
+
+    /**
+     * Stop the {@link MainVerticle}, once any saves which are still queued have been written
+     * @param stopFuture An instance of {@link Future} which allows us to report when the verticle has stopped.
+     */
+    @Override
+    public void stop(io.vertx.core.Future<Void> stopFuture) {
+        if (service == null) {
+            stopFuture.complete();
+            return;
+        }
+        service.close(stopFuture.completer());
     }
 
     /**
@@ -90,32 +126,46 @@ public class MainVerticle extends AbstractVerticle {
     }
 
     /**
-     * Load the database schema from the config via Liquibase
+     * Load the database schema from the config via Liquibase. When several instances of this verticle are deployed,
+     * only the first one runs Liquibase and the others wait for its result.
      * @param config A {@link JsonObject} containing the configuration retrieved in the previous step.
      * @return A {@link Void} {@link Future} to be used to complete the next Async step
      */
     Maybe<Boolean> asyncLoadDbSchema(JsonObject config) {
         vertx.getOrCreateContext().config().mergeIn(config);
         LOG.info(vertx.getOrCreateContext().config().encodePrettily());
-        return vertx.rxExecuteBlocking(this::loadDbSchema).toMaybe();
+        return PerProcess.rxRun(vertx, "adjective.schema", vertx.rxExecuteBlocking(this::loadDbSchema, false)).toMaybe();
     }
 
     /**
-     * Synchronous method to use Liquibase to load the database schema
+     * Synchronous method to use Liquibase to load the database schema. If {@code schema.skipIfCurrent} is set, the
+     * checksum of the packaged changelog is compared with the one stored by the last update and Liquibase is skipped
+     * entirely when they match.
      * @param f A {@link Future} to be completed when operation is done
      */
     void loadDbSchema(io.vertx.reactivex.core.Future<Boolean> f) {
         try {
             JsonObject dbCfg = vertx.getOrCreateContext().config().getJsonObject("db");
+            boolean skipIfCurrent = vertx.getOrCreateContext().config()
+                    .getJsonObject("schema", new JsonObject()).getBoolean("skipIfCurrent", Boolean.FALSE);
             Class.forName(dbCfg.getString("driver_class"));
             try (Connection conn = DriverManager.getConnection(
                     dbCfg.getString("url"),
                     dbCfg.getString("user"),
                     dbCfg.getString("password"))) {
+                ChangelogChecksum checksum = ChangelogChecksum.of("adjective_schema.xml", "adjectives.csv");
+                if (skipIfCurrent && checksum.isCurrent(conn)) {
+                    LOG.info("Database schema is current (checksum " + checksum.value() + "), skipping Liquibase");
+                    f.complete(Boolean.TRUE);
+                    return;
+                }
                 Database database = DatabaseFactory.getInstance()
                     .findCorrectDatabaseImplementation(new JdbcConnection(conn));
                 Liquibase liquibase = new Liquibase("adjective_schema.xml", new ClassLoaderResourceAccessor(), database);
                 liquibase.update(new Contexts(), new LabelExpression());
+                if (skipIfCurrent) {
+                    checksum.store(conn);
+                }
                 f.complete(Boolean.TRUE);
             }
         } catch (Exception e) {
@@ -132,15 +182,28 @@ public class MainVerticle extends AbstractVerticle {
     }
 
     /**
-     * Begin the creation of the {@link OpenAPI3RouterFactory}
-     * @return An {@link OpenAPI3RouterFactory} {@link Future} to be used to complete the next Async step
+     * Begin the creation of the {@link OpenAPI3RouterFactory}, which parses the OpenAPI contract
+     * @return An {@link OpenAPI3RouterFactory} {@link Maybe} to be used to complete the next Async step
      */
-    Maybe<OpenAPI3RouterFactory> provisionRouter(Boolean b) {
-        service = new AdjectiveServiceImpl(vertx.getDelegate());
-        new ServiceBinder(vertx.getDelegate()).setAddress("adjective.service").register(AdjectiveService.class, service);
+    Maybe<OpenAPI3RouterFactory> loadContract() {
         return OpenAPI3RouterFactory.rxCreate(vertx, "/adjective.yaml").toMaybe();
     }
 
+    /**
+     * Create the {@link AdjectiveServiceImpl} and register it as a Service Proxy. The service reads from the database,
+     * so this must only be done once the schema has been loaded.
+     * @param factory The {@link OpenAPI3RouterFactory} created by the previous step, which is not used here
+     */
+    void provisionService(OpenAPI3RouterFactory factory) {
+        service = new AdjectiveServiceImpl(vertx.getDelegate());
+        saveRetryAfter = String.valueOf(vertx.getOrCreateContext().config()
+                .getJsonObject("writeBehind", new JsonObject()).getInteger("retryAfter", 1));
+        // Every instance serves HTTP, but a single Service Proxy registration per process is enough for the event bus
+        if (PerProcess.claim(vertx.getDelegate(), "adjective.binder")) {
+            new ServiceBinder(vertx.getDelegate()).setAddress("adjective.service").register(AdjectiveService.class, service);
+        }
+    }
+
     /**
      * Create an {@link HttpServer} and use the {@link OpenAPI3RouterFactory}
      * to handle HTTP requests
@@ -149,11 +212,21 @@ public class MainVerticle extends AbstractVerticle {
      */
     Maybe<HttpServer> createHttpServer(OpenAPI3RouterFactory factory) {
         Router baseRouter = Router.router(vertx);
+        JsonObject metricsCfg = vertx.getOrCreateContext().config().getJsonObject("metrics");
+        RouteMetrics metrics = RouteMetrics.create(vertx, "adjective", metricsCfg);
+        metrics.mount(baseRouter);
         baseRouter.route().handler(this::logRequestPath);
+        // The bulk endpoint streams the request body, so it is mounted ahead of the OpenAPI router's BodyHandler
+        baseRouter.post("/api/v1/adjectives/bulk").handler(metrics.timed("bulkAddAdjectives", this::handleBulkPost));
 
-        factory.addHandlerByOperationId("getAdjective", ctx -> service.get(res -> this.handleResult(ctx, OK, res)));
-        factory.addHandlerByOperationId("addAdjective", this::handleAdjPost);
-        factory.addHandlerByOperationId("health", ctx -> service.check(res -> this.handleResult(ctx, OK, res)));
+        factory.addHandlerByOperationId("getAdjective",
+                metrics.timed("getAdjective", ctx -> service.getEncoded(res -> this.handleEncodedResult(ctx, OK, res))));
+        factory.addHandlerByOperationId("getAdjectives", metrics.timed("getAdjectives", this::handleGetMany));
+        factory.addHandlerByOperationId("getAllAdjectives",
+                metrics.timed("getAllAdjectives", ctx -> service.getAll(res -> this.handleResult(ctx, OK, res))));
+        factory.addHandlerByOperationId("addAdjective", metrics.timed("addAdjective", this::handleAdjPost));
+        factory.addHandlerByOperationId("health",
+                metrics.timed("health", ctx -> service.check(res -> this.handleResult(ctx, OK, res))));
 
         JsonObject httpJsonCfg = vertx.getOrCreateContext().config().getJsonObject("http");
 
@@ -165,6 +238,32 @@ public class MainVerticle extends AbstractVerticle {
             .rxListen().toMaybe();
     }
 
+    /**
+     * Announce the HTTP endpoint of this service on the event bus if the {@code announce} block is enabled, so that
+     * the insult service can balance its requests across every instance. The endpoint is announced once per process,
+     * however many instances of the MainVerticle are deployed.
+     * @param server The {@link HttpServer} which is listening
+     */
+    private void announceEndpoint(HttpServer server) {
+        JsonObject announceCfg = vertx.getOrCreateContext().config().getJsonObject("announce", new JsonObject());
+        if (announceCfg.getBoolean("enabled", Boolean.FALSE)
+                && PerProcess.claim(vertx.getDelegate(), "adjective.announce")) {
+            EndpointAnnouncer.start(vertx.getDelegate(), announceCfg, "adjective.endpoints", server.actualPort());
+        }
+    }
+
+    /**
+     * Extract the query parameters from the {@link RoutingContext} and make the call to retrieve multiple Adjectives
+     * @param ctx The {@link RoutingContext} of the request being handled
+     */
+    void handleGetMany(RoutingContext ctx) {
+        RequestParameters params = ctx.get("parsedParameters");
+        int count = params.queryParameter("count").getInteger();
+        RequestParameter distinctParam = params.queryParameter("distinct");
+        boolean distinct = distinctParam != null && distinctParam.getBoolean();
+        service.getMany(count, distinct, res -> this.handleResult(ctx, OK, res));
+    }
+
     /**
      * Log the request path given in the {@link RoutingContext}
      * @param ctx The {@link RoutingContext} of a request
@@ -185,6 +284,15 @@ public class MainVerticle extends AbstractVerticle {
         service.save(data.getString("adjective"), res -> this.handleResult(ctx, OK, res));
     }
 
+    /**
+     * Stream the request body into the database and respond with a report of the rows inserted
+     * @param ctx The {@link RoutingContext} of the request being handled
+     */
+    void handleBulkPost(RoutingContext ctx) {
+        ctx.request().pause();
+        service.bulkSave(ctx.request().getDelegate(), res -> BulkIngest.respond(ctx, res, this::handleFailure));
+    }
+
     /**
      * Handles a Service Proxy response and uses the {@link RoutingContext} to send the response
      * @param ctx The {@link RoutingContext} of the request we are responding to
@@ -197,7 +305,32 @@ public class MainVerticle extends AbstractVerticle {
                 .setStatusCode(status.code())
                 .setStatusMessage(status.reasonPhrase())
                 .putHeader("Content-Type", "application/json")
-                .end(res.result());
+                .end(JsonResponses.render(ctx, res.result()));
+        } else if (WriteBehind.isQueueFull(res.cause())) {
+            ctx.response()
+                .setStatusCode(TOO_MANY_REQUESTS.code())
+                .setStatusMessage(TOO_MANY_REQUESTS.reasonPhrase())
+                .putHeader("Retry-After", saveRetryAfter)
+                .end();
+        } else {
+            this.handleFailure(ctx);
+        }
+    }
+
+    /**
+     * Handles a pre-encoded response and writes the shared {@link Buffer} to the response without copying it
+     * @param ctx The {@link RoutingContext} of the request we are responding to
+     * @param status The {@link HttpResponseStatus} to be used for the request's successful response
+     * @param res The {@link Buffer} which contains a compact JSON response
+     */
+    void handleEncodedResult(RoutingContext ctx, HttpResponseStatus status, AsyncResult<Buffer> res) {
+        if (res.succeeded()) {
+            ctx.response()
+                .setStatusCode(status.code())
+                .setStatusMessage(status.reasonPhrase())
+                .putHeader("Content-Type", "application/json")
+                .getDelegate()
+                .end(JsonResponses.render(ctx, res.result()));
         } else {
             this.handleFailure(ctx);
         }
@@ -39,5 +39,9 @@ public interface AdjectiveService {
 
     void get(Handler<AsyncResult<String>> handler);
 
+    void getMany(int count, boolean distinct, Handler<AsyncResult<String>> handler);
+
+    void getAll(Handler<AsyncResult<String>> handler);
+
     void check(Handler<AsyncResult<String>> handler);
 }
\ No newline at end of file
@@ -1,18 +1,34 @@
 package com.redhat.labs.adjective.services;
 
+import com.redhat.labs.rhoar.vertx.db.BulkIngest;
+import com.redhat.labs.rhoar.vertx.db.DbClient;
+import com.redhat.labs.rhoar.vertx.db.RandomWords;
+import com.redhat.labs.rhoar.vertx.db.WriteBehind;
+import com.redhat.labs.rhoar.vertx.json.EncodedWords;
+import com.redhat.labs.rhoar.vertx.launcher.PerProcess;
+import com.redhat.labs.rhoar.vertx.launcher.StartupTimer;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.core.streams.ReadStream;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLClient;
 import io.vertx.ext.sql.SQLConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * An implementation of the {@link AdjectiveService} interface.
  * Provides business logic for getting/setting adjectives for use with the Elizabethan Insult Application
@@ -21,15 +37,137 @@ public class AdjectiveServiceImpl implements AdjectiveService {
 
     private static final Logger LOG = LoggerFactory.getLogger(AdjectiveService.class);
 
+    private static final String[] EMPTY_SNAPSHOT = new String[0];
+
+    private static final String INSERT_SQL = "INSERT INTO adjectives (adjective) VALUES (?)";
+
+    private static final String SNAPSHOT_MAP = "adjective.snapshot";
+
+    private static final String VERSION_SQL = "SELECT COUNT(*), COALESCE(MAX(id), 0) FROM adjectives";
+
+    Vertx vertx;
+
     SQLClient client;
 
+    /**
+     * Whether the connections of the {@link #client} support {@code batchWithParams}, see {@link DbClient}
+     */
+    boolean batchInserts;
+
+    String eventsAddress;
+
+    boolean snapshotEnabled;
+
+    int bulkChunkSize;
+
+    /**
+     * Queues single adjective saves and writes them with multi-row INSERTs, or {@code null} if every save is written
+     * straight away
+     */
+    WriteBehind writeBehind;
+
+    /**
+     * Compact, pre-encoded responses for single adjectives, so that serving a known adjective needs no JSON encoding
+     */
+    EncodedWords encodedWords;
+
+    /**
+     * An immutable array of all known adjectives. The array is never modified in place, it is only ever replaced. When
+     * the snapshot is enabled it is shared by all of the instances of the service in this process, so that a save
+     * handled by one instance is served by every other instance.
+     */
+    final AtomicReference<String[]> snapshot;
+
     /**
      * Default constructor which takes the {@link Vertx} instance as it's only parameter
      * @param vertx The {@link Vertx} instance for the current context
      */
     public AdjectiveServiceImpl(Vertx vertx) {
+        this.vertx = vertx;
         JsonObject dbConfig = vertx.getOrCreateContext().config().getJsonObject("db");
-        client = JDBCClient.createShared(vertx, dbConfig, "adjective");
+        DbClient dbClient = DbClient.select(dbConfig);
+        client = dbClient.create(vertx, dbConfig, "adjective");
+        batchInserts = dbClient.supportsBatch();
+        bulkChunkSize = vertx.getOrCreateContext().config().getJsonObject("bulk", new JsonObject()).getInteger("chunkSize", 500);
+        JsonObject responsesCfg = vertx.getOrCreateContext().config().getJsonObject("responses", new JsonObject());
+        encodedWords = new EncodedWords("ADJECTIVE", responsesCfg.getInteger("wordCacheSize", 10000));
+        JsonObject eventsCfg = vertx.getOrCreateContext().config().getJsonObject("events", new JsonObject());
+        if (eventsCfg.getBoolean("enabled", Boolean.FALSE)) {
+            eventsAddress = eventsCfg.getString("address", "adjective.events");
+        }
+        JsonObject writeBehindCfg = vertx.getOrCreateContext().config().getJsonObject("writeBehind", new JsonObject());
+        if (writeBehindCfg.getBoolean("enabled", Boolean.FALSE)) {
+            writeBehind = new WriteBehind(vertx, client, INSERT_SQL, "adjective", writeBehindCfg)
+                    .writtenHandler(this::handleWritten);
+        }
+        JsonObject snapshotCfg = vertx.getOrCreateContext().config().getJsonObject("snapshot", new JsonObject());
+        snapshotEnabled = snapshotCfg.getBoolean("enabled", Boolean.FALSE);
+        snapshot = snapshotEnabled ? sharedSnapshot(vertx) : new AtomicReference<>(EMPTY_SNAPSHOT);
+        if (snapshotEnabled && PerProcess.claim(vertx, SNAPSHOT_MAP)) {
+            refreshSnapshot();
+            long refreshInterval = snapshotCfg.getLong("refreshInterval", 0L);
+            if (refreshInterval > 0) {
+                vertx.setPeriodic(refreshInterval, t -> refreshSnapshot());
+            }
+        }
+    }
+
+    /**
+     * Find or create the snapshot which is shared by all of the instances of the service in this process
+     * @param vertx The {@link Vertx} instance
+     * @return The shared snapshot
+     */
+    private static AtomicReference<String[]> sharedSnapshot(Vertx vertx) {
+        LocalMap<String, SharedSnapshot> snapshots = vertx.sharedData().getLocalMap(SNAPSHOT_MAP);
+        SharedSnapshot created = new SharedSnapshot();
+        SharedSnapshot existing = snapshots.putIfAbsent(SNAPSHOT_MAP, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * The snapshot, which can be kept in a {@link LocalMap} because it is only ever replaced atomically
+     */
+    private static final class SharedSnapshot extends AtomicReference<String[]> implements Shareable {
+        SharedSnapshot() {
+            super(EMPTY_SNAPSHOT);
+        }
+    }
+
+    /**
+     * Load ALL adjectives from the database and replace the current in-memory snapshot with the results
+     */
+    void refreshSnapshot() {
+        client.query("SELECT adjective FROM adjectives", this::handleSnapshotResult);
+    }
+
+    /**
+     * Replace the in-memory snapshot with the results of the snapshot query
+     * @param queryRes The results of the SQL query
+     */
+    void handleSnapshotResult(AsyncResult<ResultSet> queryRes) {
+        if (queryRes.succeeded()) {
+            String[] words = queryRes.result().getResults().stream()
+                    .map(row -> row.getString(0))
+                    .toArray(String[]::new);
+            snapshot.set(words);
+            LOG.debug("Adjective snapshot refreshed with {} entries", words.length);
+        } else {
+            LOG.warn("Unable to refresh adjective snapshot, keeping the previous one", queryRes.cause());
+        }
+    }
+
+    /**
+     * Add adjectives to the snapshot by replacing it with a copy which has the new adjectives appended
+     * @param adjectives The adjectives to be added
+     */
+    void appendToSnapshot(List<String> adjectives) {
+        snapshot.updateAndGet(current -> {
+            String[] updated = Arrays.copyOf(current, current.length + adjectives.size());
+            for (int i = 0; i < adjectives.size(); i++) {
+                updated[current.length + i] = adjectives.get(i);
+            }
+            return updated;
+        });
     }
 
     /* Show how Lambdas are used in a "naive" fashion which can be difficult to read/understand. Nested Lambdas
@@ -64,15 +202,62 @@ public class AdjectiveServiceImpl implements AdjectiveService {
 
     /**
      * Add a new adjective to the database. This method starts the process of adding a new adjective to the database.
-     * The first step is to create a connection to the database.
+     * The first step is to create a connection to the database, unless write-behind is enabled, in which case the
+     * adjective is queued to be written with others.
      * @param adjective The adjective to be added
      * @param resultHandler An instance of {@link Handler} which will be used as a callback upon completion of the operation
      */
     @Override
     public void save(String adjective, Handler<AsyncResult<String>> resultHandler) {
+        if (writeBehind != null) {
+            writeBehind.save(adjective, res -> resultHandler.handle(res.map(v -> savedResponse(adjective))));
+            return;
+        }
         client.getConnection(connRes -> saveConnHandler(adjective, resultHandler, connRes));
     }
 
+    /**
+     * Write any adjectives which are still queued by write-behind, so that saves which have been acknowledged are not lost
+     * when the service is stopped. This is not part of the Service Proxy interface, it is called by the verticle.
+     * @param resultHandler Called once nothing is left to write
+     */
+    public void close(Handler<AsyncResult<Void>> resultHandler) {
+        if (writeBehind == null) {
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        writeBehind.close(resultHandler);
+    }
+
+    /**
+     * Add many adjectives to the database from a streamed request body (a JSON array or NDJSON) using batches in a
+     * single transaction. This is not part of the {@link AdjectiveService} Service Proxy interface, because the body
+     * is streamed rather than sent as a single message.
+     * @param body The request body, which should be paused until the database connection is ready
+     * @param resultHandler A callback which is given a report of the rows inserted per chunk
+     */
+    public void bulkSave(ReadStream<Buffer> body, Handler<AsyncResult<JsonObject>> resultHandler) {
+        BulkIngest.ingest(client, INSERT_SQL, "adjective", bulkChunkSize, batchInserts, body,
+                res -> handleBulkResult(resultHandler, res));
+    }
+
+    /**
+     * Once a bulk insert is complete, reload the snapshot and tell any replicas to reload the vocabulary
+     * @param resultHandler The callback to be used once the operation is complete
+     * @param res The result of the bulk insert
+     */
+    void handleBulkResult(Handler<AsyncResult<JsonObject>> resultHandler, AsyncResult<JsonObject> res) {
+        if (res.succeeded()) {
+            if (snapshotEnabled) {
+                refreshSnapshot();
+            }
+            if (eventsAddress != null) {
+                vertx.eventBus().publish(eventsAddress, new JsonObject().put("action", "reload"));
+            }
+        }
+        resultHandler.handle(res);
+    }
+
     /**
      * Once we have a connection to the database, we send the query
      * @param adjective The Adjective to be added to the database
@@ -83,8 +268,10 @@ public class AdjectiveServiceImpl implements AdjectiveService {
         if (connRes.succeeded()) {
             SQLConnection conn = connRes.result();
             JsonArray params = new JsonArray().add(adjective);
-            conn.queryWithParams("INSERT INTO adjectives (adjective) VALUES (?)",
-                    params, queryRes -> handleInsertResult(adjective, resultHandler, queryRes));
+            conn.queryWithParams(INSERT_SQL, params, queryRes -> {
+                conn.close();
+                handleInsertResult(adjective, resultHandler, queryRes);
+            });
         } else {
             resultHandler.handle(Future.failedFuture(connRes.cause()));
         }
@@ -98,36 +285,178 @@ public class AdjectiveServiceImpl implements AdjectiveService {
      */
     void handleInsertResult(String adjective, Handler<AsyncResult<String>> resultHandler, AsyncResult<ResultSet> queryRes) {
         if (queryRes.succeeded()) {
-            JsonObject result = new JsonObject()
-                    .put("url", String.format("/rest/v1/adjective/%s", adjective));
-            resultHandler.handle(Future.succeededFuture(result.encodePrettily()));
+            handleWritten(Collections.singletonList(adjective));
+            resultHandler.handle(Future.succeededFuture(savedResponse(adjective)));
         } else {
             resultHandler.handle(Future.failedFuture(queryRes.cause()));
         }
     }
 
+    /**
+     * Once adjectives have been written to the database, add them to the snapshot and tell any replicas about them.
+     * The event carries the version of the vocabulary after the write, so that a replica which has applied every
+     * event can adopt it instead of reloading the vocabulary.
+     * @param adjectives The adjectives which were added
+     */
+    void handleWritten(List<String> adjectives) {
+        if (snapshotEnabled) {
+            appendToSnapshot(adjectives);
+        }
+        if (eventsAddress != null) {
+            client.query(VERSION_SQL, versionRes -> {
+                JsonObject event = new JsonObject().put("action", "add").put("words", new JsonArray(adjectives));
+                if (versionRes.succeeded()) {
+                    JsonArray row = versionRes.result().getResults().get(0);
+                    event.put("version", version(row.getLong(0), row.getLong(1)));
+                }
+                vertx.eventBus().publish(eventsAddress, event);
+            });
+        }
+    }
+
+    private static String savedResponse(String adjective) {
+        return new JsonObject().put("url", String.format("/rest/v1/adjective/%s", adjective)).encode();
+    }
+
+    /**
+     * Retrieve a random adjective. When the snapshot is enabled and populated, the adjective is chosen from memory
+     * without touching the database; otherwise we fall back to a random query against the database.
+     * @param resultHandler The callback to be used once the operation is complete
+     */
     @Override
     public void get(Handler<AsyncResult<String>> resultHandler) {
+        getEncoded(res -> resultHandler.handle(res.map(Buffer::toString)));
+    }
+
+    /**
+     * Retrieve a random adjective as a compact, pre-encoded JSON response. The returned {@link Buffer} is shared
+     * between requests, so it can be written to an HTTP response without being copied but must not be modified. This
+     * is not part of the {@link AdjectiveService} Service Proxy interface, which can only return Strings.
+     * @param resultHandler The callback to be used once the operation is complete
+     */
+    public void getEncoded(Handler<AsyncResult<Buffer>> resultHandler) {
+        String[] words = snapshot.get();
+        if (words.length > 0) {
+            String adjective = words[ThreadLocalRandom.current().nextInt(words.length)];
+            resultHandler.handle(Future.succeededFuture(encodedWords.get(adjective)));
+            return;
+        }
         client.getConnection(connRes -> handleGetConnectionResult(resultHandler, connRes));
     }
 
-    void handleGetConnectionResult(Handler<AsyncResult<String>> resultHandler, AsyncResult<SQLConnection> connRes) {
+    void handleGetConnectionResult(Handler<AsyncResult<Buffer>> resultHandler, AsyncResult<SQLConnection> connRes) {
         if (connRes.succeeded()) {
             LOG.debug("DB connection retrieved");
             SQLConnection conn = connRes.result();
-            conn.query("SELECT adjective FROM adjectives ORDER BY RAND() LIMIT 1", queryRes -> handleQueryResult(resultHandler, connRes, queryRes));
+            conn.query("SELECT adjective FROM adjectives ORDER BY RANDOM() LIMIT 1", queryRes -> handleQueryResult(resultHandler, connRes, queryRes));
         } else {
             resultHandler.handle(Future.failedFuture(connRes.cause()));
         }
     }
 
-    private void handleQueryResult(Handler<AsyncResult<String>> resultHandler, AsyncResult<SQLConnection> connRes, AsyncResult<ResultSet> queryRes) {
+    /**
+     * Retrieve {@code count} random adjectives in a single operation. When the snapshot is populated the adjectives
+     * are chosen from memory, otherwise a single query is made against the database.
+     * @param count The number of adjectives to return, from 1 to {@link RandomWords#MAX_COUNT}
+     * @param distinct If {@code true}, no adjective will be returned more than once (so fewer than {@code count}
+     *                 adjectives may be returned when there are not enough adjectives available)
+     * @param resultHandler The callback to be used once the operation is complete
+     */
+    @Override
+    public void getMany(int count, boolean distinct, Handler<AsyncResult<String>> resultHandler) {
+        String invalid = RandomWords.checkCount(count);
+        if (invalid != null) {
+            resultHandler.handle(Future.failedFuture(new IllegalArgumentException(invalid)));
+            return;
+        }
+        String[] words = snapshot.get();
+        if (words.length > 0) {
+            resultHandler.handle(Future.succeededFuture(encodeMany(RandomWords.pick(words, count, distinct))));
+            return;
+        }
+        client.queryWithParams("SELECT adjective FROM adjectives ORDER BY RANDOM() LIMIT ?", new JsonArray().add(count),
+                queryRes -> handleGetManyResult(count, distinct, resultHandler, queryRes));
+    }
+
+    /**
+     * Process the results of the query for multiple adjectives. The query can only return each row once, so if
+     * duplicates are allowed and there are not enough rows, the remainder is filled by picking from the rows returned.
+     * @param count The number of adjectives requested
+     * @param distinct If {@code true}, no adjective will be returned more than once
+     * @param resultHandler The callback to be used once the operation is complete
+     * @param queryRes The results of the SQL query
+     */
+    void handleGetManyResult(int count, boolean distinct, Handler<AsyncResult<String>> resultHandler, AsyncResult<ResultSet> queryRes) {
+        if (queryRes.succeeded()) {
+            String[] words = queryRes.result().getResults().stream()
+                    .map(row -> row.getString(0))
+                    .toArray(String[]::new);
+            if (!distinct && words.length > 0 && words.length < count) {
+                words = RandomWords.pick(words, count, false);
+            }
+            resultHandler.handle(Future.succeededFuture(encodeMany(words)));
+        } else {
+            resultHandler.handle(Future.failedFuture(queryRes.cause()));
+        }
+    }
+
+    /**
+     * Encode an array of adjectives as the JSON response for {@link #getMany(int, boolean, Handler)}
+     * @param words The adjectives to be encoded
+     * @return A JSON String
+     */
+    static String encodeMany(String[] words) {
+        return new JsonObject().put("adjectives", new JsonArray(Arrays.asList((Object[]) words))).encode();
+    }
+
+    /**
+     * Retrieve ALL adjectives along with a version for the vocabulary, so that replicas can detect when they have
+     * missed updates. The version is made up of the number of adjectives and the highest ID.
+     * @param resultHandler The callback to be used once the operation is complete
+     */
+    @Override
+    public void getAll(Handler<AsyncResult<String>> resultHandler) {
+        client.query("SELECT adjective, id FROM adjectives ORDER BY id", queryRes -> handleGetAllResult(resultHandler, queryRes));
+    }
+
+    /**
+     * Process the results of the query for ALL adjectives
+     * @param resultHandler The callback to be used once the operation is complete
+     * @param queryRes The results of the SQL query
+     */
+    void handleGetAllResult(Handler<AsyncResult<String>> resultHandler, AsyncResult<ResultSet> queryRes) {
+        if (queryRes.succeeded()) {
+            JsonArray adjectives = new JsonArray();
+            long maxId = 0;
+            for (JsonArray row : queryRes.result().getResults()) {
+                adjectives.add(row.getString(0));
+                maxId = Math.max(maxId, row.getLong(1));
+            }
+            JsonObject result = new JsonObject()
+                    .put("adjectives", adjectives)
+                    .put("version", version(adjectives.size(), maxId));
+            resultHandler.handle(Future.succeededFuture(result.encode()));
+        } else {
+            resultHandler.handle(Future.failedFuture(queryRes.cause()));
+        }
+    }
+
+    /**
+     * The version of the vocabulary, made up of the number of adjectives and the highest ID
+     * @param count The number of adjectives
+     * @param maxId The highest ID
+     * @return The version
+     */
+    static String version(long count, long maxId) {
+        return String.format("%d-%d", count, maxId);
+    }
+
+    private void handleQueryResult(Handler<AsyncResult<Buffer>> resultHandler, AsyncResult<SQLConnection> connRes, AsyncResult<ResultSet> queryRes) {
         LOG.debug("DB Query complete");
         if (queryRes.succeeded()) {
             LOG.debug("Got adjective from DB");
-            ResultSet resultSet = queryRes.result();
-            JsonObject result = resultSet.getRows().get(0);
-            resultHandler.handle(Future.succeededFuture(result.encodePrettily()));
+            String adjective = queryRes.result().getResults().get(0).getString(0);
+            resultHandler.handle(Future.succeededFuture(encodedWords.get(adjective)));
             connRes.result().close();
         } else {
             LOG.debug("Failed to get adjective from DB");
@@ -140,7 +469,15 @@ public class AdjectiveServiceImpl implements AdjectiveService {
             if (connRes.succeeded()) {
                 connRes.result().query("SELECT 1 FROM adjectives LIMIT 1", queryRes -> {
                     if (queryRes.succeeded()) {
-                        handler.handle(Future.succeededFuture(new JsonObject().put("status", "OK").encodePrettily()));
+                        JsonObject health = new JsonObject().put("status", "OK");
+                        JsonObject startup = StartupTimer.report(vertx, "adjective");
+                        if (startup != null) {
+                            health.put("startup", startup);
+                        }
+                        if (writeBehind != null) {
+                            health.put("writeBehind", writeBehind.stats());
+                        }
+                        handler.handle(Future.succeededFuture(health.encode()));
                         connRes.result().close();
                     } else {
                         handler.handle(Future.failedFuture(queryRes.cause()));
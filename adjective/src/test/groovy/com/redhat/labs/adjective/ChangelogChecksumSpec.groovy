@@ -0,0 +1,117 @@
+package com.redhat.labs.adjective
+
+import com.redhat.labs.rhoar.vertx.schema.ChangelogChecksum
+import io.vertx.core.AbstractVerticle
+import io.vertx.core.DeploymentOptions
+import io.vertx.core.Vertx
+import io.vertx.core.json.JsonObject
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.util.concurrent.BlockingVariable
+
+import java.sql.Connection
+import java.sql.DriverManager
+
+/**
+ * Loads the adjective schema into in-memory H2 databases with {@code schema.skipIfCurrent} set
+ */
+class ChangelogChecksumSpec extends Specification {
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    def "test Liquibase runs and the checksum is stored when none has been stored yet"() {
+        given: "An empty database"
+            def url = "jdbc:h2:mem:checksum-empty;DB_CLOSE_DELAY=-1;MODE=PostgreSQL"
+        when: "The schema is loaded"
+            def loaded = loadDbSchema(url)
+        then: "The changelog is applied and its checksum is stored"
+            loaded
+            count(url, "SELECT COUNT(*) FROM adjectives") > 0
+            storedChecksum(url) == ChangelogChecksum.of("adjective_schema.xml", "adjectives.csv").value()
+    }
+
+    def "test a matching checksum skips Liquibase"() {
+        given: "A database whose schema was loaded with the packaged changelog"
+            def url = "jdbc:h2:mem:checksum-current;DB_CLOSE_DELAY=-1;MODE=PostgreSQL"
+            assert loadDbSchema(url)
+        and: "The table which Liquibase creates on every run is gone"
+            execute(url, "DROP TABLE databasechangelog")
+        when: "The schema is loaded again"
+            def loaded = loadDbSchema(url)
+        then: "Liquibase did not run, so it did not create its table again"
+            loaded
+            count(url, "SELECT COUNT(*) FROM information_schema.tables WHERE UPPER(table_name) = 'DATABASECHANGELOG'") == 0
+    }
+
+    def "test a changed changelog runs Liquibase and stores the new checksum"() {
+        given: "A database whose schema was loaded with another version of the changelog"
+            def url = "jdbc:h2:mem:checksum-changed;DB_CLOSE_DELAY=-1;MODE=PostgreSQL"
+            assert loadDbSchema(url)
+            execute(url, "UPDATE schema_checksum SET checksum = 'from-an-older-changelog'")
+        when: "The schema is loaded"
+            def loaded = loadDbSchema(url)
+        then: "Liquibase ran, as the checksum is only stored once it has applied the changelog"
+            loaded
+            storedChecksum(url) == ChangelogChecksum.of("adjective_schema.xml", "adjectives.csv").value()
+    }
+
+    /**
+     * Run {@link MainVerticle#loadDbSchema} on a worker thread of a deployment, as the verticle does when it starts
+     */
+    private Boolean loadDbSchema(String url) {
+        def config = new JsonObject()
+                .put("db", new JsonObject()
+                        .put("url", url)
+                        .put("user", "sa")
+                        .put("password", "")
+                        .put("driver_class", "org.h2.Driver"))
+                .put("schema", new JsonObject().put("skipIfCurrent", true))
+        def loaded = new BlockingVariable<Boolean>(30)
+        vertx.deployVerticle(new AbstractVerticle() {
+            @Override
+            void start() {
+                def verticle = new MainVerticle()
+                verticle.init(vertx, context)
+                vertx.executeBlocking({ f ->
+                    def result = io.vertx.reactivex.core.Future.<Boolean> future()
+                    verticle.loadDbSchema(result)
+                    f.complete(result.succeeded() && result.result())
+                }, false, { res -> loaded.set(res.succeeded() && res.result()) })
+            }
+        }, new DeploymentOptions().setConfig(config))
+        loaded.get()
+    }
+
+    private static String storedChecksum(String url) {
+        withConnection(url) { Connection conn ->
+            def rs = conn.createStatement().executeQuery("SELECT checksum FROM schema_checksum")
+            rs.next() ? rs.getString(1) : null
+        }
+    }
+
+    private static long count(String url, String sql) {
+        withConnection(url) { Connection conn ->
+            def rs = conn.createStatement().executeQuery(sql)
+            rs.next()
+            rs.getLong(1)
+        }
+    }
+
+    private static void execute(String url, String sql) {
+        withConnection(url) { Connection conn -> conn.createStatement().execute(sql) }
+    }
+
+    private static <T> T withConnection(String url, Closure<T> action) {
+        def conn = DriverManager.getConnection(url, "sa", "")
+        try {
+            action(conn)
+        } finally {
+            conn.close()
+        }
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+    }
+}
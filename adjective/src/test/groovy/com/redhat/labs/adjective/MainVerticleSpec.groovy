@@ -1,5 +1,6 @@
 package com.redhat.labs.adjective
 
+import io.vertx.core.DeploymentOptions
 import io.vertx.core.http.HttpClientOptions
 import io.vertx.reactivex.core.Vertx
 import spock.lang.Shared
@@ -58,6 +59,102 @@ class MainVerticleSpec extends Specification {
                 res.bodyHandler({ bodyRes ->
                         async.evaluate {
                             bodyRes.toJsonObject().getString("STATUS") == "OK"
+                            bodyRes.toJsonObject().getJsonObject("startup").getJsonObject("phases").containsKey("schema")
+                        }
+                    })
+                }
+            })
+
+        then: "Expect async conditions to evaluate correctly"
+            async.await(10.0)
+    }
+
+    def "Test compact and pretty printed responses"() {
+        given: "A Vert.x HTTP Client"
+            def client = vertx.createHttpClient(new HttpClientOptions().setDefaultHost("localhost").setDefaultPort(8082))
+        and: "An instance of AsyncConditions"
+            def async = new AsyncConditions(4)
+
+        when: "HTTP requests are made to the adjective service with and without the pretty parameter"
+            client.getNow("/api/v1/adjective", { res ->
+                async.evaluate {
+                    res.statusCode() == 200
+                    res.bodyHandler({ bodyRes ->
+                        async.evaluate {
+                            !bodyRes.toString().contains("\n")
+                        }
+                    })
+                }
+            })
+            client.getNow("/api/v1/adjective?pretty=true", { res ->
+                async.evaluate {
+                    res.statusCode() == 200
+                    res.bodyHandler({ bodyRes ->
+                        async.evaluate {
+                            bodyRes.toString().contains("\n")
+                            !bodyRes.toJsonObject().getString("ADJECTIVE").isEmpty()
+                        }
+                    })
+                }
+            })
+
+        then: "Expect async conditions to evaluate correctly"
+            async.await(10.0)
+    }
+
+    def "Test multiple instances share the HTTP port"() {
+        given: "An instance of AsyncConditions"
+            def deployed = new AsyncConditions(1)
+            def deploymentId = null
+
+        when: "More instances of the MainVerticle are deployed in the same Vert.x instance"
+            vertx.deployVerticle(MainVerticle.class.getCanonicalName(), new DeploymentOptions().setInstances(3), { res ->
+                deploymentId = res.result()
+                deployed.evaluate {
+                    res.succeeded()
+                }
+            })
+
+        then: "Expect the schema and Service Proxy to be reused and the HTTP port to be shared"
+            deployed.await(25)
+
+        when: "An HTTP request is made to the adjective service"
+            def client = vertx.createHttpClient(new HttpClientOptions().setDefaultHost("localhost").setDefaultPort(8082))
+            def async = new AsyncConditions(1)
+            client.getNow("/api/v1/adjective", { res ->
+                async.evaluate {
+                    res.statusCode() == 200
+                }
+            })
+
+        then: "Expect async conditions to evaluate correctly"
+            async.await(10.0)
+
+        cleanup:
+            def undeployed = new AsyncConditions(1)
+            vertx.undeploy(deploymentId, { res ->
+                undeployed.evaluate {
+                    res.succeeded()
+                }
+            })
+            undeployed.await(10.0)
+    }
+
+    def "Test Prometheus metrics endpoint"() {
+        given: "A Vert.x HTTP Client"
+            def client = vertx.createHttpClient(new HttpClientOptions().setDefaultHost("localhost").setDefaultPort(8082))
+        and: "An instance of AsyncConditions"
+            def async = new AsyncConditions(2)
+
+        when: "The metrics are scraped after the adjective service has handled requests"
+            client.getNow("/metrics", { res ->
+                async.evaluate {
+                    res.statusCode() == 200
+                    res.bodyHandler({ bodyRes ->
+                        async.evaluate {
+                            def text = bodyRes.toString()
+                            text.contains('http_server_requests_seconds_count{service="adjective",operation="getAdjective",status="2xx"}')
+                            text.contains('# TYPE vertx_event_loop_lag_seconds histogram')
                         }
                     })
                 }
@@ -7,6 +7,7 @@ import io.vertx.core.impl.VertxImpl
 import io.vertx.core.json.JsonObject
 import io.vertx.ext.jdbc.impl.JDBCClientImpl
 import io.vertx.ext.sql.ResultSet
+import io.vertx.ext.sql.SQLClient
 import io.vertx.ext.sql.SQLConnection
 import spock.lang.Specification
 
@@ -141,4 +142,65 @@ class AdjectiveServiceImplSpec extends Specification {
             1 * queryRes.succeeded() >> false
             1 * queryRes.cause() >> error
     }
+
+    def "test get served from the in-memory snapshot"() {
+        given: "A valid configuration for the Database Client"
+            def configData = new JsonObject(DB_CONFIG_DATA)
+        and: "A mock implementation of the Vert.x context"
+            def context = GroovyMock(ContextImpl) {
+                config() >> configData
+            }
+        and: "A Mock implementation of the VertxImpl"
+            def vertx = GroovySpy(VertxImpl) {
+                getOrCreateContext() >> context
+            }
+        and: "A Mock interceptor for the JDBCClientImpl constructor"
+            GroovyMock(JDBCClientImpl, global: true)
+        and: "An instance of the class under test with a populated snapshot"
+            def underTest = new AdjectiveServiceImpl(vertx)
+            underTest.client = Mock(SQLClient)
+            underTest.snapshot.set(['myAdjective'] as String[])
+        and:
+            def result = null
+            Handler<AsyncResult<String>> resultHandler = { res -> result = res }
+
+        when:
+            underTest.get(resultHandler)
+
+        then: "The database is never touched"
+            0 * underTest.client._
+        and: "The adjective from the snapshot is returned"
+            result.succeeded()
+            new JsonObject(result.result()).getString("ADJECTIVE") == 'myAdjective'
+    }
+
+    def "test handleInsertResult appends to the snapshot"() {
+        given: "A valid configuration for the Database Client"
+            def configData = new JsonObject(DB_CONFIG_DATA)
+        and: "A mock implementation of the Vert.x context"
+            def context = GroovyMock(ContextImpl) {
+                config() >> configData
+            }
+        and: "A Mock implementation of the VertxImpl"
+            def vertx = GroovySpy(VertxImpl) {
+                getOrCreateContext() >> context
+            }
+        and: "A Mock interceptor for the JDBCClientImpl constructor"
+            GroovyMock(JDBCClientImpl, global: true)
+        and: "An instance of the class under test with the snapshot enabled"
+            def underTest = new AdjectiveServiceImpl(vertx)
+            underTest.snapshotEnabled = true
+            underTest.snapshot.set(['artless'] as String[])
+        and:
+            Handler<AsyncResult<String>> resultHandler = { res -> assert res.succeeded() }
+        and:
+            AsyncResult<ResultSet> queryRes = Mock(AsyncResult)
+
+        when:
+            underTest.handleInsertResult("myAdjective", resultHandler, queryRes)
+
+        then:
+            1 * queryRes.succeeded() >> true
+            underTest.snapshot.get() as List == ['artless', 'myAdjective']
+    }
 }
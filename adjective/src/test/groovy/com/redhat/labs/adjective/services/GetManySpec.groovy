@@ -0,0 +1,114 @@
+package com.redhat.labs.adjective.services
+
+import com.redhat.labs.rhoar.vertx.db.RandomWords
+import io.vertx.core.AbstractVerticle
+import io.vertx.core.DeploymentOptions
+import io.vertx.core.Vertx
+import io.vertx.core.json.JsonObject
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.BlockingVariable
+
+import java.sql.DriverManager
+
+/**
+ * Runs {@code getMany} against an in-memory H2 database holding three adjectives, both from the database and from the
+ * snapshot
+ */
+class GetManySpec extends Specification {
+
+    private static final String URL = "jdbc:h2:mem:getmany-adjectives;DB_CLOSE_DELAY=-1;MODE=PostgreSQL"
+
+    private static final List<String> VOCABULARY = ['artless', 'bawdy', 'beslubbering']
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    @Shared
+    private AdjectiveServiceImpl underTest
+
+    def setupSpec() {
+        def conn = DriverManager.getConnection(URL, "sa", "")
+        try {
+            conn.createStatement().execute("CREATE TABLE adjectives (id SERIAL PRIMARY KEY, adjective VARCHAR(240))")
+            conn.createStatement().execute("INSERT INTO adjectives (adjective) VALUES ('artless'), ('bawdy'), ('beslubbering')")
+        } finally {
+            conn.close()
+        }
+        def config = new JsonObject().put("db", new JsonObject()
+                .put("url", URL)
+                .put("user", "sa")
+                .put("password", "")
+                .put("driver_class", "org.h2.Driver"))
+        def deployed = new BlockingVariable<String>(10)
+        vertx.deployVerticle(new AbstractVerticle() {
+            @Override
+            void start() {
+                underTest = new AdjectiveServiceImpl(vertx)
+            }
+        }, new DeploymentOptions().setConfig(config), { res -> deployed.set(res.succeeded() ? res.result() : null) })
+        assert deployed.get() != null
+    }
+
+    def cleanup() {
+        underTest.snapshot.set(new String[0])
+    }
+
+    @Unroll
+    def "test #count distinct adjectives from the #source"() {
+        given: "The snapshot, if it is the source"
+            if (source == 'snapshot') {
+                underTest.snapshot.set(VOCABULARY as String[])
+            }
+        when: "We request distinct adjectives"
+            def adjectives = getMany(count, true)
+        then: "No adjective is repeated, and no more are returned than there are"
+            adjectives.size() == expected
+            adjectives.unique(false).size() == expected
+            VOCABULARY.containsAll(adjectives)
+        where:
+            source     | count || expected
+            'database' | 2     || 2
+            'database' | 5     || 3
+            'snapshot' | 2     || 2
+            'snapshot' | 5     || 3
+    }
+
+    @Unroll
+    def "test more adjectives than the vocabulary holds are returned from the #source when duplicates are allowed"() {
+        given: "The snapshot, if it is the source"
+            if (source == 'snapshot') {
+                underTest.snapshot.set(VOCABULARY as String[])
+            }
+        when: "We request more adjectives than there are"
+            def adjectives = getMany(7, false)
+        then: "The result is filled with adjectives from the vocabulary"
+            adjectives.size() == 7
+            VOCABULARY.containsAll(adjectives)
+        where:
+            source << ['database', 'snapshot']
+    }
+
+    @Unroll
+    def "test a count of #count is rejected"() {
+        given: "A variable for the result"
+            def result = new BlockingVariable<Throwable>(10)
+        when: "We request an invalid number of adjectives"
+            underTest.getMany(count, false, { res -> result.set(res.failed() ? res.cause() : null) })
+        then: "The request fails without a query"
+            result.get() instanceof IllegalArgumentException
+        where:
+            count << [0, -1, RandomWords.MAX_COUNT + 1]
+    }
+
+    private List<String> getMany(int count, boolean distinct) {
+        def result = new BlockingVariable<JsonObject>(10)
+        underTest.getMany(count, distinct, { res -> result.set(res.succeeded() ? new JsonObject(res.result()) : null) })
+        result.get().getJsonArray("adjectives").list
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+    }
+}
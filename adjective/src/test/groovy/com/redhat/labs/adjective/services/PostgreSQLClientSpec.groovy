@@ -0,0 +1,113 @@
+package com.redhat.labs.adjective.services
+
+import io.vertx.core.AbstractVerticle
+import io.vertx.core.DeploymentOptions
+import io.vertx.core.Vertx
+import io.vertx.core.file.OpenOptions
+import io.vertx.core.json.JsonArray
+import io.vertx.core.json.JsonObject
+import org.h2.tools.Server
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.util.concurrent.BlockingVariable
+
+import java.nio.file.Files
+import java.sql.DriverManager
+
+/**
+ * Runs the adjective service with the asynchronous PostgreSQL client against H2's PostgreSQL server, which speaks
+ * enough of the wire protocol to stand in for PostgreSQL
+ */
+class PostgreSQLClientSpec extends Specification {
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    @Shared
+    private File baseDir = Files.createTempDirectory("adjectives-pg").toFile()
+
+    @Shared
+    private Server pgServer
+
+    @Shared
+    private AdjectiveServiceImpl underTest
+
+    def setupSpec() {
+        def port = new ServerSocket(0).withCloseable { it.localPort }
+        def conn = DriverManager.getConnection("jdbc:h2:${baseDir}/adjectives;MODE=PostgreSQL", "sa", "sa")
+        try {
+            conn.createStatement().execute("CREATE TABLE adjectives (id SERIAL PRIMARY KEY, adjective VARCHAR(240))")
+            conn.createStatement().execute("INSERT INTO adjectives (adjective) VALUES ('artless'), ('bawdy'), ('beslubbering')")
+        } finally {
+            conn.close()
+        }
+        pgServer = Server.createPgServer("-pgPort", "${port}", "-baseDir", baseDir.path).start()
+        def config = new JsonObject().put("db", new JsonObject()
+                .put("client", "postgresql")
+                .put("url", "jdbc:postgresql://127.0.0.1:${port}/adjectives".toString())
+                .put("user", "sa")
+                .put("password", "sa"))
+        def deployed = new BlockingVariable<String>(10)
+        vertx.deployVerticle(new AbstractVerticle() {
+            @Override
+            void start() {
+                underTest = new AdjectiveServiceImpl(vertx)
+            }
+        }, new DeploymentOptions().setConfig(config), { res -> deployed.set(res.succeeded() ? res.result() : null) })
+        assert deployed.get() != null
+    }
+
+    def "test a random adjective is returned"() {
+        given: "A variable for the result"
+            def result = new BlockingVariable<JsonObject>(10)
+        when: "We request an adjective"
+            underTest.get({ res -> result.set(res.succeeded() ? new JsonObject(res.result()) : null) })
+        then: "One of the adjectives in the database is returned"
+            result.get().getString("ADJECTIVE") in ['artless', 'bawdy', 'beslubbering']
+    }
+
+    def "test several distinct adjectives are returned with one query"() {
+        given: "A variable for the result"
+            def result = new BlockingVariable<JsonObject>(10)
+        when: "We request two distinct adjectives"
+            underTest.getMany(2, true, { res -> result.set(res.succeeded() ? new JsonObject(res.result()) : null) })
+        then: "Two different adjectives are returned"
+            def adjectives = result.get().getJsonArray("adjectives")
+            adjectives.size() == 2
+            adjectives.getString(0) != adjectives.getString(1)
+    }
+
+    def "test a saved adjective is returned with the vocabulary"() {
+        given: "Variables for the results"
+            def saved = new BlockingVariable<String>(10)
+            def all = new BlockingVariable<JsonObject>(10)
+        when: "We save an adjective and then request all of them"
+            underTest.save("churlish", { res ->
+                saved.set(res.succeeded() ? res.result() : res.cause().message)
+                underTest.getAll({ allRes -> all.set(allRes.succeeded() ? new JsonObject(allRes.result()) : null) })
+            })
+        then: "The new adjective is part of the vocabulary"
+            new JsonObject(saved.get()).getString("url") == "/rest/v1/adjective/churlish"
+            all.get().getJsonArray("adjectives").contains("churlish")
+    }
+
+    def "test a bulk insert uses multi-row INSERTs"() {
+        given: "A request body with 5 adjectives"
+            def body = new File(baseDir, "bulk.json")
+            body.text = new JsonArray(["clouted", "craven", "currish", "dankish", "dissembling"]).encode()
+            underTest.bulkChunkSize = 2
+            def report = new BlockingVariable<JsonObject>(10)
+        when: "We stream the body into the database"
+            def file = vertx.fileSystem().openBlocking(body.path, new OpenOptions().setRead(true))
+            underTest.bulkSave(file, { res -> report.set(res.succeeded() ? res.result() : null) })
+        then: "Every adjective is inserted, 2 at a time"
+            report.get().getLong("inserted") == 5
+            report.get().getJsonArray("chunks").size() == 3
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+        pgServer?.stop()
+        baseDir.deleteDir()
+    }
+}
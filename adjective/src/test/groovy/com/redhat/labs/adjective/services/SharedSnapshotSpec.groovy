@@ -0,0 +1,79 @@
+package com.redhat.labs.adjective.services
+
+import io.vertx.core.AbstractVerticle
+import io.vertx.core.DeploymentOptions
+import io.vertx.core.Vertx
+import io.vertx.core.json.JsonObject
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.util.concurrent.BlockingVariable
+import spock.util.concurrent.PollingConditions
+
+import java.sql.DriverManager
+
+/**
+ * Runs two instances of the service, as the launcher does on a machine with more than one event loop, against an
+ * in-memory H2 database
+ */
+class SharedSnapshotSpec extends Specification {
+
+    private static final String URL = "jdbc:h2:mem:shared-snapshot;DB_CLOSE_DELAY=-1;MODE=PostgreSQL"
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    @Shared
+    private List<AdjectiveServiceImpl> instances = []
+
+    def setupSpec() {
+        def conn = DriverManager.getConnection(URL, "sa", "")
+        try {
+            conn.createStatement().execute("CREATE TABLE adjectives (id SERIAL PRIMARY KEY, adjective VARCHAR(240))")
+            conn.createStatement().execute("INSERT INTO adjectives (adjective) VALUES ('artless'), ('bawdy')")
+        } finally {
+            conn.close()
+        }
+        def config = new JsonObject()
+                .put("db", new JsonObject()
+                        .put("url", URL)
+                        .put("user", "sa")
+                        .put("password", "")
+                        .put("driver_class", "org.h2.Driver"))
+                .put("snapshot", new JsonObject().put("enabled", true))
+        2.times {
+            def deployed = new BlockingVariable<String>(10)
+            vertx.deployVerticle(new AbstractVerticle() {
+                @Override
+                void start() {
+                    instances << new AdjectiveServiceImpl(vertx)
+                }
+            }, new DeploymentOptions().setConfig(config), { res -> deployed.set(res.succeeded() ? res.result() : null) })
+            assert deployed.get() != null
+        }
+    }
+
+    def "test the instances load one snapshot between them"() {
+        expect: "Both instances serve the adjectives which were loaded once"
+            instances[0].snapshot.is(instances[1].snapshot)
+            new PollingConditions(timeout: 5).eventually {
+                assert instances[1].snapshot.get() as List == ['artless', 'bawdy']
+            }
+    }
+
+    def "test an adjective saved through one instance is served by the other"() {
+        given: "The snapshot has been loaded"
+            new PollingConditions(timeout: 5).eventually {
+                assert instances[1].snapshot.get().length >= 2
+            }
+        when: "An adjective is saved through the first instance"
+            def saved = new BlockingVariable<Boolean>(10)
+            instances[0].save("beslubbering", { res -> saved.set(res.succeeded()) })
+        then: "The second instance has it in its snapshot"
+            saved.get()
+            instances[1].snapshot.get().contains("beslubbering")
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+    }
+}
@@ -0,0 +1,75 @@
+package com.redhat.labs.benchmarks;
+
+import com.redhat.labs.adjective.services.AdjectiveServiceImpl;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.redhat.labs.benchmarks.BenchmarkSupport.*;
+
+/**
+ * Measures the {@link AdjectiveServiceImpl} {@code get} and {@code save} operations against an embedded, in-memory H2
+ * database which has been loaded with the same Liquibase changelog as the service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdjectiveServiceBenchmark {
+
+    /**
+     * Whether {@code get} is served from the in-memory snapshot or from the database
+     */
+    @Param({"true", "false"})
+    public boolean snapshot;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private Vertx vertx;
+
+    private AdjectiveServiceImpl service;
+
+    @Setup
+    public void setup() throws Exception {
+        vertx = Vertx.vertx();
+        JsonObject config = classpathConfig("adj_default_config.json");
+        config.getJsonObject("db")
+                .put("url", String.format("jdbc:h2:mem:%s;DB_CLOSE_DELAY=-1;MODE=PostgreSQL", UUID.randomUUID()));
+        config.put("snapshot", new JsonObject().put("enabled", snapshot).put("refreshInterval", 0));
+        config.put("events", new JsonObject().put("enabled", false));
+        loadSchema(config.getJsonObject("db"), "adjective_schema.xml");
+        service = createInContext(vertx, config, () -> new AdjectiveServiceImpl(vertx));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkSupport.<Void>await(vertx::close);
+    }
+
+    @Benchmark
+    public String get() throws Exception {
+        return await(service::get);
+    }
+
+    @Benchmark
+    public String save() throws Exception {
+        return await(h -> service.save("benchmark-" + sequence.incrementAndGet(), h));
+    }
+}
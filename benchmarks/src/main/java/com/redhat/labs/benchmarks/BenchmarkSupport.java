@@ -0,0 +1,118 @@
+package com.redhat.labs.benchmarks;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Helpers which allow the asynchronous Vert.x APIs of the services to be driven from JMH benchmark threads
+ */
+final class BenchmarkSupport {
+
+    private static final long TIMEOUT_SECONDS = 10L;
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Start an asynchronous operation and block the calling (benchmark) thread until it completes
+     * @param operation A {@link Consumer} which starts the operation using the {@link Handler} it is given
+     * @param <T> The type of the result
+     * @return The result of the operation
+     * @throws Exception If the operation fails or does not complete within 10 seconds
+     */
+    static <T> T await(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        operation.accept(res -> {
+            if (res.succeeded()) {
+                result.complete(res.result());
+            } else {
+                result.completeExceptionally(res.cause());
+            }
+        });
+        return result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Create an object (e.g. a service implementation) on a Vert.x context which has the given configuration, in the
+     * same way that the {@code MainVerticle} of each service does once it has loaded its configuration
+     * @param vertx The {@link Vertx} instance
+     * @param config The configuration of the context
+     * @param factory A {@link Supplier} which creates the object
+     * @param <T> The type of the object
+     * @return The object
+     * @throws Exception If the object can not be created
+     */
+    static <T> T createInContext(Vertx vertx, JsonObject config, Supplier<T> factory) throws Exception {
+        AtomicReference<T> ref = new AtomicReference<>();
+        BenchmarkSupport.<String>await(h -> vertx.deployVerticle(new AbstractVerticle() {
+            @Override
+            public void start() {
+                ref.set(factory.get());
+            }
+        }, new DeploymentOptions().setConfig(config), h));
+        return ref.get();
+    }
+
+    /**
+     * Read a JSON configuration file (e.g. the default configuration of a service) from the classpath
+     * @param resource The name of the resource
+     * @return The configuration
+     * @throws IOException If the resource can not be read
+     */
+    static JsonObject classpathConfig(String resource) throws IOException {
+        try (InputStream in = BenchmarkSupport.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Unable to find " + resource + " on the classpath");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+            return Buffer.buffer(out.toByteArray()).toJsonObject();
+        }
+    }
+
+    /**
+     * Create the database schema and load the seed data using the Liquibase changelog of a service
+     * @param dbCfg The {@code db} configuration block
+     * @param changelog The name of the Liquibase changelog on the classpath
+     * @throws Exception If the schema can not be loaded
+     */
+    static void loadSchema(JsonObject dbCfg, String changelog) throws Exception {
+        Class.forName(dbCfg.getString("driver_class"));
+        try (Connection conn = DriverManager.getConnection(
+                dbCfg.getString("url"),
+                dbCfg.getString("user"),
+                dbCfg.getString("password"))) {
+            Database database = DatabaseFactory.getInstance()
+                    .findCorrectDatabaseImplementation(new JdbcConnection(conn));
+            Liquibase liquibase = new Liquibase(changelog, new ClassLoaderResourceAccessor(), database);
+            liquibase.update(new Contexts(), new LabelExpression());
+        }
+    }
+}
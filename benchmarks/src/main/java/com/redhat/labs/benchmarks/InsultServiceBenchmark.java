@@ -0,0 +1,104 @@
+package com.redhat.labs.benchmarks;
+
+import com.redhat.labs.insult.services.InsultServiceImpl;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.redhat.labs.benchmarks.BenchmarkSupport.*;
+
+/**
+ * Measures {@link InsultServiceImpl#namedInsult} against local stub noun and adjective services, so that the results
+ * reflect the cost of the insult service itself (transport, circuit breakers, JSON handling) rather than the database.
+ * The stubs answer both over HTTP and over the event bus, so either transport can be measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsultServiceBenchmark {
+
+    private static final String NOUN = new JsonObject().put("NOUN", "knave").encodePrettily();
+
+    /**
+     * The transport used between the insult service and the noun/adjective services
+     */
+    @Param({"http", "eventbus"})
+    public String transport;
+
+    private Vertx vertx;
+
+    private InsultServiceImpl service;
+
+    @Setup
+    public void setup() throws Exception {
+        vertx = Vertx.vertx();
+        HttpServer nounServer = BenchmarkSupport.<HttpServer>await(h -> vertx.createHttpServer()
+                .requestHandler(req -> req.response().end(NOUN))
+                .listen(0, h));
+        HttpServer adjServer = BenchmarkSupport.<HttpServer>await(h -> vertx.createHttpServer()
+                .requestHandler(req -> req.response().end(adjectives(Integer.parseInt(req.getParam("count")))))
+                .listen(0, h));
+        vertx.eventBus().<JsonObject>consumer("noun.service", msg -> msg.reply(NOUN));
+        vertx.eventBus().<JsonObject>consumer("adjective.service", this::replyWithAdjectives);
+
+        JsonObject config = classpathConfig("default_config.json");
+        config.put("transport", transport);
+        config.getJsonObject("noun").put("host", "127.0.0.1").put("port", nounServer.actualPort());
+        config.getJsonObject("adjective").put("host", "127.0.0.1").put("port", adjServer.actualPort());
+        config.put("buffer", new JsonObject().put("enabled", false));
+        config.put("replica", new JsonObject().put("enabled", false));
+        config.put("feed", new JsonObject().put("enabled", false));
+        service = createInContext(vertx, config, () -> new InsultServiceImpl(vertx));
+    }
+
+    /**
+     * Reply to a {@code getMany} call on the stub adjective Service Proxy
+     * @param msg The event bus message, containing the {@code count} of adjectives required
+     */
+    private void replyWithAdjectives(Message<JsonObject> msg) {
+        msg.reply(adjectives(msg.body().getInteger("count", 2)));
+    }
+
+    /**
+     * Build the response of the adjective service's {@code getMany} operation
+     * @param count The number of adjectives
+     * @return The JSON response
+     */
+    private static String adjectives(int count) {
+        JsonArray adjectives = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            adjectives.add("artless-" + i);
+        }
+        return new JsonObject().put("adjectives", adjectives).encodePrettily();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkSupport.<Void>await(vertx::close);
+    }
+
+    @Benchmark
+    public JsonObject namedInsult() throws Exception {
+        return await(h -> service.namedInsult("Benchmark", h));
+    }
+}
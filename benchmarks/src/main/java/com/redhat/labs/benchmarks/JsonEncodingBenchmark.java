@@ -0,0 +1,82 @@
+package com.redhat.labs.benchmarks;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the JSON encoding which sits on the response path of every request: the adjective/noun services encode
+ * their results before {@code handleResult} writes them, and the insult service encodes its result in
+ * {@code handleResponse}. The compact encoding which the services use by default is compared with the pretty-printed
+ * encoding which they produce when a client asks for it with {@code pretty=true}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonEncodingBenchmark {
+
+    private JsonObject adjective;
+
+    private JsonObject adjectives;
+
+    private JsonObject insult;
+
+    @Setup
+    public void setup() {
+        adjective = new JsonObject().put("ADJECTIVE", "beetle-headed");
+        JsonArray words = new JsonArray();
+        for (int i = 0; i < 100; i++) {
+            words.add("beetle-headed-" + i);
+        }
+        adjectives = new JsonObject().put("adjectives", words);
+        insult = new JsonObject()
+                .put("subject", "Benchmark")
+                .put("noun", "knave")
+                .put("adj1", "beetle-headed")
+                .put("adj2", "artless");
+    }
+
+    @Benchmark
+    public String adjectivePretty() {
+        return adjective.encodePrettily();
+    }
+
+    @Benchmark
+    public String adjectiveCompact() {
+        return adjective.encode();
+    }
+
+    @Benchmark
+    public String adjectivesPretty() {
+        return adjectives.encodePrettily();
+    }
+
+    @Benchmark
+    public String adjectivesCompact() {
+        return adjectives.encode();
+    }
+
+    @Benchmark
+    public String insultPretty() {
+        return insult.encodePrettily();
+    }
+
+    @Benchmark
+    public String insultCompact() {
+        return insult.encode();
+    }
+}
@@ -0,0 +1,118 @@
+package com.redhat.labs.benchmarks;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.api.contract.openapi3.OpenAPI3RouterFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.redhat.labs.benchmarks.BenchmarkSupport.await;
+
+/**
+ * Measures request dispatch through a {@link Router} created by the {@link OpenAPI3RouterFactory} from the adjective
+ * service's contract, compared with a plain {@link Router} with the same routes. Both routers answer with a constant
+ * body over a keep-alive loopback connection, so the difference between them is the cost of the contract (parameter
+ * parsing and validation).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouterDispatchBenchmark {
+
+    private static final String BODY = new JsonObject().put("ADJECTIVE", "beetle-headed").encode();
+
+    private Vertx vertx;
+
+    private HttpClient client;
+
+    private int openApiPort;
+
+    private int plainPort;
+
+    @Setup
+    public void setup() throws Exception {
+        vertx = Vertx.vertx();
+        OpenAPI3RouterFactory factory = await(h -> OpenAPI3RouterFactory.create(vertx, "/adjective.yaml", h));
+        factory.addHandlerByOperationId("getAdjective", RouterDispatchBenchmark::respond);
+        factory.addHandlerByOperationId("getAdjectives", RouterDispatchBenchmark::respond);
+        Router openApiRouter = Router.router(vertx);
+        openApiRouter.mountSubRouter("/api/v1", factory.getRouter());
+
+        Router plainRouter = Router.router(vertx);
+        plainRouter.get("/api/v1/adjective").handler(RouterDispatchBenchmark::respond);
+        plainRouter.get("/api/v1/adjectives").handler(RouterDispatchBenchmark::respond);
+
+        openApiPort = BenchmarkSupport.<HttpServer>await(h -> vertx.createHttpServer()
+                .requestHandler(openApiRouter::accept).listen(0, h)).actualPort();
+        plainPort = BenchmarkSupport.<HttpServer>await(h -> vertx.createHttpServer()
+                .requestHandler(plainRouter::accept).listen(0, h)).actualPort();
+        client = vertx.createHttpClient(new HttpClientOptions().setKeepAlive(true).setDefaultHost("127.0.0.1"));
+    }
+
+    private static void respond(RoutingContext ctx) {
+        ctx.response().putHeader("Content-Type", "application/json").end(BODY);
+    }
+
+    /**
+     * Send a GET request and wait for the complete response body
+     * @param port The port of the server
+     * @param path The path of the request
+     * @return The response body
+     * @throws Exception If the request fails
+     */
+    private Buffer get(int port, String path) throws Exception {
+        return await(h -> client.get(port, "127.0.0.1", path, res -> res.bodyHandler(b -> {
+            if (res.statusCode() == 200) {
+                h.handle(Future.succeededFuture(b));
+            } else {
+                h.handle(Future.failedFuture("Unexpected status " + res.statusCode()));
+            }
+        })).exceptionHandler(t -> h.handle(Future.failedFuture(t))).end());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkSupport.<Void>await(vertx::close);
+    }
+
+    @Benchmark
+    public Buffer openApiGetAdjective() throws Exception {
+        return get(openApiPort, "/api/v1/adjective");
+    }
+
+    @Benchmark
+    public Buffer plainGetAdjective() throws Exception {
+        return get(plainPort, "/api/v1/adjective");
+    }
+
+    @Benchmark
+    public Buffer openApiGetAdjectivesWithQuery() throws Exception {
+        return get(openApiPort, "/api/v1/adjectives?count=10&distinct=true");
+    }
+
+    @Benchmark
+    public Buffer plainGetAdjectivesWithQuery() throws Exception {
+        return get(plainPort, "/api/v1/adjectives?count=10&distinct=true");
+    }
+}
@@ -0,0 +1,160 @@
+package com.redhat.labs.benchmarks;
+
+import com.redhat.labs.adjective.services.AdjectiveServiceImpl;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.h2.tools.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.redhat.labs.benchmarks.BenchmarkSupport.*;
+
+/**
+ * Compares the JDBC client with the asynchronous PostgreSQL client when many requests are in flight at once. Both
+ * clients talk to the same server over the PostgreSQL wire protocol with {@code poolSize} pooled connections, so only
+ * the client differs. The server is a PostgreSQL database given by the {@code benchmark.db.url},
+ * {@code benchmark.db.user} and {@code benchmark.db.password} system properties, or else H2's PostgreSQL server,
+ * either of them loaded with the changelog of the adjective service. Each operation
+ * starts {@code concurrency} requests at once and waits for all of them, so the score times {@code concurrency} is
+ * the number of requests per second. {@code get} picks a random adjective, which makes H2 sort the whole table, while
+ * {@code check} runs a trivial query, so that the cost of the client itself is not hidden by the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqlClientBenchmark {
+
+    /**
+     * The {@code client} of the {@code db} block
+     */
+    @Param({"jdbc", "postgresql"})
+    public String client;
+
+    /**
+     * The number of requests in flight at once
+     */
+    @Param({"16", "256"})
+    public int concurrency;
+
+    /**
+     * The number of connections in the pool of either client
+     */
+    @Param({"10"})
+    public int poolSize;
+
+    private File baseDir;
+
+    private Server pgServer;
+
+    private Vertx vertx;
+
+    private AdjectiveServiceImpl service;
+
+    @Setup
+    public void setup() throws Exception {
+        JsonObject config = classpathConfig("adj_default_config.json");
+        JsonObject db = config.getJsonObject("db");
+        String url = System.getProperty("benchmark.db.url");
+        if (url == null) {
+            baseDir = Files.createTempDirectory("sql-client-benchmark").toFile();
+            db.put("url", String.format("jdbc:h2:file:%s/adjectives;MODE=PostgreSQL", baseDir.getAbsolutePath()))
+                    .put("password", "sa");
+            loadSchema(db, "adjective_schema.xml");
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            pgServer = Server.createPgServer("-pgPort", String.valueOf(port), "-baseDir", baseDir.getAbsolutePath())
+                    .start();
+            url = String.format("jdbc:postgresql://127.0.0.1:%d/adjectives", port);
+        } else {
+            db.put("user", System.getProperty("benchmark.db.user", db.getString("user")))
+                    .put("password", System.getProperty("benchmark.db.password", db.getString("password")));
+        }
+        db.put("client", client)
+                .put("url", url)
+                .put("driver_class", "org.postgresql.Driver")
+                .put("max_pool_size", poolSize)
+                .put("maxPoolSize", poolSize);
+        if (pgServer == null) {
+            loadSchema(db, "adjective_schema.xml");
+        }
+        config.put("snapshot", new JsonObject().put("enabled", false));
+        config.put("events", new JsonObject().put("enabled", false));
+
+        vertx = Vertx.vertx();
+        service = createInContext(vertx, config, () -> new AdjectiveServiceImpl(vertx));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkSupport.<Void>await(vertx::close);
+        if (pgServer != null) {
+            pgServer.stop();
+            for (File file : baseDir.listFiles()) {
+                file.delete();
+            }
+            baseDir.delete();
+        }
+    }
+
+    @Benchmark
+    public Integer get() throws Exception {
+        return await(all(concurrency, service::get));
+    }
+
+    @Benchmark
+    public Integer check() throws Exception {
+        return await(all(concurrency, service::check));
+    }
+
+    /**
+     * Start {@code count} operations at once, and complete once all of them have succeeded or one has failed
+     * @param count The number of operations
+     * @param operation A {@link Consumer} which starts one operation using the {@link Handler} it is given
+     * @return A {@link Consumer} which starts the operations, for {@link BenchmarkSupport#await(Consumer)}
+     */
+    private static <T> Consumer<Handler<AsyncResult<Integer>>> all(int count,
+                                                                   Consumer<Handler<AsyncResult<T>>> operation) {
+        return handler -> {
+            int[] outstanding = {count};
+            boolean[] failed = {false};
+            for (int i = 0; i < count; i++) {
+                operation.accept(res -> {
+                    synchronized (outstanding) {
+                        if (failed[0]) {
+                            return;
+                        }
+                        if (res.failed()) {
+                            failed[0] = true;
+                            handler.handle(res.map(count));
+                        } else if (--outstanding[0] == 0) {
+                            handler.handle(res.map(count));
+                        }
+                    }
+                });
+            }
+        };
+    }
+}
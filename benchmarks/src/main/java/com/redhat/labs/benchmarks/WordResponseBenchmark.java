@@ -0,0 +1,81 @@
+package com.redhat.labs.benchmarks;
+
+import com.redhat.labs.rhoar.vertx.json.EncodedWords;
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.ResultSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the work done to turn a single word into the body of an HTTP response, up to the {@link ByteBuf} which
+ * is handed to Netty:
+ * <ul>
+ *     <li>{@code prettyChain} - the original path: {@code ResultSet} to {@link JsonObject} to a pretty-printed String,
+ *     which the HTTP response then encodes to bytes</li>
+ *     <li>{@code compactChain} - the same chain with compact encoding</li>
+ *     <li>{@code preEncoded} - a lookup in {@link EncodedWords}, whose cached {@link Buffer} is written without being
+ *     copied</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordResponseBenchmark {
+
+    private static final int WORDS = 500;
+
+    private ResultSet[] resultSets;
+
+    private EncodedWords encodedWords;
+
+    @Setup
+    public void setup() {
+        resultSets = new ResultSet[WORDS];
+        encodedWords = new EncodedWords("ADJECTIVE", WORDS);
+        for (int i = 0; i < WORDS; i++) {
+            String word = "beetle-headed-" + i;
+            resultSets[i] = new ResultSet(Collections.singletonList("ADJECTIVE"),
+                    Collections.singletonList(new JsonArray().add(word)), null);
+            encodedWords.get(word);
+        }
+    }
+
+    private ResultSet next() {
+        return resultSets[ThreadLocalRandom.current().nextInt(WORDS)];
+    }
+
+    @Benchmark
+    public ByteBuf prettyChain() {
+        JsonObject row = next().getRows().get(0);
+        return Buffer.buffer(row.encodePrettily()).getByteBuf();
+    }
+
+    @Benchmark
+    public ByteBuf compactChain() {
+        JsonObject row = next().getRows().get(0);
+        return Buffer.buffer(row.encode()).getByteBuf();
+    }
+
+    @Benchmark
+    public ByteBuf preEncoded() {
+        return encodedWords.get(next().getResults().get(0).getString(0)).getByteBuf();
+    }
+}
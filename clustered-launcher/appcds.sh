@@ -0,0 +1,59 @@
+#!/usr/bin/env bash
+#
+# Class data sharing (AppCDS) startup mode for the services' fat jars. Needs a JDK 13 or newer.
+#
+#   appcds.sh train <jar> <warm-up URL>... [-- <launcher args>]
+#       Start the service once, request every warm-up URL (20 rounds, or -Drhoar.cds.rounds via JAVA_OPTS) once it
+#       is ready, then exit and record the loaded classes in <jar>.jsa. A run which has not finished after 300 seconds
+#       (or -Drhoar.cds.timeout) fails without an archive
+#
+#   appcds.sh run <jar> [launcher args]
+#       Start the service with <jar>.jsa. The archive only matches the jar it was trained with, at the same path; if it
+#       is missing or stale, the JVM logs a warning and starts without it
+#
+set -euo pipefail
+
+usage() {
+    echo "Usage: $0 train <jar> <warm-up URL>... [-- <launcher args>]" >&2
+    echo "       $0 run <jar> [launcher args]" >&2
+    exit 1
+}
+
+JAVA="${JAVA_HOME:+${JAVA_HOME}/bin/}java"
+
+[ $# -ge 2 ] || usage
+MODE="$1"
+JAR="$(cd "$(dirname "$2")" && pwd)/$(basename "$2")"
+ARCHIVE="${JAR}.jsa"
+shift 2
+
+if ! "${JAVA}" -XX:+PrintFlagsFinal -version 2>/dev/null | grep -q ArchiveClassesAtExit; then
+    echo "$("${JAVA}" -version 2>&1 | head -1) does not support dynamic AppCDS archives, a JDK 13 or newer is needed" >&2
+    exit 1
+fi
+
+case "${MODE}" in
+    train)
+        URLS=()
+        while [ $# -gt 0 ] && [ "$1" != "--" ]; do
+            URLS+=("$1")
+            shift
+        done
+        [ $# -gt 0 ] && shift
+        [ ${#URLS[@]} -gt 0 ] || usage
+        rm -f "${ARCHIVE}"
+        if ! "${JAVA}" ${JAVA_OPTS:-} -XX:ArchiveClassesAtExit="${ARCHIVE}" \
+                -Drhoar.cds.train="$(IFS=,; echo "${URLS[*]}")" -jar "${JAR}" "$@"; then
+            rm -f "${ARCHIVE}"
+            echo "The training run failed, no archive was written" >&2
+            exit 1
+        fi
+        echo "Wrote ${ARCHIVE}"
+        ;;
+    run)
+        exec "${JAVA}" ${JAVA_OPTS:-} -XX:SharedArchiveFile="${ARCHIVE}" -Xshare:auto -jar "${JAR}" "$@"
+        ;;
+    *)
+        usage
+        ;;
+esac
@@ -0,0 +1,267 @@
+package com.redhat.labs.rhoar.vertx.db;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.redhat.labs.rhoar.vertx.json.JsonResponses;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.parsetools.JsonEvent;
+import io.vertx.core.parsetools.JsonEventType;
+import io.vertx.core.parsetools.JsonParser;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.sql.SQLClient;
+import io.vertx.ext.sql.SQLConnection;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.CREATED;
+
+/**
+ * Streams words from a request body straight into the database using batches.
+ *
+ * The body may be a JSON array or a stream of newline delimited JSON values (NDJSON), where each value is either a
+ * String or an object containing the word (e.g. {@code {"noun": "apple-john"}}). The body is parsed incrementally,
+ * so it is never held in memory all at once: words are collected into chunks, and each chunk is inserted with a single
+ * {@code batchWithParams} call while the request is paused. Clients without batches (see {@link DbClient}) insert
+ * each chunk with a single multi-row INSERT instead. All of the chunks are inserted in a single transaction.
+ */
+public class BulkIngest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkIngest.class);
+
+    private final SQLConnection conn;
+    private final String insertSql;
+    private final String key;
+    private final int chunkSize;
+    private final boolean batches;
+    private final JsonParser parser;
+    private final Handler<AsyncResult<JsonObject>> resultHandler;
+
+    private final long started = System.nanoTime();
+    private final JsonArray chunks = new JsonArray();
+    private List<JsonArray> pending = new ArrayList<>();
+    private long inserted;
+    private boolean batchInFlight;
+    private boolean ended;
+    private boolean done;
+
+    /**
+     * Stream words from a request body into the database, see {@link BulkIngest}
+     * @param client The {@link SQLClient} of the service
+     * @param insertSql The INSERT statement, which takes the word as its only parameter
+     * @param key The key which holds the word when the values in the body are objects
+     * @param chunkSize The number of rows to be inserted by each batch
+     * @param batches {@code true} if the client supports {@code batchWithParams}, see {@link DbClient#supportsBatch()}
+     * @param body The request body, which should be paused until the database connection is ready
+     * @param resultHandler Called with a report of the rows inserted per chunk, or with a {@link DecodeException} if
+     *                      the body is malformed
+     */
+    public static void ingest(SQLClient client, String insertSql, String key, int chunkSize, boolean batches,
+                              ReadStream<Buffer> body, Handler<AsyncResult<JsonObject>> resultHandler) {
+        client.getConnection(connRes -> {
+            if (connRes.succeeded()) {
+                new BulkIngest(connRes.result(), insertSql, key, chunkSize, batches, body, resultHandler).start();
+            } else {
+                resultHandler.handle(Future.failedFuture(connRes.cause()));
+            }
+        });
+    }
+
+    /**
+     * Respond to a bulk insert request with the report, or with a 400 (Bad Request) if the body was malformed
+     * @param ctx The {@link RoutingContext} of the request
+     * @param res The result of {@link #ingest}
+     * @param failureHandler Responds to any other failure
+     */
+    public static void respond(RoutingContext ctx, AsyncResult<JsonObject> res, Handler<RoutingContext> failureHandler) {
+        if (res.succeeded()) {
+            ctx.response()
+                .setStatusCode(CREATED.code())
+                .setStatusMessage(CREATED.reasonPhrase())
+                .putHeader("Content-Type", "application/json")
+                .end(JsonResponses.render(ctx, res.result().encode()));
+        } else if (res.cause() instanceof DecodeException) {
+            ctx.response()
+                .setStatusCode(BAD_REQUEST.code())
+                .setStatusMessage(BAD_REQUEST.reasonPhrase())
+                .end(res.cause().getMessage());
+        } else {
+            failureHandler.handle(ctx);
+        }
+    }
+
+    /**
+     * Create a new {@link BulkIngest}
+     * @param conn The {@link SQLConnection} to be used, which is closed once the ingest is complete
+     * @param insertSql The INSERT statement, which takes the word as its only parameter
+     * @param key The key which holds the word when the values in the body are objects
+     * @param chunkSize The number of rows to be inserted by each batch
+     * @param batches {@code true} if the connection supports {@code batchWithParams}, otherwise each chunk is
+     *                inserted with a multi-row INSERT
+     * @param body The request body
+     * @param resultHandler The callback to be used once the operation is complete
+     */
+    BulkIngest(SQLConnection conn, String insertSql, String key, int chunkSize, boolean batches,
+               ReadStream<Buffer> body, Handler<AsyncResult<JsonObject>> resultHandler) {
+        this.conn = conn;
+        this.insertSql = insertSql;
+        this.key = key;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.batches = batches;
+        this.resultHandler = resultHandler;
+        this.parser = JsonParser.newParser(body).objectValueMode();
+        body.pause();
+        parser.exceptionHandler(this::handleParseFailure)
+                .endHandler(v -> {
+                    ended = true;
+                    flush();
+                })
+                .handler(this::handleEvent);
+    }
+
+    /**
+     * Start the transaction and begin reading the request body
+     */
+    void start() {
+        conn.setAutoCommit(false, res -> {
+            if (res.succeeded()) {
+                parser.resume();
+            } else {
+                fail(res.cause());
+            }
+        });
+    }
+
+    /**
+     * Report malformed input as a {@link DecodeException}, so that it can be distinguished from database failures
+     * @param cause The failure raised by the parser or the request body
+     */
+    private void handleParseFailure(Throwable cause) {
+        if (cause instanceof JsonProcessingException) {
+            fail(new DecodeException(cause.getMessage()));
+        } else {
+            fail(cause);
+        }
+    }
+
+    /**
+     * Handle a single value from the request body
+     * @param event The {@link JsonEvent} from the parser
+     */
+    private void handleEvent(JsonEvent event) {
+        if (done || event.type() != JsonEventType.VALUE) {
+            return;
+        }
+        Object value = event.value();
+        String word = null;
+        if (value instanceof String) {
+            word = (String) value;
+        } else if (value instanceof JsonObject) {
+            word = ((JsonObject) value).getString(key);
+        }
+        if (word == null || word.trim().isEmpty()) {
+            return;
+        }
+        pending.add(new JsonArray().add(word.trim()));
+        if (pending.size() >= chunkSize) {
+            parser.pause();
+            flush();
+        }
+    }
+
+    /**
+     * Insert the pending chunk, if one is full or the body has ended, and commit once everything has been inserted
+     */
+    private void flush() {
+        if (done || batchInFlight) {
+            return;
+        }
+        if (pending.size() >= chunkSize || (ended && !pending.isEmpty())) {
+            List<JsonArray> batch = pending;
+            if (batch.size() > chunkSize) {
+                pending = new ArrayList<>(batch.subList(chunkSize, batch.size()));
+                batch = batch.subList(0, chunkSize);
+            } else {
+                pending = new ArrayList<>();
+            }
+            int rows = batch.size();
+            long chunkStart = System.nanoTime();
+            batchInFlight = true;
+            insert(batch, res -> {
+                batchInFlight = false;
+                if (res.failed()) {
+                    fail(res.cause());
+                    return;
+                }
+                inserted += rows;
+                chunks.add(new JsonObject()
+                        .put("rows", rows)
+                        .put("millis", (System.nanoTime() - chunkStart) / 1_000_000));
+                if (!ended && pending.size() < chunkSize) {
+                    parser.resume();
+                }
+                flush();
+            });
+        } else if (ended) {
+            commit();
+        }
+    }
+
+    /**
+     * Insert a chunk of rows, as a batch or as a single multi-row INSERT
+     * @param batch The parameters of each row
+     * @param handler Called once the rows have been inserted
+     */
+    private void insert(List<JsonArray> batch, Handler<AsyncResult<Void>> handler) {
+        if (batches) {
+            conn.batchWithParams(insertSql, batch, res -> handler.handle(res.mapEmpty()));
+        } else {
+            conn.updateWithParams(DbClient.multiRowInsert(insertSql, batch.size()), DbClient.flatten(batch),
+                    res -> handler.handle(res.mapEmpty()));
+        }
+    }
+
+    /**
+     * Commit the transaction and report the results
+     */
+    private void commit() {
+        conn.commit(res -> {
+            if (res.failed()) {
+                fail(res.cause());
+                return;
+            }
+            done = true;
+            conn.close();
+            JsonObject report = new JsonObject()
+                    .put("inserted", inserted)
+                    .put("chunkSize", chunkSize)
+                    .put("millis", (System.nanoTime() - started) / 1_000_000)
+                    .put("chunks", chunks);
+            LOG.info("Bulk insert of " + inserted + " rows complete");
+            resultHandler.handle(Future.succeededFuture(report));
+        });
+    }
+
+    /**
+     * Roll back the transaction and report the failure
+     * @param cause The cause of the failure
+     */
+    private void fail(Throwable cause) {
+        if (done) {
+            return;
+        }
+        done = true;
+        LOG.error("Bulk insert failed, rolling back", cause);
+        conn.rollback(res -> conn.close());
+        resultHandler.handle(Future.failedFuture(cause));
+    }
+}
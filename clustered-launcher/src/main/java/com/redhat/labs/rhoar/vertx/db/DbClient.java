@@ -0,0 +1,160 @@
+package com.redhat.labs.rhoar.vertx.db;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.asyncsql.PostgreSQLClient;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.SQLClient;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The {@link SQLClient} used by a service to reach its database, selected by the {@code client} of the {@code db}
+ * configuration block. Both clients implement the same {@link SQLClient} API, so the services only differ in how the
+ * client is created.
+ *
+ * The {@code db} block keeps its JDBC settings ({@code url}, {@code user}, {@code password}, {@code driver_class}),
+ * which Liquibase always uses to load the schema, so switching client is a single setting.
+ */
+public enum DbClient {
+
+    /**
+     * The JDBC client, which runs every statement on a worker thread with a blocking JDBC connection from a c3p0 pool.
+     * This is the default, and the only choice for the embedded H2 database.
+     */
+    JDBC {
+        @Override
+        public SQLClient create(Vertx vertx, JsonObject db, String dataSourceName) {
+            return JDBCClient.createShared(vertx, db, dataSourceName);
+        }
+
+        @Override
+        public boolean supportsBatch() {
+            return true;
+        }
+    },
+
+    /**
+     * The asynchronous PostgreSQL client, which speaks the PostgreSQL wire protocol from the event loop, so no worker
+     * threads are blocked while statements are in flight and {@code maxPoolSize} connections can serve many more
+     * concurrent requests. The {@code host}, {@code port} and {@code database} are taken from a
+     * {@code jdbc:postgresql://host:port/database} {@code url} and the {@code username} from {@code user}, unless the
+     * {@code db} block sets them itself. This client has no batches; see {@link #multiRowInsert(String, int)}.
+     */
+    POSTGRESQL {
+        @Override
+        public SQLClient create(Vertx vertx, JsonObject db, String dataSourceName) {
+            return PostgreSQLClient.createShared(vertx, asyncConfig(db), dataSourceName);
+        }
+
+        @Override
+        public boolean supportsBatch() {
+            return false;
+        }
+    };
+
+    private static final Logger LOG = LoggerFactory.getLogger(DbClient.class);
+    private static final String JDBC_PREFIX = "jdbc:";
+    private static final int DEFAULT_PORT = 5432;
+
+    /**
+     * Create (or look up) the shared client for a data source
+     * @param vertx The {@link Vertx} instance
+     * @param db The {@code db} block of the configuration
+     * @param dataSourceName The name of the data source, shared by every instance of the service's verticle
+     * @return The {@link SQLClient}
+     */
+    public abstract SQLClient create(Vertx vertx, JsonObject db, String dataSourceName);
+
+    /**
+     * @return {@code true} if the connections of this client implement {@code batchWithParams}
+     */
+    public abstract boolean supportsBatch();
+
+    /**
+     * Select the client from the {@code db} block of the configuration
+     * @param db The {@code db} block of the configuration
+     * @return The selected {@link DbClient}, {@link #JDBC} if none was selected or the selection is unknown
+     */
+    public static DbClient select(JsonObject db) {
+        String name = db.getString("client", JDBC.toString());
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException iae) {
+            LOG.warn("Unknown database client '" + name + "', using " + JDBC);
+            return JDBC;
+        }
+    }
+
+    /**
+     * Build the configuration of the asynchronous client from the {@code db} block
+     * @param db The {@code db} block of the configuration
+     * @return The configuration for {@link PostgreSQLClient#createShared(Vertx, JsonObject, String)}
+     */
+    static JsonObject asyncConfig(JsonObject db) {
+        JsonObject cfg = new JsonObject();
+        String url = db.getString("url");
+        if (url != null && url.startsWith(JDBC_PREFIX + "postgresql:")) {
+            URI uri = URI.create(url.substring(JDBC_PREFIX.length()));
+            if (uri.getHost() != null) {
+                cfg.put("host", uri.getHost());
+            }
+            cfg.put("port", uri.getPort() == -1 ? DEFAULT_PORT : uri.getPort());
+            String path = uri.getPath();
+            if (path != null && path.length() > 1) {
+                cfg.put("database", path.substring(1));
+            }
+        }
+        if (db.getValue("user") != null) {
+            cfg.put("username", db.getValue("user"));
+        }
+        if (db.getValue("password") != null) {
+            cfg.put("password", db.getValue("password"));
+        }
+        for (String key : new String[]{"host", "port", "database", "username", "maxPoolSize", "queryTimeout",
+                "connectTimeout", "charset"}) {
+            if (db.getValue(key) != null) {
+                cfg.put(key, db.getValue(key));
+            }
+        }
+        return cfg;
+    }
+
+    /**
+     * Turn a single row INSERT into one which inserts many rows, for clients without batches: e.g.
+     * {@code INSERT INTO nouns (noun) VALUES (?)} for 3 rows becomes
+     * {@code INSERT INTO nouns (noun) VALUES (?), (?), (?)}
+     * @param insertSql The INSERT statement, which must end with its {@code VALUES} tuple
+     * @param rows The number of rows to be inserted
+     * @return The multi-row INSERT statement
+     */
+    public static String multiRowInsert(String insertSql, int rows) {
+        String tuple = insertSql.substring(insertSql.lastIndexOf('('));
+        StringBuilder sql = new StringBuilder(insertSql.length() + (tuple.length() + 2) * rows).append(insertSql);
+        for (int i = 1; i < rows; i++) {
+            sql.append(", ").append(tuple);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Flatten the parameters of many rows into the parameters of a {@link #multiRowInsert(String, int)}
+     * @param rows The parameters of each row
+     * @return The parameters of every row, in order
+     */
+    public static JsonArray flatten(List<JsonArray> rows) {
+        JsonArray params = new JsonArray();
+        rows.forEach(row -> row.forEach(params::add));
+        return params;
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
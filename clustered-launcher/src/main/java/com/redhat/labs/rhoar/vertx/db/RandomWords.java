@@ -0,0 +1,103 @@
+package com.redhat.labs.rhoar.vertx.db;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The rules shared by the {@code getMany} operations of the noun and adjective services, which return {@code count}
+ * random words, whether they are chosen from memory or by a single {@code ORDER BY RANDOM() LIMIT ?} query.
+ */
+public final class RandomWords {
+
+    /**
+     * The largest {@code count} which may be requested, the {@code maximum} of the OpenAPI contracts. The event bus
+     * transport bypasses the contract validation, so the services check it themselves.
+     */
+    public static final int MAX_COUNT = 1000;
+
+    /**
+     * A distinct pick of at most one in this many of the words is sampled rather than shuffled
+     */
+    private static final int SPARSE_FRACTION = 4;
+
+    private RandomWords() {
+    }
+
+    /**
+     * Check the {@code count} of a {@code getMany} request
+     * @param count The number of words requested
+     * @return {@code null} if the count is valid, otherwise the reason it is not
+     */
+    public static String checkCount(int count) {
+        if (count < 1 || count > MAX_COUNT) {
+            return "count must be between 1 and " + MAX_COUNT;
+        }
+        return null;
+    }
+
+    /**
+     * Choose {@code count} random entries from an array of words. A query can only return each row once, so this is
+     * also used to fill a result which allows duplicates but has fewer rows than were requested.
+     * @param words The array to choose from, which is NOT modified and must not be empty
+     * @param count The number of entries to choose
+     * @param distinct If {@code true}, each entry is chosen at most once, so fewer than {@code count} entries are
+     *                 returned when there are not enough words
+     * @return An array of randomly chosen words
+     */
+    public static String[] pick(String[] words, int count, boolean distinct) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (distinct) {
+            int size = Math.min(count, words.length);
+            // A few words (e.g. the two adjectives of an insult) are sampled without copying the whole vocabulary
+            return (long) size * SPARSE_FRACTION <= words.length
+                    ? sample(words, size, random)
+                    : shuffle(words, size, random);
+        }
+        String[] picked = new String[count];
+        for (int i = 0; i < count; i++) {
+            picked[i] = words[random.nextInt(words.length)];
+        }
+        return picked;
+    }
+
+    /**
+     * Choose {@code size} distinct entries with Floyd's algorithm, which draws exactly {@code size} random numbers and
+     * only allocates for the entries which are chosen
+     */
+    private static String[] sample(String[] words, int size, ThreadLocalRandom random) {
+        Set<Integer> chosen = new HashSet<>(size * 2);
+        String[] picked = new String[size];
+        int n = 0;
+        for (int j = words.length - size; j < words.length; j++) {
+            int t = random.nextInt(j + 1);
+            int index = chosen.add(t) ? t : j;
+            chosen.add(index);
+            picked[n++] = words[index];
+        }
+        // Floyd's algorithm picks a random set, not a random order
+        for (int i = size - 1; i > 0; i--) {
+            int k = random.nextInt(i + 1);
+            String tmp = picked[i];
+            picked[i] = picked[k];
+            picked[k] = tmp;
+        }
+        return picked;
+    }
+
+    /**
+     * Choose {@code size} distinct entries with a partial Fisher-Yates shuffle of a copy of the words, for when a
+     * large share of them is requested
+     */
+    private static String[] shuffle(String[] words, int size, ThreadLocalRandom random) {
+        String[] shuffled = words.clone();
+        for (int i = 0; i < size; i++) {
+            int j = i + random.nextInt(shuffled.length - i);
+            String tmp = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = tmp;
+        }
+        return Arrays.copyOf(shuffled, size);
+    }
+}
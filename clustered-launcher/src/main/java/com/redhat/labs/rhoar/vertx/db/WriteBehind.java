@@ -0,0 +1,375 @@
+package com.redhat.labs.rhoar.vertx.db;
+
+import com.redhat.labs.rhoar.vertx.metrics.Counter;
+import com.redhat.labs.rhoar.vertx.metrics.Gauge;
+import com.redhat.labs.rhoar.vertx.metrics.MetricsRegistry;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.sql.SQLClient;
+import io.vertx.ext.sql.SQLConnection;
+import io.vertx.serviceproxy.ServiceException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+import static io.netty.handler.codec.http.HttpResponseStatus.TOO_MANY_REQUESTS;
+
+/**
+ * Coalesces the single word saves of a service into multi-row INSERTs, instead of checking out a connection and
+ * running an INSERT for every save.
+ *
+ * Saves are queued in memory, and the queue is flushed as one {@code INSERT ... VALUES (?), (?), ...} once it holds
+ * {@code batchSize} words or {@code flushInterval} milliseconds after the first save was queued, whichever comes first.
+ * A word which is saved more than once before it is flushed is only inserted once. When a multi-row INSERT fails, the
+ * words of the batch are inserted one at a time, so that one bad word (e.g. one which is too long for its column) only
+ * fails its own saves. With the {@code flush} {@code durability} (the default) a save completes once its word has been
+ * written; with {@code enqueue} it completes as soon as the word is queued, so a save may be lost if its INSERT fails
+ * or the process dies before the flush. {@link #close(Handler)} writes whatever is still queued, so that a service
+ * which is stopped (or undeployed) does not lose the saves it has acknowledged; once it has been called, further saves
+ * fail with a {@link ServiceException} whose failure code is 503 (Service Unavailable). When
+ * {@code maxQueued} saves are already waiting, further saves fail straight away with a {@link ServiceException} whose
+ * failure code is 429 (Too Many Requests), see {@link #isQueueFull(Throwable)}.
+ *
+ * A {@link WriteBehind} belongs to a single service instance and must only be used from the context which created it,
+ * so that the queue needs no locking. One flush is in flight at a time.
+ */
+public class WriteBehind {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehind.class);
+
+    /**
+     * When a queued save is acknowledged
+     */
+    public enum Durability {
+        /**
+         * Once the word has been written to the database
+         */
+        FLUSH,
+        /**
+         * As soon as the word has been queued
+         */
+        ENQUEUE
+    }
+
+    private final Vertx vertx;
+    private final SQLClient client;
+    private final String insertSql;
+    private final String name;
+    private final Durability durability;
+    private final int batchSize;
+    private final int maxQueued;
+    private final long flushInterval;
+    private final Counter saves;
+    private final Counter coalesced;
+    private final Counter rejected;
+    private final Counter flushes;
+    private final Counter rows;
+    private final Counter failed;
+    private final Gauge depth;
+    private Handler<List<String>> writtenHandler = words -> { };
+
+    // The queued words, in the order in which they were first saved
+    private Map<String, Pending> queue = new LinkedHashMap<>();
+    private int queued;
+    private long timer = -1;
+    private boolean flushing;
+    private boolean closed;
+    private Handler<AsyncResult<Void>> closeHandler;
+
+    /**
+     * Create a {@link WriteBehind}
+     * @param vertx The {@link Vertx} instance
+     * @param client The {@link SQLClient} to write with
+     * @param insertSql The single row INSERT statement, which takes the word as its only parameter
+     * @param name The name of the service, used to label the metrics
+     * @param cfg The {@code writeBehind} configuration block
+     */
+    public WriteBehind(Vertx vertx, SQLClient client, String insertSql, String name, JsonObject cfg) {
+        this.vertx = vertx;
+        this.client = client;
+        this.insertSql = insertSql;
+        this.name = name;
+        this.durability = Durability.valueOf(cfg.getString("durability", "flush").toUpperCase(Locale.ROOT));
+        this.batchSize = Math.max(1, cfg.getInteger("batchSize", 100));
+        this.maxQueued = Math.max(batchSize, cfg.getInteger("maxQueued", 1000));
+        this.flushInterval = Math.max(1L, cfg.getLong("flushInterval", 20L));
+        MetricsRegistry registry = MetricsRegistry.shared();
+        this.saves = registry.counter("write_behind_saves_total", "Saves which were queued", "service", name);
+        this.coalesced = registry.counter("write_behind_coalesced_total",
+                "Saves of a word which was already queued", "service", name);
+        this.rejected = registry.counter("write_behind_rejected_total",
+                "Saves which were rejected because the queue was full", "service", name);
+        this.flushes = registry.counter("write_behind_flushes_total", "Multi-row INSERTs which were run",
+                "service", name);
+        this.rows = registry.counter("write_behind_rows_total", "Rows written by the multi-row INSERTs",
+                "service", name);
+        this.failed = registry.counter("write_behind_failed_total",
+                "Queued saves whose INSERT failed", "service", name);
+        this.depth = registry.gauge("write_behind_queued", "Saves which are waiting to be written", "service", name);
+    }
+
+    /**
+     * Set a handler which is called with the words of each INSERT once they have been written, before their saves
+     * complete
+     * @param handler The {@link Handler}
+     * @return This {@link WriteBehind}
+     */
+    public WriteBehind writtenHandler(Handler<List<String>> handler) {
+        this.writtenHandler = handler;
+        return this;
+    }
+
+    /**
+     * Queue a word to be written
+     * @param word The word
+     * @param handler Called once the word has been written (or queued, with the {@code enqueue} durability), or with
+     *                a failure if the queue is full or closed or the INSERT failed
+     */
+    public void save(String word, Handler<AsyncResult<Void>> handler) {
+        if (closed) {
+            handler.handle(Future.failedFuture(new ServiceException(SERVICE_UNAVAILABLE.code(),
+                    "The " + name + " write-behind queue has been closed")));
+            return;
+        }
+        if (queued >= maxQueued) {
+            rejected.inc();
+            handler.handle(Future.failedFuture(new ServiceException(TOO_MANY_REQUESTS.code(),
+                    "Too many saves are waiting to be written to the " + name + " database")));
+            return;
+        }
+        saves.inc();
+        queued++;
+        depth.inc();
+        Pending pending = queue.get(word);
+        if (pending == null) {
+            pending = new Pending();
+            queue.put(word, pending);
+        } else {
+            coalesced.inc();
+        }
+        pending.saves++;
+        if (durability == Durability.ENQUEUE) {
+            handler.handle(Future.succeededFuture());
+        } else {
+            pending.waiters.add(handler);
+        }
+        if (queue.size() >= batchSize) {
+            flush();
+        } else {
+            schedule();
+        }
+    }
+
+    /**
+     * Start the flush timer, unless it is already running or a flush is in flight. Once the queue is closing there
+     * is no timer, the next batch is written straight away.
+     */
+    private void schedule() {
+        if (closed) {
+            flush();
+        } else if (timer == -1 && !flushing) {
+            timer = vertx.setTimer(flushInterval, t -> {
+                timer = -1;
+                flush();
+            });
+        }
+    }
+
+    /**
+     * Write the next batch of queued words, unless a flush is already in flight
+     */
+    private void flush() {
+        if (flushing || queue.isEmpty()) {
+            return;
+        }
+        if (timer != -1) {
+            vertx.cancelTimer(timer);
+            timer = -1;
+        }
+        Map<String, Pending> batch = take();
+        List<JsonArray> params = new ArrayList<>(batch.size());
+        int batchSaves = 0;
+        for (Map.Entry<String, Pending> entry : batch.entrySet()) {
+            params.add(new JsonArray().add(entry.getKey()));
+            batchSaves += entry.getValue().saves;
+        }
+        int saves = batchSaves;
+        flushing = true;
+        client.getConnection(connRes -> {
+            if (connRes.failed()) {
+                flushed(batch, saves, failAll(batch, connRes.cause()));
+                return;
+            }
+            SQLConnection conn = connRes.result();
+            conn.updateWithParams(DbClient.multiRowInsert(insertSql, params.size()), DbClient.flatten(params), res -> {
+                if (res.succeeded() || batch.size() == 1) {
+                    conn.close();
+                    flushed(batch, saves, res.succeeded() ? Collections.emptyMap() : failAll(batch, res.cause()));
+                } else {
+                    LOG.warn("Failed to write " + batch.size() + " queued words to the " + name
+                            + " database together, writing them one at a time", res.cause());
+                    Map<String, Throwable> failures = new HashMap<>();
+                    insertEach(conn, new ArrayList<>(batch.keySet()).iterator(), failures, v -> {
+                        conn.close();
+                        flushed(batch, saves, failures);
+                    });
+                }
+            });
+        });
+    }
+
+    /**
+     * Insert words one at a time, after the multi-row INSERT of their batch failed
+     * @param conn The {@link SQLConnection} to write with
+     * @param words The words which are still to be inserted
+     * @param failures Receives the cause of the failure of each word which could not be inserted
+     * @param done Called once every word has been tried
+     */
+    private void insertEach(SQLConnection conn, Iterator<String> words, Map<String, Throwable> failures,
+                            Handler<Void> done) {
+        if (!words.hasNext()) {
+            done.handle(null);
+            return;
+        }
+        String word = words.next();
+        conn.updateWithParams(insertSql, new JsonArray().add(word), res -> {
+            if (res.failed()) {
+                failures.put(word, res.cause());
+            }
+            insertEach(conn, words, failures, done);
+        });
+    }
+
+    private static Map<String, Throwable> failAll(Map<String, Pending> batch, Throwable cause) {
+        Map<String, Throwable> failures = new HashMap<>();
+        batch.keySet().forEach(word -> failures.put(word, cause));
+        return failures;
+    }
+
+    /**
+     * Remove up to {@code batchSize} words from the head of the queue
+     * @return The words and their saves
+     */
+    private Map<String, Pending> take() {
+        if (queue.size() <= batchSize) {
+            Map<String, Pending> batch = queue;
+            queue = new LinkedHashMap<>();
+            return batch;
+        }
+        Map<String, Pending> batch = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, Pending>> it = queue.entrySet().iterator();
+        while (batch.size() < batchSize) {
+            Map.Entry<String, Pending> entry = it.next();
+            batch.put(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+        return batch;
+    }
+
+    /**
+     * Complete the saves of a batch, and carry on with the next one
+     * @param batch The words and their saves
+     * @param batchSaves The number of saves in the batch, counting each coalesced save
+     * @param failures The cause of the failure of each word which was not written, empty if every word was written
+     */
+    private void flushed(Map<String, Pending> batch, int batchSaves, Map<String, Throwable> failures) {
+        flushing = false;
+        queued -= batchSaves;
+        depth.add(-batchSaves);
+        List<String> written = new ArrayList<>(batch.size());
+        int failedSaves = 0;
+        for (Map.Entry<String, Pending> entry : batch.entrySet()) {
+            if (failures.containsKey(entry.getKey())) {
+                failedSaves += entry.getValue().saves;
+            } else {
+                written.add(entry.getKey());
+            }
+        }
+        if (!written.isEmpty()) {
+            flushes.inc();
+            rows.inc(written.size());
+            writtenHandler.handle(written);
+        }
+        if (failedSaves > 0) {
+            failed.inc(failedSaves);
+            LOG.error("Failed to write " + failures.size() + " queued words to the " + name + " database",
+                    failures.values().iterator().next());
+        }
+        batch.forEach((word, pending) -> {
+            Throwable cause = failures.get(word);
+            AsyncResult<Void> result = cause == null ? Future.succeededFuture() : Future.failedFuture(cause);
+            pending.waiters.forEach(waiter -> waiter.handle(result));
+        });
+        if (queue.size() >= batchSize || (closed && !queue.isEmpty())) {
+            flush();
+        } else if (!queue.isEmpty()) {
+            schedule();
+        } else if (closeHandler != null) {
+            Handler<AsyncResult<Void>> handler = closeHandler;
+            closeHandler = null;
+            handler.handle(Future.succeededFuture());
+        }
+    }
+
+    /**
+     * Write everything which is still queued straight away, e.g. when the service is stopped. Saves which are made
+     * once the queue has been closed are rejected.
+     * @param handler Called once the queue is empty
+     */
+    public void close(Handler<AsyncResult<Void>> handler) {
+        closed = true;
+        if (!flushing && queue.isEmpty()) {
+            handler.handle(Future.succeededFuture());
+        } else {
+            closeHandler = handler;
+            flush();
+        }
+    }
+
+    /**
+     * Check whether a save failed because the queue was full, so that it can be answered with a 429
+     * @param cause The cause of the failure
+     * @return {@code true} if the save was rejected by a {@link WriteBehind}
+     */
+    public static boolean isQueueFull(Throwable cause) {
+        return cause instanceof ServiceException
+                && ((ServiceException) cause).failureCode() == TOO_MANY_REQUESTS.code();
+    }
+
+    /**
+     * Report on the queue
+     * @return A {@link JsonObject} containing the durability, the number of queued saves and the counts of saves,
+     * rejections and flushes
+     */
+    public JsonObject stats() {
+        return new JsonObject()
+                .put("durability", durability.toString().toLowerCase(Locale.ROOT))
+                .put("queued", queued)
+                .put("saves", saves.get())
+                .put("coalesced", coalesced.get())
+                .put("rejected", rejected.get())
+                .put("flushes", flushes.get())
+                .put("rows", rows.get());
+    }
+
+    /**
+     * The saves of one queued word
+     */
+    private static class Pending {
+        final List<Handler<AsyncResult<Void>>> waiters = new ArrayList<>(1);
+        int saves;
+    }
+}
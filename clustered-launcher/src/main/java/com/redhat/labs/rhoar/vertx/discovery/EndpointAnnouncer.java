@@ -0,0 +1,78 @@
+package com.redhat.labs.rhoar.vertx.discovery;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Announces the HTTP endpoint of a service over the (clustered) event bus, so that its clients can balance their
+ * requests across every instance of the service without a load balancer in front of them.
+ *
+ * The endpoint is published to the {@code address} of the {@code announce} configuration block every
+ * {@code interval} milliseconds as {@code {"action": "announce", "host": ..., "port": ...}}, and straight away whenever
+ * a client publishes {@code {"action": "query"}} to the same address. Clients forget an endpoint which has not been
+ * announced for a while, so an instance which goes away simply stops announcing. The advertised {@code host} defaults
+ * to the {@code POD_IP} environment variable or the address of this host, and the {@code port} to the port which the
+ * HTTP server is listening on.
+ */
+public final class EndpointAnnouncer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EndpointAnnouncer.class);
+
+    public static final String ANNOUNCE = "announce";
+    public static final String QUERY = "query";
+
+    private final Vertx vertx;
+    private final String address;
+    private final JsonObject announcement;
+
+    private EndpointAnnouncer(Vertx vertx, String address, String host, int port) {
+        this.vertx = vertx;
+        this.address = address;
+        this.announcement = new JsonObject().put("action", ANNOUNCE).put("host", host).put("port", port);
+    }
+
+    /**
+     * Start announcing the endpoint of this service
+     * @param vertx The {@link Vertx} instance
+     * @param cfg The {@code announce} configuration block
+     * @param defaultAddress The address to announce on if the block does not set one, e.g. {@code noun.endpoints}
+     * @param listenPort The port which the HTTP server of the service is listening on
+     * @return The {@link EndpointAnnouncer}
+     */
+    public static EndpointAnnouncer start(Vertx vertx, JsonObject cfg, String defaultAddress, int listenPort) {
+        EndpointAnnouncer announcer = new EndpointAnnouncer(vertx, cfg.getString("address", defaultAddress),
+                cfg.getString("host", defaultHost()), cfg.getInteger("port", listenPort));
+        MessageConsumer<JsonObject> queries = vertx.eventBus().consumer(announcer.address, msg -> {
+            if (QUERY.equals(msg.body().getString("action"))) {
+                announcer.announce();
+            }
+        });
+        queries.completionHandler(v -> announcer.announce());
+        vertx.setPeriodic(cfg.getLong("interval", 5000L), t -> announcer.announce());
+        LOG.info("Announcing " + announcer.announcement.getString("host") + ":"
+                + announcer.announcement.getInteger("port") + " on " + announcer.address);
+        return announcer;
+    }
+
+    private void announce() {
+        vertx.eventBus().publish(address, announcement);
+    }
+
+    private static String defaultHost() {
+        String podIp = System.getenv("POD_IP");
+        if (podIp != null && !podIp.isEmpty()) {
+            return podIp;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostAddress();
+        } catch (UnknownHostException e) {
+            return "127.0.0.1";
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.redhat.labs.rhoar.vertx.json;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of compact, pre-encoded single word responses such as <code>{"ADJECTIVE":"beetle-headed"}</code>. Each
+ * word is encoded once; after that a response is a map lookup, and because a {@link Buffer} can be written any number
+ * of times without being copied, the cached {@link Buffer} can be handed straight to the HTTP response.
+ */
+public class EncodedWords {
+
+    private final String field;
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Buffer> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new {@link EncodedWords} cache
+     * @param field The name of the JSON field which holds the word, e.g. {@code ADJECTIVE}
+     * @param maxSize The maximum number of words to cache; words beyond this are encoded on every request
+     */
+    public EncodedWords(String field, int maxSize) {
+        this.field = field;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the encoded response for a word, encoding and caching it if it has not been seen before
+     * @param word The word
+     * @return A {@link Buffer} containing the compact JSON response, which must not be modified
+     */
+    public Buffer get(String word) {
+        Buffer encoded = cache.get(word);
+        if (encoded == null) {
+            encoded = new JsonObject().put(field, word).toBuffer();
+            if (cache.size() < maxSize) {
+                Buffer existing = cache.putIfAbsent(word, encoded);
+                if (existing != null) {
+                    encoded = existing;
+                }
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * The number of words currently cached
+     * @return The size of the cache
+     */
+    public int size() {
+        return cache.size();
+    }
+}
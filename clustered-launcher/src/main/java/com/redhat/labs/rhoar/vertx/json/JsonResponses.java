@@ -0,0 +1,61 @@
+package com.redhat.labs.rhoar.vertx.json;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+import java.util.Locale;
+
+/**
+ * Helpers for writing JSON response bodies. The services encode their responses compactly; pretty printed output is
+ * only produced when a client asks for it, either with the {@code pretty=true} query parameter or with a
+ * {@code pretty=true} parameter on the JSON media type in the {@code Accept} header, e.g.
+ * {@code Accept: application/json; pretty=true}.
+ */
+public final class JsonResponses {
+
+    private JsonResponses() {
+    }
+
+    /**
+     * Check whether the client asked for pretty printed JSON
+     * @param ctx The {@link RoutingContext} of the request
+     * @return {@code true} if the response should be pretty printed
+     */
+    public static boolean prettyRequested(RoutingContext ctx) {
+        if ("true".equalsIgnoreCase(ctx.request().getParam("pretty"))) {
+            return true;
+        }
+        String accept = ctx.request().getHeader("Accept");
+        return accept != null && accept.replace(" ", "").toLowerCase(Locale.ROOT).contains("pretty=true");
+    }
+
+    /**
+     * Render a compact JSON document as the response body
+     * @param ctx The {@link RoutingContext} of the request
+     * @param json The compact JSON document
+     * @return The document itself, or a pretty printed copy if the client asked for one
+     */
+    public static String render(RoutingContext ctx, String json) {
+        return prettyRequested(ctx) ? prettyPrint(json) : json;
+    }
+
+    /**
+     * Render a compact, pre-encoded JSON document as the response body
+     * @param ctx The {@link RoutingContext} of the request
+     * @param json The compact JSON document
+     * @return The {@link Buffer} itself, or a pretty printed copy if the client asked for one
+     */
+    public static Buffer render(RoutingContext ctx, Buffer json) {
+        return prettyRequested(ctx) ? Buffer.buffer(prettyPrint(json.toString())) : json;
+    }
+
+    /**
+     * Pretty print a JSON document, which may be an object or an array
+     * @param json The JSON document
+     * @return The pretty printed document
+     */
+    static String prettyPrint(String json) {
+        return Json.encodePrettily(Json.decodeValue(json, Object.class));
+    }
+}
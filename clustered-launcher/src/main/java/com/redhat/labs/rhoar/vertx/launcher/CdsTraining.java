@@ -0,0 +1,144 @@
+package com.redhat.labs.rhoar.vertx.launcher;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The training run of the class data sharing (AppCDS) startup mode. The JVM is started with
+ * {@code -XX:ArchiveClassesAtExit=<archive>} and {@code -Drhoar.cds.train=<warm-up URLs>}; once the Main-Verticle is
+ * ready, the warm-up URLs are requested a number of times so that the classes on the request path are loaded too, and
+ * then the JVM exits, which is when it writes the archive. Later starts with {@code -XX:SharedArchiveFile=<archive>}
+ * map the archived classes instead of loading and verifying them again. See {@code appcds.sh}.
+ *
+ * The warm-up starts on the first {@code ready} event of the {@link StartupTimer}, or once the deployment of the
+ * Main-Verticle has completed for verticles which do not time their startup. A run which has not finished within
+ * {@value #TIMEOUT_PROPERTY} seconds fails, so that it can not hang a build.
+ */
+class CdsTraining {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CdsTraining.class);
+
+    /**
+     * The system property which enables the training run, with a comma separated list of the warm-up URLs
+     */
+    static final String TRAIN_PROPERTY = "rhoar.cds.train";
+
+    /**
+     * The system property with the number of times every warm-up URL is requested, 20 by default
+     */
+    static final String ROUNDS_PROPERTY = "rhoar.cds.rounds";
+
+    /**
+     * The system property with the number of seconds after which an unfinished training run fails, 300 by default
+     */
+    static final String TIMEOUT_PROPERTY = "rhoar.cds.timeout";
+
+    private static final long DEPLOYED_POLL = 100L;
+
+    private final List<String> urls;
+    private final int rounds;
+    private final long timeoutMillis;
+    private final AtomicBoolean warming = new AtomicBoolean();
+    private MessageConsumer<JsonObject> readyConsumer;
+    private long deployedPoll;
+
+    CdsTraining(List<String> urls, int rounds, long timeoutMillis) {
+        this.urls = urls;
+        this.rounds = rounds;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Create a {@link CdsTraining} if the training run was requested
+     * @return The {@link CdsTraining}, or {@code null} if {@value #TRAIN_PROPERTY} is not set
+     */
+    static CdsTraining fromSystemProperties() {
+        String train = System.getProperty(TRAIN_PROPERTY);
+        if (train == null) {
+            return null;
+        }
+        List<String> urls = new ArrayList<>();
+        for (String url : train.split(",")) {
+            if (!url.trim().isEmpty()) {
+                urls.add(url.trim());
+            }
+        }
+        return new CdsTraining(urls, Integer.getInteger(ROUNDS_PROPERTY, 20),
+                TimeUnit.SECONDS.toMillis(Long.getLong(TIMEOUT_PROPERTY, 300L)));
+    }
+
+    /**
+     * Wait for the Main-Verticle to be ready, then warm up and exit
+     * @param vertx The {@link Vertx} instance
+     */
+    void start(Vertx vertx) {
+        LOG.info("Class data sharing training run, warming up " + urls + " " + rounds + " time(s) once ready");
+        vertx.setTimer(timeoutMillis, t -> {
+            LOG.error("Class data sharing training run did not finish within " + timeoutMillis + "ms");
+            exit(vertx, 1);
+        });
+        // A local consumer, so that verticles becoming ready on other cluster members are not mistaken for ours
+        readyConsumer = vertx.eventBus().localConsumer(StartupTimer.EVENTS_ADDRESS);
+        readyConsumer.handler(msg -> {
+            if ("ready".equals(msg.body().getString("phase"))) {
+                warmUp(vertx);
+            }
+        });
+        // A deployment is only listed once every instance has started
+        deployedPoll = vertx.setPeriodic(DEPLOYED_POLL, t -> {
+            if (!vertx.deploymentIDs().isEmpty()) {
+                warmUp(vertx);
+            }
+        });
+    }
+
+    private void warmUp(Vertx vertx) {
+        if (!warming.compareAndSet(false, true)) {
+            return;
+        }
+        readyConsumer.unregister();
+        vertx.cancelTimer(deployedPoll);
+        HttpClient client = vertx.createHttpClient();
+        Future<Void> done = Future.succeededFuture();
+        for (int round = 0; round < rounds; round++) {
+            for (String url : urls) {
+                done = done.compose(v -> get(client, url));
+            }
+        }
+        done.setHandler(res -> {
+            if (res.failed()) {
+                LOG.error("Class data sharing warm up failed", res.cause());
+            } else {
+                LOG.info("Class data sharing training run finished, exiting so that the archive is written");
+            }
+            exit(vertx, res.succeeded() ? 0 : 1);
+        });
+    }
+
+    /**
+     * Close Vert.x and exit the JVM, which writes the archive
+     * @param vertx The {@link Vertx} instance
+     * @param status The exit status, non-zero if the training run failed
+     */
+    void exit(Vertx vertx, int status) {
+        vertx.close(v -> System.exit(status));
+    }
+
+    private Future<Void> get(HttpClient client, String url) {
+        Future<Void> f = Future.future();
+        client.getAbs(url, res -> res.bodyHandler(b -> f.tryComplete()))
+                .exceptionHandler(f::tryFail)
+                .end();
+        return f;
+    }
+}
@@ -0,0 +1,114 @@
+package com.redhat.labs.rhoar.vertx.launcher;
+
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.cluster.infinispan.InfinispanClusterManager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * How the Vert.x instance of a service is clustered, selected by the {@code CLUSTER_MANAGER} environment variable, the
+ * {@code rhoar.cluster.manager} system property or the {@code manager} of the {@code cluster} block of the
+ * configuration given with {@code --conf}, in that order. Without any of them the service joins the Infinispan
+ * cluster, as before.
+ *
+ * All of the services which share event bus addresses (e.g. the insult service with an event bus {@code transport},
+ * or with the vocabulary {@code replica} enabled) must use the same clustered mode; the others, such as the UI, can
+ * run {@link #STANDALONE} and skip the cluster join entirely.
+ */
+public enum ClusterMode {
+
+    /**
+     * No clustering: the event bus only reaches the verticles in this JVM, and no cluster threads or caches are started
+     */
+    STANDALONE {
+        @Override
+        void configure(VertxOptions options, JsonObject cluster) {
+            options.setClustered(false);
+        }
+    },
+
+    /**
+     * Infinispan over JGroups with the default discovery, or KUBE_PING when running in Kubernetes/OpenShift
+     */
+    INFINISPAN {
+        @Override
+        void configure(VertxOptions options, JsonObject cluster) {
+            options.setClustered(true);
+            options.setClusterManager(new InfinispanClusterManager());
+
+            // Check to see if we are running inside of Kubernetes/OpenShift
+            File tokenFile = new File(TOKEN_FILE_PATH);
+            String namespace = System.getenv("KUBERNETES_NAMESPACE");
+            if (tokenFile.canRead() && namespace!=null && !namespace.isEmpty()) {
+                // Since we ARE running in Kubernetes/OpenShift, set up Infinispan clustering to work there
+                System.setProperty("jgroups.tcp.address", "NON_LOOPBACK");
+                System.setProperty("vertx.jgroups.config", "default-configs/default-jgroups-kubernetes.xml");
+            }
+        }
+    },
+
+    /**
+     * Infinispan over a small JGroups TCP stack with a static list of members ({@code rhoar-jgroups-static.xml}), for
+     * single node deployments and fixed sets of hosts: there is no multicast or Kubernetes API discovery to wait for,
+     * and the JGroups thread pool is kept small. The {@code members} of the {@code cluster} block (e.g.
+     * {@code ["10.0.0.1[7800]", "10.0.0.2[7800]"]}) default to this host only, and {@code bindAddress} and
+     * {@code bindPort} to {@code SITE_LOCAL} and 7800.
+     */
+    STATIC {
+        @Override
+        void configure(VertxOptions options, JsonObject cluster) {
+            JsonArray members = cluster.getJsonArray("members", new JsonArray().add("127.0.0.1[7800]"));
+            List<String> hosts = new ArrayList<>();
+            members.forEach(m -> hosts.add(m.toString()));
+            System.setProperty("jgroups.tcpping.initial_hosts", String.join(",", hosts));
+            System.setProperty("jgroups.tcp.address", cluster.getString("bindAddress", "SITE_LOCAL"));
+            System.setProperty("jgroups.tcp.port", String.valueOf(cluster.getInteger("bindPort", 7800)));
+            System.setProperty("vertx.jgroups.config", "rhoar-jgroups-static.xml");
+            options.setClustered(true);
+            options.setClusterManager(new InfinispanClusterManager());
+        }
+    };
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterMode.class);
+    private static final String TOKEN_FILE_PATH = "/run/secrets/kubernetes.io/serviceaccount/token";
+
+    static final String MODE_ENV = "CLUSTER_MANAGER";
+    static final String MODE_PROPERTY = "rhoar.cluster.manager";
+
+    /**
+     * Configure the {@link VertxOptions} for this mode
+     * @param options The {@link VertxOptions} which are about to be used to start Vert.x
+     * @param cluster The {@code cluster} block of the configuration, which may be empty
+     */
+    abstract void configure(VertxOptions options, JsonObject cluster);
+
+    /**
+     * Select the mode from the environment, the system properties or the {@code cluster} block of the configuration
+     * @param cluster The {@code cluster} block of the configuration, which may be empty
+     * @return The selected {@link ClusterMode}, {@link #INFINISPAN} if none was selected or the selection is unknown
+     */
+    static ClusterMode select(JsonObject cluster) {
+        String name = System.getenv(MODE_ENV);
+        if (name == null || name.trim().isEmpty()) {
+            name = System.getProperty(MODE_PROPERTY, cluster.getString("manager", INFINISPAN.toString()));
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException iae) {
+            LOG.warn("Unknown cluster manager '" + name + "', using " + INFINISPAN);
+            return INFINISPAN;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,52 +1,94 @@
 package com.redhat.labs.rhoar.vertx.launcher;
 
-import io.reactivex.Maybe;
-import io.reactivex.Observable;
-import io.reactivex.Single;
+import com.redhat.labs.rhoar.vertx.metrics.MetricsRegistry;
+import com.redhat.labs.rhoar.vertx.metrics.RegistryMetricsFactory;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Launcher;
+import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import io.vertx.core.spi.cluster.ClusterManager;
-import io.vertx.ext.cluster.infinispan.InfinispanClusterManager;
-import io.vertx.ext.hawkular.VertxHawkularOptions;
+import io.vertx.core.metrics.MetricsOptions;
+
 import java.io.File;
 import java.io.IOException;
-import java.net.URL;
-import java.nio.file.Files;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 /**
  * An implementation of {@link Launcher} which can handle detecting a Kubernetes/OpenShift cluster and configure
- * the Vert.x application appropriately
+ * the Vert.x application appropriately. The cluster manager is selected with {@link ClusterMode}.
  */
 public class CustomLauncher extends Launcher {
 
     private static final Logger LOG = LoggerFactory.getLogger(CustomLauncher.class);
-    private static final String TOKEN_FILE_PATH = "/run/secrets/kubernetes.io/serviceaccount/token";
+    private static final String INSTANCES_ENV = "VERTX_INSTANCES";
+
+    private final boolean instancesGiven;
+    private final CdsTraining training;
+    private JsonObject cluster = new JsonObject();
+    private ClusterMode clusterMode;
+    private long vertxStartNanos;
+
+    public CustomLauncher() {
+        this(false);
+    }
+
+    /**
+     * Create a new {@link CustomLauncher}
+     * @param instancesGiven {@code true} if the number of verticle instances was given on the command line, in which
+     *                       case it is used as it is
+     */
+    CustomLauncher(boolean instancesGiven) {
+        this.instancesGiven = instancesGiven;
+        this.training = CdsTraining.fromSystemProperties();
+    }
 
     public static void main(String[] args) {
         System.setProperty("java.net.preferIPv4Stack", "true");
         System.setProperty("org.jboss.logging.provider", "slf4j");
         System.setProperty("jgroups.send_on_all_interfaces", "true");
+        String mainVerticle = resolveMainVerticle();
+        String[] finalArgs = args;
+        if (mainVerticle != null) {
+            List<String> newArgs = concatenateArguments(args, Arrays.asList("run", mainVerticle));
+            finalArgs = newArgs.toArray(new String[newArgs.size()]);
+        } else {
+            LOG.warn("No Main-Verticle in the manifest of the launcher's jar, expecting 'run <verticle>' arguments");
+        }
+        new CustomLauncher(instancesGiven(finalArgs)).dispatch(finalArgs);
+    }
+
+    /**
+     * Read the {@code Main-Verticle} from the manifest of the jar which contains this launcher, i.e. the service's fat
+     * jar, instead of scanning every manifest on the classpath
+     * @return The name of the Main-Verticle, or {@code null} if the launcher was not loaded from a jar (e.g. when it
+     * is run from the IDE) or the manifest has no {@code Main-Verticle}
+     */
+    static String resolveMainVerticle() {
+        CodeSource source = CustomLauncher.class.getProtectionDomain().getCodeSource();
+        if (source == null) {
+            return null;
+        }
         try {
-            List<URL> resources = Collections.list(CustomLauncher.class.getClassLoader().getResources("META-INF/MANIFEST.MF"));
-            Observable.fromIterable(resources)
-                    .flatMapMaybe(r -> Maybe.just(new Manifest(r.openStream())))
-                    .flatMapMaybe(maybe -> Maybe.just(maybe.getMainAttributes()))
-                    .flatMap(a -> Observable.fromIterable(a.entrySet()))
-                    .filter(e -> e.getKey().toString().startsWith("Main-Verticle"))
-                    .take(1)
-                    .map(e -> e.getValue().toString())
-                    .map(v -> Arrays.asList("run", v))
-                    .map(newArgs -> concatenateArguments(args, newArgs))
-                    .map(finalArgs -> finalArgs.toArray(new String[finalArgs.size()]))
-                    .doOnError(err -> LOG.fatal("Error while reading META-INF/MANIFEST.MF from classpath", err))
-                    .subscribe(a -> new CustomLauncher().dispatch(a));
-        } catch (IOException ioe) {
-            LOG.fatal("Failed to load Main-Verticle value from META-INF/MANIFEST.MF");
+            File location = new File(source.getLocation().toURI());
+            if (!location.isFile()) {
+                return null;
+            }
+            try (JarFile jar = new JarFile(location)) {
+                Manifest manifest = jar.getManifest();
+                return manifest == null ? null : manifest.getMainAttributes().getValue("Main-Verticle");
+            }
+        } catch (IOException | URISyntaxException e) {
+            LOG.fatal("Failed to load Main-Verticle value from the launcher's META-INF/MANIFEST.MF", e);
+            return null;
         }
     }
 
@@ -59,6 +101,29 @@ public class CustomLauncher extends Launcher {
         return fArgs;
     }
 
+    private static boolean instancesGiven(String[] args) {
+        return Arrays.stream(args).anyMatch(a -> a.equals("-instances") || a.equals("--instances")
+                || a.startsWith("-instances=") || a.startsWith("--instances="));
+    }
+
+    /**
+     * The number of instances of the Main-Verticle to deploy when none was given on the command line: the value of
+     * the {@code VERTX_INSTANCES} environment variable if it is set, otherwise two per core, which matches the
+     * default size of the event loop pool so that every event loop serves HTTP requests
+     * @return The number of instances
+     */
+    static int defaultInstances() {
+        String fromEnv = System.getenv(INSTANCES_ENV);
+        if (fromEnv != null && !fromEnv.trim().isEmpty()) {
+            try {
+                return Math.max(1, Integer.parseInt(fromEnv.trim()));
+            } catch (NumberFormatException nfe) {
+                LOG.warn("Ignoring invalid " + INSTANCES_ENV + " value '" + fromEnv + "'");
+            }
+        }
+        return 2 * Runtime.getRuntime().availableProcessors();
+    }
+
     @Override
     protected String getCommandFromManifest() {
         return "run";
@@ -69,35 +134,72 @@ public class CustomLauncher extends Launcher {
         return "run";
     }
 
+    @Override
+    public void afterConfigParsed(JsonObject config) {
+        cluster = config.getJsonObject("cluster", new JsonObject());
+    }
+
     @Override
     public void beforeStartingVertx(VertxOptions options) {
-        // Enable clustering using Infinispan
-        options.setClustered(true);
-        ClusterManager clusterManager = new InfinispanClusterManager();
-        options.setClusterManager(clusterManager);
-
-        // Check to see if we are running inside of Kubernetes/OpenShift
-        File tokenFile = new File(TOKEN_FILE_PATH);
-        String namespace = System.getenv("KUBERNETES_NAMESPACE");
-        if (tokenFile.canRead() && namespace!=null && !namespace.isEmpty()) {
-            // Since we ARE running in Kubernetes/OpenShift, configure the Metrics service
-            try {
-                String token = new String(Files.readAllBytes(tokenFile.toPath()));
-                options.setMetricsOptions(
-                    new VertxHawkularOptions()
-                        .setEnabled(true)
-                        .setTenant(namespace)
-                        .setHttpHeaders(new JsonObject()
-                            .put("Authorization", "Bearer "+token)
-                        )
-                );
-            } catch (IOException ioe) {
-                LOG.warn("Unable to configure metrics by retrieving token", ioe);
-            }
+        clusterMode = ClusterMode.select(cluster);
+        clusterMode.configure(options, cluster);
 
-            // Also, set up Infinispan clustering to work in Kubernetes/OpenShift
-            System.setProperty("jgroups.tcp.address", "NON_LOOPBACK");
-            System.setProperty("vertx.jgroups.config", "default-configs/default-jgroups-kubernetes.xml");
+        // Record the Vert.x internals (event bus, HTTP client and worker/datasource pools) for the /metrics endpoints
+        options.setMetricsOptions(new MetricsOptions()
+            .setEnabled(true)
+            .setFactory(new RegistryMetricsFactory()));
+
+        // Report whether this JVM maps a class data sharing archive created by a training run (see appcds.sh)
+        ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
+            .filter(arg -> arg.startsWith("-XX:SharedArchiveFile=") || arg.startsWith("-XX:ArchiveClassesAtExit="))
+            .forEach(arg -> LOG.info("Class data sharing: " + arg));
+
+        vertxStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void afterStartingVertx(Vertx vertx) {
+        // What the cluster manager costs: the time to start Vert.x (which includes joining the cluster), and the heap
+        // and threads in use once it has started
+        long joinMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - vertxStartNanos);
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapUsed = memory.getHeapMemoryUsage().getUsed();
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        LOG.info("Started Vert.x with the " + clusterMode + " cluster manager in " + joinMillis + "ms, "
+                + (heapUsed >> 20) + "MB heap used, " + threads + " threads");
+        MetricsRegistry metrics = MetricsRegistry.shared();
+        metrics.gauge("cluster_join_milliseconds", "Time taken to start Vert.x and join the cluster",
+                "manager", clusterMode.toString()).set(joinMillis);
+        metrics.gauge("cluster_join_heap_used_bytes", "Heap in use once Vert.x had started and joined the cluster",
+                "manager", clusterMode.toString()).set(heapUsed);
+        metrics.gauge("cluster_join_threads", "Live threads once Vert.x had started and joined the cluster",
+                "manager", clusterMode.toString()).set(threads);
+
+        if (training != null) {
+            training.start(vertx);
+        }
+    }
+
+    @Override
+    public void beforeDeployingVerticle(DeploymentOptions deploymentOptions) {
+        // Scale the Main-Verticle across the event loops; the instances share the HTTP port through server sharing.
+        // A training run loads the same classes with a single instance, and only has to wait for that one.
+        if (training != null) {
+            deploymentOptions.setInstances(1);
+        } else if (!instancesGiven) {
+            deploymentOptions.setInstances(defaultInstances());
+        }
+        LOG.info("Deploying " + deploymentOptions.getInstances() + " instance(s) of the Main-Verticle");
+    }
+
+    @Override
+    public void handleDeployFailed(Vertx vertx, String mainVerticle, DeploymentOptions deploymentOptions,
+                                   Throwable cause) {
+        if (training != null) {
+            // Fail the training run, so that the archive of a failed start is not mistaken for a trained one
+            vertx.close(v -> System.exit(1));
+        } else {
+            super.handleDeployFailed(vertx, mainVerticle, deploymentOptions, cause);
         }
     }
 }
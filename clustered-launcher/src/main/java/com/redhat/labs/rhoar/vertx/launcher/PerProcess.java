@@ -0,0 +1,124 @@
+package com.redhat.labs.rhoar.vertx.launcher;
+
+import io.reactivex.Single;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coordinates the instances of a verticle which has been deployed more than once (e.g. with {@code -instances}), so
+ * that work which must only happen once per process, such as loading the database schema or registering a Service
+ * Proxy, is done by the first instance to get there.
+ *
+ * The state is kept in a {@link LocalMap} of the {@link Vertx} instance, so in production (one {@link Vertx} per JVM)
+ * it is once per process, while tests which create a fresh {@link Vertx} per specification start from scratch.
+ */
+public final class PerProcess {
+
+    private static final String MAP_NAME = "rhoar.per-process";
+
+    private PerProcess() {
+    }
+
+    /**
+     * Claim a piece of once-per-process work
+     * @param vertx The {@link Vertx} instance
+     * @param name A name for the work which is unique within the process, e.g. {@code adjective.binder}
+     * @return {@code true} for the first caller only, which should then do the work
+     */
+    public static boolean claim(Vertx vertx, String name) {
+        return results(vertx).putIfAbsent(name, new SharedResult<>()) == null;
+    }
+
+    /**
+     * Run an asynchronous action once per process. The first caller runs the action; every caller, including those
+     * which arrive while the action is still running, receives the same result on its own context.
+     * @param vertx The {@link Vertx} instance
+     * @param name A name for the action which is unique within the process, e.g. {@code adjective.schema}
+     * @param action The action, which must complete the {@link Future} it is given
+     * @param resultHandler The {@link Handler} to be called with the result of the action
+     * @param <T> The type of the result
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> void run(Vertx vertx, String name, Handler<Future<T>> action,
+                               Handler<AsyncResult<T>> resultHandler) {
+        SharedResult<T> created = new SharedResult<>();
+        SharedResult<T> shared = (SharedResult<T>) results(vertx).putIfAbsent(name, created);
+        if (shared == null) {
+            shared = created;
+            Future<T> future = Future.future();
+            future.setHandler(created::complete);
+            try {
+                action.handle(future);
+            } catch (RuntimeException e) {
+                future.tryFail(e);
+            }
+        }
+        shared.onComplete(vertx.getOrCreateContext(), resultHandler);
+    }
+
+    /**
+     * Run an action once per process, see {@link #run(Vertx, String, Handler, Handler)}
+     * @param vertx The {@link io.vertx.reactivex.core.Vertx} instance
+     * @param name A name for the action which is unique within the process
+     * @param action A {@link Single} which is only subscribed to by the first caller
+     * @param <T> The type of the result
+     * @return A {@link Single} which emits the shared result
+     */
+    public static <T> Single<T> rxRun(io.vertx.reactivex.core.Vertx vertx, String name, Single<T> action) {
+        return Single.create(emitter -> PerProcess.<T>run(vertx.getDelegate(), name,
+                f -> action.subscribe(f::complete, f::fail),
+                res -> {
+                    if (res.succeeded()) {
+                        emitter.onSuccess(res.result());
+                    } else {
+                        emitter.onError(res.cause());
+                    }
+                }));
+    }
+
+    private static LocalMap<String, SharedResult<?>> results(Vertx vertx) {
+        return vertx.sharedData().getLocalMap(MAP_NAME);
+    }
+
+    /**
+     * The result of a once-per-process action and the callers waiting for it
+     * @param <T> The type of the result
+     */
+    static final class SharedResult<T> implements Shareable {
+
+        private AsyncResult<T> result;
+        private List<Handler<AsyncResult<T>>> waiters = new ArrayList<>();
+
+        void onComplete(Context context, Handler<AsyncResult<T>> handler) {
+            Handler<AsyncResult<T>> onContext = res -> context.runOnContext(v -> handler.handle(res));
+            AsyncResult<T> done;
+            synchronized (this) {
+                done = result;
+                if (done == null) {
+                    waiters.add(onContext);
+                }
+            }
+            if (done != null) {
+                onContext.handle(done);
+            }
+        }
+
+        void complete(AsyncResult<T> res) {
+            List<Handler<AsyncResult<T>>> toNotify;
+            synchronized (this) {
+                result = res;
+                toNotify = waiters;
+                waiters = null;
+            }
+            toNotify.forEach(waiter -> waiter.handle(res));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.redhat.labs.rhoar.vertx.launcher;
+
+import com.redhat.labs.rhoar.vertx.metrics.MetricsRegistry;
+import io.reactivex.MaybeTransformer;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long each phase of a verticle's startup takes (loading the configuration, loading the database schema,
+ * parsing the OpenAPI contract, ...) so that slow starts can be pinned on a phase. Phases may overlap, so each one
+ * is timed from its own start.
+ *
+ * When a phase ends, a timing event is published on the {@value #EVENTS_ADDRESS} event bus address and recorded in
+ * the {@code startup_phase_seconds} histogram. When the verticle is ready, the phases are logged and kept as the
+ * startup report of the service, see {@link #report(Vertx, String)}, and a final {@code ready} event is published.
+ */
+public class StartupTimer {
+
+    /**
+     * The event bus address on which a timing event is published at the end of every phase
+     */
+    public static final String EVENTS_ADDRESS = "startup.events";
+
+    private static final String REPORTS = "rhoar.startup";
+
+    private final Vertx vertx;
+    private final String service;
+    private final long startNanos = System.nanoTime();
+    private final long launchMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+    private final Map<String, JsonObject> phases = new LinkedHashMap<>();
+
+    /**
+     * Create a new {@link StartupTimer} when a verticle begins to start
+     * @param vertx The {@link Vertx} instance
+     * @param service The name of the service, e.g. {@code adjective}
+     */
+    public StartupTimer(Vertx vertx, String service) {
+        this.vertx = vertx;
+        this.service = service;
+    }
+
+    /**
+     * Time a phase from when it is subscribed to until it succeeds, e.g. {@code .compose(timer.phase("schema"))}
+     * @param name The name of the phase
+     * @param <T> The type of the result of the phase
+     * @return A {@link MaybeTransformer} which times the phase
+     */
+    public <T> MaybeTransformer<T, T> phase(String name) {
+        return upstream -> {
+            long[] begin = new long[1];
+            return upstream
+                    .doOnSubscribe(d -> begin[0] = System.nanoTime())
+                    .doOnSuccess(r -> end(name, begin[0]));
+        };
+    }
+
+    private void end(String name, long beginNanos) {
+        long end = System.nanoTime();
+        JsonObject phase = new JsonObject()
+                .put("startMillis", TimeUnit.NANOSECONDS.toMillis(beginNanos - startNanos))
+                .put("durationMillis", TimeUnit.NANOSECONDS.toMillis(end - beginNanos));
+        synchronized (phases) {
+            phases.put(name, phase);
+        }
+        MetricsRegistry.shared().histogram("startup_phase_seconds", "Time taken by each phase of a verticle's startup",
+                "service", service, "phase", name).record(end - beginNanos);
+        vertx.eventBus().publish(EVENTS_ADDRESS, phase.copy().put("service", service).put("phase", name));
+    }
+
+    /**
+     * Mark the verticle as ready, log the phases and add them to the startup report of the service. The report keeps
+     * the phases of the first instance to become ready and counts the instances which have become ready since.
+     * @return A summary of the phases, e.g. {@code launch=900ms config=12ms schema=3ms contract=80ms http=5ms
+     * ready=1000ms}
+     */
+    public String ready() {
+        long readyMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        JsonObject phasesJson = new JsonObject();
+        StringBuilder summary = new StringBuilder("launch=").append(launchMillis).append("ms");
+        synchronized (phases) {
+            phases.forEach((name, phase) -> {
+                phasesJson.put(name, phase);
+                summary.append(' ').append(name).append('=').append(phase.getLong("durationMillis")).append("ms");
+            });
+        }
+        JsonObject mine = new JsonObject()
+                .put("launchMillis", launchMillis)
+                .put("readyMillis", readyMillis)
+                .put("lastReadyMillis", readyMillis)
+                .put("instances", 1)
+                .put("phases", phasesJson);
+        LocalMap<String, JsonObject> reports = vertx.sharedData().getLocalMap(REPORTS);
+        JsonObject current = reports.putIfAbsent(service, mine);
+        while (current != null) {
+            JsonObject updated = current.copy()
+                    .put("lastReadyMillis", Math.max(current.getLong("lastReadyMillis"), readyMillis))
+                    .put("instances", current.getInteger("instances") + 1);
+            if (reports.replaceIfPresent(service, current, updated)) {
+                break;
+            }
+            current = reports.get(service);
+        }
+        vertx.eventBus().publish(EVENTS_ADDRESS, new JsonObject()
+                .put("service", service).put("phase", "ready").put("readyMillis", readyMillis));
+        MetricsRegistry.shared().gauge("startup_ready_milliseconds",
+                "Time from JVM start until the first instance of the service was ready", "service", service)
+                .set(reports.get(service).getLong("readyMillis"));
+        return summary.append(" ready=").append(readyMillis).append("ms").toString();
+    }
+
+    /**
+     * The startup report of a service, for the {@code startup} section of its health check: when the JVM finished
+     * launching, when the first instance was ready, the phases of that instance (each with its start offset and
+     * duration) and how many instances are ready
+     * @param vertx The {@link Vertx} instance
+     * @param service The name of the service
+     * @return The report, or {@code null} if no instance of the service is ready yet
+     */
+    public static JsonObject report(Vertx vertx, String service) {
+        return vertx.sharedData().<String, JsonObject>getLocalMap(REPORTS).get(service);
+    }
+}
@@ -0,0 +1,42 @@
+package com.redhat.labs.rhoar.vertx.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count of events, obtained from {@link MetricsRegistry#counter(String, String, String...)}
+ */
+public final class Counter implements MetricsRegistry.Metric {
+
+    private final LongAdder count = new LongAdder();
+
+    Counter() {
+    }
+
+    /**
+     * Count a single event
+     */
+    public void inc() {
+        count.increment();
+    }
+
+    /**
+     * Count a number of events
+     * @param n The number of events
+     */
+    public void inc(long n) {
+        count.add(n);
+    }
+
+    /**
+     * The number of events counted so far
+     * @return The count
+     */
+    public long get() {
+        return count.sum();
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+        MetricsRegistry.sample(out, name, labels, null, count.sum());
+    }
+}
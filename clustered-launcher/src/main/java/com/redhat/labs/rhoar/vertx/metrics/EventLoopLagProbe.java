@@ -0,0 +1,62 @@
+package com.redhat.labs.rhoar.vertx.metrics;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how late a periodic timer fires on the event loop of the calling verticle. A timer can only fire late when
+ * the event loop is busy running other handlers, so the lag is a direct measure of how long requests wait before they
+ * are even looked at.
+ *
+ * There is one probe per event loop, however many verticle instances are deployed on it, as they would otherwise
+ * record the same lag twice.
+ */
+public class EventLoopLagProbe implements Shareable {
+
+    private static final String MAP_NAME = "rhoar.lag-probes";
+
+    private final Histogram lag;
+    private final long intervalNanos;
+    private long expected;
+    private volatile long lastLag;
+
+    /**
+     * Start probing the event loop of the current context, unless it is already probed
+     * @param vertx The {@link Vertx} instance
+     * @param registry The {@link MetricsRegistry} to record into
+     * @param intervalMillis How often to probe, in milliseconds
+     * @return The {@link EventLoopLagProbe} of the event loop
+     */
+    public static EventLoopLagProbe start(Vertx vertx, MetricsRegistry registry, long intervalMillis) {
+        LocalMap<String, EventLoopLagProbe> probes = vertx.sharedData().getLocalMap(MAP_NAME);
+        String loop = Thread.currentThread().getName();
+        // Only the event loop itself starts its probe, so there is no race between the lookup and the put
+        EventLoopLagProbe probe = probes.get(loop);
+        if (probe == null) {
+            probe = new EventLoopLagProbe(registry, loop, intervalMillis);
+            probe.expected = System.nanoTime() + probe.intervalNanos;
+            vertx.setPeriodic(intervalMillis, probe::tick);
+            probes.put(loop, probe);
+        }
+        return probe;
+    }
+
+    private EventLoopLagProbe(MetricsRegistry registry, String loop, long intervalMillis) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.lag = registry.histogram("vertx_event_loop_lag_seconds",
+                "How late a periodic timer fired on the event loop", "loop", loop);
+        registry.gauge("vertx_event_loop_lag_last_seconds", "The most recent event loop lag",
+                () -> lastLag / 1e9, "loop", loop);
+    }
+
+    private void tick(Long timerId) {
+        long now = System.nanoTime();
+        long late = Math.max(0L, now - expected);
+        lag.record(late);
+        lastLag = late;
+        expected = now + intervalNanos;
+    }
+}
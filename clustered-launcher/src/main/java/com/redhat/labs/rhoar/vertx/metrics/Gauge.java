@@ -0,0 +1,58 @@
+package com.redhat.labs.rhoar.vertx.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value which can go up and down, such as a queue depth, obtained from
+ * {@link MetricsRegistry#gauge(String, String, String...)}
+ */
+public final class Gauge implements MetricsRegistry.Metric {
+
+    private final AtomicLong value = new AtomicLong();
+
+    Gauge() {
+    }
+
+    /**
+     * Increment the value by one
+     */
+    public void inc() {
+        value.incrementAndGet();
+    }
+
+    /**
+     * Decrement the value by one
+     */
+    public void dec() {
+        value.decrementAndGet();
+    }
+
+    /**
+     * Add to the value
+     * @param delta The amount to add, which may be negative
+     */
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+    /**
+     * Replace the value
+     * @param v The new value
+     */
+    public void set(long v) {
+        value.set(v);
+    }
+
+    /**
+     * The current value
+     * @return The value
+     */
+    public long get() {
+        return value.get();
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+        MetricsRegistry.sample(out, name, labels, null, value.get());
+    }
+}
@@ -0,0 +1,87 @@
+package com.redhat.labs.rhoar.vertx.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency distribution with fixed bucket boundaries, obtained from
+ * {@link MetricsRegistry#histogram(String, String, String...)}. Durations are recorded in nanoseconds and exposed in
+ * seconds, as Prometheus expects.
+ */
+public final class Histogram implements MetricsRegistry.Metric {
+
+    /**
+     * The default bucket boundaries in seconds, from half a millisecond to ten seconds
+     */
+    static final double[] DEFAULT_BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0
+    };
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double[] bounds;
+    private final long[] boundsNanos;
+    private final String[] leLabels;
+
+    // One slot per bucket plus the +Inf bucket; the counts are not cumulative until they are rendered
+    private final AtomicLongArray counts;
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram(double[] bounds) {
+        this.bounds = bounds.clone();
+        this.boundsNanos = new long[bounds.length];
+        this.leLabels = new String[bounds.length + 1];
+        for (int i = 0; i < bounds.length; i++) {
+            boundsNanos[i] = (long) (bounds[i] * NANOS_PER_SECOND);
+            leLabels[i] = "le=\"" + BigDecimal.valueOf(bounds[i]).toPlainString() + '"';
+        }
+        leLabels[bounds.length] = "le=\"+Inf\"";
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /**
+     * Record a single duration
+     * @param nanos The duration in nanoseconds
+     */
+    public void record(long nanos) {
+        int i = 0;
+        while (i < boundsNanos.length && nanos > boundsNanos[i]) {
+            i++;
+        }
+        counts.incrementAndGet(i);
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Record the time elapsed since a start time
+     * @param startNanos A {@link System#nanoTime()} taken when the operation began
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * The number of durations recorded so far
+     * @return The count
+     */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+        long cumulative = 0;
+        for (int i = 0; i <= bounds.length; i++) {
+            cumulative += counts.get(i);
+            MetricsRegistry.sample(out, name + "_bucket", labels, leLabels[i], cumulative);
+        }
+        MetricsRegistry.sample(out, name + "_sum", labels, null, sumNanos.sum() / NANOS_PER_SECOND);
+        MetricsRegistry.sample(out, name + "_count", labels, null, cumulative);
+    }
+}
@@ -0,0 +1,201 @@
+package com.redhat.labs.rhoar.vertx.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A process wide registry of metrics which can be rendered in the Prometheus text exposition format.
+ *
+ * Looking up a metric (by name and label values) takes a lock and may allocate, so callers should look up each metric
+ * once and hold on to it; recording a value on a {@link Counter}, {@link Gauge} or {@link Histogram} only updates
+ * atomic longs and never allocates.
+ */
+public final class MetricsRegistry {
+
+    private static final MetricsRegistry SHARED = new MetricsRegistry();
+
+    private final Map<String, Family> families = new TreeMap<>();
+
+    /**
+     * The registry which is shared by all of the verticles and the Vert.x metrics SPI in this JVM
+     * @return The shared {@link MetricsRegistry}
+     */
+    public static MetricsRegistry shared() {
+        return SHARED;
+    }
+
+    /**
+     * Find or create a counter
+     * @param name The name of the metric, which should end in {@code _total}
+     * @param help A description of the metric
+     * @param labels Alternating label names and values, e.g. {@code "breaker", "noun"}
+     * @return The {@link Counter}
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) child(name, help, "counter", labels, Counter::new);
+    }
+
+    /**
+     * Find or create a gauge whose value is set by the caller
+     * @param name The name of the metric
+     * @param help A description of the metric
+     * @param labels Alternating label names and values
+     * @return The {@link Gauge}
+     */
+    public Gauge gauge(String name, String help, String... labels) {
+        return (Gauge) child(name, help, "gauge", labels, Gauge::new);
+    }
+
+    /**
+     * Register a gauge whose value is read when the metrics are scraped. Registering the same gauge again replaces the
+     * previous supplier.
+     * @param name The name of the metric
+     * @param help A description of the metric
+     * @param supplier A {@link DoubleSupplier} which provides the current value
+     * @param labels Alternating label names and values
+     */
+    public synchronized void gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        family(name, help, "gauge").children.put(labelString(labels), new SuppliedGauge(supplier));
+    }
+
+    /**
+     * Find or create a latency histogram with the {@link Histogram#DEFAULT_BUCKETS default buckets}
+     * @param name The name of the metric, which should end in {@code _seconds}
+     * @param help A description of the metric
+     * @param labels Alternating label names and values
+     * @return The {@link Histogram}
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) child(name, help, "histogram", labels, () -> new Histogram(Histogram.DEFAULT_BUCKETS));
+    }
+
+    /**
+     * Remove a time series, e.g. when the thing it describes has gone away, so that the number of series does not grow
+     * without bound. A metric which is still held keeps working, but is no longer scraped.
+     * @param name The name of the metric
+     * @param labels Alternating label names and values
+     */
+    public synchronized void remove(String name, String... labels) {
+        Family family = families.get(name);
+        if (family != null) {
+            family.children.remove(labelString(labels));
+            if (family.children.isEmpty()) {
+                families.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Render all of the metrics in the Prometheus text exposition format (version 0.0.4)
+     * @return The metrics
+     */
+    public synchronized String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            Family family = entry.getValue();
+            out.append("# HELP ").append(entry.getKey()).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(entry.getKey()).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Metric> child : family.children.entrySet()) {
+                child.getValue().write(out, entry.getKey(), child.getKey());
+            }
+        }
+        return out.toString();
+    }
+
+    private synchronized Metric child(String name, String help, String type, String[] labels,
+                                      Supplier<Metric> factory) {
+        return family(name, help, type).children.computeIfAbsent(labelString(labels), k -> factory.get());
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * Render label names and values as the Prometheus label set, e.g. {@code breaker="noun",state="open"}
+     * @param labels Alternating label names and values
+     * @return The label set without the surrounding braces, or an empty string if there are no labels
+     */
+    static String labelString(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name/value pairs");
+        }
+        List<String> pairs = new ArrayList<>();
+        for (int i = 0; i < labels.length; i += 2) {
+            pairs.add(labels[i] + "=\"" + labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"") + '"');
+        }
+        return String.join(",", pairs);
+    }
+
+    /**
+     * A single time series within a metric family
+     */
+    interface Metric {
+
+        /**
+         * Write the samples of this time series
+         * @param out The {@link StringBuilder} to append to
+         * @param name The name of the metric family
+         * @param labels The label set of this time series, without braces
+         */
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    /**
+     * Write a single sample line
+     * @param out The {@link StringBuilder} to append to
+     * @param name The name of the sample
+     * @param labels The label set of the time series, without braces
+     * @param extraLabel An additional label, such as a histogram bucket's {@code le}, or {@code null}
+     * @param value The value of the sample
+     */
+    static void sample(StringBuilder out, String name, String labels, String extraLabel, double value) {
+        out.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static final class Family {
+        final String help;
+        final String type;
+        final Map<String, Metric> children = new TreeMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private static final class SuppliedGauge implements Metric {
+        final DoubleSupplier supplier;
+
+        SuppliedGauge(DoubleSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            sample(out, name, labels, null, supplier.getAsDouble());
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.redhat.labs.rhoar.vertx.metrics;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.spi.VertxMetricsFactory;
+import io.vertx.core.spi.metrics.VertxMetrics;
+
+/**
+ * A {@link VertxMetricsFactory} which records the Vert.x internals into the {@link MetricsRegistry#shared() shared}
+ * {@link MetricsRegistry}. It is set explicitly by the {@code CustomLauncher} and is also registered as a service, so
+ * any Vert.x instance created with metrics enabled (e.g. {@code -Dvertx.metrics.options.enabled=true} on the standard
+ * launcher) picks it up.
+ */
+public class RegistryMetricsFactory implements VertxMetricsFactory {
+
+    @Override
+    public VertxMetrics metrics(Vertx vertx, VertxOptions options) {
+        return new RegistryVertxMetrics(MetricsRegistry.shared());
+    }
+}
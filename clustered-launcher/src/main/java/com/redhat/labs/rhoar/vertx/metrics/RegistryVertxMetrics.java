@@ -0,0 +1,345 @@
+package com.redhat.labs.rhoar.vertx.metrics;
+
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.WebSocket;
+import io.vertx.core.metrics.impl.DummyVertxMetrics;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.core.spi.metrics.EventBusMetrics;
+import io.vertx.core.spi.metrics.HttpClientMetrics;
+import io.vertx.core.spi.metrics.PoolMetrics;
+
+import java.util.Locale;
+
+/**
+ * An implementation of the Vert.x metrics SPI which records event bus traffic, HTTP client connection pools and
+ * worker/datasource pools in a {@link MetricsRegistry}. Everything else falls back to the no-op
+ * {@link DummyVertxMetrics}.
+ *
+ * None of the SPI callbacks allocate: the per-endpoint and per-pool metrics are looked up once, when the endpoint or
+ * pool is created, and are then passed back to Vert.x as the SPI's opaque "metric" objects.
+ */
+public class RegistryVertxMetrics extends DummyVertxMetrics {
+
+    private final MetricsRegistry registry;
+
+    /**
+     * Create a new {@link RegistryVertxMetrics}
+     * @param registry The {@link MetricsRegistry} to record into
+     */
+    public RegistryVertxMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public EventBusMetrics createMetrics(EventBus eventBus) {
+        return new EventBusCounters(registry);
+    }
+
+    @Override
+    public HttpClientMetrics createMetrics(HttpClient client, HttpClientOptions options) {
+        return new ClientPools(registry);
+    }
+
+    @Override
+    public <P> PoolMetrics<?> createMetrics(P pool, String poolType, String poolName, int maxPoolSize) {
+        return new Pool(registry, poolType, poolName, maxPoolSize);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public boolean isMetricsEnabled() {
+        return true;
+    }
+
+    /**
+     * Event bus message rates, split by whether the message was sent point-to-point or published and whether it
+     * stayed in this JVM
+     */
+    static class EventBusCounters extends DummyVertxMetrics.DummyEventBusMetrics {
+
+        private final Counter sentLocal;
+        private final Counter sentRemote;
+        private final Counter publishedLocal;
+        private final Counter publishedRemote;
+        private final Counter received;
+        private final Counter delivered;
+        private final Counter[] replyFailures = new Counter[ReplyFailure.values().length];
+        private final Gauge handlers;
+        private final Gauge pending;
+
+        EventBusCounters(MetricsRegistry registry) {
+            String sent = "vertx_eventbus_messages_sent_total";
+            String sentHelp = "Messages sent on the event bus";
+            sentLocal = registry.counter(sent, sentHelp, "type", "send", "scope", "local");
+            sentRemote = registry.counter(sent, sentHelp, "type", "send", "scope", "remote");
+            publishedLocal = registry.counter(sent, sentHelp, "type", "publish", "scope", "local");
+            publishedRemote = registry.counter(sent, sentHelp, "type", "publish", "scope", "remote");
+            received = registry.counter("vertx_eventbus_messages_received_total",
+                    "Messages received from the event bus");
+            delivered = registry.counter("vertx_eventbus_messages_delivered_total",
+                    "Messages delivered to a handler");
+            for (ReplyFailure failure : ReplyFailure.values()) {
+                replyFailures[failure.ordinal()] = registry.counter("vertx_eventbus_reply_failures_total",
+                        "Messages which failed to get a reply", "failure", failure.name().toLowerCase(Locale.ROOT));
+            }
+            handlers = registry.gauge("vertx_eventbus_handlers", "Handlers registered on the event bus");
+            pending = registry.gauge("vertx_eventbus_messages_pending",
+                    "Messages delivered to a handler which have not been processed yet");
+        }
+
+        @Override
+        public Void handlerRegistered(String address, String repliedAddress) {
+            handlers.inc();
+            return null;
+        }
+
+        @Override
+        public void handlerUnregistered(Void handler) {
+            handlers.dec();
+        }
+
+        @Override
+        public void scheduleMessage(Void handler, boolean local) {
+            pending.inc();
+        }
+
+        @Override
+        public void beginHandleMessage(Void handler, boolean local) {
+            pending.dec();
+            delivered.inc();
+        }
+
+        @Override
+        public void messageSent(String address, boolean publish, boolean local, boolean remote) {
+            if (publish) {
+                (remote ? publishedRemote : publishedLocal).inc();
+            } else {
+                (remote ? sentRemote : sentLocal).inc();
+            }
+        }
+
+        @Override
+        public void messageReceived(String address, boolean publish, boolean local, int handlers) {
+            received.inc();
+        }
+
+        @Override
+        public void replyFailure(String address, ReplyFailure failure) {
+            replyFailures[failure.ordinal()].inc();
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+    }
+
+    /**
+     * The metrics of one HTTP client endpoint (a host and port), which are shared by every client connecting to it
+     */
+    static class Endpoint {
+
+        final Gauge queued;
+        final Gauge connections;
+        final Gauge inFlight;
+        final Gauge maxPoolSize;
+        final Counter requests;
+
+        Endpoint(MetricsRegistry registry, String endpoint, int maxPoolSize) {
+            queued = registry.gauge("vertx_http_client_queue_size",
+                    "Requests waiting for a pooled connection", "endpoint", endpoint);
+            connections = registry.gauge("vertx_http_client_connections",
+                    "Open connections in the pool", "endpoint", endpoint);
+            inFlight = registry.gauge("vertx_http_client_requests_in_flight",
+                    "Requests sent which have not received a complete response", "endpoint", endpoint);
+            this.maxPoolSize = registry.gauge("vertx_http_client_max_pool_size",
+                    "The maximum number of connections in the pool", "endpoint", endpoint);
+            requests = registry.counter("vertx_http_client_requests_total",
+                    "Requests sent", "endpoint", endpoint);
+            this.maxPoolSize.set(maxPoolSize);
+        }
+    }
+
+    /**
+     * HTTP client pool usage. The {@link Endpoint} is used as the endpoint, task and request metric so that nothing
+     * needs to be allocated per request.
+     */
+    static class ClientPools implements HttpClientMetrics<Endpoint, Void, Void, Endpoint, Endpoint> {
+
+        private final MetricsRegistry registry;
+
+        ClientPools(MetricsRegistry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public Endpoint createEndpoint(String host, int port, int maxPoolSize) {
+            return new Endpoint(registry, host + ':' + port, maxPoolSize);
+        }
+
+        @Override
+        public void closeEndpoint(String host, int port, Endpoint endpointMetric) {
+        }
+
+        @Override
+        public Endpoint enqueueRequest(Endpoint endpointMetric) {
+            endpointMetric.queued.inc();
+            return endpointMetric;
+        }
+
+        @Override
+        public void dequeueRequest(Endpoint endpointMetric, Endpoint taskMetric) {
+            endpointMetric.queued.dec();
+        }
+
+        @Override
+        public void endpointConnected(Endpoint endpointMetric, Void socketMetric) {
+            endpointMetric.connections.inc();
+        }
+
+        @Override
+        public void endpointDisconnected(Endpoint endpointMetric, Void socketMetric) {
+            endpointMetric.connections.dec();
+        }
+
+        @Override
+        public Endpoint requestBegin(Endpoint endpointMetric, Void socketMetric, SocketAddress localAddress,
+                                     SocketAddress remoteAddress, HttpClientRequest request) {
+            endpointMetric.inFlight.inc();
+            endpointMetric.requests.inc();
+            return endpointMetric;
+        }
+
+        @Override
+        public void requestEnd(Endpoint requestMetric) {
+        }
+
+        @Override
+        public void responseBegin(Endpoint requestMetric, HttpClientResponse response) {
+        }
+
+        @Override
+        public Endpoint responsePushed(Endpoint endpointMetric, Void socketMetric, SocketAddress localAddress,
+                                       SocketAddress remoteAddress, HttpClientRequest request) {
+            return null;
+        }
+
+        @Override
+        public void requestReset(Endpoint requestMetric) {
+            if (requestMetric != null) {
+                requestMetric.inFlight.dec();
+            }
+        }
+
+        @Override
+        public void responseEnd(Endpoint requestMetric, HttpClientResponse response) {
+            if (requestMetric != null) {
+                requestMetric.inFlight.dec();
+            }
+        }
+
+        @Override
+        public Void connected(Endpoint endpointMetric, Void socketMetric, WebSocket webSocket) {
+            return null;
+        }
+
+        @Override
+        public void disconnected(Void webSocketMetric) {
+        }
+
+        @Override
+        public Void connected(SocketAddress remoteAddress, String remoteName) {
+            return null;
+        }
+
+        @Override
+        public void disconnected(Void socketMetric, SocketAddress remoteAddress) {
+        }
+
+        @Override
+        public void bytesRead(Void socketMetric, SocketAddress remoteAddress, long numberOfBytes) {
+        }
+
+        @Override
+        public void bytesWritten(Void socketMetric, SocketAddress remoteAddress, long numberOfBytes) {
+        }
+
+        @Override
+        public void exceptionOccurred(Void socketMetric, SocketAddress remoteAddress, Throwable t) {
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Usage of a worker or datasource pool, such as the JDBC client's connection pool
+     */
+    static class Pool implements PoolMetrics<Void> {
+
+        private final Gauge queued;
+        private final Gauge inUse;
+        private final Counter completed;
+        private final Counter failed;
+        private final Counter rejected;
+
+        Pool(MetricsRegistry registry, String poolType, String poolName, int maxPoolSize) {
+            String[] labels = {"pool_type", poolType, "pool_name", poolName};
+            queued = registry.gauge("vertx_pool_queued", "Tasks waiting for a pooled resource", labels);
+            inUse = registry.gauge("vertx_pool_in_use", "Pooled resources in use", labels);
+            registry.gauge("vertx_pool_max_size", "The maximum size of the pool", labels).set(maxPoolSize);
+            completed = registry.counter("vertx_pool_completed_total", "Tasks which completed successfully", labels);
+            failed = registry.counter("vertx_pool_failed_total", "Tasks which failed", labels);
+            rejected = registry.counter("vertx_pool_rejected_total", "Tasks which were rejected", labels);
+        }
+
+        @Override
+        public Void submitted() {
+            queued.inc();
+            return null;
+        }
+
+        @Override
+        public Void begin(Void t) {
+            queued.dec();
+            inUse.inc();
+            return null;
+        }
+
+        @Override
+        public void rejected(Void t) {
+            queued.dec();
+            rejected.inc();
+        }
+
+        @Override
+        public void end(Void t, boolean succeeded) {
+            inUse.dec();
+            (succeeded ? completed : failed).inc();
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
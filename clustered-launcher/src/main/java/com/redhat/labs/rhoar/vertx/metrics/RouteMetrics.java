@@ -0,0 +1,96 @@
+package com.redhat.labs.rhoar.vertx.metrics;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.ext.web.Router;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+/**
+ * Wires the metrics of a service into its HTTP router: a latency histogram per OpenAPI {@code operationId} and
+ * response status class, an event loop lag probe and the Prometheus scrape endpoint. It is configured by the
+ * {@code metrics} block of the service configuration; when the block is missing or not {@code enabled} every method
+ * is a no-op, so the services can use it unconditionally.
+ */
+public class RouteMetrics {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+    private final String service;
+    private final JsonObject cfg;
+    private final boolean enabled;
+
+    /**
+     * Create a new {@link RouteMetrics} and, if metrics are enabled, start probing the event loop of the current
+     * context unless another instance on the same event loop already does
+     * @param vertx The {@link Vertx} instance
+     * @param service The name of the service, used as the {@code service} label
+     * @param cfg The {@code metrics} configuration block, may be {@code null}
+     * @return The {@link RouteMetrics}
+     */
+    public static RouteMetrics create(Vertx vertx, String service, JsonObject cfg) {
+        RouteMetrics metrics = new RouteMetrics(MetricsRegistry.shared(), service, cfg);
+        if (metrics.enabled) {
+            EventLoopLagProbe.start(vertx.getDelegate(), metrics.registry, metrics.cfg.getLong("lagInterval", 1000L));
+        }
+        return metrics;
+    }
+
+    RouteMetrics(MetricsRegistry registry, String service, JsonObject cfg) {
+        this.registry = registry;
+        this.service = service;
+        this.cfg = cfg == null ? new JsonObject() : cfg;
+        this.enabled = this.cfg.getBoolean("enabled", Boolean.FALSE);
+    }
+
+    /**
+     * Wrap the handler of an operation so that the time until its response has been written is recorded. The
+     * histograms of the operation are bound when the router is built, so a request only allocates its end handler.
+     * @param operationId The operationId from the OpenAPI contract
+     * @param handler The {@link Handler} for the operation
+     * @return The wrapped {@link Handler}, or the handler itself if metrics are disabled
+     */
+    public Handler<RoutingContext> timed(String operationId, Handler<RoutingContext> handler) {
+        if (!enabled) {
+            return handler;
+        }
+        // Indexed by the first digit of the status code
+        Histogram[] byStatus = new Histogram[6];
+        for (int status = 1; status < byStatus.length; status++) {
+            byStatus[status] = registry.histogram("http_server_requests_seconds",
+                    "Time taken to handle a request, by OpenAPI operation and status class",
+                    "service", service, "operation", operationId, "status", status + "xx");
+        }
+        return ctx -> {
+            long start = System.nanoTime();
+            // The core context and response are used directly, as every call on the Rx wrapper creates a new wrapper
+            io.vertx.ext.web.RoutingContext delegate = ctx.getDelegate();
+            delegate.addBodyEndHandler(v -> {
+                int status = Math.min(5, Math.max(1, delegate.response().getStatusCode() / 100));
+                byStatus[status].recordSince(start);
+            });
+            handler.handle(ctx);
+        };
+    }
+
+    /**
+     * Mount the scrape endpoint, by default on {@code /metrics}, if metrics are enabled
+     * @param router The {@link Router} to mount the endpoint on
+     */
+    public void mount(Router router) {
+        if (enabled) {
+            router.get(cfg.getString("path", "/metrics")).handler(this::scrape);
+        }
+    }
+
+    /**
+     * Respond with every metric in the registry in the Prometheus text exposition format
+     * @param ctx The {@link RoutingContext} of the scrape request
+     */
+    void scrape(RoutingContext ctx) {
+        ctx.response()
+                .putHeader("Content-Type", CONTENT_TYPE)
+                .end(registry.scrape());
+    }
+}
@@ -0,0 +1,122 @@
+package com.redhat.labs.rhoar.vertx.schema;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A checksum of a packaged Liquibase changelog and the data files it loads, which is stored in the database once the
+ * changelog has been applied. At the next start, a matching checksum means the schema is already current, so the
+ * (slow) Liquibase update can be skipped entirely.
+ */
+public final class ChangelogChecksum {
+
+    static final String TABLE = "schema_checksum";
+
+    private final String changelog;
+    private final String value;
+
+    private ChangelogChecksum(String changelog, String value) {
+        this.changelog = changelog;
+        this.value = value;
+    }
+
+    /**
+     * Compute the checksum of a changelog from the classpath
+     * @param changelog The classpath resource of the changelog, e.g. {@code adjective_schema.xml}
+     * @param dataFiles The classpath resources of any data files loaded by the changelog
+     * @return The {@link ChangelogChecksum}
+     * @throws IOException If one of the resources could not be read
+     */
+    public static ChangelogChecksum of(String changelog, String... dataFiles) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, changelog);
+            for (String dataFile : dataFiles) {
+                update(digest, dataFile);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return new ChangelogChecksum(changelog, hex.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String resource) throws IOException {
+        try (InputStream in = ChangelogChecksum.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Resource " + resource + " was not found on the classpath");
+            }
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                digest.update(chunk, 0, read);
+            }
+        }
+    }
+
+    /**
+     * The hex encoded checksum
+     * @return The checksum
+     */
+    public String value() {
+        return value;
+    }
+
+    /**
+     * Check whether this checksum was stored by a previous, successful schema update
+     * @param conn A {@link Connection} to the database
+     * @return {@code true} if the stored checksum matches, {@code false} if it differs or none has been stored yet
+     */
+    public boolean isCurrent(Connection conn) {
+        try (PreparedStatement select = conn.prepareStatement(
+                "SELECT checksum FROM " + TABLE + " WHERE changelog = ?")) {
+            select.setString(1, changelog);
+            try (ResultSet rs = select.executeQuery()) {
+                return rs.next() && value.equals(rs.getString(1));
+            }
+        } catch (SQLException e) {
+            // Most likely the table does not exist yet because the schema has never been loaded in this mode
+            return false;
+        }
+    }
+
+    /**
+     * Store this checksum after the changelog has been applied
+     * @param conn A {@link Connection} to the database
+     * @throws SQLException If the checksum could not be stored
+     */
+    public void store(Connection conn) throws SQLException {
+        try (Statement create = conn.createStatement()) {
+            create.execute("CREATE TABLE IF NOT EXISTS " + TABLE
+                    + " (changelog VARCHAR(255) PRIMARY KEY, checksum VARCHAR(64) NOT NULL)");
+        }
+        int updated;
+        try (PreparedStatement update = conn.prepareStatement(
+                "UPDATE " + TABLE + " SET checksum = ? WHERE changelog = ?")) {
+            update.setString(1, value);
+            update.setString(2, changelog);
+            updated = update.executeUpdate();
+        }
+        if (updated == 0) {
+            try (PreparedStatement insert = conn.prepareStatement(
+                    "INSERT INTO " + TABLE + " (changelog, checksum) VALUES (?, ?)")) {
+                insert.setString(1, changelog);
+                insert.setString(2, value);
+                insert.executeUpdate();
+            }
+        }
+        if (!conn.getAutoCommit()) {
+            conn.commit();
+        }
+    }
+}
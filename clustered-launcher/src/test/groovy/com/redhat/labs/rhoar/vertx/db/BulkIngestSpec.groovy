@@ -0,0 +1,114 @@
+package com.redhat.labs.rhoar.vertx.db
+
+import io.vertx.core.AsyncResult
+import io.vertx.core.Vertx
+import io.vertx.core.file.OpenOptions
+import io.vertx.core.json.DecodeException
+import io.vertx.core.json.JsonObject
+import io.vertx.ext.jdbc.JDBCClient
+import io.vertx.ext.sql.SQLClient
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.BlockingVariable
+
+import java.nio.file.Files
+
+class BulkIngestSpec extends Specification {
+
+    private static final String INSERT_SQL = "INSERT INTO words (word) VALUES (?)"
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    @Shared
+    private SQLClient client
+
+    @Shared
+    private File baseDir = Files.createTempDirectory("bulk-ingest").toFile()
+
+    def setupSpec() {
+        client = JDBCClient.createNonShared(vertx, new JsonObject()
+                .put("url", "jdbc:h2:mem:bulkingest;DB_CLOSE_DELAY=-1;MODE=PostgreSQL")
+                .put("driver_class", "org.h2.Driver"))
+        def created = new BlockingVariable<Boolean>(10)
+        client.update("CREATE TABLE words (id SERIAL PRIMARY KEY, word VARCHAR(240))",
+                { res -> created.set(res.succeeded()) })
+        assert created.get()
+    }
+
+    def setup() {
+        def cleared = new BlockingVariable<Boolean>(10)
+        client.update("DELETE FROM words", { res -> cleared.set(res.succeeded()) })
+        assert cleared.get()
+    }
+
+    @Unroll
+    def "test a #format body is inserted in chunks with batches #batches"() {
+        when: "Five words are streamed in chunks of two"
+            def res = ingest(body, 2, batches)
+        then: "Every word is inserted, two at a time"
+            res.succeeded()
+            res.result().getLong("inserted") == 5
+            res.result().getJsonArray("chunks").collect { it.getInteger("rows") } == [2, 2, 1]
+            rows() == ['artless', 'bawdy', 'craven', 'dankish', 'errant']
+        where:
+            format   | batches | body
+            'array'  | true    | '["artless", "bawdy", "craven", "dankish", "errant"]'
+            'array'  | false   | '["artless", "bawdy", "craven", "dankish", "errant"]'
+            'NDJSON' | true    | '{"word":"artless"}\n{"word":"bawdy"}\n"craven"\n{"word":"dankish"}\n"errant"\n'
+    }
+
+    def "test blank words and objects without the key are skipped"() {
+        when: "A body with values which hold no word is streamed"
+            def res = ingest('["artless", " ", {"noun":"baggage"}, 42, " bawdy "]', 10, true)
+        then: "Only the words are inserted, trimmed"
+            res.succeeded()
+            rows() == ['artless', 'bawdy']
+    }
+
+    def "test malformed JSON part way through the body is reported and rolled back"() {
+        when: "The body breaks after the first chunk has been inserted"
+            def res = ingest('["artless", "bawdy", "craven", }{ "dankish"]', 2, true)
+        then: "The request fails with a DecodeException"
+            res.failed()
+            res.cause() instanceof DecodeException
+        and: "The chunk which was already inserted is rolled back"
+            rows().isEmpty()
+    }
+
+    @Unroll
+    def "test a database failure part way through the body is rolled back with batches #batches"() {
+        when: "The second chunk holds a word which is too long for its column"
+            def res = ingest("[\"artless\", \"bawdy\", \"${'x' * 300}\"]", 2, batches)
+        then: "The request fails with the database error"
+            res.failed()
+            !(res.cause() instanceof DecodeException)
+        and: "Nothing is inserted"
+            rows().isEmpty()
+        where:
+            batches << [true, false]
+    }
+
+    private AsyncResult<JsonObject> ingest(String body, int chunkSize, boolean batches) {
+        def file = new File(baseDir, "body.json")
+        file.text = body
+        def result = new BlockingVariable<AsyncResult<JsonObject>>(10)
+        def stream = vertx.fileSystem().openBlocking(file.path, new OpenOptions().setRead(true))
+        BulkIngest.ingest(client, INSERT_SQL, "word", chunkSize, batches, stream, { res -> result.set(res) })
+        result.get()
+    }
+
+    private List<String> rows() {
+        def rows = new BlockingVariable<List<String>>(10)
+        client.query("SELECT word FROM words ORDER BY id", { res ->
+            rows.set(res.result().results.collect { it.getString(0) })
+        })
+        rows.get()
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+        baseDir.deleteDir()
+    }
+}
@@ -0,0 +1,160 @@
+package com.redhat.labs.rhoar.vertx.db
+
+import io.vertx.core.Vertx
+import io.vertx.core.json.JsonObject
+import io.vertx.ext.jdbc.JDBCClient
+import io.vertx.ext.sql.SQLClient
+import io.vertx.serviceproxy.ServiceException
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.util.concurrent.BlockingVariable
+import spock.util.concurrent.BlockingVariables
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class WriteBehindSpec extends Specification {
+
+    private static final String INSERT_SQL = "INSERT INTO words (word) VALUES (?)"
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    @Shared
+    private SQLClient client
+
+    def setupSpec() {
+        client = JDBCClient.createNonShared(vertx, new JsonObject()
+                .put("url", "jdbc:h2:mem:writebehind;DB_CLOSE_DELAY=-1;MODE=PostgreSQL")
+                .put("driver_class", "org.h2.Driver"))
+        def created = new BlockingVariable<Boolean>(10)
+        client.update("CREATE TABLE words (id SERIAL PRIMARY KEY, word VARCHAR(240))",
+                { res -> created.set(res.succeeded()) })
+        assert created.get()
+    }
+
+    def setup() {
+        def cleared = new BlockingVariable<Boolean>(10)
+        client.update("DELETE FROM words", { res -> cleared.set(res.succeeded()) })
+        assert cleared.get()
+    }
+
+    def "test saves are written together and duplicates are inserted once"() {
+        given: "A write-behind queue with the flush durability"
+            def underTest = new WriteBehind(vertx, client, INSERT_SQL, "word",
+                    new JsonObject().put("batchSize", 10).put("flushInterval", 50))
+            def results = new BlockingVariables(10)
+            def written = []
+        when: "Four saves of three words are made at once"
+            vertx.runOnContext({ v ->
+                underTest.writtenHandler({ words -> written.addAll(words) })
+                ['artless', 'bawdy', 'artless', 'craven'].eachWithIndex { word, i ->
+                    underTest.save(word, { res -> results.setProperty("save$i", res.succeeded()) })
+                }
+            })
+        then: "Every save succeeds once the words have been written by a single INSERT"
+            (0..3).every { results.getProperty("save$it") }
+            written == ['artless', 'bawdy', 'craven']
+            rows() == ['artless', 'bawdy', 'craven']
+            underTest.stats().getLong("coalesced") >= 1
+    }
+
+    def "test saves are acknowledged before they are written with the enqueue durability"() {
+        given: "A write-behind queue which only flushes after a second"
+            def underTest = new WriteBehind(vertx, client, INSERT_SQL, "word",
+                    new JsonObject().put("durability", "enqueue").put("batchSize", 10).put("flushInterval", 1000))
+            def saved = new BlockingVariable<Boolean>(10)
+        when: "A word is saved"
+            vertx.runOnContext({ v -> underTest.save('dankish', { res -> saved.set(res.succeeded()) }) })
+        then: "The save succeeds before the word has been written"
+            saved.get()
+            rows().isEmpty()
+    }
+
+    def "test saves are rejected with a 429 when the queue is full"() {
+        given: "A write-behind queue which holds two saves"
+            def underTest = new WriteBehind(vertx, client, INSERT_SQL, "word",
+                    new JsonObject().put("batchSize", 2).put("maxQueued", 2).put("flushInterval", 1000))
+            def failure = new BlockingVariable<Throwable>(10)
+            def accepted = new AtomicInteger()
+        when: "Three saves are made before the queue is flushed"
+            vertx.runOnContext({ v ->
+                3.times {
+                    underTest.save('errant', { res -> res.succeeded() ? accepted.incrementAndGet() : failure.set(res.cause()) })
+                }
+            })
+        then: "The third save is rejected"
+            WriteBehind.isQueueFull(failure.get())
+            underTest.stats().getLong("rejected") >= 1
+    }
+
+    def "test one word which cannot be written only fails its own save"() {
+        given: "A write-behind queue with the flush durability"
+            def underTest = new WriteBehind(vertx, client, INSERT_SQL, "word",
+                    new JsonObject().put("batchSize", 10).put("flushInterval", 50))
+            def results = new BlockingVariables(10)
+            def written = []
+        when: "A word which is too long for its column is saved with two others"
+            vertx.runOnContext({ v ->
+                underTest.writtenHandler({ words -> written.addAll(words) })
+                ['fawning', 'x' * 300, 'gleeking'].eachWithIndex { word, i ->
+                    underTest.save(word, { res -> results.setProperty("save$i", res.succeeded()) })
+                }
+            })
+        then: "The other words are written one at a time and only the long one fails"
+            results.getProperty("save0")
+            !results.getProperty("save1")
+            results.getProperty("save2")
+            written == ['fawning', 'gleeking']
+            rows() == ['fawning', 'gleeking']
+    }
+
+    def "test acknowledged saves are written when the queue is closed"() {
+        given: "A write-behind queue with the enqueue durability which would only flush after a minute"
+            def underTest = new WriteBehind(vertx, client, INSERT_SQL, "word",
+                    new JsonObject().put("durability", "enqueue").put("batchSize", 2).put("flushInterval", 60000))
+            def closed = new BlockingVariable<Boolean>(10)
+        when: "Three words are saved and the queue is closed straight away"
+            vertx.runOnContext({ v ->
+                ['goatish', 'jarring', 'loggerheaded'].each { underTest.save(it, { res -> }) }
+                underTest.close({ res -> closed.set(res.succeeded()) })
+            })
+        then: "The queue closes once every word has been written"
+            closed.get()
+            rows() == ['goatish', 'jarring', 'loggerheaded']
+            underTest.stats().getInteger("queued") == 0
+    }
+
+    def "test saves are rejected with a 503 once the queue is closed, and the close completes once"() {
+        given: "A write-behind queue which is being closed with one word queued"
+            def underTest = new WriteBehind(vertx, client, INSERT_SQL, "word", new JsonObject())
+            def closes = new AtomicInteger()
+            def saved = new BlockingVariable<Throwable>(10)
+            def written = new BlockingVariable<Boolean>(10)
+        when: "A word is saved after the queue was closed"
+            vertx.runOnContext({ v ->
+                underTest.save("lumpish", { res -> written.set(res.succeeded()) })
+                underTest.close({ res -> closes.incrementAndGet() })
+                underTest.save("mammering", { res -> saved.set(res.failed() ? res.cause() : null) })
+            })
+        then: "The save is rejected and only the word queued before the close is written"
+            saved.get() instanceof ServiceException
+            ((ServiceException) saved.get()).failureCode() == 503
+            !WriteBehind.isQueueFull(saved.get())
+            written.get()
+            rows() == ['lumpish']
+        and: "The close handler was called once"
+            closes.get() == 1
+    }
+
+    private List<String> rows() {
+        def rows = new BlockingVariable<List<String>>(10)
+        client.query("SELECT word FROM words ORDER BY id", { res ->
+            rows.set(res.result().results.collect { it.getString(0) })
+        })
+        rows.get()
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+    }
+}
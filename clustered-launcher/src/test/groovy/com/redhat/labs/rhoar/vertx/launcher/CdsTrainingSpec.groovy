@@ -0,0 +1,74 @@
+package com.redhat.labs.rhoar.vertx.launcher
+
+import io.vertx.core.AbstractVerticle
+import io.vertx.core.Vertx
+import io.vertx.core.json.JsonObject
+import spock.lang.Specification
+import spock.util.concurrent.BlockingVariable
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class CdsTrainingSpec extends Specification {
+
+    private Vertx vertx = Vertx.vertx()
+
+    private AtomicInteger requests = new AtomicInteger()
+
+    private BlockingVariable<Integer> exitStatus = new BlockingVariable<>(10)
+
+    def "test the warm up starts once the Main-Verticle is deployed, without a ready event"() {
+        given: "A training run of two rounds"
+            def port = listen()
+            def training = training(["http://127.0.0.1:${port}/api/v1/health".toString()], 60000)
+        when: "A verticle which does not time its startup is deployed"
+            training.start(vertx)
+            vertx.deployVerticle(new AbstractVerticle() {})
+        then: "The warm up URL is requested twice and the run succeeds"
+            exitStatus.get() == 0
+            requests.get() == 2
+    }
+
+    def "test the warm up starts on the ready event"() {
+        given: "A training run of two rounds"
+            def port = listen()
+            def training = training(["http://127.0.0.1:${port}/api/v1/health".toString()], 60000)
+        when: "A verticle reports that it is ready before its deployment completes"
+            training.start(vertx)
+            vertx.eventBus().publish(StartupTimer.EVENTS_ADDRESS, new JsonObject().put("phase", "ready"))
+        then: "The warm up runs and the run succeeds"
+            exitStatus.get() == 0
+            requests.get() == 2
+    }
+
+    def "test a run which never becomes ready fails once the timeout has passed"() {
+        given: "A training run with a timeout of 200ms"
+            def training = training(["http://127.0.0.1:1/"], 200)
+        when: "Nothing is ever deployed"
+            training.start(vertx)
+        then: "The run fails"
+            exitStatus.get() == 1
+            requests.get() == 0
+    }
+
+    private int listen() {
+        def listening = new BlockingVariable<Integer>(10)
+        vertx.createHttpServer().requestHandler({ req ->
+            requests.incrementAndGet()
+            req.response().end()
+        }).listen(0, { res -> listening.set(res.result().actualPort()) })
+        listening.get()
+    }
+
+    private CdsTraining training(List<String> urls, long timeoutMillis) {
+        new CdsTraining(urls, 2, timeoutMillis) {
+            @Override
+            void exit(Vertx vertx, int status) {
+                exitStatus.set(status)
+            }
+        }
+    }
+
+    def cleanup() {
+        vertx.close()
+    }
+}
@@ -0,0 +1,77 @@
+package com.redhat.labs.rhoar.vertx.metrics
+
+import io.vertx.core.json.JsonObject
+import io.vertx.reactivex.core.Vertx
+import io.vertx.reactivex.ext.web.Router
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.util.concurrent.BlockingVariable
+import spock.util.concurrent.PollingConditions
+
+class RouteMetricsSpec extends Specification {
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    def "test the histograms of an operation are bound when the router is built"() {
+        given: "Route metrics with their own registry"
+            def registry = new MetricsRegistry()
+            def underTest = new RouteMetrics(registry, "test", new JsonObject().put("enabled", true))
+        when: "An operation is wrapped, before any request"
+            underTest.timed("getThing", { ctx -> ctx.response().end() })
+        then: "A series exists for every status class"
+            def text = registry.scrape()
+            (1..5).every { text.contains("http_server_requests_seconds_count{service=\"test\",operation=\"getThing\",status=\"${it}xx\"} 0") }
+    }
+
+    def "test a request is recorded by the status class of its response"() {
+        given: "A router with a timed route and the scrape endpoint"
+            def registry = new MetricsRegistry()
+            def underTest = new RouteMetrics(registry, "test", new JsonObject().put("enabled", true))
+            def router = Router.router(vertx)
+            underTest.mount(router)
+            router.get("/missing").handler(underTest.timed("getMissing", { ctx -> ctx.response().setStatusCode(404).end() }))
+            def listening = new BlockingVariable<Integer>(10)
+            vertx.createHttpServer().requestHandler(router.&accept).listen(0, { res -> listening.set(res.result().actualPort()) })
+            def port = listening.get()
+        when: "The route is requested"
+            def status = new BlockingVariable<Integer>(10)
+            vertx.createHttpClient().getNow(port, "localhost", "/missing", { res -> status.set(res.statusCode()) })
+        then: "The request is counted as a 4xx"
+            status.get() == 404
+            new PollingConditions(timeout: 5).eventually {
+                assert registry.scrape().contains('http_server_requests_seconds_count{service="test",operation="getMissing",status="4xx"} 1')
+            }
+            registry.scrape().contains('http_server_requests_seconds_count{service="test",operation="getMissing",status="2xx"} 0')
+    }
+
+    def "test the most recent event loop lag is exported in seconds"() {
+        given: "A registry"
+            def registry = new MetricsRegistry()
+        when: "The event loop is probed"
+            vertx.getDelegate().runOnContext({ v -> EventLoopLagProbe.start(vertx.getDelegate(), registry, 10) })
+        then: "The gauge is named for its unit"
+            new PollingConditions(timeout: 5).eventually {
+                def text = registry.scrape()
+                assert text.contains('# TYPE vertx_event_loop_lag_last_seconds gauge')
+                assert !text.contains('vertx_event_loop_lag_last_nanoseconds')
+            }
+    }
+
+    def "test the instances deployed on one event loop share its probe"() {
+        given: "A registry"
+            def registry = new MetricsRegistry()
+        when: "Two verticles on the same event loop start probing it"
+            def probes = new BlockingVariable<List>(10)
+            vertx.getDelegate().runOnContext({ v ->
+                probes.set([EventLoopLagProbe.start(vertx.getDelegate(), registry, 10),
+                            EventLoopLagProbe.start(vertx.getDelegate(), registry, 10)])
+            })
+        then: "The event loop is probed once"
+            probes.get()[0].is(probes.get()[1])
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+    }
+}
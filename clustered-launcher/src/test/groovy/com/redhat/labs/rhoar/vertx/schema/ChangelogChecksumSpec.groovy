@@ -0,0 +1,55 @@
+package com.redhat.labs.rhoar.vertx.schema
+
+import spock.lang.Specification
+
+import java.sql.Connection
+import java.sql.DriverManager
+
+class ChangelogChecksumSpec extends Specification {
+
+    private static final String CHANGELOG = "checksum/changelog.xml"
+    private static final String DATA_FILE = "checksum/words.csv"
+
+    def "test the checksum is the same for the same resources"() {
+        expect: "Computing it twice gives the same SHA-256"
+            ChangelogChecksum.of(CHANGELOG, DATA_FILE).value() == ChangelogChecksum.of(CHANGELOG, DATA_FILE).value()
+            ChangelogChecksum.of(CHANGELOG, DATA_FILE).value().length() == 64
+    }
+
+    def "test the checksum covers the data files as well as the changelog"() {
+        expect: "Leaving out the data file gives another checksum"
+            ChangelogChecksum.of(CHANGELOG).value() != ChangelogChecksum.of(CHANGELOG, DATA_FILE).value()
+    }
+
+    def "test a resource which is not on the classpath fails the checksum"() {
+        when: "The checksum of a missing data file is computed"
+            ChangelogChecksum.of(CHANGELOG, "checksum/missing.csv")
+        then: "It fails, naming the resource"
+            def e = thrown(IOException)
+            e.message.contains("checksum/missing.csv")
+    }
+
+    def "test a stored checksum is current until the resources change"() {
+        given: "A database where nothing has been stored yet"
+            def conn = DriverManager.getConnection("jdbc:h2:mem:changelog-checksum;DB_CLOSE_DELAY=-1", "sa", "")
+            def checksum = ChangelogChecksum.of(CHANGELOG, DATA_FILE)
+        expect: "The checksum is not current before it has been stored"
+            !checksum.isCurrent(conn)
+        when: "It is stored, and stored again by a later run"
+            checksum.store(conn)
+            checksum.store(conn)
+        then: "It is current, and kept in a single row"
+            checksum.isCurrent(conn)
+            count(conn) == 1
+        and: "The checksum of other resources is not"
+            !ChangelogChecksum.of(CHANGELOG).isCurrent(conn)
+        cleanup:
+            conn?.close()
+    }
+
+    private static long count(Connection conn) {
+        def rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM " + ChangelogChecksum.TABLE)
+        rs.next()
+        rs.getLong(1)
+    }
+}
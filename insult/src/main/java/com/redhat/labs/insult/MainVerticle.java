@@ -1,7 +1,12 @@
 package com.redhat.labs.insult;
 
+import com.redhat.labs.insult.services.FeedSubscribers;
 import com.redhat.labs.insult.services.InsultService;
 import com.redhat.labs.insult.services.InsultServiceImpl;
+import com.redhat.labs.rhoar.vertx.json.JsonResponses;
+import com.redhat.labs.rhoar.vertx.launcher.PerProcess;
+import com.redhat.labs.rhoar.vertx.launcher.StartupTimer;
+import com.redhat.labs.rhoar.vertx.metrics.RouteMetrics;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.reactivex.Maybe;
 import io.vertx.codegen.annotations.Nullable;
@@ -9,26 +14,34 @@ import io.vertx.config.ConfigRetrieverOptions;
 import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.bridge.PermittedOptions;
 import io.vertx.ext.web.api.RequestParameter;
 import io.vertx.ext.web.api.RequestParameters;
-
+import io.vertx.ext.web.handler.sockjs.BridgeEvent;
 import io.vertx.ext.web.handler.sockjs.BridgeOptions;
 import io.vertx.reactivex.config.ConfigRetriever;
 import io.vertx.reactivex.core.AbstractVerticle;
+import io.vertx.reactivex.core.buffer.Buffer;
 import io.vertx.reactivex.core.http.HttpServer;
+import io.vertx.reactivex.core.http.HttpServerResponse;
 import io.vertx.reactivex.ext.web.Router;
 import io.vertx.reactivex.ext.web.RoutingContext;
 import io.vertx.reactivex.ext.web.api.contract.openapi3.OpenAPI3RouterFactory;
 import io.vertx.reactivex.ext.web.handler.CorsHandler;
 import io.vertx.reactivex.ext.web.handler.sockjs.SockJSHandler;
 import io.vertx.serviceproxy.ServiceBinder;
+import io.vertx.serviceproxy.ServiceException;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 import static io.netty.handler.codec.http.HttpResponseStatus.*;
 import static io.vertx.core.http.HttpMethod.*;
@@ -39,7 +52,11 @@ public class MainVerticle extends AbstractVerticle {
 
     private static final String INSULT_SERVICE = "insult.service";
 
-    private InsultService service;
+    private InsultServiceImpl service;
+
+    private int streamBatchSize;
+
+    private String retryAfter;
 
     /**
      * Entry point for {@link MainVerticle}
@@ -47,11 +64,23 @@ public class MainVerticle extends AbstractVerticle {
      */
     @Override
     public void start(final Future<Void> startFuture) {
-        this.initConfigRetriever()
-            .flatMap(this::provisionRouter)
-            .flatMap(this::createHttpServer)
+        StartupTimer timer = new StartupTimer(vertx.getDelegate(), "insult");
+        Maybe.zip(
+            this.initConfigRetriever()
+                .compose(timer.phase("config")),
+            this.loadContract()                         // The OpenAPI contract does not need the config, so parse it
+                .compose(timer.phase("contract")),      // while the config is being retrieved
+            (config, factory) -> {
+                this.provisionService(config);
+                return factory;
+            })
+            .flatMap(factory -> this.createHttpServer(factory)
+                .compose(timer.phase("http")))
             .doOnError(startFuture::fail)
-            .subscribe(v -> startFuture.complete());
+            .subscribe(v -> {
+                LOG.info("Started in " + timer.ready());
+                startFuture.complete();
+            });
     }
 
     /**
@@ -91,16 +120,28 @@ public class MainVerticle extends AbstractVerticle {
     }
 
     /**
-     * Begin the creation of the {@link OpenAPI3RouterFactory}
-     * @param config The config loaded via the {@link ConfigRetriever}
+     * Begin the creation of the {@link OpenAPI3RouterFactory}, which parses the OpenAPI contract
      * @return An {@link OpenAPI3RouterFactory} {@link Maybe} to be used to complete the next Async step
      */
-    private Maybe<OpenAPI3RouterFactory> provisionRouter(JsonObject config) {
+    private Maybe<OpenAPI3RouterFactory> loadContract() {
+        return OpenAPI3RouterFactory.rxCreate(vertx, "/insult.yaml").toMaybe();
+    }
+
+    /**
+     * Create the {@link InsultServiceImpl} and register it as a Service Proxy
+     * @param config The config loaded via the {@link ConfigRetriever}
+     */
+    private void provisionService(JsonObject config) {
         vertx.getOrCreateContext().config().mergeIn(config);
         LOG.info(vertx.getOrCreateContext().config().encodePrettily());
+        streamBatchSize = InsultServiceImpl.checkBatchSize("stream.batchSize",
+                config.getJsonObject("stream", new JsonObject()).getInteger("batchSize", 100));
         service = new InsultServiceImpl(vertx.getDelegate());
-        new ServiceBinder(vertx.getDelegate()).setAddress(INSULT_SERVICE).register(InsultService.class, service);
-        return OpenAPI3RouterFactory.rxCreate(vertx, "/insult.yaml").toMaybe();
+        retryAfter = String.valueOf(config.getJsonObject("limiter", new JsonObject()).getInteger("retryAfter", 1));
+        // Every instance serves HTTP, but a single Service Proxy registration per process is enough for the event bus
+        if (PerProcess.claim(vertx.getDelegate(), "insult.binder")) {
+            new ServiceBinder(vertx.getDelegate()).setAddress(INSULT_SERVICE).register(InsultService.class, service);
+        }
     }
 
     /**
@@ -110,12 +151,14 @@ public class MainVerticle extends AbstractVerticle {
      * @return The {@link HttpServer} instance created
      */
     private Maybe<HttpServer> createHttpServer(OpenAPI3RouterFactory factory) {
+        @Nullable JsonObject config = vertx.getOrCreateContext().config();
         Router baseRouter = Router.router(vertx);
+        RouteMetrics metrics = RouteMetrics.create(vertx, "insult", config.getJsonObject("metrics"));
+        metrics.mount(baseRouter);
         baseRouter.route().handler(ctx -> {
             LOG.info(ctx.request().path());
             ctx.next();
         });
-        @Nullable JsonObject config = vertx.getOrCreateContext().config();
         CorsHandler corsHandler = CorsHandler.create("*")
                 .allowedHeader("Access-Control-Request-Method")
                 .allowedHeader("Access-Control-Allow-Origin")
@@ -128,17 +171,34 @@ public class MainVerticle extends AbstractVerticle {
                 .allowedMethod(OPTIONS)
                 .allowedMethod(CONNECT);
         baseRouter.route().handler(corsHandler);
-        factory.addHandlerByOperationId("getInsult", ctx -> service.getInsult(result -> handleResponse(ctx, OK, result)));
-        factory.addHandlerByOperationId("insultByName", this::handleNamedInsult);
-        factory.addHandlerByOperationId("health", ctx -> service.check(res -> handleResponse(ctx, OK, res)));
+        factory.addHandlerByOperationId("getInsult",
+                metrics.timed("getInsult", ctx -> service.getInsult(result -> handleResponse(ctx, OK, result))));
+        factory.addHandlerByOperationId("insultByName", metrics.timed("insultByName", this::handleNamedInsult));
+        factory.addHandlerByOperationId("streamInsults", metrics.timed("streamInsults", this::handleStream));
+        factory.addHandlerByOperationId("getFeed", metrics.timed("getFeed",
+                ctx -> handleResponse(ctx, OK, Future.succeededFuture(service.feedSettings()))));
+        factory.addHandlerByOperationId("health",
+                metrics.timed("health", ctx -> service.check(res -> handleResponse(ctx, OK, res))));
         JsonObject httpJsonCfg = config
                 .getJsonObject("http");
         HttpServerOptions httpConfig = new HttpServerOptions(httpJsonCfg);
         Router router = factory.getRouter();
         BridgeOptions bOpts = new BridgeOptions();
         bOpts.setInboundPermitted(Arrays.asList(new PermittedOptions().setAddress(INSULT_SERVICE)));
-        bOpts.setOutboundPermitted(Arrays.asList(new PermittedOptions().setAddress(INSULT_SERVICE)));
-        SockJSHandler sockHandler = SockJSHandler.create(vertx).bridge(bOpts);
+        bOpts.setOutboundPermitted(new ArrayList<>(Arrays.asList(new PermittedOptions().setAddress(INSULT_SERVICE))));
+        JsonObject feedCfg = config.getJsonObject("feed", new JsonObject());
+        SockJSHandler sockHandler;
+        if (feedCfg.getBoolean("enabled", Boolean.FALSE)) {
+            // Browsers may only subscribe to the insult feed (and its rate tiers), never publish to it
+            String feedAddress = feedCfg.getString("address", "insult.feed");
+            bOpts.addOutboundPermitted(new PermittedOptions()
+                    .setAddressRegex(Pattern.quote(feedAddress) + "(\\.[0-9]+)?"));
+            // The feed only publishes while a browser on any instance is subscribed to it
+            Handler<BridgeEvent> tracker = FeedSubscribers.of(vertx.getDelegate()).tracker(feedAddress);
+            sockHandler = SockJSHandler.create(vertx).bridge(bOpts, event -> tracker.handle(event.getDelegate()));
+        } else {
+            sockHandler = SockJSHandler.create(vertx).bridge(bOpts);
+        }
         baseRouter.route("/eventbus/*").handler(sockHandler);
         baseRouter.mountSubRouter("/api/v1", router);
         return vertx.createHttpServer(httpConfig)
@@ -161,6 +221,82 @@ public class MainVerticle extends AbstractVerticle {
         }
     }
 
+    /**
+     * Handle a request for a stream of insults. The insults are generated in batches and written using chunked
+     * transfer encoding as either NDJSON or Server-Sent Events. The next batch is only requested once the response's
+     * write queue has room, so a slow client slows down generation instead of filling up memory.
+     * @param ctx The {@link RoutingContext} for the request, from which we will extract the parameters
+     */
+    private void handleStream(RoutingContext ctx) {
+        RequestParameters params = ctx.get("parsedParameters");
+        int count = params.queryParameter("count").getInteger();
+        RequestParameter formatParam = params.queryParameter("format");
+        String accept = ctx.request().getHeader("Accept");
+        boolean sse = formatParam != null
+                ? "sse".equals(formatParam.getString())
+                : accept != null && accept.contains("text/event-stream");
+        HttpServerResponse response = ctx.response()
+                .setStatusCode(OK.code())
+                .setStatusMessage(OK.reasonPhrase())
+                .setChunked(true)
+                .putHeader("Content-Type", sse ? "text/event-stream" : "application/x-ndjson")
+                .putHeader("Cache-Control", "no-cache");
+        AtomicBoolean closed = new AtomicBoolean();
+        response.closeHandler(v -> closed.set(true));
+        streamBatch(response, sse, 0, count, closed);
+    }
+
+    /**
+     * Write the next batch of a stream of insults, then continue immediately or once the write queue has drained
+     * @param response The {@link HttpServerResponse} to write to
+     * @param sse If {@code true}, write Server-Sent Events instead of NDJSON
+     * @param written The number of insults which have already been written
+     * @param count The total number of insults to be written
+     * @param closed Set when the client closes the connection, at which point the stream stops
+     */
+    private void streamBatch(HttpServerResponse response, boolean sse, int written, int count, AtomicBoolean closed) {
+        if (closed.get()) {
+            return;
+        }
+        if (written >= count) {
+            response.end();
+            return;
+        }
+        service.insultBatch(Math.min(streamBatchSize, count - written), true, res -> {
+            if (closed.get()) {
+                return;
+            }
+            if (res.failed()) {
+                if (!response.headWritten() && isRejection(res.cause())) {
+                    sendRejection(response);
+                    return;
+                }
+                LOG.error("Unable to generate insults for the stream", res.cause());
+                response.close();
+                return;
+            }
+            JsonArray insults = res.result();
+            Buffer chunk = Buffer.buffer();
+            for (int i = 0; i < insults.size(); i++) {
+                String json = insults.getJsonObject(i).encode();
+                if (sse) {
+                    chunk.appendString("id: ").appendString(Integer.toString(written + i + 1))
+                            .appendString("\nevent: insult\ndata: ").appendString(json).appendString("\n\n");
+                } else {
+                    chunk.appendString(json).appendString("\n");
+                }
+            }
+            response.write(chunk);
+            int total = written + insults.size();
+            if (response.writeQueueFull()) {
+                response.drainHandler(v -> streamBatch(response, sse, total, count, closed));
+            } else {
+                // Batches from the replicas complete synchronously, so continue on a fresh stack
+                vertx.runOnContext(v -> streamBatch(response, sse, total, count, closed));
+            }
+        });
+    }
+
     /**
      * Handles a Service Proxy response and uses the {@link RoutingContext} to send the response
      * @param ctx The {@link RoutingContext} of the request we are responding to
@@ -172,7 +308,10 @@ public class MainVerticle extends AbstractVerticle {
             ctx.response()
                     .setStatusCode(status.code())
                     .setStatusMessage(status.reasonPhrase())
-                    .end(res.result().encodePrettily());
+                    .putHeader("Content-Type", "application/json")
+                    .end(JsonResponses.prettyRequested(ctx) ? res.result().encodePrettily() : res.result().encode());
+        } else if (isRejection(res.cause())) {
+            sendRejection(ctx.response());
         } else {
             ctx.response()
                     .setStatusCode(INTERNAL_SERVER_ERROR.code())
@@ -180,4 +319,26 @@ public class MainVerticle extends AbstractVerticle {
                     .end();
         }
     }
+
+    /**
+     * Check whether a request failed because one of the other microservices is at its concurrency limit
+     * @param cause The cause of the failure
+     * @return {@code true} if the request was rejected by a concurrency limiter
+     */
+    private static boolean isRejection(Throwable cause) {
+        return cause instanceof ServiceException
+                && ((ServiceException) cause).failureCode() == SERVICE_UNAVAILABLE.code();
+    }
+
+    /**
+     * Reject a request straight away, asking the client to retry later, instead of queueing it behind a downstream
+     * service which is at its concurrency limit
+     * @param response The {@link HttpServerResponse} of the rejected request
+     */
+    private void sendRejection(HttpServerResponse response) {
+        response.setStatusCode(SERVICE_UNAVAILABLE.code())
+                .setStatusMessage(SERVICE_UNAVAILABLE.reasonPhrase())
+                .putHeader("Retry-After", retryAfter)
+                .end();
+    }
 }
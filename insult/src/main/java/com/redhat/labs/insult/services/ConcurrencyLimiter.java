@@ -0,0 +1,238 @@
+package com.redhat.labs.insult.services;
+
+import com.redhat.labs.rhoar.vertx.metrics.Counter;
+import com.redhat.labs.rhoar.vertx.metrics.MetricsRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.serviceproxy.ServiceException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+
+/**
+ * An adaptive limit on the number of requests in flight to one downstream service (noun or adjective), shared by all
+ * of the instances of the insult service in this process. Requests beyond the limit are rejected straight away instead
+ * of queueing behind a downstream service which has slowed down. The limit follows the round trip times (RTT) of the
+ * completed requests, using one of two algorithms:
+ * <ul>
+ *     <li>{@code aimd} - additive increase, multiplicative decrease: the limit grows by one for every request which
+ *     completes within {@code dropLatency} milliseconds while at least half of the limit is in use, and is multiplied
+ *     by {@code backoffRatio} when a request fails or takes longer</li>
+ *     <li>{@code gradient} - the limit follows the ratio of the long term average RTT to the short term average RTT,
+ *     so it shrinks as soon as requests queue up downstream (the short term RTT rises above the long term RTT times
+ *     the {@code tolerance}) and grows by about its square root while the RTTs are stable. Failures multiply it by
+ *     {@code backoffRatio}</li>
+ * </ul>
+ * The limit always stays between {@code minLimit} and {@code maxLimit}.
+ */
+class ConcurrencyLimiter implements Shareable {
+
+    private static final String MAP_NAME = "insult.limiters";
+    private static final double SHORT_RTT_WEIGHT = 0.1;
+    private static final double LONG_RTT_WEIGHT = 1.0 / 600;
+
+    final String name;
+    private final boolean gradient;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long dropLatencyNanos;
+    private final double tolerance;
+    private final double smoothing;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter rejected;
+    private volatile int limit;
+
+    // Guarded by this
+    private double estimate;
+    private double shortRtt;
+    private double longRtt;
+
+    private ConcurrencyLimiter(String name, JsonObject cfg) {
+        this.name = name;
+        this.gradient = "gradient".equalsIgnoreCase(cfg.getString("algorithm", "gradient"));
+        this.minLimit = Math.max(1, cfg.getInteger("minLimit", 2));
+        this.maxLimit = Math.max(minLimit, cfg.getInteger("maxLimit", 200));
+        this.backoffRatio = cfg.getDouble("backoffRatio", 0.9);
+        this.dropLatencyNanos = TimeUnit.MILLISECONDS.toNanos(cfg.getLong("dropLatency", 500L));
+        this.tolerance = cfg.getDouble("tolerance", 2.0);
+        this.smoothing = cfg.getDouble("smoothing", 0.2);
+        this.estimate = Math.min(maxLimit, Math.max(minLimit, cfg.getInteger("initialLimit", 20)));
+        this.limit = (int) estimate;
+        this.rejected = MetricsRegistry.shared().counter("concurrency_limiter_rejected_total",
+                "Requests rejected because the concurrency limit of the downstream service was reached",
+                "downstream", name);
+    }
+
+    /**
+     * Find or create the limiter for a downstream service, which is shared by all of the instances of the insult
+     * service in this process
+     * @param vertx The {@link Vertx} instance
+     * @param name The name of the downstream service
+     * @param cfg The {@code limiter} configuration block
+     * @return The {@link ConcurrencyLimiter}
+     */
+    static ConcurrencyLimiter shared(Vertx vertx, String name, JsonObject cfg) {
+        LocalMap<String, ConcurrencyLimiter> limiters = vertx.sharedData().getLocalMap(MAP_NAME);
+        ConcurrencyLimiter limiter = limiters.get(name);
+        if (limiter == null) {
+            ConcurrencyLimiter created = new ConcurrencyLimiter(name, cfg);
+            limiter = limiters.putIfAbsent(name, created);
+            if (limiter == null) {
+                limiter = created;
+                MetricsRegistry registry = MetricsRegistry.shared();
+                registry.gauge("concurrency_limiter_limit", "The current concurrency limit of the downstream service",
+                        () -> created.limit, "downstream", name);
+                registry.gauge("concurrency_limiter_in_flight", "Requests in flight to the downstream service",
+                        created.inFlight::get, "downstream", name);
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Take a permit for a request to the downstream service, if the limit allows it. The permit must be handed back
+     * with {@link Permit#release(boolean)} or {@link Permit#cancel()}. A request which is over the limit is counted as
+     * rejected.
+     * @return The {@link Permit}, or {@code null} if the limit has been reached
+     */
+    Permit acquire() {
+        if (!tryAcquire()) {
+            rejected.inc();
+            return null;
+        }
+        return new Permit();
+    }
+
+    /**
+     * Make a call to the downstream service if the limit allows it, and adjust the limit from its outcome. A call which
+     * is over the limit fails with a {@link #rejection()}.
+     * @param call The call, which must complete the {@link Future} it is given
+     * @param result The {@link Future} to be completed with the result of the call
+     * @param <T> The type of the result
+     */
+    <T> void call(Handler<Future<T>> call, Future<T> result) {
+        Permit permit = acquire();
+        if (permit == null) {
+            result.tryFail(rejection());
+        } else {
+            permit.track(call, result);
+        }
+    }
+
+    /**
+     * The failure of a call which was rejected by the limiter, which the insult service answers with a 503
+     * @return The {@link ServiceException}
+     */
+    ServiceException rejection() {
+        return new ServiceException(SERVICE_UNAVAILABLE.code(),
+                "Too many requests in flight to the " + name + " service");
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * A request in flight to the downstream service. A permit is handed back once: either with the outcome of the
+     * request, which adjusts the limit, or cancelled when the request was never made or its outcome is no longer
+     * waited for, which leaves the limit as it is.
+     */
+    final class Permit {
+
+        private final long start = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        /**
+         * Make the call under this permit, and release the permit with its outcome
+         * @param call The call, which must complete the {@link Future} it is given
+         * @param result The {@link Future} to be completed with the result of the call
+         * @param <T> The type of the result
+         */
+        <T> void track(Handler<Future<T>> call, Future<T> result) {
+            Future<T> tracked = Future.future();
+            tracked.setHandler(res -> {
+                release(res.succeeded());
+                if (res.succeeded()) {
+                    result.tryComplete(res.result());
+                } else {
+                    result.tryFail(res.cause());
+                }
+            });
+            try {
+                call.handle(tracked);
+            } catch (RuntimeException e) {
+                tracked.tryFail(e);
+            }
+        }
+
+        /**
+         * Hand back the permit with the outcome of the request, adjusting the limit
+         * @param succeeded {@code true} if the request succeeded
+         */
+        void release(boolean succeeded) {
+            if (done.compareAndSet(false, true)) {
+                ConcurrencyLimiter.this.release(succeeded, System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Hand back the permit without adjusting the limit. Does nothing if the permit was already released.
+         */
+        void cancel() {
+            if (done.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private synchronized void release(boolean succeeded, long rttNanos) {
+        // Whether the limit was in demand when the request completed; a limit which is not in use is not grown
+        boolean busy = inFlight.getAndDecrement() * 2 >= limit;
+        if (!succeeded || (!gradient && rttNanos > dropLatencyNanos)) {
+            estimate *= backoffRatio;
+        } else if (gradient) {
+            shortRtt = shortRtt == 0 ? rttNanos : shortRtt + SHORT_RTT_WEIGHT * (rttNanos - shortRtt);
+            longRtt = longRtt == 0 ? rttNanos : longRtt + LONG_RTT_WEIGHT * (rttNanos - longRtt);
+            if (longRtt > shortRtt * 2) {
+                // The downstream service has recovered from a slow period, let the long term RTT catch up
+                longRtt *= 0.95;
+            }
+            if (busy) {
+                double ratio = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+                double next = estimate * ratio + Math.sqrt(estimate);
+                estimate = estimate * (1 - smoothing) + next * smoothing;
+            }
+        } else if (busy) {
+            estimate += 1;
+        }
+        estimate = Math.min(maxLimit, Math.max(minLimit, estimate));
+        limit = (int) estimate;
+    }
+
+    /**
+     * Report on the state of the limiter
+     * @return A {@link JsonObject} containing the algorithm, limit, in-flight and rejected request counts
+     */
+    JsonObject stats() {
+        return new JsonObject()
+                .put("algorithm", gradient ? "gradient" : "aimd")
+                .put("limit", limit)
+                .put("inFlight", inFlight.get())
+                .put("rejected", rejected.get());
+    }
+}
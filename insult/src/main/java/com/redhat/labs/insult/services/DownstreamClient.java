@@ -0,0 +1,530 @@
+package com.redhat.labs.insult.services;
+
+import com.redhat.labs.rhoar.vertx.discovery.EndpointAnnouncer;
+import com.redhat.labs.rhoar.vertx.metrics.Counter;
+import com.redhat.labs.rhoar.vertx.metrics.MetricsRegistry;
+import io.vertx.circuitbreaker.CircuitBreaker;
+import io.vertx.circuitbreaker.CircuitBreakerOptions;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.serviceproxy.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+
+/**
+ * A dedicated, pooled {@link HttpClient} for a single downstream service (noun or adjective) which balances requests
+ * across the endpoints (instances) of the service and keeps track of connection pool usage so that it can be reported
+ * by the health check.
+ *
+ * The configuration block for the downstream accepts ANY of the {@link HttpClientOptions} properties (e.g.
+ * {@code maxPoolSize}, {@code keepAlive}, {@code pipelining}, {@code protocolVersion}, {@code http2MultiplexingLimit},
+ * {@code maxWaitQueueSize}, {@code idleTimeout}) and an optional {@code requestTimeout} in milliseconds. The pool
+ * settings apply to each endpoint.
+ *
+ * A client is shared by all of the instances of the insult service in this process which have the same configuration,
+ * so the endpoints, their breakers and latencies, discovery and outlier detection exist once per process. Each event
+ * loop sends its requests through its own {@link HttpClient}, so that responses are handled on the caller's context,
+ * and the pool sizes are shared out between the instances so that the process as a whole keeps to them. The endpoints
+ * are taken from:
+ * <ul>
+ *     <li>{@code endpoints} - a static list of {@code "host:port"} strings or {@code {"host": ..., "port": ...}}
+ *     objects</li>
+ *     <li>{@code discovery} - the endpoints announced on the event bus {@code address} by the
+ *     {@link EndpointAnnouncer} of the service, which are dropped when they have not been announced for {@code ttl}
+ *     milliseconds</li>
+ *     <li>otherwise the single {@code host} and {@code port}</li>
+ * </ul>
+ * The optional {@code balancer} block selects the {@code strategy}: {@code p2c} (the default) picks the endpoint with
+ * fewer requests in flight out of two chosen at random, {@code least} the endpoint with the fewest requests in flight.
+ * Each endpoint has its own circuit breaker (configured by the {@code breaker} block of the balancer), which opens after
+ * consecutive connection failures and 5xx responses. Every {@code interval} milliseconds, endpoints whose average
+ * latency is more than {@code latencyFactor} times the median of the endpoints (and above {@code minLatency}
+ * milliseconds) are ejected for {@code ejectionTime} milliseconds times the number of times they have been ejected in a
+ * row, but never more than {@code maxEjectionPercent} of the endpoints at once. When every endpoint is ejected, the
+ * ejections are ignored rather than failing every request.
+ */
+class DownstreamClient implements Shareable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DownstreamClient.class);
+    private static final String MAP_NAME = "insult.downstreams";
+    private static final double LATENCY_WEIGHT = 0.2;
+    private static final String METRIC_HOLDERS = "insult.endpoint.metrics";
+    private static final String REQUESTS_METRIC = "downstream_endpoint_requests_total";
+    private static final String EJECTIONS_METRIC = "downstream_endpoint_ejections_total";
+
+    final String name;
+    final long requestTimeout;
+    final HttpClientOptions options;
+
+    private final Vertx vertx;
+    private final HttpClientOptions contextOptions;
+    private final Context creator;
+    private final HttpClient client;
+    private final Map<Context, HttpClient> contextClients = new ConcurrentHashMap<>();
+    private final boolean leastOutstanding;
+    private final CircuitBreakerOptions breakerOptions;
+    private final double latencyFactor;
+    private final long minLatencyNanos;
+    private final long ejectionTime;
+    private final int maxEjectionPercent;
+    private final long ttl;
+    private final List<Endpoint> endpoints = new CopyOnWriteArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicLong createdConnections = new AtomicLong();
+
+    /**
+     * Create a new {@link DownstreamClient} from the configuration block of a downstream service
+     * @param vertx The {@link Vertx} instance
+     * @param name The name of the downstream service, used for reporting
+     * @param cfg The {@link JsonObject} configuration block for the downstream service
+     */
+    DownstreamClient(Vertx vertx, String name, JsonObject cfg) {
+        this.vertx = vertx;
+        this.name = name;
+        this.requestTimeout = cfg.getLong("requestTimeout", 0L);
+        this.options = new HttpClientOptions(cfg);
+        this.contextOptions = shareOut(options, vertx.getOrCreateContext().getInstanceCount());
+        this.creator = Vertx.currentContext();
+        this.client = vertx.createHttpClient(contextOptions);
+
+        JsonObject balancerCfg = cfg.getJsonObject("balancer", new JsonObject());
+        this.leastOutstanding = "least".equalsIgnoreCase(balancerCfg.getString("strategy", "p2c"));
+        this.breakerOptions = new CircuitBreakerOptions(balancerCfg.getJsonObject("breaker", new JsonObject()
+                .put("maxFailures", 5)
+                .put("timeout", -1)
+                .put("resetTimeout", 10000)))
+                .setNotificationAddress(null);
+        this.latencyFactor = balancerCfg.getDouble("latencyFactor", 3.0);
+        this.minLatencyNanos = TimeUnit.MILLISECONDS.toNanos(balancerCfg.getLong("minLatency", 20L));
+        this.ejectionTime = balancerCfg.getLong("ejectionTime", 30000L);
+        this.maxEjectionPercent = balancerCfg.getInteger("maxEjectionPercent", 50);
+
+        JsonArray staticEndpoints = cfg.getJsonArray("endpoints", new JsonArray());
+        for (Object e : staticEndpoints) {
+            if (e instanceof JsonObject) {
+                add(((JsonObject) e).getString("host"), ((JsonObject) e).getInteger("port"), true);
+            } else {
+                String endpoint = e.toString();
+                int colon = endpoint.lastIndexOf(':');
+                add(endpoint.substring(0, colon), Integer.parseInt(endpoint.substring(colon + 1)), true);
+            }
+        }
+        JsonObject discoveryCfg = cfg.getJsonObject("discovery");
+        this.ttl = discoveryCfg == null ? 0L : discoveryCfg.getLong("ttl", 15000L);
+        if (discoveryCfg != null) {
+            discover(discoveryCfg.getString("address", name + ".endpoints"));
+        } else if (endpoints.isEmpty()) {
+            add(cfg.getString("host"), cfg.getInteger("port"), true);
+        }
+        if (endpoints.size() > 1 || discoveryCfg != null) {
+            vertx.setPeriodic(balancerCfg.getLong("interval", 10000L), t -> detectOutliers());
+        }
+    }
+
+    /**
+     * Find or create the client for a downstream service, which is shared by all of the instances of the insult
+     * service in this process with the same configuration for the downstream
+     * @param vertx The {@link Vertx} instance
+     * @param name The name of the downstream service
+     * @param cfg The {@link JsonObject} configuration block for the downstream service
+     * @return The {@link DownstreamClient}
+     */
+    static DownstreamClient shared(Vertx vertx, String name, JsonObject cfg) {
+        LocalMap<String, DownstreamClient> clients = vertx.sharedData().getLocalMap(MAP_NAME);
+        String key = name + "@" + cfg.encode();
+        // Creating a client starts discovery and outlier detection, so only the client which is kept is created
+        synchronized (DownstreamClient.class) {
+            DownstreamClient downstream = clients.get(key);
+            if (downstream == null) {
+                downstream = new DownstreamClient(vertx, name, cfg);
+                clients.put(key, downstream);
+            }
+            return downstream;
+        }
+    }
+
+    /**
+     * The pool settings for the {@link HttpClient} of one instance, which gets its share of the configured pool
+     * @param options The configured {@link HttpClientOptions}
+     * @param instances The number of instances of the insult service which share the pool
+     * @return The {@link HttpClientOptions} for one instance
+     */
+    static HttpClientOptions shareOut(HttpClientOptions options, int instances) {
+        HttpClientOptions share = new HttpClientOptions(options);
+        if (instances > 1) {
+            share.setMaxPoolSize(Math.max(1, (options.getMaxPoolSize() + instances - 1) / instances));
+            share.setHttp2MaxPoolSize(Math.max(1, (options.getHttp2MaxPoolSize() + instances - 1) / instances));
+        }
+        return share;
+    }
+
+    /**
+     * The {@link HttpClient} for the calling event loop, so that the response is handled on the caller's context
+     * @return The {@link HttpClient}
+     */
+    HttpClient client() {
+        Context context = Vertx.currentContext();
+        if (context == null || context == creator) {
+            return client;
+        }
+        return contextClients.computeIfAbsent(context, c -> vertx.createHttpClient(contextOptions));
+    }
+
+    /**
+     * Follow the endpoints which are announced on the event bus, and ask for them to be announced straight away
+     * @param address The event bus address where the endpoints are announced
+     */
+    private void discover(String address) {
+        vertx.eventBus().<JsonObject>consumer(address, msg -> {
+            JsonObject body = msg.body();
+            if (EndpointAnnouncer.ANNOUNCE.equals(body.getString("action"))) {
+                add(body.getString("host"), body.getInteger("port"), false);
+            }
+        }).completionHandler(v ->
+                vertx.eventBus().publish(address, new JsonObject().put("action", EndpointAnnouncer.QUERY)));
+    }
+
+    /**
+     * Add an endpoint, or note that a discovered endpoint has been announced again
+     * @param host The host of the endpoint
+     * @param port The port of the endpoint
+     * @param fixed {@code true} if the endpoint is configured statically and never expires
+     */
+    private void add(String host, int port, boolean fixed) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.host.equals(host) && endpoint.port == port) {
+                endpoint.lastSeen = System.currentTimeMillis();
+                return;
+            }
+        }
+        Endpoint endpoint = new Endpoint(host, port, fixed);
+        endpoints.add(endpoint);
+        if (!fixed) {
+            LOG.info("Discovered {} endpoint {}", name, endpoint.address);
+        }
+    }
+
+    /**
+     * Send a GET request to one of the endpoints of the downstream service
+     * @param path The path for the request
+     * @param responseHandler The {@link Handler} to be called with the response
+     * @param exceptionHandler The {@link Handler} to be called if the request fails before a response is received
+     */
+    void get(String path, Handler<HttpClientResponse> responseHandler, Handler<Throwable> exceptionHandler) {
+        Endpoint endpoint = choose();
+        if (endpoint == null) {
+            exceptionHandler.handle(new ServiceException(SERVICE_UNAVAILABLE.code(),
+                    "No " + name + " endpoint is available"));
+            return;
+        }
+        AtomicBoolean sent = new AtomicBoolean();
+        endpoint.breaker.<Void>execute(attempt -> {
+            sent.set(true);
+            send(endpoint, path, attempt, responseHandler, exceptionHandler);
+        }).setHandler(res -> {
+            // A request which was refused by the breaker (e.g. while it is half-open) never reached the endpoint
+            if (res.failed() && !sent.get()) {
+                exceptionHandler.handle(res.cause());
+            }
+        });
+    }
+
+    private void send(Endpoint endpoint, String path, Future<Void> attempt,
+                      Handler<HttpClientResponse> responseHandler, Handler<Throwable> exceptionHandler) {
+        endpoint.requests.inc();
+        inFlight.incrementAndGet();
+        endpoint.inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        AtomicBoolean completed = new AtomicBoolean();
+        HttpClientRequest request = client().get(endpoint.port, endpoint.host, path, r -> {
+                    if (completed.compareAndSet(false, true)) {
+                        inFlight.decrementAndGet();
+                        endpoint.complete(System.nanoTime() - start);
+                        if (r.statusCode() >= 500) {
+                            attempt.tryFail("HTTP " + r.statusCode() + " from " + endpoint.address);
+                        } else {
+                            attempt.tryComplete();
+                        }
+                    }
+                    responseHandler.handle(r);
+                })
+                .connectionHandler(conn -> {
+                    createdConnections.incrementAndGet();
+                    openConnections.incrementAndGet();
+                    conn.closeHandler(v -> openConnections.decrementAndGet());
+                })
+                .exceptionHandler(t -> {
+                    if (completed.compareAndSet(false, true)) {
+                        inFlight.decrementAndGet();
+                        endpoint.complete(System.nanoTime() - start);
+                        attempt.tryFail(t);
+                        exceptionHandler.handle(t);
+                    }
+                });
+        if (requestTimeout > 0) {
+            request.setTimeout(requestTimeout);
+        }
+        request.end();
+    }
+
+    /**
+     * Choose the endpoint for the next request, skipping the endpoints which are ejected or whose breaker is open
+     * @return The {@link Endpoint}, or {@code null} if the breakers of all of the endpoints are open
+     */
+    Endpoint choose() {
+        long now = System.currentTimeMillis();
+        List<Endpoint> candidates = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.ejectedUntil <= now && endpoint.breaker.state() != CircuitBreakerState.OPEN) {
+                candidates.add(endpoint);
+            }
+        }
+        if (candidates.isEmpty()) {
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint.breaker.state() != CircuitBreakerState.OPEN) {
+                    candidates.add(endpoint);
+                }
+            }
+        }
+        if (candidates.size() < 2) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+        if (leastOutstanding) {
+            Endpoint best = candidates.get(0);
+            for (Endpoint endpoint : candidates) {
+                if (endpoint.compareTo(best) < 0) {
+                    best = endpoint;
+                }
+            }
+            return best;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Endpoint a = candidates.get(first);
+        Endpoint b = candidates.get(second);
+        return b.compareTo(a) < 0 ? b : a;
+    }
+
+    /**
+     * Forget the discovered endpoints which have stopped announcing themselves, let the ejected endpoints whose time is
+     * up back in, and eject the endpoints which are much slower than the others
+     */
+    void detectOutliers() {
+        long now = System.currentTimeMillis();
+        endpoints.removeIf(e -> {
+            boolean expired = !e.fixed && now - e.lastSeen > ttl;
+            if (expired) {
+                LOG.info("Dropped {} endpoint {}, which is no longer announced", name, e.address);
+                e.close();
+            }
+            return expired;
+        });
+        List<Endpoint> active = new ArrayList<>();
+        int ejected = 0;
+        for (Endpoint endpoint : endpoints) {
+            int samples = endpoint.takeSamples();
+            if (endpoint.ejectedUntil > now) {
+                ejected++;
+            } else if (samples > 0) {
+                active.add(endpoint);
+            }
+        }
+        int maxEjected = endpoints.size() * maxEjectionPercent / 100;
+        if (active.size() > 1) {
+            active.sort(Comparator.comparingDouble(e -> e.latency));
+            double median = active.get((active.size() - 1) / 2).latency;
+            for (int i = active.size() - 1; i >= 0; i--) {
+                Endpoint endpoint = active.get(i);
+                if (ejected < maxEjected && endpoint.latency > minLatencyNanos
+                        && endpoint.latency > median * latencyFactor) {
+                    ejected++;
+                    endpoint.eject(now, median);
+                } else {
+                    endpoint.ejections = Math.max(0, endpoint.ejections - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of requests which can be in-flight at once before requests start to wait in the queue
+     * @return The request capacity of the pools of all of the endpoints, or {@link Integer#MAX_VALUE} if it is
+     * unbounded
+     */
+    int capacity() {
+        long capacity;
+        if (options.getProtocolVersion() == HttpVersion.HTTP_2) {
+            if (options.getHttp2MultiplexingLimit() < 1) {
+                return Integer.MAX_VALUE;
+            }
+            capacity = (long) options.getHttp2MaxPoolSize() * options.getHttp2MultiplexingLimit();
+        } else {
+            capacity = (long) options.getMaxPoolSize() * (options.isPipelining() ? options.getPipeliningLimit() : 1);
+        }
+        return (int) Math.min(capacity * Math.max(1, endpoints.size()), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Report on the usage of the connection pool and the state of the endpoints. The number of queued requests is
+     * derived from the number of in-flight requests which exceed the capacity of the pool.
+     * @return A {@link JsonObject} containing the pool and endpoint statistics
+     */
+    JsonObject stats() {
+        int requests = inFlight.get();
+        long now = System.currentTimeMillis();
+        JsonArray endpointStats = new JsonArray();
+        for (Endpoint endpoint : endpoints) {
+            endpointStats.add(new JsonObject()
+                    .put("endpoint", endpoint.address)
+                    .put("inFlight", endpoint.inFlight.get())
+                    .put("latency", TimeUnit.NANOSECONDS.toMillis((long) endpoint.latency))
+                    .put("state", endpoint.breaker.state().toString())
+                    .put("ejected", endpoint.ejectedUntil > now));
+        }
+        return new JsonObject()
+                .put("protocol", options.getProtocolVersion().toString())
+                .put("strategy", leastOutstanding ? "least" : "p2c")
+                .put("inUse", Math.min(requests, capacity()))
+                .put("queued", Math.max(0, requests - capacity()))
+                .put("openConnections", openConnections.get())
+                .put("createdConnections", createdConnections.get())
+                .put("endpoints", endpointStats);
+    }
+
+    /**
+     * One instance of the downstream service
+     */
+    class Endpoint implements Comparable<Endpoint> {
+        final String host;
+        final int port;
+        final String address;
+        final boolean fixed;
+        final CircuitBreaker breaker;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final Counter requests;
+        final Counter ejectionCount;
+        volatile long lastSeen = System.currentTimeMillis();
+        volatile long ejectedUntil;
+        volatile double latency;
+        // Guarded by this, as the requests of every instance complete here
+        private int samples;
+        int ejections;
+
+        Endpoint(String host, int port, boolean fixed) {
+            this.host = host;
+            this.port = port;
+            this.address = host + ":" + port;
+            this.fixed = fixed;
+            this.breaker = CircuitBreaker.create(name + "@" + address, vertx, breakerOptions)
+                    .openHandler(v -> LOG.warn("Circuit breaker of {} endpoint {} has opened", name, address))
+                    .closeHandler(v -> LOG.warn("Circuit breaker of {} endpoint {} has closed", name, address));
+            MetricsRegistry registry = MetricsRegistry.shared();
+            this.requests = registry.counter(REQUESTS_METRIC,
+                    "Requests sent to an endpoint of the downstream service", "downstream", name, "endpoint", address);
+            this.ejectionCount = registry.counter(EJECTIONS_METRIC,
+                    "Times an endpoint of the downstream service was ejected as an outlier",
+                    "downstream", name, "endpoint", address);
+            holdMetrics(1);
+        }
+
+        /**
+         * Release the circuit breaker of an endpoint which has been dropped, and remove its metrics once no client in
+         * this process holds the endpoint any more
+         */
+        void close() {
+            breaker.close();
+            if (holdMetrics(-1) == 0) {
+                MetricsRegistry registry = MetricsRegistry.shared();
+                registry.remove(REQUESTS_METRIC, "downstream", name, "endpoint", address);
+                registry.remove(EJECTIONS_METRIC, "downstream", name, "endpoint", address);
+            }
+        }
+
+        /**
+         * Count the clients which hold this endpoint, as its metrics are shared by the clients of every instance of
+         * the insult service in this process
+         * @param delta {@code 1} when a client adds the endpoint, {@code -1} when it drops it
+         * @return The number of clients which still hold the endpoint
+         */
+        private int holdMetrics(int delta) {
+            LocalMap<String, Integer> holders = vertx.sharedData().getLocalMap(METRIC_HOLDERS);
+            String key = name + "@" + address;
+            synchronized (DownstreamClient.class) {
+                Integer held = holders.get(key);
+                int count = (held == null ? 0 : held) + delta;
+                if (count > 0) {
+                    holders.put(key, count);
+                } else {
+                    holders.remove(key);
+                }
+                return count;
+            }
+        }
+
+        void complete(long latencyNanos) {
+            inFlight.decrementAndGet();
+            synchronized (this) {
+                latency = latency == 0 ? latencyNanos : latency + LATENCY_WEIGHT * (latencyNanos - latency);
+                samples++;
+            }
+        }
+
+        /**
+         * The number of requests which have completed since the last call, see {@link #detectOutliers()}
+         * @return The number of samples
+         */
+        synchronized int takeSamples() {
+            int taken = samples;
+            samples = 0;
+            return taken;
+        }
+
+        synchronized void eject(long now, double median) {
+            ejections++;
+            ejectedUntil = now + ejectionTime * ejections;
+            ejectionCount.inc();
+            LOG.warn("Ejected {} endpoint {} for {}ms, average latency {}ms against a median of {}ms", name, address,
+                    ejectionTime * ejections, TimeUnit.NANOSECONDS.toMillis((long) latency),
+                    TimeUnit.NANOSECONDS.toMillis((long) median));
+            // Start afresh when it is let back in, rather than being judged on the latency which got it ejected
+            latency = 0;
+        }
+
+        @Override
+        public int compareTo(Endpoint other) {
+            int byInFlight = Integer.compare(inFlight.get(), other.inFlight.get());
+            return byInFlight != 0 ? byInFlight : Double.compare(latency, other.latency);
+        }
+    }
+}
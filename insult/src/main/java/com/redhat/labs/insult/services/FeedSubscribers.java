@@ -0,0 +1,87 @@
+package com.redhat.labs.insult.services;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.web.handler.sockjs.BridgeEvent;
+import io.vertx.ext.web.handler.sockjs.SockJSSocket;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Counts the browsers which are subscribed to the {@link InsultFeed} through the SockJS bridge of any instance of the
+ * insult service in this process, so that the feed only generates and publishes insults while somebody is listening.
+ */
+public final class FeedSubscribers implements Shareable {
+
+    private static final String MAP_NAME = "insult.feed.subscribers";
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private FeedSubscribers() {
+    }
+
+    /**
+     * Find or create the subscriber count, which is shared by all of the instances of the insult service in this
+     * process
+     * @param vertx The {@link Vertx} instance
+     * @return The {@link FeedSubscribers}
+     */
+    public static FeedSubscribers of(Vertx vertx) {
+        LocalMap<String, FeedSubscribers> counts = vertx.sharedData().getLocalMap(MAP_NAME);
+        FeedSubscribers created = new FeedSubscribers();
+        FeedSubscribers existing = counts.putIfAbsent(MAP_NAME, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * @return The number of feed addresses which are currently registered by browsers
+     */
+    public int get() {
+        return count.get();
+    }
+
+    /**
+     * Create a SockJS bridge event handler which counts the registrations for the feed address and its rate tiers.
+     * Each handler tracks the sockets of one bridge, so that the registrations of a browser which goes away without
+     * unregistering are released when its socket closes. Every event is allowed through.
+     * @param address The base address of the feed
+     * @return The {@link Handler} to pass to the bridge
+     */
+    public Handler<BridgeEvent> tracker(String address) {
+        Pattern feed = Pattern.compile(Pattern.quote(address) + "(\\.[0-9]+)?");
+        Map<SockJSSocket, Set<String>> registered = new HashMap<>();
+        return event -> {
+            String target = event.getRawMessage() == null ? null : event.getRawMessage().getString("address");
+            switch (event.type()) {
+                case REGISTER:
+                    if (target != null && feed.matcher(target).matches()
+                            && registered.computeIfAbsent(event.socket(), s -> new HashSet<>()).add(target)) {
+                        count.incrementAndGet();
+                    }
+                    break;
+                case UNREGISTER:
+                    Set<String> addresses = registered.get(event.socket());
+                    if (addresses != null && addresses.remove(target)) {
+                        count.decrementAndGet();
+                    }
+                    break;
+                case SOCKET_CLOSED:
+                    Set<String> remaining = registered.remove(event.socket());
+                    if (remaining != null) {
+                        count.addAndGet(-remaining.size());
+                    }
+                    break;
+                default:
+                    break;
+            }
+            event.complete(true);
+        };
+    }
+}
@@ -0,0 +1,222 @@
+package com.redhat.labs.insult.services;
+
+import com.redhat.labs.rhoar.vertx.metrics.Counter;
+import com.redhat.labs.rhoar.vertx.metrics.Histogram;
+import com.redhat.labs.rhoar.vertx.metrics.MetricsRegistry;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hedges the calls to one downstream service (noun or adjective): when a call has not been answered after the
+ * {@code percentile} of the recent latencies of the service (bounded by {@code minDelay} and {@code maxDelay}
+ * milliseconds), the same call is sent again and the first answer wins. A slow response from one instance or
+ * connection then costs at most the hedge delay plus a typical response time.
+ *
+ * Hedges are paid for from a budget: every call adds {@code budget} (e.g. 0.05 for at most 5% extra calls) to a
+ * bucket which holds at most {@code burst} hedges, and every hedge takes one from it. The latencies of the first
+ * attempts and of the hedged calls as a whole are recorded in the {@code hedge_latency_seconds} histogram, so that the
+ * tail latency with and without hedging can be compared. A hedger is shared by all of the instances of the insult
+ * service in this process.
+ */
+class Hedger implements Shareable {
+
+    private static final String MAP_NAME = "insult.hedgers";
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE_EVERY = 32;
+
+    final String name;
+    private final double percentile;
+    private final long minDelay;
+    private final long maxDelay;
+    private final double budget;
+    private final double burst;
+    private final Counter requests;
+    private final Counter hedges;
+    private final Counter wins;
+    private final Counter exhausted;
+    private final Histogram primaryLatency;
+    private final Histogram hedgedLatency;
+    private volatile long delay;
+
+    // Guarded by this
+    private final long[] window;
+    private int samples;
+    private double tokens;
+
+    private Hedger(String name, JsonObject cfg) {
+        this.name = name;
+        this.percentile = Math.min(100.0, Math.max(1.0, cfg.getDouble("percentile", 95.0)));
+        this.minDelay = Math.max(1L, cfg.getLong("minDelay", 5L));
+        this.maxDelay = Math.max(minDelay, cfg.getLong("maxDelay", 250L));
+        this.budget = cfg.getDouble("budget", 0.05);
+        this.burst = cfg.getDouble("burst", 10.0);
+        this.window = new long[Math.max(MIN_SAMPLES, cfg.getInteger("window", 1000))];
+        this.tokens = burst;
+        MetricsRegistry registry = MetricsRegistry.shared();
+        this.requests = registry.counter("hedge_requests_total", "Calls which may be hedged", "downstream", name);
+        this.hedges = registry.counter("hedge_sent_total", "Hedged calls which were sent", "downstream", name);
+        this.wins = registry.counter("hedge_wins_total", "Hedged calls which answered before the first attempt",
+                "downstream", name);
+        this.exhausted = registry.counter("hedge_budget_exhausted_total",
+                "Hedges which were not sent because the hedge budget was used up", "downstream", name);
+        String help = "Latency of the first attempt alone (unhedged) and of the first answer (hedged)";
+        this.primaryLatency = registry.histogram("hedge_latency_seconds", help,
+                "downstream", name, "latency", "unhedged");
+        this.hedgedLatency = registry.histogram("hedge_latency_seconds", help,
+                "downstream", name, "latency", "hedged");
+    }
+
+    /**
+     * Find or create the hedger for a downstream service, which is shared by all of the instances of the insult
+     * service in this process
+     * @param vertx The {@link Vertx} instance
+     * @param name The name of the downstream service
+     * @param cfg The {@code hedging} configuration block
+     * @return The {@link Hedger}
+     */
+    static Hedger shared(Vertx vertx, String name, JsonObject cfg) {
+        LocalMap<String, Hedger> hedgers = vertx.sharedData().getLocalMap(MAP_NAME);
+        Hedger hedger = hedgers.get(name);
+        if (hedger == null) {
+            Hedger created = new Hedger(name, cfg);
+            hedger = hedgers.putIfAbsent(name, created);
+            if (hedger == null) {
+                hedger = created;
+                MetricsRegistry.shared().gauge("hedge_delay_milliseconds",
+                        "How long a call waits for an answer before it is hedged", () -> created.delay,
+                        "downstream", name);
+            }
+        }
+        return hedger;
+    }
+
+    /**
+     * Make a call, and make it again if it has not been answered within the hedge delay. The result of the first
+     * attempt to succeed is used; the call only fails once every attempt has failed. The attempts must run on the
+     * caller's context.
+     * @param vertx The {@link Vertx} instance, used for the hedge timer
+     * @param call The call, which must complete the {@link Future} it is given
+     * @param result The {@link Future} to be completed with the result of the first successful attempt
+     * @param <T> The type of the result
+     */
+    <T> void call(Vertx vertx, Handler<Future<T>> call, Future<T> result) {
+        requests.inc();
+        earn();
+        long start = System.nanoTime();
+        int[] outstanding = {1};
+        long[] timer = {-1};
+        Future<T> primary = Future.future();
+        primary.setHandler(res -> {
+            if (timer[0] != -1) {
+                vertx.cancelTimer(timer[0]);
+            }
+            long latency = System.nanoTime() - start;
+            primaryLatency.record(latency);
+            if (res.succeeded()) {
+                sample(latency);
+            }
+            complete(res, result, outstanding, start, false);
+        });
+        long hedgeDelay = delay;
+        if (hedgeDelay > 0) {
+            timer[0] = vertx.setTimer(hedgeDelay, t -> {
+                timer[0] = -1;
+                if (result.isComplete()) {
+                    return;
+                }
+                if (!spend()) {
+                    exhausted.inc();
+                    return;
+                }
+                hedges.inc();
+                outstanding[0]++;
+                long hedgeStart = System.nanoTime();
+                Future<T> hedge = Future.future();
+                hedge.setHandler(res -> {
+                    if (res.succeeded()) {
+                        sample(System.nanoTime() - hedgeStart);
+                    }
+                    complete(res, result, outstanding, start, true);
+                });
+                invoke(call, hedge);
+            });
+        }
+        invoke(call, primary);
+    }
+
+    private <T> void complete(AsyncResult<T> res, Future<T> result, int[] outstanding, long start,
+                              boolean hedge) {
+        outstanding[0]--;
+        if (result.isComplete()) {
+            return;
+        }
+        if (res.succeeded()) {
+            hedgedLatency.record(System.nanoTime() - start);
+            if (hedge) {
+                wins.inc();
+            }
+            result.tryComplete(res.result());
+        } else if (outstanding[0] == 0) {
+            hedgedLatency.record(System.nanoTime() - start);
+            result.tryFail(res.cause());
+        }
+    }
+
+    private static <T> void invoke(Handler<Future<T>> call, Future<T> attempt) {
+        try {
+            call.handle(attempt);
+        } catch (RuntimeException e) {
+            attempt.tryFail(e);
+        }
+    }
+
+    private synchronized void earn() {
+        tokens = Math.min(burst, tokens + budget);
+    }
+
+    private synchronized boolean spend() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Add the latency of a successful attempt to the window, and recompute the hedge delay every few samples
+     * @param latencyNanos The latency of the attempt
+     */
+    private synchronized void sample(long latencyNanos) {
+        window[samples % window.length] = latencyNanos;
+        samples++;
+        if (samples >= MIN_SAMPLES && samples % RECOMPUTE_EVERY == 0) {
+            long[] sorted = Arrays.copyOf(window, Math.min(samples, window.length));
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            long millis = TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, rank)]);
+            delay = Math.min(maxDelay, Math.max(minDelay, millis));
+        }
+    }
+
+    /**
+     * Report on the hedging of calls to the downstream service
+     * @return A {@link JsonObject} containing the hedge delay and the number of calls, hedges and hedge wins
+     */
+    JsonObject stats() {
+        long calls = requests.get();
+        return new JsonObject()
+                .put("delay", delay)
+                .put("requests", calls)
+                .put("hedges", hedges.get())
+                .put("wins", wins.get())
+                .put("hedgeRate", calls == 0 ? 0.0 : (double) hedges.get() / calls);
+    }
+}
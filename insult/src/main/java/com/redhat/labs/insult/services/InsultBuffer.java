@@ -0,0 +1,128 @@
+package com.redhat.labs.insult.services;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer of pre-generated insults (a noun and two adjectives). Both {@link #offer(JsonObject)}
+ * and {@link #poll()} are O(1) and safe to call from multiple threads: each slot carries a sequence number which tells
+ * producers and consumers whether the slot is ready for them, so no locks are needed. The buffer is shared by all of the
+ * instances of the insult service in this process, along with the flag which lets only one of them refill it at a time.
+ */
+class InsultBuffer implements Shareable {
+
+    private static final String MAP_NAME = "insult.buffer";
+
+    final AtomicBoolean refilling = new AtomicBoolean();
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<JsonObject> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Create a new {@link InsultBuffer}
+     * @param depth The maximum number of insults to be held, rounded up to the next power of two
+     */
+    InsultBuffer(int depth) {
+        int size = Integer.highestOneBit(Math.max(2, depth) - 1) << 1;
+        capacity = size;
+        mask = size - 1;
+        slots = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Find or create the buffer which is shared by all of the instances of the insult service in this process
+     * @param vertx The {@link Vertx} instance
+     * @param depth The maximum number of insults to be held, if the buffer is created
+     * @return The {@link InsultBuffer}
+     */
+    static InsultBuffer shared(Vertx vertx, int depth) {
+        LocalMap<String, InsultBuffer> buffers = vertx.sharedData().getLocalMap(MAP_NAME);
+        InsultBuffer buffer = buffers.get(MAP_NAME);
+        if (buffer == null) {
+            InsultBuffer created = new InsultBuffer(depth);
+            buffer = buffers.putIfAbsent(MAP_NAME, created);
+            if (buffer == null) {
+                buffer = created;
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Add an insult to the buffer
+     * @param insult The insult to be added
+     * @return {@code true} if the insult was added, {@code false} if the buffer is full
+     */
+    boolean offer(JsonObject insult) {
+        while (true) {
+            long pos = tail.get();
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.lazySet(idx, insult);
+                    sequences.set(idx, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest insult from the buffer
+     * @return The insult, or {@code null} if the buffer is empty
+     */
+    JsonObject poll() {
+        while (true) {
+            long pos = head.get();
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    JsonObject insult = slots.get(idx);
+                    slots.lazySet(idx, null);
+                    sequences.set(idx, pos + capacity);
+                    return insult;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The approximate number of insults currently held
+     * @return The number of insults in the buffer
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    /**
+     * The maximum number of insults which can be held
+     * @return The capacity of the buffer
+     */
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,193 @@
+package com.redhat.labs.insult.services;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes a single stream of generated insults on the event bus, so that any number of subscribers (e.g. browsers
+ * connected through the SockJS bridge) cost the backend one generation stream instead of one request per insult.
+ *
+ * Insults are generated in batches and published at a rate which is set by the server. Each subscriber chooses how
+ * often it wants to receive an insult by registering for one of the rate tiers: the address {@code <address>.<rate>}
+ * receives {@code rate} insults per second, taken from the same stream. Every insult is also published on the base
+ * address at the full feed rate.
+ *
+ * Nothing is generated or published while no browser is subscribed through the SockJS bridge (see
+ * {@link FeedSubscribers}), so an idle feed costs the noun and adjective services nothing.
+ */
+class InsultFeed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InsultFeed.class);
+
+    private static final long REFILL_RETRY = 1000L;
+
+    private final Vertx vertx;
+    private final InsultServiceImpl service;
+    private final String address;
+    private final int rate;
+    private final int batchSize;
+    private final int[] tiers;
+    private final int[] tierEvery;
+    private final FeedSubscribers subscribers;
+
+    private final Deque<JsonObject> pending = new ArrayDeque<>();
+    private final AtomicLong published = new AtomicLong();
+    private boolean refilling;
+    private long retryAt;
+    private long sequence;
+    private long scheduled;
+
+    /**
+     * Create a new {@link InsultFeed}
+     * @param vertx The {@link Vertx} instance
+     * @param service The {@link InsultServiceImpl} which generates the insults
+     * @param cfg The {@code feed} configuration block, containing the {@code address}, the feed {@code rate} in
+     *            insults per second, the generation {@code batchSize} and the subscriber rate tiers ({@code rates})
+     */
+    InsultFeed(Vertx vertx, InsultServiceImpl service, JsonObject cfg) {
+        this.vertx = vertx;
+        this.service = service;
+        this.address = cfg.getString("address", "insult.feed");
+        this.rate = Math.max(1, cfg.getInteger("rate", 10));
+        this.batchSize = Math.max(1, cfg.getInteger("batchSize", rate * 5));
+        JsonArray rates = rates(cfg);
+        this.tiers = new int[rates.size()];
+        this.tierEvery = new int[rates.size()];
+        for (int i = 0; i < rates.size(); i++) {
+            tiers[i] = rates.getInteger(i);
+            tierEvery[i] = Math.max(1, Math.round((float) rate / tiers[i]));
+        }
+        this.subscribers = FeedSubscribers.of(vertx);
+    }
+
+    /**
+     * The rate tiers which subscribers may choose from
+     * @param cfg The {@code feed} configuration block
+     * @return The configured {@code rates}, limited to the feed {@code rate}, since a tier can not be faster than the
+     *         feed itself
+     */
+    static JsonArray rates(JsonObject cfg) {
+        int rate = Math.max(1, cfg.getInteger("rate", 10));
+        JsonArray tiers = new JsonArray();
+        cfg.getJsonArray("rates", new JsonArray()).forEach(r -> {
+            int tier = Math.max(1, Math.min(rate, ((Number) r).intValue()));
+            if (!tiers.contains(tier)) {
+                tiers.add(tier);
+            }
+        });
+        return tiers;
+    }
+
+    /**
+     * Describe the feed to the browsers, so that they do not need to know its address or rate tiers in advance
+     * @param cfg The {@code feed} configuration block
+     * @return A {@link JsonObject} containing whether the feed is {@code enabled}, its {@code address} and its
+     *         {@code rates}
+     */
+    static JsonObject describe(JsonObject cfg) {
+        return new JsonObject()
+                .put("enabled", cfg.getBoolean("enabled", Boolean.FALSE))
+                .put("address", cfg.getString("address", "insult.feed"))
+                .put("rates", rates(cfg));
+    }
+
+    /**
+     * Start publishing. The feed ticks at most once per millisecond, and publishes on each tick the insults which have
+     * become due since the previous one, see {@link #due(long)}.
+     */
+    void start() {
+        long period = Math.max(1L, 1000L / rate);
+        long startNanos = System.nanoTime();
+        vertx.setPeriodic(period, t -> publish(due(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))));
+        LOG.info("Publishing {} insults per second on {}", rate, address);
+    }
+
+    /**
+     * Count the insults which are due, so that the feed publishes {@code rate} insults per second whether or not the
+     * rate divides into the ticks. A feed which has fallen behind (e.g. while the event loop was blocked) catches up
+     * by at most one second of insults.
+     * @param elapsedMillis The time since the feed was started
+     * @return The number of insults to publish now
+     */
+    int due(long elapsedMillis) {
+        long target = elapsedMillis * rate / 1000L;
+        int count = (int) Math.min(rate, target - scheduled);
+        scheduled = target;
+        return count;
+    }
+
+    /**
+     * Publish the next insults from the pending batch to the base address and to every rate tier which is due. Does
+     * nothing while there are no subscribers.
+     * @param count The number of insults to publish
+     */
+    void publish(int count) {
+        if (subscribers.get() == 0) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            JsonObject insult = pending.poll();
+            if (insult == null) {
+                break;
+            }
+            sequence++;
+            vertx.eventBus().publish(address, insult);
+            for (int t = 0; t < tiers.length; t++) {
+                if (sequence % tierEvery[t] == 0) {
+                    vertx.eventBus().publish(address + "." + tiers[t], insult);
+                }
+            }
+            published.incrementAndGet();
+        }
+        if (pending.size() < batchSize / 2) {
+            refill();
+        }
+    }
+
+    /**
+     * Generate the next batch of insults, unless a batch is already being generated. When the other microservices
+     * can not supply any words, the next attempt is delayed so that the feed does not trip the circuit breakers.
+     */
+    private void refill() {
+        if (refilling || System.currentTimeMillis() < retryAt) {
+            return;
+        }
+        refilling = true;
+        service.insultBatch(batchSize, false, res -> {
+            refilling = false;
+            if (res.succeeded() && !res.result().isEmpty()) {
+                res.result().forEach(o -> pending.add((JsonObject) o));
+            } else {
+                LOG.debug("Unable to generate insults for the feed, retrying", res.cause());
+                retryAt = System.currentTimeMillis() + REFILL_RETRY;
+            }
+        });
+    }
+
+    /**
+     * Report on the state of the feed
+     * @return A {@link JsonObject} containing the rate, the rate tiers, the number of subscribers and the number of
+     *         insults published
+     */
+    JsonObject stats() {
+        JsonArray rates = new JsonArray();
+        for (int tier : tiers) {
+            rates.add(tier);
+        }
+        return new JsonObject()
+                .put("address", address)
+                .put("rate", rate)
+                .put("rates", rates)
+                .put("subscribers", subscribers.get())
+                .put("pending", pending.size())
+                .put("published", published.get());
+    }
+}
@@ -1,27 +1,58 @@
 package com.redhat.labs.insult.services;
 
+import com.redhat.labs.rhoar.vertx.db.RandomWords;
+import com.redhat.labs.rhoar.vertx.launcher.PerProcess;
+import com.redhat.labs.rhoar.vertx.launcher.StartupTimer;
+import com.redhat.labs.rhoar.vertx.metrics.Counter;
+import com.redhat.labs.rhoar.vertx.metrics.MetricsRegistry;
 import io.vertx.circuitbreaker.CircuitBreaker;
 import io.vertx.circuitbreaker.CircuitBreakerOptions;
 import io.vertx.circuitbreaker.CircuitBreakerState;
 import io.vertx.core.*;
-import io.vertx.core.http.HttpClient;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.function.Function;
+
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
 
 public class InsultServiceImpl implements InsultService {
 
     private static final Logger LOG = LoggerFactory.getLogger(InsultServiceImpl.class);
 
+    /**
+     * The largest batch of insults which one {@code getMany} call per downstream service can supply: each insult needs
+     * two adjectives, and {@code getMany} returns at most {@link RandomWords#MAX_COUNT} words
+     */
+    public static final int MAX_BATCH = RandomWords.MAX_COUNT / 2;
+
+    private static final String BREAKER_MAP = "insult.breakers";
+
     Vertx vertx;
-    HttpClient client;
-    JsonObject nounCfg;
-    JsonObject adjCfg;
+    boolean useEventBus;
+    String nounAddress;
+    String adjAddress;
+    DownstreamClient nounClient;
+    DownstreamClient adjClient;
     JsonObject breakerCfg;
     private CircuitBreaker nounBreaker;
     private CircuitBreaker adjBreaker;
+    ConcurrencyLimiter nounLimiter;
+    ConcurrencyLimiter adjLimiter;
+    Hedger nounHedger;
+    Hedger adjHedger;
+    VocabularyReplica nounReplica;
+    VocabularyReplica adjReplica;
+    InsultBuffer buffer;
+    int lowWatermark;
+    int batchSize;
+    JsonObject feedCfg;
+    InsultFeed feed;
 
     /**
      * Default constructor. Sets up the circuit breakers and other requirements for this Insult service
@@ -29,18 +60,51 @@ public class InsultServiceImpl implements InsultService {
      */
     public InsultServiceImpl(Vertx vertx) {
         this.vertx = vertx;
-        client = vertx.createHttpClient();
-        nounCfg = vertx.getOrCreateContext().config().getJsonObject("noun");
-        adjCfg = vertx.getOrCreateContext().config().getJsonObject("adjective");
+        JsonObject nounCfg = vertx.getOrCreateContext().config().getJsonObject("noun");
+        JsonObject adjCfg = vertx.getOrCreateContext().config().getJsonObject("adjective");
+        useEventBus = "eventbus".equalsIgnoreCase(vertx.getOrCreateContext().config().getString("transport", "http"));
+        nounAddress = nounCfg.getString("address", "noun.service");
+        adjAddress = adjCfg.getString("address", "adjective.service");
+        nounClient = DownstreamClient.shared(vertx, "noun", nounCfg);
+        adjClient = DownstreamClient.shared(vertx, "adjective", adjCfg);
         breakerCfg = vertx.getOrCreateContext().config().getJsonObject("breakers");
-        nounBreaker = CircuitBreaker.create("noun", vertx, new CircuitBreakerOptions(breakerCfg));
-        nounBreaker.openHandler(o -> LOG.warn("Noun circuit breaker has opened"))
-                .closeHandler(c -> LOG.warn("Noun circuit breaker has closed"))
-                .fallback(t -> "[noun fallback]");
-        adjBreaker = CircuitBreaker.create("adj", vertx, new CircuitBreakerOptions(breakerCfg));
-        adjBreaker.openHandler(o -> LOG.warn("Adjective circuit breaker has opened"))
-                .closeHandler(c -> LOG.warn("Adjective circuit breaker has closed"))
-                .fallback(t -> "[adjective fallback]");
+        nounBreaker = sharedBreaker(vertx, "noun", "Noun", breakerCfg, t -> "[noun fallback]");
+        adjBreaker = sharedBreaker(vertx, "adj", "Adjective", breakerCfg, t -> "[adjective fallback]");
+        JsonObject limiterCfg = vertx.getOrCreateContext().config().getJsonObject("limiter", new JsonObject());
+        if (limiterCfg.getBoolean("enabled", Boolean.FALSE)) {
+            nounLimiter = ConcurrencyLimiter.shared(vertx, "noun", limiterCfg);
+            adjLimiter = ConcurrencyLimiter.shared(vertx, "adjective", limiterCfg);
+        }
+        JsonObject hedgingCfg = vertx.getOrCreateContext().config().getJsonObject("hedging", new JsonObject());
+        if (hedgingCfg.getBoolean("enabled", Boolean.FALSE)) {
+            nounHedger = Hedger.shared(vertx, "noun", hedgingCfg);
+            adjHedger = Hedger.shared(vertx, "adjective", hedgingCfg);
+        }
+        JsonObject replicaCfg = vertx.getOrCreateContext().config().getJsonObject("replica", new JsonObject());
+        if (replicaCfg.getBoolean("enabled", Boolean.FALSE)) {
+            long resyncInterval = replicaCfg.getLong("resyncInterval", 60000L);
+            nounReplica = VocabularyReplica.shared(vertx, nounClient, "/api/v1/nouns/all", "nouns",
+                    replicaCfg.getString("nounEvents", "noun.events"), resyncInterval);
+            adjReplica = VocabularyReplica.shared(vertx, adjClient, "/api/v1/adjectives/all", "adjectives",
+                    replicaCfg.getString("adjectiveEvents", "adjective.events"), resyncInterval);
+        }
+        JsonObject bufferCfg = vertx.getOrCreateContext().config().getJsonObject("buffer", new JsonObject());
+        if (bufferCfg.getBoolean("enabled", Boolean.FALSE)) {
+            buffer = InsultBuffer.shared(vertx, bufferCfg.getInteger("depth", 256));
+            lowWatermark = bufferCfg.getInteger("lowWatermark", buffer.capacity() / 4);
+            batchSize = checkBatchSize("buffer.batchSize", bufferCfg.getInteger("batchSize", 32));
+            // The buffer is shared, so one instance keeps it topped up; the others still refill it on a miss
+            if (PerProcess.claim(vertx, "insult.buffer")) {
+                vertx.setPeriodic(bufferCfg.getLong("refillInterval", 1000L), t -> maybeRefillBuffer());
+                refillBuffer();
+            }
+        }
+        feedCfg = vertx.getOrCreateContext().config().getJsonObject("feed", new JsonObject());
+        // The feed is published once per process, however many instances of the MainVerticle are deployed
+        if (feedCfg.getBoolean("enabled", Boolean.FALSE) && PerProcess.claim(vertx, "insult.feed")) {
+            feed = new InsultFeed(vertx, this, feedCfg);
+            feed.start();
+        }
     }
 
     /**
@@ -54,13 +118,13 @@ public class InsultServiceImpl implements InsultService {
 
     /**
      * A method for making a REST API call against the other microservices
-     * @param cfg The {@link JsonObject} for configuring the Async HTTP Client
+     * @param downstream The {@link DownstreamClient} for the service to be called
      * @param path The path for the request
      * @param f A {@link Future} which will be used to handle the results
      */
-    private void makeRestCall(JsonObject cfg, String path, Future<String> f) {
+    private void makeRestCall(DownstreamClient downstream, String path, Future<String> f) {
         LOG.debug("Executing GET: {}", path);
-        client.getNow(cfg.getInteger("port"), cfg.getString("host"), path, r -> {
+        downstream.get(path, r -> {
             if (r.statusCode() == OK.code()) {
                 r.bodyHandler(b -> {
                     try {
@@ -77,7 +141,292 @@ public class InsultServiceImpl implements InsultService {
             } else {
                 f.complete("[timeout]");
             }
+        }, f::tryFail);
+    }
+
+    /**
+     * A method for making a REST API call which returns a batch of words from the other microservices
+     * @param downstream The {@link DownstreamClient} for the service to be called
+     * @param path The path for the request
+     * @param key The key in the response body which contains the array of words
+     * @param f A {@link Future} which will be used to handle the results
+     */
+    private void makeBatchRestCall(DownstreamClient downstream, String path, String key, Future<JsonArray> f) {
+        LOG.debug("Executing GET: {}", path);
+        downstream.get(path, r -> {
+            if (r.statusCode() == OK.code()) {
+                r.bodyHandler(b -> {
+                    try {
+                        f.complete(b.toJsonObject().getJsonArray(key, new JsonArray()));
+                    } catch (Exception e) {
+                        f.complete(new JsonArray());
+                    }
+                });
+            } else {
+                f.complete(new JsonArray());
+            }
+        }, f::tryFail);
+    }
+
+    /**
+     * A method for calling a method on the Service Proxy of one of the other microservices over the (clustered)
+     * event bus. This sends the same message which the generated {@code VertxEBProxy} would send, so the insult
+     * service does not need a compile-time dependency on the other services.
+     * @param address The event bus address where the Service Proxy is registered
+     * @param action The name of the Service Proxy method to be called
+     * @param args The arguments of the Service Proxy method, by name
+     * @param f A {@link Future} which will be completed with the JSON String returned by the Service Proxy method
+     */
+    private void makeEventBusCall(String address, String action, JsonObject args, Future<JsonObject> f) {
+        LOG.debug("Sending '{}' to {}", action, address);
+        DeliveryOptions opts = new DeliveryOptions()
+                .addHeader("action", action)
+                .setSendTimeout(breakerCfg.getLong("timeout", DeliveryOptions.DEFAULT_TIMEOUT));
+        vertx.eventBus().<String>send(address, args, opts, reply -> {
+            if (reply.succeeded()) {
+                try {
+                    f.complete(new JsonObject(reply.result().body()));
+                } catch (Exception e) {
+                    f.fail(e);
+                }
+            } else {
+                f.fail(reply.cause());
+            }
+        });
+    }
+
+    /**
+     * Take a permit from the concurrency limiter of each of the other microservices, so that a request which can not
+     * be served is rejected before any call is made. Either both permits are taken or neither is.
+     * @param permits An array which receives the noun permit and the adjective permit; both stay {@code null} when
+     *                the limiters are disabled
+     * @return {@code null} if the permits were taken or the limiters are disabled, otherwise the rejection
+     */
+    private Throwable acquirePermits(ConcurrencyLimiter.Permit[] permits) {
+        if (nounLimiter == null) {
+            return null;
+        }
+        permits[0] = nounLimiter.acquire();
+        if (permits[0] == null) {
+            return nounLimiter.rejection();
+        }
+        permits[1] = adjLimiter.acquire();
+        if (permits[1] == null) {
+            permits[0].cancel();
+            return adjLimiter.rejection();
+        }
+        return null;
+    }
+
+    /**
+     * Make a call to one of the other microservices through its circuit breaker, under a limiter permit which was
+     * taken beforehand. Keeping the limiter outside of the breaker means that a rejection is never counted as a
+     * breaker failure nor replaced by a fallback. The permit is released with the outcome of the call itself, so the
+     * limit follows the downstream service rather than the fallbacks; when the breaker does not wait for the call
+     * (because it is open or has timed out) the permit is handed back without adjusting the limit.
+     * @param breaker The {@link CircuitBreaker} of the service
+     * @param permit The {@link ConcurrencyLimiter.Permit} for the call, or {@code null} if the limiters are disabled
+     * @param call The call, which must complete the {@link Future} it is given
+     * @param fallback The fallback for a failed call, or {@code null} to use the breaker's own fallback
+     * @param <T> The type of the result
+     * @return A {@link Future} which is completed with the result of the call or the fallback
+     */
+    private static <T> Future<T> guarded(CircuitBreaker breaker, ConcurrencyLimiter.Permit permit,
+                                         Handler<Future<T>> call, Function<Throwable, T> fallback) {
+        if (permit == null) {
+            return fallback == null ? breaker.execute(call) : breaker.executeWithFallback(call, fallback);
+        }
+        Handler<Future<T>> command = f -> permit.track(call, f);
+        Future<T> outcome = fallback == null
+                ? breaker.execute(command)
+                : breaker.executeWithFallback(command, fallback);
+        // A Future only has one handler, so the caller gets its own Future, completed once the permit is handed back
+        Future<T> result = Future.future();
+        outcome.setHandler(res -> {
+            permit.cancel();
+            result.handle(res);
+        });
+        return result;
+    }
+
+    /**
+     * Make a call to one of the other microservices without a circuit breaker, under a limiter permit which was taken
+     * beforehand
+     * @param permit The {@link ConcurrencyLimiter.Permit} for the call, or {@code null} if the limiters are disabled
+     * @param call The call, which must complete the {@link Future} it is given
+     * @param f The {@link Future} to be completed with the result of the call
+     * @param <T> The type of the result
+     */
+    private static <T> void limited(ConcurrencyLimiter.Permit permit, Handler<Future<T>> call, Future<T> f) {
+        if (permit == null) {
+            call.handle(f);
+        } else {
+            permit.track(call, f);
+        }
+    }
+
+    /**
+     * Make a call to one of the other microservices, hedged if hedging is enabled
+     * @param hedger The {@link Hedger} of the service, or {@code null}
+     * @param call The call, which must complete the {@link Future} it is given
+     * @param f The {@link Future} to be completed with the result of the call
+     * @param <T> The type of the result
+     */
+    private <T> void hedged(Hedger hedger, Handler<Future<T>> call, Future<T> f) {
+        if (hedger == null) {
+            call.handle(f);
+        } else {
+            hedger.call(vertx, call, f);
+        }
+    }
+
+    /**
+     * Retrieve a single noun using the configured transport
+     * @param f A {@link Future} which will be completed with the noun
+     */
+    private void fetchNoun(Future<String> f) {
+        if (useEventBus) {
+            Future<JsonObject> reply = Future.future();
+            reply.setHandler(r -> {
+                if (r.succeeded()) {
+                    f.complete(r.result().getString("NOUN"));
+                } else {
+                    f.fail(r.cause());
+                }
+            });
+            makeEventBusCall(nounAddress, "get", new JsonObject(), reply);
+        } else {
+            makeRestCall(nounClient, "/api/v1/noun", f);
+        }
+    }
+
+    /**
+     * Retrieve a batch of adjectives with a single call using the configured transport
+     * @param count The number of adjectives to retrieve
+     * @param distinct If {@code true}, no adjective will be returned more than once
+     * @param f A {@link Future} which will be completed with the adjectives
+     */
+    private void fetchAdjectives(int count, boolean distinct, Future<JsonArray> f) {
+        if (useEventBus) {
+            makeBatchEventBusCall(adjAddress, count, distinct, "adjectives", f);
+        } else {
+            makeBatchRestCall(adjClient, String.format("/api/v1/adjectives?count=%d&distinct=%b", count, distinct), "adjectives", f);
+        }
+    }
+
+    /**
+     * Retrieve a batch of nouns with a single call using the configured transport
+     * @param count The number of nouns to retrieve
+     * @param f A {@link Future} which will be completed with the nouns
+     */
+    private void fetchNouns(int count, Future<JsonArray> f) {
+        if (useEventBus) {
+            makeBatchEventBusCall(nounAddress, count, false, "nouns", f);
+        } else {
+            makeBatchRestCall(nounClient, String.format("/api/v1/nouns?count=%d", count), "nouns", f);
+        }
+    }
+
+    /**
+     * Call the {@code getMany} method of one of the other microservices over the event bus
+     * @param address The event bus address where the Service Proxy is registered
+     * @param count The number of words to retrieve
+     * @param distinct If {@code true}, no word will be returned more than once
+     * @param key The key in the response which contains the array of words
+     * @param f A {@link Future} which will be completed with the words
+     */
+    private void makeBatchEventBusCall(String address, int count, boolean distinct, String key, Future<JsonArray> f) {
+        Future<JsonObject> reply = Future.future();
+        reply.setHandler(r -> {
+            if (r.succeeded()) {
+                f.complete(r.result().getJsonArray(key, new JsonArray()));
+            } else {
+                f.fail(r.cause());
+            }
         });
+        makeEventBusCall(address, "getMany", new JsonObject().put("count", count).put("distinct", distinct), reply);
+    }
+
+    /**
+     * Check a configured batch size, so that a batch which the other microservices would reject fails the deployment
+     * instead of quietly producing fallbacks
+     * @param name The name of the setting, for the error message
+     * @param batchSize The configured batch size
+     * @return The batch size
+     * @throws IllegalArgumentException If the batch size is not between 1 and {@link #MAX_BATCH}
+     */
+    public static int checkBatchSize(String name, int batchSize) {
+        if (batchSize < 1 || batchSize > MAX_BATCH) {
+            throw new IllegalArgumentException(
+                    String.format("%s must be between 1 and %d, but is %d", name, MAX_BATCH, batchSize));
+        }
+        return batchSize;
+    }
+
+    /**
+     * Start a refill of the {@link InsultBuffer} if it has dropped to the low watermark
+     */
+    void maybeRefillBuffer() {
+        if (buffer.size() <= lowWatermark) {
+            refillBuffer();
+        }
+    }
+
+    /**
+     * Fill the {@link InsultBuffer} in batches until it is full. Only one refill runs at a time. The producer does not
+     * go through the circuit breakers: when a downstream service fails, the refill simply stops and the live path
+     * (with its breakers and fallbacks) takes over until the next refill.
+     */
+    void refillBuffer() {
+        int count = Math.min(batchSize, buffer.capacity() - buffer.size());
+        if (count < 1 || !buffer.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        ConcurrencyLimiter.Permit[] permits = new ConcurrencyLimiter.Permit[2];
+        Throwable rejection = acquirePermits(permits);
+        if (rejection != null) {
+            buffer.refilling.set(false);
+            LOG.debug("Unable to refill the insult buffer", rejection);
+            return;
+        }
+        Future<JsonArray> nouns = Future.future();
+        limited(permits[0], n -> fetchNouns(count, n), nouns);
+        Future<JsonArray> adjectives = Future.future();
+        limited(permits[1], a -> fetchAdjectives(count * 2, false, a), adjectives);
+        CompositeFuture.all(nouns, adjectives).setHandler(res -> {
+            buffer.refilling.set(false);
+            if (res.succeeded()) {
+                int added = fillBuffer(nouns.result(), adjectives.result());
+                LOG.debug("Added {} insults to the buffer", added);
+                if (added > 0) {
+                    refillBuffer();
+                }
+            } else {
+                LOG.debug("Unable to refill the insult buffer", res.cause());
+            }
+        });
+    }
+
+    /**
+     * Combine a batch of nouns and adjectives into insults and add them to the {@link InsultBuffer}
+     * @param nouns The nouns
+     * @param adjectives The adjectives, two per insult
+     * @return The number of insults added
+     */
+    int fillBuffer(JsonArray nouns, JsonArray adjectives) {
+        int available = Math.min(nouns.size(), adjectives.size() / 2);
+        int added = 0;
+        for (int i = 0; i < available; i++) {
+            JsonObject insult = new JsonObject()
+                    .put("noun", nouns.getString(i))
+                    .put("adj1", adjectives.getString(i * 2))
+                    .put("adj2", adjectives.getString(i * 2 + 1));
+            if (!buffer.offer(insult)) {
+                break;
+            }
+            added++;
+        }
+        return added;
     }
 
     /**
@@ -87,28 +436,214 @@ public class InsultServiceImpl implements InsultService {
      */
     @Override
     public void namedInsult(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+        if (nounReplica != null && nounReplica.isReady() && adjReplica.isReady()) {
+            String[] adjectives = adjReplica.randomPair();
+            JsonObject response = new JsonObject();
+            if (name != null) {
+                response.put("subject", name);
+            }
+            response.put("noun", nounReplica.random())
+                    .put("adj1", adjectives[0])
+                    .put("adj2", adjectives[1]);
+            resultHandler.handle(Future.succeededFuture(response));
+            return;
+        }
+        if (buffer != null) {
+            JsonObject buffered = buffer.poll();
+            maybeRefillBuffer();
+            if (buffered != null) {
+                buffer.hits.incrementAndGet();
+                if (name != null) {
+                    buffered.put("subject", name);
+                }
+                resultHandler.handle(Future.succeededFuture(buffered));
+                return;
+            }
+            buffer.misses.incrementAndGet();
+        }
+        ConcurrencyLimiter.Permit[] permits = new ConcurrencyLimiter.Permit[2];
+        Throwable rejection = acquirePermits(permits);
+        if (rejection != null) {
+            resultHandler.handle(Future.failedFuture(rejection));
+            return;
+        }
 
         Future<String> nounFuture = Future.future();
-        nounBreaker.<String>execute(f -> makeRestCall(nounCfg, "/api/v1/noun", f)).setHandler(nounFuture.completer());
-
-        Future<String> adj1Future = Future.future();
-        adjBreaker.<String>execute(f -> makeRestCall(adjCfg, "/api/v1/adjective", f)).setHandler(adj1Future.completer());
+        InsultServiceImpl.<String>guarded(nounBreaker, permits[0], f -> hedged(nounHedger, this::fetchNoun, f), null)
+                .setHandler(nounFuture.completer());
 
-        Future<String> adj2Future = Future.future();
-        adjBreaker.<String>execute(f -> makeRestCall(adjCfg, "/api/v1/adjective", f)).setHandler(adj2Future.completer());
+        // Both adjectives are retrieved with a single request
+        Future<JsonArray> adjFuture = Future.future();
+        InsultServiceImpl.<JsonArray>guarded(adjBreaker, permits[1],
+                f -> hedged(adjHedger, af -> fetchAdjectives(2, true, af), f),
+                t -> new JsonArray().add("[adjective fallback]").add("[adjective fallback]")
+        ).setHandler(adjFuture.completer());
 
-        CompositeFuture.join(nounFuture, adj1Future, adj2Future).setHandler(res -> {
+        CompositeFuture.join(nounFuture, adjFuture).setHandler(res -> {
             JsonObject response = new JsonObject();
             if (name != null) {
                 response.put("subject", name);
             }
+            JsonArray adjectives = adjFuture.result()==null?new JsonArray():adjFuture.result();
             response.put("noun", nounFuture.result()==null?"[noun timeout]":nounFuture.result());
-            response.put("adj1", adj1Future.result()==null?"[adjective timeout]":adj1Future.result());
-            response.put("adj2", adj2Future.result()==null?"[adjective timeout]":adj2Future.result());
+            response.put("adj1", adjectives.size()>0?adjectives.getString(0):"[adjective timeout]");
+            response.put("adj2", adjectives.size()>1?adjectives.getString(1):"[adjective timeout]");
             resultHandler.handle(Future.succeededFuture(response));
         });
     }
 
+    /**
+     * Generate a batch of insults with as few calls to the other microservices as possible. Insults are taken from the
+     * local replicas when they are ready, then from the {@link InsultBuffer}, and the remainder are built from a single
+     * batch request to each of the other microservices (through the circuit breakers). This is not part of the
+     * {@link InsultService} Service Proxy interface, because it is used to stream large numbers of insults over HTTP.
+     * @param count The number of insults to generate
+     * @param allowFallbacks If {@code false}, insults are only built from real words, so fewer than {@code count}
+     *                       insults are returned when the other microservices are unavailable
+     * @param resultHandler The {@link Handler} to be called with a {@link JsonArray} of up to {@code count} insults
+     */
+    public void insultBatch(int count, boolean allowFallbacks, Handler<AsyncResult<JsonArray>> resultHandler) {
+        JsonArray insults = new JsonArray();
+        if (nounReplica != null && nounReplica.isReady() && adjReplica.isReady()) {
+            for (int i = 0; i < count; i++) {
+                String[] adjectives = adjReplica.randomPair();
+                insults.add(new JsonObject()
+                        .put("noun", nounReplica.random())
+                        .put("adj1", adjectives[0])
+                        .put("adj2", adjectives[1]));
+            }
+            resultHandler.handle(Future.succeededFuture(insults));
+            return;
+        }
+        if (buffer != null) {
+            JsonObject buffered;
+            while (insults.size() < count && (buffered = buffer.poll()) != null) {
+                buffer.hits.incrementAndGet();
+                insults.add(buffered);
+            }
+            maybeRefillBuffer();
+        }
+        int remaining = count - insults.size();
+        if (remaining < 1) {
+            resultHandler.handle(Future.succeededFuture(insults));
+            return;
+        }
+        ConcurrencyLimiter.Permit[] permits = new ConcurrencyLimiter.Permit[2];
+        Throwable rejection = acquirePermits(permits);
+        if (rejection != null) {
+            if (insults.isEmpty()) {
+                resultHandler.handle(Future.failedFuture(rejection));
+            } else {
+                resultHandler.handle(Future.succeededFuture(insults));
+            }
+            return;
+        }
+
+        Future<JsonArray> nounFuture = Future.future();
+        guarded(nounBreaker, permits[0], f -> fetchNouns(remaining, f), t -> new JsonArray())
+                .setHandler(nounFuture.completer());
+        Future<JsonArray> adjFuture = Future.future();
+        guarded(adjBreaker, permits[1], f -> fetchAdjectives(remaining * 2, false, f), t -> new JsonArray())
+                .setHandler(adjFuture.completer());
+
+        CompositeFuture.join(nounFuture, adjFuture).setHandler(res -> {
+            JsonArray nouns = nounFuture.result()==null?new JsonArray():nounFuture.result();
+            JsonArray adjectives = adjFuture.result()==null?new JsonArray():adjFuture.result();
+            int available = Math.min(nouns.size(), adjectives.size() / 2);
+            for (int i = 0; i < remaining && (allowFallbacks || i < available); i++) {
+                insults.add(new JsonObject()
+                        .put("noun", i<nouns.size()?nouns.getString(i):"[noun fallback]")
+                        .put("adj1", i*2<adjectives.size()?adjectives.getString(i*2):"[adjective fallback]")
+                        .put("adj2", i*2+1<adjectives.size()?adjectives.getString(i*2+1):"[adjective fallback]"));
+            }
+            resultHandler.handle(Future.succeededFuture(insults));
+        });
+    }
+
+    /**
+     * Find or create the circuit breaker for a downstream service, which is shared by all of the instances of the
+     * insult service in this process with the same breaker configuration, so that it counts all of the failures of the
+     * process and its metrics describe the breaker which is in use
+     * @param vertx The {@link Vertx} instance
+     * @param name The name of the breaker
+     * @param description The name of the breaker to be used in log messages
+     * @param cfg The {@code breakers} configuration block
+     * @param fallback The fallback of the breaker
+     * @return The {@link CircuitBreaker}
+     */
+    static CircuitBreaker sharedBreaker(Vertx vertx, String name, String description, JsonObject cfg,
+                                        Function<Throwable, ?> fallback) {
+        LocalMap<String, SharedBreaker> breakers = vertx.sharedData().getLocalMap(BREAKER_MAP);
+        String key = name + "@" + cfg.encode();
+        // The metrics of a breaker are bound when it is created, so only the breaker which is kept is created
+        synchronized (SharedBreaker.class) {
+            SharedBreaker shared = breakers.get(key);
+            if (shared == null) {
+                CircuitBreaker breaker = CircuitBreaker.create(name, vertx, new CircuitBreakerOptions(cfg));
+                monitorBreaker(breaker, description).fallback(fallback);
+                shared = new SharedBreaker(breaker);
+                breakers.put(key, shared);
+            }
+            return shared.breaker;
+        }
+    }
+
+    private static final class SharedBreaker implements Shareable {
+        final CircuitBreaker breaker;
+
+        SharedBreaker(CircuitBreaker breaker) {
+            this.breaker = breaker;
+        }
+    }
+
+    /**
+     * Log the state changes of a circuit breaker and expose its state, failure count and transitions as metrics
+     * @param breaker The {@link CircuitBreaker} to be monitored
+     * @param description The name of the breaker to be used in log messages
+     * @return The {@link CircuitBreaker}, for chaining
+     */
+    private static CircuitBreaker monitorBreaker(CircuitBreaker breaker, String description) {
+        MetricsRegistry registry = MetricsRegistry.shared();
+        String transitions = "circuit_breaker_transitions_total";
+        String help = "State changes of the circuit breaker";
+        Counter opened = registry.counter(transitions, help, "breaker", breaker.name(), "state", "open");
+        Counter halfOpened = registry.counter(transitions, help, "breaker", breaker.name(), "state", "half_open");
+        Counter closed = registry.counter(transitions, help, "breaker", breaker.name(), "state", "closed");
+        registry.gauge("circuit_breaker_state", "The state of the circuit breaker: 0 closed, 1 half-open, 2 open",
+                () -> breakerStateValue(breaker.state()), "breaker", breaker.name());
+        registry.gauge("circuit_breaker_failures", "Failures counted by the circuit breaker since it last closed",
+                breaker::failureCount, "breaker", breaker.name());
+        return breaker.openHandler(o -> {
+                    LOG.warn(description + " circuit breaker has opened");
+                    opened.inc();
+                })
+                .halfOpenHandler(h -> halfOpened.inc())
+                .closeHandler(c -> {
+                    LOG.warn(description + " circuit breaker has closed");
+                    closed.inc();
+                });
+    }
+
+    private static double breakerStateValue(CircuitBreakerState state) {
+        switch (state) {
+            case OPEN:
+                return 2;
+            case HALF_OPEN:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Describe the insult feed, so that browsers can subscribe to it without knowing its address or rate tiers
+     * @return A {@link JsonObject} containing whether the feed is {@code enabled}, its {@code address} and its
+     *         {@code rates}
+     */
+    public JsonObject feedSettings() {
+        return InsultFeed.describe(feedCfg);
+    }
+
     /**
      * A service method or health check
      * @param handler The {@link Handler} to be used to call back to the calling Verticle
@@ -121,15 +656,44 @@ public class InsultServiceImpl implements InsultService {
         JsonObject health = new JsonObject()
                 .put("noun", new JsonObject()
                                     .put("failures", nounBreaker.failureCount())
-                                    .put("state", nounBreaker.state().toString()))
+                                    .put("state", nounBreaker.state().toString())
+                                    .put("pool", nounClient.stats()))
                 .put("adjective", new JsonObject()
                                     .put("failures", adjBreaker.failureCount())
-                                    .put("state", adjBreaker.state().toString()))
+                                    .put("state", adjBreaker.state().toString())
+                                    .put("pool", adjClient.stats()))
                 .put("status", allBreakersClosed?"OK":"UNHEALTHY");
+        if (nounHedger != null) {
+            health.getJsonObject("noun").put("hedging", nounHedger.stats());
+            health.getJsonObject("adjective").put("hedging", adjHedger.stats());
+        }
+        if (nounLimiter != null) {
+            health.getJsonObject("noun").put("limiter", nounLimiter.stats());
+            health.getJsonObject("adjective").put("limiter", adjLimiter.stats());
+        }
+        if (nounReplica != null) {
+            health.getJsonObject("noun").put("replica", nounReplica.stats());
+            health.getJsonObject("adjective").put("replica", adjReplica.stats());
+        }
+        if (buffer != null) {
+            health.put("buffer", new JsonObject()
+                    .put("size", buffer.size())
+                    .put("depth", buffer.capacity())
+                    .put("lowWatermark", lowWatermark)
+                    .put("hits", buffer.hits.get())
+                    .put("misses", buffer.misses.get()));
+        }
+        if (feed != null) {
+            health.put("feed", feed.stats());
+        }
+        JsonObject startup = StartupTimer.report(vertx, "insult");
+        if (startup != null) {
+            health.put("startup", startup);
+        }
         if (allBreakersClosed) {
             handler.handle(Future.succeededFuture(health));
         } else {
-            handler.handle(Future.failedFuture(health.encodePrettily()));
+            handler.handle(Future.failedFuture(health.encode()));
         }
     }
 }
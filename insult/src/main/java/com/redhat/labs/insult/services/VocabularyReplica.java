@@ -0,0 +1,289 @@
+package com.redhat.labs.insult.services;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+
+/**
+ * A local, in-memory copy of the vocabulary (nouns or adjectives) of one of the other microservices.
+ *
+ * The full vocabulary is loaded over HTTP when the replica starts and is then kept current by the add/delete events
+ * which the other microservice publishes on the (clustered) event bus whenever the vocabulary changes. Events can be
+ * lost (e.g. while the cluster is re-forming), so the replica also periodically compares the version of its copy with
+ * the version reported by the other microservice and reloads the full vocabulary over HTTP when they differ. Each
+ * event carries the version it leads to, so as long as no event is lost the versions match and nothing is reloaded.
+ * A replica is shared by all of the instances of the insult service in this process, so the vocabulary is held,
+ * followed and reloaded once rather than once per instance.
+ */
+class VocabularyReplica implements Shareable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VocabularyReplica.class);
+
+    private static final String MAP_NAME = "insult.replicas";
+
+    private static final long COLD_START_RETRY = 1000L;
+
+    private final DownstreamClient downstream;
+    private final String path;
+    private final String key;
+
+    private Vertx vertx;
+    private volatile String[] words = new String[0];
+    private volatile String version;
+    private volatile boolean loaded;
+
+    /**
+     * Create a new {@link VocabularyReplica}
+     * @param downstream The {@link DownstreamClient} for the microservice which owns the vocabulary
+     * @param path The path which returns ALL of the words along with the version
+     * @param key The key in the response body which contains the array of words
+     */
+    VocabularyReplica(DownstreamClient downstream, String path, String key) {
+        this.downstream = downstream;
+        this.path = path;
+        this.key = key;
+    }
+
+    /**
+     * Find or create and start the replica of a vocabulary, which is shared by all of the instances of the insult
+     * service in this process
+     * @param vertx The {@link Vertx} instance
+     * @param downstream The {@link DownstreamClient} for the microservice which owns the vocabulary
+     * @param path The path which returns ALL of the words along with the version
+     * @param key The key in the response body which contains the array of words
+     * @param eventsAddress The event bus address where vocabulary events are published
+     * @param resyncInterval The interval, in milliseconds, between version checks
+     * @return The {@link VocabularyReplica}
+     */
+    static VocabularyReplica shared(Vertx vertx, DownstreamClient downstream, String path, String key,
+                                    String eventsAddress, long resyncInterval) {
+        LocalMap<String, VocabularyReplica> replicas = vertx.sharedData().getLocalMap(MAP_NAME);
+        VocabularyReplica replica = replicas.get(key);
+        if (replica == null) {
+            VocabularyReplica created = new VocabularyReplica(downstream, path, key);
+            replica = replicas.putIfAbsent(key, created);
+            if (replica == null) {
+                replica = created;
+                created.start(vertx, eventsAddress, resyncInterval);
+            }
+        }
+        return replica;
+    }
+
+    /**
+     * Load the vocabulary, subscribe to vocabulary events, and schedule the periodic version check
+     * @param vertx The {@link Vertx} instance
+     * @param eventsAddress The event bus address where vocabulary events are published
+     * @param resyncInterval The interval, in milliseconds, between version checks
+     */
+    void start(Vertx vertx, String eventsAddress, long resyncInterval) {
+        this.vertx = vertx;
+        vertx.eventBus().<JsonObject>consumer(eventsAddress, this::handleEvent);
+        if (resyncInterval > 0) {
+            vertx.setPeriodic(resyncInterval, t -> resync(Future.future()));
+        }
+        coldStart();
+    }
+
+    /**
+     * Load the full vocabulary, retrying until the other microservice is available
+     */
+    private void coldStart() {
+        Future<Boolean> f = Future.future();
+        f.setHandler(res -> {
+            if (res.failed()) {
+                LOG.debug("Unable to load {}, retrying", key, res.cause());
+                vertx.setTimer(COLD_START_RETRY, t -> coldStart());
+            }
+        });
+        resync(f);
+    }
+
+    /**
+     * Handle a vocabulary event from the event bus, see {@link #apply(JsonObject)}
+     * @param msg The event
+     */
+    void handleEvent(Message<JsonObject> msg) {
+        apply(msg.body());
+    }
+
+    /**
+     * Apply an add or delete event to the local copy of the vocabulary, or reload the whole vocabulary after a bulk
+     * change. Events received before the vocabulary has been loaded are ignored, because the load will include them.
+     * The event carries the version of the vocabulary after the change, which the replica adopts if it directly
+     * follows the local version, so that the next check finds nothing to reload. Otherwise another change happened in
+     * between whose event was lost or has not arrived yet, so the local version is cleared to force a reload.
+     * @param event The event, containing an {@code action}, the {@code words} (or a single {@code word}) and the
+     *              {@code version}
+     */
+    void apply(JsonObject event) {
+        String action = event.getString("action");
+        if ("reload".equals(action) && loaded) {
+            resync(Future.future());
+            return;
+        }
+        List<String> changed = changedWords(event);
+        if (changed.isEmpty() || !loaded) {
+            return;
+        }
+        Set<String> updated = new LinkedHashSet<>(Arrays.asList(words));
+        int delta;
+        if ("add".equals(action)) {
+            updated.addAll(changed);
+            delta = changed.size();
+        } else if ("delete".equals(action)) {
+            updated.removeAll(changed);
+            delta = -changed.size();
+        } else {
+            return;
+        }
+        words = updated.toArray(new String[0]);
+        String next = event.getString("version");
+        version = follows(version, next, delta) ? next : null;
+    }
+
+    /**
+     * The words of an event
+     * @param event The event
+     * @return The {@code words} of the event, or its single {@code word}
+     */
+    private static List<String> changedWords(JsonObject event) {
+        JsonArray changed = event.getJsonArray("words");
+        if (changed != null) {
+            List<String> list = new ArrayList<>(changed.size());
+            changed.forEach(word -> list.add(String.valueOf(word)));
+            return list;
+        }
+        String word = event.getString("word");
+        return word == null ? Collections.emptyList() : Collections.singletonList(word);
+    }
+
+    /**
+     * Check whether a version (the number of words and the highest ID) is the one which directly follows another
+     * when {@code delta} words were added, or removed if it is negative, with no other change in between
+     * @param current The local version
+     * @param next The version after the change
+     * @param delta The number of words which were added
+     * @return {@code true} if the local copy is at {@code next} once the change has been applied
+     */
+    static boolean follows(String current, String next, int delta) {
+        long[] from = parseVersion(current);
+        long[] to = parseVersion(next);
+        if (from == null || to == null || to[0] != from[0] + delta) {
+            return false;
+        }
+        return delta > 0 ? to[1] >= from[1] + delta : to[1] <= from[1];
+    }
+
+    private static long[] parseVersion(String version) {
+        if (version == null) {
+            return null;
+        }
+        int dash = version.indexOf('-');
+        try {
+            return new long[]{Long.parseLong(version.substring(0, dash)), Long.parseLong(version.substring(dash + 1))};
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Retrieve the version of the vocabulary from the other microservice and, if it is different from the local
+     * version, replace the local copy
+     * @param f A {@link Future} which is completed with {@code true} if the local copy was replaced
+     */
+    void resync(Future<Boolean> f) {
+        downstream.get(path, r -> {
+            if (r.statusCode() == OK.code()) {
+                r.bodyHandler(b -> {
+                    try {
+                        JsonObject body = b.toJsonObject();
+                        String remoteVersion = body.getString("version");
+                        if (remoteVersion != null && remoteVersion.equals(version)) {
+                            f.complete(Boolean.FALSE);
+                            return;
+                        }
+                        JsonArray remoteWords = body.getJsonArray(key, new JsonArray());
+                        words = remoteWords.stream().map(Object::toString).distinct().toArray(String[]::new);
+                        version = remoteVersion;
+                        loaded = true;
+                        LOG.debug("Reloaded {} {} at version {}", words.length, key, version);
+                        f.complete(Boolean.TRUE);
+                    } catch (Exception e) {
+                        f.fail(e);
+                    }
+                });
+            } else {
+                f.fail(String.format("Unable to load %s, status %d", key, r.statusCode()));
+            }
+        }, f::tryFail);
+    }
+
+    /**
+     * Check if the replica has been loaded and has any words
+     * @return {@code true} if there is at least one word in the local copy
+     */
+    boolean isReady() {
+        return loaded && words.length > 0;
+    }
+
+    /**
+     * Choose a random word from the local copy
+     * @return A word, or {@code null} if the replica is empty
+     */
+    String random() {
+        String[] current = words;
+        if (current.length == 0) {
+            return null;
+        }
+        return current[ThreadLocalRandom.current().nextInt(current.length)];
+    }
+
+    /**
+     * Choose two different words from the local copy, if possible
+     * @return An array of two words, or {@code null} if the replica is empty
+     */
+    String[] randomPair() {
+        String[] current = words;
+        if (current.length == 0) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(current.length);
+        if (current.length == 1) {
+            return new String[]{current[first], current[first]};
+        }
+        int second = random.nextInt(current.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        return new String[]{current[first], current[second]};
+    }
+
+    /**
+     * Report on the state of the replica
+     * @return A {@link JsonObject} containing the size and version of the local copy
+     */
+    JsonObject stats() {
+        return new JsonObject()
+                .put("loaded", loaded)
+                .put("size", words.length)
+                .put("version", version);
+    }
+}
@@ -7,6 +7,7 @@ import io.vertx.core.Future
 import io.vertx.core.Vertx
 import io.vertx.core.http.HttpClientRequest
 import io.vertx.core.http.RequestOptions
+import io.vertx.core.json.JsonArray
 import io.vertx.core.json.JsonObject
 import org.spockframework.lang.ISpecificationContext
 import spock.lang.Shared
@@ -40,9 +41,13 @@ class MainVerticleSpec extends Specification {
             @Override
             void start(Future<Void> startFuture) throws Exception {
                 vertx.createHttpServer().requestHandler({ req1 ->
-                    def response = new JsonObject()
-                            .put("ADJECTIVE", "testadjective")
-                            .encodePrettily()
+                    def response = req1.path() == "/api/v1/adjectives" ?
+                            new JsonObject()
+                                .put("adjectives", new JsonArray(["testadjective"] * (req1.getParam("count") as int)))
+                                .encodePrettily() :
+                            new JsonObject()
+                                .put("ADJECTIVE", "testadjective")
+                                .encodePrettily()
                     req1.response()
                             .setStatusCode(OK.code())
                             .setStatusMessage(OK.reasonPhrase())
@@ -65,9 +70,13 @@ class MainVerticleSpec extends Specification {
             @Override
             void start(Future<Void> startFuture) throws Exception {
                 vertx.createHttpServer().requestHandler({ req2 ->
-                    def response = new JsonObject()
-                            .put("NOUN", "testnoun")
-                            .encodePrettily()
+                    def response = req2.path() == "/api/v1/nouns" ?
+                            new JsonObject()
+                                .put("nouns", new JsonArray(["testnoun"] * (req2.getParam("count") as int)))
+                                .encodePrettily() :
+                            new JsonObject()
+                                .put("NOUN", "testnoun")
+                                .encodePrettily()
                     req2.response()
                             .setStatusCode(OK.code())
                             .setStatusMessage(OK.reasonPhrase())
@@ -157,6 +166,59 @@ class MainVerticleSpec extends Specification {
             async.await(20)
     }
 
+    def "Test streaming insults as NDJSON"() {
+        given: "A Vert.x HTTP client"
+            def client = vertx.createHttpClient()
+        and: "An instance of AsyncConditions"
+            AsyncConditions async = new AsyncConditions(2)
+        and: "A request for more insults than fit in a single batch"
+            def req = client.get(8081, "localhost", "/api/v1/insults/stream?count=250")
+        when: "The stream is requested"
+            req.handler({ res ->
+                async.evaluate {
+                    res.statusCode() == 200
+                    res.getHeader("Content-Type") == "application/x-ndjson"
+                    res.bodyHandler({ b ->
+                        async.evaluate {
+                            def lines = b.toString().readLines()
+                            lines.size() == 250
+                            lines.every { new JsonObject(it).getString("noun") == "testnoun" }
+                            lines.every { new JsonObject(it).getString("adj2") == "testadjective" }
+                        }
+                    })
+                }
+            }).end()
+        then: "Ensure all async conditions evaluated correctly"
+            async.await(20)
+    }
+
+    def "Test streaming insults as Server-Sent Events"() {
+        given: "A Vert.x HTTP client"
+            def client = vertx.createHttpClient()
+        and: "An instance of AsyncConditions"
+            AsyncConditions async = new AsyncConditions(2)
+        and: "A request which accepts an event stream"
+            def req = client.get(8081, "localhost", "/api/v1/insults/stream?count=3")
+            req.putHeader("Accept", "text/event-stream")
+        when: "The stream is requested"
+            req.handler({ res ->
+                async.evaluate {
+                    res.statusCode() == 200
+                    res.getHeader("Content-Type") == "text/event-stream"
+                    res.bodyHandler({ b ->
+                        async.evaluate {
+                            def events = b.toString().split("\n\n")
+                            events.size() == 3
+                            events.every { it.contains("event: insult") }
+                            events.last().startsWith("id: 3")
+                        }
+                    })
+                }
+            }).end()
+        then: "Ensure all async conditions evaluated correctly"
+            async.await(20)
+    }
+
     def "Test getting an insult without a name via Service Proxy"() {
         given: "A Vert.x HTTP client"
             def client = vertx.createHttpClient()
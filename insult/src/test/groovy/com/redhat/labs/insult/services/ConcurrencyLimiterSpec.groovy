@@ -0,0 +1,82 @@
+package com.redhat.labs.insult.services
+
+import io.vertx.core.Future
+import io.vertx.core.Vertx
+import io.vertx.core.json.JsonObject
+import io.vertx.serviceproxy.ServiceException
+import spock.lang.Shared
+import spock.lang.Specification
+
+class ConcurrencyLimiterSpec extends Specification {
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    def "test calls over the limit are rejected without being made"() {
+        given: "A limiter with a limit of 2"
+            def underTest = ConcurrencyLimiter.shared(vertx, "rejecting",
+                    new JsonObject().put("algorithm", "aimd").put("initialLimit", 2).put("minLimit", 1))
+            def pending = []
+            def made = 0
+        when: "Three calls are started and none of them completes"
+            def results = (1..3).collect {
+                def result = Future.future()
+                underTest.call({ f -> made++; pending << f }, result)
+                result
+            }
+        then: "Only the first two calls are made and the third fails with a 503"
+            made == 2
+            results[2].failed()
+            results[2].cause() instanceof ServiceException
+            ((ServiceException) results[2].cause()).failureCode() == 503
+            underTest.acquire() == null
+            underTest.stats().getInteger("inFlight") == 2
+        when: "A call completes"
+            pending[0].complete("done")
+        then: "Its result is passed on and there is room for another call"
+            results[0].result() == "done"
+            underTest.acquire() != null
+    }
+
+    def "test a permit is handed back once, and only its outcome adjusts the limit"() {
+        given: "A limiter with a limit of 2"
+            def underTest = ConcurrencyLimiter.shared(vertx, "permits",
+                    new JsonObject().put("algorithm", "aimd").put("initialLimit", 2).put("minLimit", 1)
+                            .put("backoffRatio", 0.5d))
+        when: "A permit is cancelled, as when the circuit breaker is open, and cancelled again"
+            def permit = underTest.acquire()
+            permit.cancel()
+            permit.cancel()
+        then: "It is handed back once and the limit is unchanged"
+            underTest.stats().getInteger("inFlight") == 0
+            underTest.stats().getInteger("limit") == 2
+        when: "A permit is released with a failure after the caller stopped waiting for it"
+            permit = underTest.acquire()
+            permit.release(false)
+            permit.cancel()
+        then: "Only the failure is counted"
+            underTest.stats().getInteger("inFlight") == 0
+            underTest.stats().getInteger("limit") == 1
+    }
+
+    def "test the AIMD limit grows while busy and backs off on failures"() {
+        given: "A limiter with a limit of 4"
+            def underTest = ConcurrencyLimiter.shared(vertx, "aimd",
+                    new JsonObject().put("algorithm", "aimd").put("initialLimit", 4).put("backoffRatio", 0.5d))
+        when: "Four fast calls complete while the limit is in use"
+            def pending = []
+            4.times { underTest.call({ f -> pending << f }, Future.future()) }
+            pending.each { it.complete() }
+        then: "The limit has grown"
+            underTest.stats().getInteger("limit") > 4
+        when: "A call fails"
+            def limit = underTest.stats().getInteger("limit")
+            underTest.call({ f -> f.fail("downstream failure") }, Future.future())
+        then: "The limit is halved"
+            underTest.stats().getInteger("limit") == (int) (limit / 2)
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+    }
+}
@@ -0,0 +1,120 @@
+package com.redhat.labs.insult.services
+
+import com.redhat.labs.rhoar.vertx.discovery.EndpointAnnouncer
+import com.redhat.labs.rhoar.vertx.metrics.MetricsRegistry
+import io.vertx.core.Vertx
+import io.vertx.core.http.HttpClient
+import io.vertx.core.http.HttpClientOptions
+import io.vertx.core.json.JsonArray
+import io.vertx.core.json.JsonObject
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.util.concurrent.BlockingVariable
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.TimeUnit
+
+class DownstreamClientSpec extends Specification {
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    def "test the endpoint with fewer requests in flight is chosen"() {
+        given: "A client with two static endpoints"
+            def underTest = new DownstreamClient(vertx, "choosing", new JsonObject()
+                    .put("endpoints", new JsonArray().add("10.0.0.1:8080").add("10.0.0.2:8080")))
+        when: "The first endpoint has a request in flight"
+            underTest.endpoints[0].inFlight.incrementAndGet()
+        then: "The second endpoint is always chosen"
+            (1..20).every { underTest.choose().address == "10.0.0.2:8080" }
+    }
+
+    def "test a slow endpoint is ejected and then let back in"() {
+        given: "A client with three static endpoints and a 50ms ejection time"
+            def underTest = new DownstreamClient(vertx, "ejecting", new JsonObject()
+                    .put("endpoints", new JsonArray().add("10.0.0.1:8080").add("10.0.0.2:8080").add("10.0.0.3:8080"))
+                    .put("balancer", new JsonObject().put("interval", 60000).put("ejectionTime", 50)))
+            def (fast1, fast2, slow) = underTest.endpoints
+        when: "One endpoint answers in 200ms and the others in 5ms"
+            [fast1, fast2].each { it.inFlight.incrementAndGet(); it.complete(TimeUnit.MILLISECONDS.toNanos(5)) }
+            slow.inFlight.incrementAndGet()
+            slow.complete(TimeUnit.MILLISECONDS.toNanos(200))
+            underTest.detectOutliers()
+        then: "The slow endpoint is ejected and is never chosen"
+            underTest.stats().getJsonArray("endpoints").getJsonObject(2).getBoolean("ejected")
+            (1..20).every { underTest.choose() != slow }
+        when: "The ejection time has passed"
+            Thread.sleep(60)
+        then: "The endpoint is no longer ejected"
+            !underTest.stats().getJsonArray("endpoints").getJsonObject(2).getBoolean("ejected")
+    }
+
+    def "test the instances with the same settings share one client"() {
+        given: "The settings of a downstream service"
+            def config = new JsonObject().put("host", "10.0.0.1").put("port", 8080)
+        when: "Two instances of the insult service find their client"
+            def first = DownstreamClient.shared(vertx, "sharing", config)
+            def second = DownstreamClient.shared(vertx, "sharing", config.copy())
+        then: "They share the endpoints, their breakers and latencies"
+            first.is(second)
+        and: "An instance with other settings has a client of its own"
+            !first.is(DownstreamClient.shared(vertx, "sharing", config.copy().put("port", 8081)))
+    }
+
+    def "test each event loop sends through its own HTTP client with its share of the pool"() {
+        given: "A shared client"
+            def underTest = DownstreamClient.shared(vertx, "looping", new JsonObject().put("host", "10.0.0.1").put("port", 8080))
+        when: "The HTTP client is taken on two contexts, twice on the first"
+            def first = clientOn(underTest, vertx.getOrCreateContext())
+            def context = vertx.getOrCreateContext()
+            def second = clientOn(underTest, context)
+            def again = clientOn(underTest, context)
+        then: "Each context has its own HTTP client, which it keeps"
+            !first.is(second)
+            second.is(again)
+        and: "The pool is shared out between the instances, rounding up"
+            DownstreamClient.shareOut(new HttpClientOptions().setMaxPoolSize(10), 4).maxPoolSize == 3
+            DownstreamClient.shareOut(new HttpClientOptions().setMaxPoolSize(2), 8).maxPoolSize == 1
+            DownstreamClient.shareOut(new HttpClientOptions().setMaxPoolSize(10), 1).maxPoolSize == 10
+    }
+
+    private static HttpClient clientOn(DownstreamClient downstream, context) {
+        def client = new BlockingVariable<HttpClient>(10)
+        context.runOnContext({ v -> client.set(downstream.client()) })
+        client.get()
+    }
+
+    def "test the metrics of a dropped endpoint are removed once no client holds it"() {
+        given: "Two clients, as in two deployments of the insult service, which discover endpoints with a 50ms TTL"
+            def config = new JsonObject()
+                    .put("discovery", new JsonObject().put("address", "expiring.endpoints").put("ttl", 50))
+                    .put("balancer", new JsonObject().put("interval", 60000))
+            def first = new DownstreamClient(vertx, "expiring", config)
+            def second = new DownstreamClient(vertx, "expiring", config)
+            def series = 'downstream_endpoint_requests_total{downstream="expiring",endpoint="10.0.0.9:8080"}'
+        when: "An endpoint is announced"
+            vertx.eventBus().publish("expiring.endpoints", new JsonObject()
+                    .put("action", EndpointAnnouncer.ANNOUNCE).put("host", "10.0.0.9").put("port", 8080))
+        then: "Both clients hold it and its metrics are scraped"
+            new PollingConditions(timeout: 5).eventually {
+                assert first.endpoints.size() == 1
+                assert second.endpoints.size() == 1
+            }
+            MetricsRegistry.shared().scrape().contains(series)
+        when: "It is no longer announced and one client drops it"
+            Thread.sleep(60)
+            first.detectOutliers()
+        then: "Its metrics remain for the client which still holds it"
+            first.endpoints.isEmpty()
+            MetricsRegistry.shared().scrape().contains(series)
+        when: "The other client drops it"
+            second.detectOutliers()
+        then: "Its metrics are removed"
+            second.endpoints.isEmpty()
+            !MetricsRegistry.shared().scrape().contains(series)
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+    }
+}
@@ -0,0 +1,61 @@
+package com.redhat.labs.insult.services
+
+import io.vertx.core.Future
+import io.vertx.core.Vertx
+import io.vertx.core.json.JsonObject
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.util.concurrent.AsyncConditions
+
+class HedgerSpec extends Specification {
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    def "test a slow call is hedged and the first answer wins"() {
+        given: "A hedger which hedges after 5ms"
+            def underTest = Hedger.shared(vertx, "hedging",
+                    new JsonObject().put("minDelay", 5).put("maxDelay", 5).put("burst", 1))
+            underTest.delay = 5
+            def attempts = []
+            def async = new AsyncConditions()
+        when: "The first attempt never answers and the hedge answers"
+            def result = Future.future()
+            result.setHandler({ res -> async.evaluate { assert res.result() == "hedge" } })
+            underTest.call(vertx, { f ->
+                attempts << f
+                if (attempts.size() == 2) {
+                    f.complete("hedge")
+                }
+            }, result)
+        then: "The result of the hedge is used"
+            async.await(2)
+            attempts.size() == 2
+            underTest.stats().getLong("hedges") == 1
+            underTest.stats().getLong("wins") == 1
+    }
+
+    def "test no hedge is sent once the budget is used up"() {
+        given: "A hedger with no hedges in reserve"
+            def underTest = Hedger.shared(vertx, "exhausted",
+                    new JsonObject().put("minDelay", 5).put("maxDelay", 5).put("budget", 0.0d).put("burst", 0))
+            underTest.delay = 5
+            def attempts = []
+            def async = new AsyncConditions()
+        when: "The first attempt answers after 50ms"
+            def result = Future.future()
+            result.setHandler({ res -> async.evaluate { assert res.result() == "first" } })
+            underTest.call(vertx, { f ->
+                attempts << f
+                vertx.setTimer(50, { t -> f.complete("first") })
+            }, result)
+        then: "Only the first attempt was made"
+            async.await(2)
+            attempts.size() == 1
+            underTest.stats().getLong("hedges") == 0
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+    }
+}
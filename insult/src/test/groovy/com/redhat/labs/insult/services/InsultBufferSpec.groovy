@@ -0,0 +1,45 @@
+package com.redhat.labs.insult.services
+
+import io.vertx.core.json.JsonObject
+import spock.lang.Specification
+
+class InsultBufferSpec extends Specification {
+
+    def "test capacity is rounded up to a power of two"() {
+        expect: "The capacity to be the next power of two"
+            new InsultBuffer(depth).capacity() == capacity
+        where:
+            depth | capacity
+            1     | 2
+            3     | 4
+            64    | 64
+            100   | 128
+    }
+
+    def "test insults are returned in the order they were added"() {
+        given: "An empty buffer"
+            def underTest = new InsultBuffer(4)
+        when: "Two insults are added"
+            underTest.offer(new JsonObject().put("noun", "first"))
+            underTest.offer(new JsonObject().put("noun", "second"))
+        then: "They are returned in FIFO order"
+            underTest.size() == 2
+            underTest.poll().getString("noun") == "first"
+            underTest.poll().getString("noun") == "second"
+        and: "The buffer is then empty"
+            underTest.poll() == null
+            underTest.size() == 0
+    }
+
+    def "test offer is rejected when the buffer is full"() {
+        given: "A full buffer"
+            def underTest = new InsultBuffer(2)
+            underTest.offer(new JsonObject().put("noun", "first"))
+            underTest.offer(new JsonObject().put("noun", "second"))
+        expect: "No more insults can be added until one is removed"
+            !underTest.offer(new JsonObject().put("noun", "third"))
+            underTest.poll().getString("noun") == "first"
+            underTest.offer(new JsonObject().put("noun", "third"))
+            underTest.size() == 2
+    }
+}
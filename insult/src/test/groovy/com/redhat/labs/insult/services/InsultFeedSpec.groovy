@@ -0,0 +1,116 @@
+package com.redhat.labs.insult.services
+
+import io.vertx.core.Vertx
+import io.vertx.core.json.JsonArray
+import io.vertx.core.json.JsonObject
+import io.vertx.ext.bridge.BridgeEventType
+import io.vertx.ext.web.handler.sockjs.BridgeEvent
+import io.vertx.ext.web.handler.sockjs.SockJSSocket
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class InsultFeedSpec extends Specification {
+
+    private Vertx vertx = Vertx.vertx()
+
+    def "test registrations for the feed and its rate tiers are counted until they are released"() {
+        given: "A tracker for the bridge and two browsers"
+            def subscribers = FeedSubscribers.of(vertx)
+            def tracker = subscribers.tracker("insult.feed")
+            def first = Mock(SockJSSocket)
+            def second = Mock(SockJSSocket)
+        when: "The browsers register for the feed, a rate tier and another address"
+            tracker.handle(event(BridgeEventType.REGISTER, first, "insult.feed.5"))
+            tracker.handle(event(BridgeEventType.REGISTER, first, "insult.feed.5"))
+            tracker.handle(event(BridgeEventType.REGISTER, first, "insult.service"))
+            tracker.handle(event(BridgeEventType.REGISTER, second, "insult.feed"))
+        then: "Each feed address is counted once per browser"
+            subscribers.get() == 2
+        when: "One browser unregisters and the other closes its socket"
+            tracker.handle(event(BridgeEventType.UNREGISTER, second, "insult.feed"))
+            tracker.handle(event(BridgeEventType.SOCKET_CLOSED, first, null))
+        then: "Nobody is subscribed"
+            subscribers.get() == 0
+    }
+
+    def "test every bridge event is allowed through"() {
+        given: "A bridge event"
+            def event = event(BridgeEventType.SEND, Mock(SockJSSocket), "insult.service")
+        when: "The event is handled"
+            FeedSubscribers.of(vertx).tracker("insult.feed").handle(event)
+        then: "It is completed successfully"
+            1 * event.complete(true)
+    }
+
+    def "test the subscriber count is shared by the whole process"() {
+        when: "A browser subscribes through the bridge of one instance"
+            FeedSubscribers.of(vertx).tracker("insult.feed")
+                    .handle(event(BridgeEventType.REGISTER, Mock(SockJSSocket), "insult.feed.1"))
+        then: "The count seen by every other instance includes it"
+            FeedSubscribers.of(vertx).get() == 1
+    }
+
+    def "test nothing is generated while nobody is subscribed"() {
+        given: "A feed and the service which generates its insults"
+            def service = Mock(InsultServiceImpl)
+            def feed = new InsultFeed(vertx, service, new JsonObject().put("rate", 10))
+        when: "The feed ticks without subscribers"
+            feed.publish(1)
+        then: "No insults are requested"
+            0 * service.insultBatch(*_)
+        when: "A browser subscribes and the feed ticks again"
+            FeedSubscribers.of(vertx).tracker("insult.feed")
+                    .handle(event(BridgeEventType.REGISTER, Mock(SockJSSocket), "insult.feed"))
+            feed.publish(1)
+        then: "The feed starts generating insults"
+            1 * service.insultBatch(50, false, _)
+    }
+
+    @Unroll
+    def "test a feed rate of #rate insults per second is kept to over ten seconds of #period ms ticks"() {
+        given: "A feed"
+            def feed = new InsultFeed(vertx, Mock(InsultServiceImpl), new JsonObject().put("rate", rate))
+        when: "The feed ticks for ten seconds"
+            def ticks = (1..(10000 / period)).collect { it * period as long }
+            def published = ticks.sum { feed.due(it) }
+        then: "The configured rate is published, short of at most one insult which is not yet due"
+            rate * 10 - published in [0, 1]
+        where:
+            rate << [3, 10, 7, 600, 1000, 1500]
+        and:
+            period = Math.max(1, 1000.intdiv(rate))
+    }
+
+    def "test a feed which fell behind catches up by at most one second of insults"() {
+        given: "A feed"
+            def feed = new InsultFeed(vertx, Mock(InsultServiceImpl), new JsonObject().put("rate", 10))
+        expect: "A tick five seconds late publishes one second of insults"
+            feed.due(5000) == 10
+            feed.due(5100) == 1
+    }
+
+    def "test the browsers are told the address and the rate tiers which the feed can deliver"() {
+        when: "The feed is described"
+            def described = InsultFeed.describe(new JsonObject()
+                    .put("enabled", true)
+                    .put("address", "insult.live")
+                    .put("rate", 5)
+                    .put("rates", new JsonArray([1, 2, 5, 10])))
+        then: "Rates faster than the feed are limited to the feed rate"
+            described.getBoolean("enabled")
+            described.getString("address") == "insult.live"
+            described.getJsonArray("rates").list == [1, 2, 5]
+    }
+
+    private BridgeEvent event(BridgeEventType eventType, SockJSSocket sock, String address) {
+        def event = Mock(BridgeEvent)
+        event.type() >> eventType
+        event.socket() >> sock
+        event.getRawMessage() >> (address == null ? null : new JsonObject().put("address", address))
+        event
+    }
+
+    def cleanup() {
+        vertx.close()
+    }
+}
@@ -0,0 +1,216 @@
+package com.redhat.labs.insult.services
+
+import io.vertx.core.AbstractVerticle
+import io.vertx.core.AsyncResult
+import io.vertx.core.DeploymentOptions
+import io.vertx.core.Vertx
+import io.vertx.core.http.HttpServer
+import io.vertx.core.json.JsonArray
+import io.vertx.core.json.JsonObject
+import io.vertx.serviceproxy.ServiceException
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.BlockingVariable
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+class InsultServiceImplSpec extends Specification {
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    @Unroll
+    def "test a batch size of #batchSize is #outcome"() {
+        when: "The batch size is checked"
+            def checked = null
+            def failure = null
+            try {
+                checked = InsultServiceImpl.checkBatchSize("stream.batchSize", batchSize)
+            } catch (IllegalArgumentException e) {
+                failure = e
+            }
+        then: "Only batch sizes which getMany can supply with two adjectives per insult are accepted"
+            (failure == null) == accepted
+            !accepted || checked == batchSize
+        where:
+            batchSize                       || accepted
+            1                               || true
+            InsultServiceImpl.MAX_BATCH     || true
+            InsultServiceImpl.MAX_BATCH + 1 || false
+            0                               || false
+        and:
+            outcome = accepted ? "accepted" : "rejected"
+    }
+
+    def "test the service fails to start when the buffer batch size is too large"() {
+        when: "The service is created with a buffer batch size above the limit"
+            def deployed = deploy(config().put("buffer", new JsonObject().put("enabled", true).put("batchSize", 600)))
+        then: "The deployment fails, naming the setting"
+            deployed.failed()
+            deployed.cause() instanceof IllegalArgumentException
+            deployed.cause().message.contains("buffer.batchSize")
+    }
+
+    @Unroll
+    def "test a saturated #saturated limiter rejects with a 503 and leaves the breakers closed"() {
+        given: "A service whose limiters allow one request in flight, one of which is in use"
+            def config = config().put("limiter", new JsonObject()
+                    .put("enabled", true).put("initialLimit", 1).put("minLimit", 1).put("maxLimit", 1))
+            def service = null
+            assert deploy(config, { service = it }).succeeded()
+            def permit = ConcurrencyLimiter.shared(vertx, saturated, new JsonObject()).acquire()
+        when: "More insults are requested than the breakers allow failures"
+            def failures = (1..6).collect { insult(service) }
+        then: "Every request is rejected with a 503 instead of a fallback"
+            failures.every { it instanceof ServiceException && ((ServiceException) it).failureCode() == 503 }
+            batch(service) instanceof ServiceException
+        and: "Neither breaker counted the rejections"
+            def health = check(service)
+            health.getJsonObject("noun").getString("state") == "CLOSED"
+            health.getJsonObject("noun").getInteger("failures") == 0
+            health.getJsonObject("adjective").getString("state") == "CLOSED"
+            health.getJsonObject("adjective").getInteger("failures") == 0
+        and: "No permit is held apart from the one in use"
+            health.getJsonObject("noun").getJsonObject("limiter").getInteger("inFlight") == (saturated == "noun" ? 1 : 0)
+            health.getJsonObject("adjective").getJsonObject("limiter").getInteger("inFlight") == (saturated == "adjective" ? 1 : 0)
+        cleanup:
+            permit?.cancel()
+        where:
+            saturated << ["noun", "adjective"]
+    }
+
+    def "test a hedged call holds a single limiter permit for all of its attempts"() {
+        given: "Noun and adjective services which answer after 200ms"
+            def requests = new ConcurrentHashMap<String, AtomicInteger>()
+            def listening = new BlockingVariable<HttpServer>(10)
+            vertx.createHttpServer().requestHandler({ req ->
+                requests.computeIfAbsent(req.path(), { new AtomicInteger() }).incrementAndGet()
+                def body = req.path().contains("noun")
+                        ? new JsonObject().put("NOUN", "baggage")
+                        : new JsonObject().put("adjectives", new JsonArray(['artless', 'bawdy']))
+                vertx.setTimer(200, { t ->
+                    if (!req.response().closed()) {
+                        req.response().end(body.encode())
+                    }
+                })
+            }).listen(0, { res -> listening.set(res.result()) })
+            def port = listening.get().actualPort()
+        and: "A service which hedges after 5ms and allows one request in flight to each service"
+            def config = config()
+                    .put("noun", new JsonObject().put("host", "127.0.0.1").put("port", port))
+                    .put("adjective", new JsonObject().put("host", "127.0.0.1").put("port", port))
+                    .put("limiter", new JsonObject()
+                            .put("enabled", true).put("initialLimit", 1).put("minLimit", 1).put("maxLimit", 1))
+                    .put("hedging", new JsonObject()
+                            .put("enabled", true).put("minDelay", 5).put("maxDelay", 5).put("burst", 1))
+            def service = null
+            assert deploy(config, { service = it }).succeeded()
+            Hedger.shared(vertx, "noun", new JsonObject()).delay = 5
+            Hedger.shared(vertx, "adjective", new JsonObject()).delay = 5
+        when: "An insult is requested"
+            def result = new BlockingVariable<JsonObject>(10)
+            service.getInsult({ res -> result.set(res.succeeded() ? res.result() : null) })
+        then: "Each service receives the first attempt and a hedge, under one permit"
+            new PollingConditions(timeout: 5).eventually {
+                assert requests.get("/api/v1/noun")?.get() == 2
+                assert requests.get("/api/v1/adjectives")?.get() == 2
+            }
+            service.nounLimiter.stats().getInteger("inFlight") == 1
+            service.adjLimiter.stats().getInteger("inFlight") == 1
+        and: "The insult is built from the first answers and the permits are handed back"
+            result.get().getString("noun") == "baggage"
+            service.nounLimiter.stats().getInteger("inFlight") == 0
+            service.adjLimiter.stats().getInteger("inFlight") == 0
+    }
+
+    def "test the permits are handed back when the breakers are open"() {
+        given: "A service whose breakers open after one failure and whose limiters allow one request in flight"
+            def config = config()
+                    .put("breakers", new JsonObject()
+                            .put("maxFailures", 1).put("timeout", 500).put("fallbackOnFailure", true).put("resetTimeout", 60000))
+                    .put("limiter", new JsonObject()
+                            .put("enabled", true).put("initialLimit", 1).put("minLimit", 1).put("maxLimit", 1))
+            def service = null
+            assert deploy(config, { service = it }).succeeded()
+        when: "Insults are requested while the noun and adjective services are down"
+            def failures = (1..5).collect { insult(service) }
+        then: "The breakers have opened and every request was answered with the fallbacks rather than rejected"
+            failures.every { it == null }
+            def health = check(service)
+            health.getJsonObject("noun").getString("state") == "OPEN"
+            health.getJsonObject("adjective").getString("state") == "OPEN"
+        and: "No permit is held"
+            service.nounLimiter.stats().getInteger("inFlight") == 0
+            service.adjLimiter.stats().getInteger("inFlight") == 0
+    }
+
+    def "test the instances of the service share the buffer, the replicas, the downstream clients and the breakers"() {
+        given: "The settings of the service, with the buffer and the replicas enabled and downstreams of their own"
+            def config = config()
+                    .put("noun", new JsonObject().put("host", "127.0.0.1").put("port", 2))
+                    .put("adjective", new JsonObject().put("host", "127.0.0.1").put("port", 2))
+                    .put("buffer", new JsonObject().put("enabled", true).put("depth", 16).put("refillInterval", 60000))
+                    .put("replica", new JsonObject().put("enabled", true).put("resyncInterval", 0))
+        when: "Two instances are deployed, as the launcher does on a machine with more than one event loop"
+            def first = null
+            def second = null
+            assert deploy(config, { first = it }).succeeded()
+            assert deploy(config, { second = it }).succeeded()
+        then: "The state which is per process rather than per event loop exists once"
+            first.buffer.is(second.buffer)
+            first.nounReplica.is(second.nounReplica)
+            first.adjReplica.is(second.adjReplica)
+            first.nounClient.is(second.nounClient)
+            first.adjClient.is(second.adjClient)
+            first.nounBreaker.is(second.nounBreaker)
+            first.adjBreaker.is(second.adjBreaker)
+        and: "An insult buffered by one instance is served by the other"
+            first.buffer.offer(new JsonObject().put("noun", "canker-blossom").put("adj1", "artless").put("adj2", "bawdy"))
+            def result = new BlockingVariable<JsonObject>(10)
+            second.getInsult({ res -> result.set(res.result()) })
+            result.get().getString("noun") == "canker-blossom"
+    }
+
+    private static Throwable insult(InsultServiceImpl service) {
+        def result = new BlockingVariable<Throwable>(10)
+        service.getInsult({ res -> result.set(res.failed() ? res.cause() : null) })
+        result.get()
+    }
+
+    private static Throwable batch(InsultServiceImpl service) {
+        def result = new BlockingVariable<Throwable>(10)
+        service.insultBatch(10, true, { res -> result.set(res.failed() ? res.cause() : null) })
+        result.get()
+    }
+
+    private static JsonObject check(InsultServiceImpl service) {
+        def result = new BlockingVariable<JsonObject>(10)
+        service.check({ res -> result.set(res.succeeded() ? res.result() : new JsonObject(res.cause().message)) })
+        result.get()
+    }
+
+    private AsyncResult<String> deploy(JsonObject config, Closure created = {}) {
+        def deployed = new BlockingVariable<AsyncResult<String>>(10)
+        vertx.deployVerticle(new AbstractVerticle() {
+            @Override
+            void start() {
+                created(new InsultServiceImpl(vertx))
+            }
+        }, new DeploymentOptions().setConfig(config), { res -> deployed.set(res) })
+        deployed.get()
+    }
+
+    private static JsonObject config() {
+        new JsonObject()
+                .put("noun", new JsonObject().put("host", "127.0.0.1").put("port", 1))
+                .put("adjective", new JsonObject().put("host", "127.0.0.1").put("port", 1))
+                .put("breakers", new JsonObject())
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+    }
+}
@@ -0,0 +1,123 @@
+package com.redhat.labs.insult.services
+
+import io.vertx.core.Future
+import io.vertx.core.Vertx
+import io.vertx.core.http.HttpServer
+import io.vertx.core.json.JsonArray
+import io.vertx.core.json.JsonObject
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.BlockingVariable
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class VocabularyReplicaSpec extends Specification {
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    @Shared
+    private HttpServer server
+
+    @Shared
+    private JsonObject served
+
+    @Shared
+    private AtomicInteger loads = new AtomicInteger()
+
+    private VocabularyReplica underTest
+
+    def setupSpec() {
+        def listening = new BlockingVariable<Boolean>(10)
+        server = vertx.createHttpServer().requestHandler({ req ->
+            loads.incrementAndGet()
+            req.response().end(served.encode())
+        }).listen(0, { res -> listening.set(res.succeeded()) })
+        assert listening.get()
+    }
+
+    def setup() {
+        served = new JsonObject().put("nouns", new JsonArray(['apple-john', 'baggage', 'barnacle'])).put("version", "3-3")
+        def downstream = new DownstreamClient(vertx, "noun", new JsonObject()
+                .put("host", "127.0.0.1").put("port", server.actualPort()))
+        underTest = new VocabularyReplica(downstream, "/api/v1/nouns/all", "nouns")
+        assert resync()
+        loads.set(0)
+    }
+
+    def "test an add event which follows the local version is adopted without a reload"() {
+        when: "A noun is added by the service and its event is applied"
+            served = new JsonObject().put("nouns", new JsonArray(['apple-john', 'baggage', 'barnacle', 'bladder']))
+                    .put("version", "4-4")
+            underTest.apply(new JsonObject().put("action", "add").put("words", new JsonArray(['bladder'])).put("version", "4-4"))
+        then: "The replica holds the new noun at the version of the event"
+            underTest.stats().getInteger("size") == 4
+            underTest.stats().getString("version") == "4-4"
+        and: "The next check finds nothing to reload"
+            !resync()
+            loads.get() == 1
+    }
+
+    def "test an event with several words, from a batched write, is adopted"() {
+        when: "Two nouns written by one INSERT are applied"
+            underTest.apply(new JsonObject().put("action", "add").put("words", new JsonArray(['bladder', 'boar-pig']))
+                    .put("version", "5-6"))
+        then: "The replica holds both nouns at the version of the event"
+            underTest.stats().getInteger("size") == 5
+            underTest.stats().getString("version") == "5-6"
+    }
+
+    @Unroll
+    def "test an add event at version #version after a missed change forces a reload"() {
+        when: "The event does not directly follow the local version"
+            served = new JsonObject().put("nouns", new JsonArray(['apple-john', 'baggage', 'barnacle', 'bugbear', 'bladder']))
+                    .put("version", "5-5")
+            underTest.apply(new JsonObject().put("action", "add").put("word", 'bladder').put("version", version))
+        then: "The noun is applied, but the local version is cleared"
+            underTest.stats().getInteger("size") == 4
+            underTest.stats().getString("version") == null
+        and: "The next check reloads the whole vocabulary"
+            resync()
+            underTest.stats().getInteger("size") == 5
+            underTest.stats().getString("version") == "5-5"
+        where:
+            version << ["5-5", "4-3", null]
+    }
+
+    def "test events received before the vocabulary is loaded are ignored"() {
+        given: "A replica which has not loaded its vocabulary"
+            def replica = new VocabularyReplica(new DownstreamClient(vertx, "noun", new JsonObject()
+                    .put("host", "127.0.0.1").put("port", server.actualPort())), "/api/v1/nouns/all", "nouns")
+        when: "An add event is applied"
+            replica.apply(new JsonObject().put("action", "add").put("word", 'bladder').put("version", "4-4"))
+        then: "The replica is still empty"
+            !replica.isReady()
+            replica.stats().getInteger("size") == 0
+    }
+
+    def "test a reload event reloads the vocabulary"() {
+        given: "A vocabulary which was changed by a bulk insert"
+            served = new JsonObject().put("nouns", new JsonArray(['bugbear', 'bum-bailey'])).put("version", "5-5")
+        when: "A reload event is applied"
+            underTest.apply(new JsonObject().put("action", "reload"))
+        then: "The whole vocabulary is reloaded"
+            new PollingConditions(timeout: 5).eventually {
+                assert underTest.stats().getString("version") == "5-5"
+            }
+            loads.get() == 1
+    }
+
+    private boolean resync() {
+        def result = new BlockingVariable<Boolean>(10)
+        Future<Boolean> f = Future.future()
+        f.setHandler({ res -> result.set(res.succeeded() ? res.result() : null) })
+        underTest.resync(f)
+        result.get()
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+    }
+}
@@ -0,0 +1,229 @@
+package com.redhat.labs.loadtest;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives requests against the services and records the results. All of the requests are sent, and all of the results
+ * recorded, on the event loop of this verticle, so the statistics need no synchronization.
+ *
+ * In {@code open} mode requests are sent at a fixed {@code rate} per second regardless of how quickly the services
+ * respond, so a slow service causes requests to pile up just as it would with real users. In {@code closed} mode a
+ * fixed number of {@code users} each send one request at a time, optionally paced at {@code userRate} requests per
+ * second; without pacing the generator can only ever measure the service time, because the services control the rate.
+ */
+class LoadGenerator extends AbstractVerticle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final long TICK_MILLIS = 1L;
+
+    private final Future<JsonObject> result;
+
+    private final Map<String, HttpClient> clients = new HashMap<>();
+    private final Map<Operation, OperationStats> stats = new LinkedHashMap<>();
+    private final List<Operation> weighted = new ArrayList<>();
+
+    private long measureStart;
+    private long end;
+    private long timeout;
+    private long sequence;
+    private int inFlight;
+    private boolean finishing;
+
+    /**
+     * Create a new {@link LoadGenerator}
+     * @param result A {@link Future} which is completed with the report once the run is complete
+     */
+    LoadGenerator(Future<JsonObject> result) {
+        this.result = result;
+    }
+
+    @Override
+    public void start() {
+        JsonObject cfg = config();
+        timeout = cfg.getLong("timeout", 5000L);
+        JsonObject targets = cfg.getJsonObject("targets");
+        for (String name : targets.fieldNames()) {
+            JsonObject target = targets.getJsonObject(name);
+            clients.put(name, vertx.createHttpClient(new HttpClientOptions()
+                    .setDefaultHost(target.getString("host"))
+                    .setDefaultPort(target.getInteger("port"))
+                    .setKeepAlive(true)
+                    .setMaxPoolSize(cfg.getInteger("connections", 32))
+                    .setMaxWaitQueueSize(-1)));
+        }
+        JsonObject operations = cfg.getJsonObject("operations");
+        for (String operationId : operations.fieldNames()) {
+            Operation op = Operation.byId(operationId);
+            stats.put(op, new OperationStats(operationId));
+            for (int i = 0; i < operations.getInteger(operationId); i++) {
+                weighted.add(op);
+            }
+        }
+
+        long now = System.nanoTime();
+        measureStart = now + TimeUnit.SECONDS.toNanos(cfg.getLong("warmup", 10L));
+        end = measureStart + TimeUnit.SECONDS.toNanos(cfg.getLong("duration", 60L));
+        String mode = cfg.getString("mode", "open");
+        LOG.info("Starting {} loop load test, measuring after {}s of warm up", mode, cfg.getLong("warmup", 10L));
+        if ("closed".equals(mode)) {
+            int users = cfg.getInteger("users", 16);
+            double userRate = cfg.getDouble("userRate", 0.0);
+            long interval = userRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / userRate) : 0L;
+            if (interval == 0) {
+                LOG.warn("Closed loop without a userRate: response times can not be corrected for coordinated omission");
+            }
+            for (int i = 0; i < users; i++) {
+                // Spread the users over the first interval so that they do not all fire at once
+                long first = interval > 0 ? now + interval * i / users : now;
+                nextUserRequest(first, interval);
+            }
+        } else {
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / cfg.getDouble("rate", 200.0));
+            long[] issued = {0L};
+            vertx.setPeriodic(TICK_MILLIS, t -> {
+                long tick = System.nanoTime();
+                long intended = now + issued[0] * interval;
+                while (intended <= tick && intended < end) {
+                    send(nextOperation(), intended);
+                    issued[0]++;
+                    intended = now + issued[0] * interval;
+                }
+                if (intended >= end) {
+                    vertx.cancelTimer(t);
+                    finish();
+                }
+            });
+        }
+    }
+
+    /**
+     * Send the next request for a closed loop user, once it is due
+     * @param intended The {@link System#nanoTime()} at which the request is due
+     * @param interval The pacing interval of the user in nanoseconds, or 0 to send requests back to back
+     */
+    private void nextUserRequest(long intended, long interval) {
+        if (intended >= end) {
+            finish();
+            return;
+        }
+        long delay = TimeUnit.NANOSECONDS.toMillis(intended - System.nanoTime());
+        if (delay >= 1) {
+            vertx.setTimer(delay, t -> nextUserRequest(intended, interval));
+            return;
+        }
+        send(nextOperation(), intended, v -> {
+            long next = interval > 0 ? intended + interval : System.nanoTime();
+            nextUserRequest(next, interval);
+        });
+    }
+
+    /**
+     * Choose the next operation according to the configured weights
+     * @return The {@link Operation}
+     */
+    private Operation nextOperation() {
+        return weighted.get(ThreadLocalRandom.current().nextInt(weighted.size()));
+    }
+
+    /**
+     * Send a single request and record the results
+     * @param op The {@link Operation} to be performed
+     * @param intended The {@link System#nanoTime()} at which the request was scheduled to be sent
+     */
+    private void send(Operation op, long intended) {
+        send(op, intended, null);
+    }
+
+    /**
+     * Send a single request and record the results
+     * @param op The {@link Operation} to be performed
+     * @param intended The {@link System#nanoTime()} at which the request was scheduled to be sent
+     * @param done An optional callback once the request has completed
+     */
+    private void send(Operation op, long intended, Handler<Void> done) {
+        inFlight++;
+        long sent = System.nanoTime();
+        boolean[] completed = {false};
+        HttpClientRequest request = clients.get(op.target).request(op.method, op.path, res -> res.bodyHandler(body -> {
+            if (!completed[0]) {
+                completed[0] = true;
+                complete(op, intended, sent, res.statusCode() / 100 != 2, op.isFallback(body), done);
+            }
+        }));
+        request.setTimeout(timeout).exceptionHandler(t -> {
+            if (!completed[0]) {
+                completed[0] = true;
+                complete(op, intended, sent, true, false, done);
+            }
+        });
+        Buffer body = op.body(++sequence);
+        if (body == null) {
+            request.end();
+        } else {
+            request.putHeader("Content-Type", "application/json").end(body);
+        }
+    }
+
+    /**
+     * Record the results of a request which has completed
+     * @param op The {@link Operation} which was performed
+     * @param intended The {@link System#nanoTime()} at which the request was scheduled to be sent
+     * @param sent The {@link System#nanoTime()} at which the request was actually sent
+     * @param error {@code true} if the request failed or returned an unexpected status
+     * @param fallback {@code true} if the response was served by a circuit breaker fallback
+     * @param done An optional callback once the request has been recorded
+     */
+    private void complete(Operation op, long intended, long sent, boolean error, boolean fallback,
+                          Handler<Void> done) {
+        inFlight--;
+        if (intended >= measureStart) {
+            stats.get(op).record(intended, sent, System.nanoTime(), error, fallback);
+        }
+        if (done != null) {
+            done.handle(null);
+        }
+        if (finishing) {
+            finish();
+        }
+    }
+
+    /**
+     * Complete the run once every request which has been sent has completed
+     */
+    private void finish() {
+        finishing = true;
+        if (inFlight > 0 || result.isComplete()) {
+            return;
+        }
+        double seconds = TimeUnit.NANOSECONDS.toMillis(end - measureStart) / 1000.0;
+        OperationStats all = new OperationStats("all");
+        JsonObject operations = new JsonObject();
+        stats.values().forEach(s -> {
+            all.add(s);
+            operations.put(s.name, s.toJson(seconds));
+        });
+        result.complete(new JsonObject()
+                .put("config", config())
+                .put("seconds", seconds)
+                .put("operations", operations)
+                .put("all", all.toJson(seconds)));
+    }
+}
@@ -0,0 +1,148 @@
+package com.redhat.labs.loadtest;
+
+import io.vertx.config.ConfigRetriever;
+import io.vertx.config.ConfigRetrieverOptions;
+import io.vertx.config.ConfigStoreOptions;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+
+/**
+ * Command line entry point for the load test.
+ *
+ * The configuration is read from {@code loadtest_default_config.json} and, optionally, from a JSON file given as the
+ * only argument, which overrides the defaults. When {@code embedded} is {@code true} the adjective, noun and insult
+ * services are deployed in this JVM, against their embedded H2 databases, before the load is started; otherwise the
+ * {@code targets} should point at running instances.
+ */
+public class LoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTest.class);
+
+    private static final String[] EMBEDDED_VERTICLES = {
+            "com.redhat.labs.adjective.MainVerticle",
+            "com.redhat.labs.noun.MainVerticle",
+            "com.redhat.labs.insult.MainVerticle"
+    };
+
+    public static void main(String[] args) {
+        Vertx vertx = Vertx.vertx();
+        loadConfig(vertx, args.length > 0 ? args[0] : null)
+                .compose(config -> deployEmbedded(vertx, config).map(config))
+                .compose(config -> {
+                    Future<JsonObject> report = Future.future();
+                    vertx.deployVerticle(new LoadGenerator(report), new DeploymentOptions().setConfig(config), res -> {
+                        if (res.failed()) {
+                            report.tryFail(res.cause());
+                        }
+                    });
+                    return report;
+                })
+                .compose(report -> writeReport(vertx, report))
+                .setHandler(res -> {
+                    if (res.failed()) {
+                        LOG.error("Load test failed", res.cause());
+                    }
+                    vertx.close(v -> System.exit(res.succeeded() ? 0 : 1));
+                });
+    }
+
+    /**
+     * Load the configuration of the load test
+     * @param vertx The {@link Vertx} instance
+     * @param path An optional path to a JSON file which overrides the default configuration
+     * @return A {@link Future} which is completed with the configuration
+     */
+    private static Future<JsonObject> loadConfig(Vertx vertx, String path) {
+        ConfigRetrieverOptions retrieverOptions = new ConfigRetrieverOptions()
+                .addStore(new ConfigStoreOptions()
+                        .setType("file")
+                        .setFormat("json")
+                        .setConfig(new JsonObject().put("path", "loadtest_default_config.json")));
+        if (path != null) {
+            retrieverOptions.addStore(new ConfigStoreOptions()
+                    .setType("file")
+                    .setFormat("json")
+                    .setConfig(new JsonObject().put("path", path)));
+        }
+        Future<JsonObject> config = Future.future();
+        ConfigRetriever.create(vertx, retrieverOptions).getConfig(config.completer());
+        return config;
+    }
+
+    /**
+     * Deploy the services in this JVM, one after the other, if the configuration asks for it
+     * @param vertx The {@link Vertx} instance
+     * @param config The configuration of the load test
+     * @return A {@link Future} which is completed once all of the services have started
+     */
+    private static Future<Void> deployEmbedded(Vertx vertx, JsonObject config) {
+        Future<Void> deployed = Future.succeededFuture();
+        if (!config.getBoolean("embedded", Boolean.FALSE)) {
+            return deployed;
+        }
+        for (String verticle : EMBEDDED_VERTICLES) {
+            deployed = deployed.compose(v -> {
+                LOG.info("Deploying {}", verticle);
+                Future<String> id = Future.future();
+                vertx.deployVerticle(verticle, id.completer());
+                return id.map((Void) null);
+            });
+        }
+        return deployed;
+    }
+
+    /**
+     * Print the report and write it to the configured file as JSON
+     * @param vertx The {@link Vertx} instance
+     * @param report The report created by the {@link LoadGenerator}
+     * @return A {@link Future} which is completed once the report has been written
+     */
+    private static Future<Void> writeReport(Vertx vertx, JsonObject report) {
+        System.out.println(summary(report, "serviceTime", "Service time (ms, from when each request was sent)"));
+        System.out.println(summary(report, "responseTime",
+                "Response time (ms, from when each request was scheduled, corrected for coordinated omission)"));
+        Future<Void> written = Future.future();
+        String path = report.getJsonObject("config").getString("report");
+        if (path == null) {
+            return Future.succeededFuture();
+        }
+        vertx.fileSystem().writeFile(path, report.toBuffer(), written.completer());
+        return written.map(v -> {
+            LOG.info("Report written to {}", path);
+            return null;
+        });
+    }
+
+    /**
+     * Format one of the latency distributions of the report as a table
+     * @param report The report created by the {@link LoadGenerator}
+     * @param latency The name of the latency distribution
+     * @param title The title of the table
+     * @return The table
+     */
+    private static String summary(JsonObject report, String latency, String title) {
+        StringBuilder table = new StringBuilder(String.format("%n%s%n", title));
+        String row = "%-14s %9s %9s %8s %8s %9s %9s %9s %9s %9s %9s%n";
+        table.append(String.format(row, "operation", "count", "req/s", "errors", "fallback",
+                "p50", "p90", "p99", "p99.9", "p99.99", "max"));
+        JsonObject operations = report.getJsonObject("operations").copy().put("all", report.getJsonObject("all"));
+        for (String name : operations.fieldNames()) {
+            JsonObject op = operations.getJsonObject(name);
+            JsonObject dist = op.getJsonObject(latency);
+            table.append(String.format(Locale.ROOT, row, name,
+                    op.getLong("count"),
+                    String.format(Locale.ROOT, "%.1f", op.getDouble("throughput")),
+                    String.format(Locale.ROOT, "%.2f%%", op.getDouble("errorRate") * 100),
+                    String.format(Locale.ROOT, "%.2f%%", op.getDouble("fallbackRate") * 100),
+                    dist.getDouble("p50"), dist.getDouble("p90"), dist.getDouble("p99"),
+                    dist.getDouble("p99.9"), dist.getDouble("p99.99"), dist.getDouble("max")));
+        }
+        return table.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package com.redhat.labs.loadtest;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The operations which the load generator can drive. Each operation targets one of the services and knows how to
+ * recognise a response which was served by a circuit breaker fallback.
+ */
+enum Operation {
+
+    GET_INSULT("getInsult", "insult", HttpMethod.GET, "/api/v1/insult"),
+    INSULT_BY_NAME("insultByName", "insult", HttpMethod.POST, "/api/v1/insult"),
+    ADD_ADJECTIVE("addAdjective", "adjective", HttpMethod.POST, "/api/v1/adjective"),
+    ADD_NOUN("addNoun", "noun", HttpMethod.POST, "/api/v1/noun");
+
+    final String operationId;
+    final String target;
+    final HttpMethod method;
+    final String path;
+
+    Operation(String operationId, String target, HttpMethod method, String path) {
+        this.operationId = operationId;
+        this.target = target;
+        this.method = method;
+        this.path = path;
+    }
+
+    /**
+     * Find an operation by the operationId used in the OpenAPI contracts of the services
+     * @param operationId The operationId
+     * @return The {@link Operation}
+     * @throws IllegalArgumentException If there is no such operation
+     */
+    static Operation byId(String operationId) {
+        for (Operation op : values()) {
+            if (op.operationId.equals(operationId)) {
+                return op;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation: " + operationId);
+    }
+
+    /**
+     * Create the body of a request
+     * @param sequence A sequence number, used to make the words which are added unique
+     * @return The request body, or {@code null} if the operation does not send one
+     */
+    Buffer body(long sequence) {
+        String word = String.format("loadtest-%d-%04x", sequence, ThreadLocalRandom.current().nextInt(0x10000));
+        switch (this) {
+            case INSULT_BY_NAME:
+                return Buffer.buffer(new JsonObject().put("name", "Load Test").encode());
+            case ADD_ADJECTIVE:
+                return Buffer.buffer(new JsonObject().put("adjective", word).encode());
+            case ADD_NOUN:
+                return Buffer.buffer(new JsonObject().put("noun", word).encode());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Check whether a successful response was (partly) served by one of the insult service's circuit breaker
+     * fallbacks, which replace the words with markers such as {@code [noun fallback]} or {@code [adjective timeout]}
+     * @param body The response body
+     * @return {@code true} if the response contains a fallback marker
+     */
+    boolean isFallback(Buffer body) {
+        if (!"insult".equals(target)) {
+            return false;
+        }
+        String text = body.toString();
+        return text.contains(" fallback]") || text.contains(" timeout]") || text.contains("[error]");
+    }
+}
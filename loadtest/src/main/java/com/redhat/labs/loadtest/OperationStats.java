@@ -0,0 +1,105 @@
+package com.redhat.labs.loadtest;
+
+import io.vertx.core.json.JsonObject;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms and counters for a single operation.
+ *
+ * Two latencies are recorded for every request: the service time, measured from when the request was actually sent,
+ * and the response time, measured from when the request was supposed to be sent according to the schedule. When the
+ * system under test stalls, the generator falls behind its schedule; the service time then hides the stall
+ * (coordinated omission) while the response time includes it, as a real user would experience it.
+ */
+class OperationStats {
+
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9, 99.99};
+
+    final String name;
+
+    private final Histogram serviceTime = new Histogram(3);
+    private final Histogram responseTime = new Histogram(3);
+    private long errors;
+    private long fallbacks;
+
+    /**
+     * Create a new {@link OperationStats}
+     * @param name The name of the operation
+     */
+    OperationStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record the outcome of a single request
+     * @param intended The {@link System#nanoTime()} at which the request was scheduled to be sent
+     * @param sent The {@link System#nanoTime()} at which the request was actually sent
+     * @param done The {@link System#nanoTime()} at which the response (or failure) was received
+     * @param error {@code true} if the request failed or returned an unexpected status
+     * @param fallback {@code true} if the response was served by a circuit breaker fallback
+     */
+    void record(long intended, long sent, long done, boolean error, boolean fallback) {
+        serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(Math.max(0, done - sent)));
+        // A paced request may be sent up to a timer tick early, so the response time starts at whichever came first
+        responseTime.recordValue(TimeUnit.NANOSECONDS.toMicros(Math.max(0, done - Math.min(intended, sent))));
+        if (error) {
+            errors++;
+        } else if (fallback) {
+            fallbacks++;
+        }
+    }
+
+    /**
+     * Add the results of another operation to these results
+     * @param other The {@link OperationStats} to be added
+     */
+    void add(OperationStats other) {
+        serviceTime.add(other.serviceTime);
+        responseTime.add(other.responseTime);
+        errors += other.errors;
+        fallbacks += other.fallbacks;
+    }
+
+    /**
+     * The number of requests recorded
+     * @return The number of requests
+     */
+    long count() {
+        return serviceTime.getTotalCount();
+    }
+
+    /**
+     * Summarize the results
+     * @param seconds The length of the measurement, used to calculate the throughput
+     * @return A {@link JsonObject} containing the counters, the throughput and both latency distributions in
+     *         milliseconds
+     */
+    JsonObject toJson(double seconds) {
+        long count = count();
+        return new JsonObject()
+                .put("count", count)
+                .put("throughput", seconds > 0 ? count / seconds : 0.0)
+                .put("errors", errors)
+                .put("errorRate", count > 0 ? (double) errors / count : 0.0)
+                .put("fallbacks", fallbacks)
+                .put("fallbackRate", count > 0 ? (double) fallbacks / count : 0.0)
+                .put("serviceTime", distribution(serviceTime))
+                .put("responseTime", distribution(responseTime));
+    }
+
+    /**
+     * Summarize a latency histogram
+     * @param histogram The {@link Histogram}, in microseconds
+     * @return A {@link JsonObject} containing the mean, the percentiles and the maximum in milliseconds
+     */
+    private static JsonObject distribution(Histogram histogram) {
+        JsonObject dist = new JsonObject().put("mean", histogram.getMean() / 1000.0);
+        for (double p : PERCENTILES) {
+            dist.put("p" + (p == Math.rint(p) ? String.valueOf((int) p) : String.valueOf(p)),
+                    histogram.getValueAtPercentile(p) / 1000.0);
+        }
+        return dist.put("max", histogram.getMaxValue() / 1000.0);
+    }
+}
@@ -0,0 +1,223 @@
+package com.redhat.labs.loadtest;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line entry point for the startup benchmark, which compares how long a service's fat jar takes from process
+ * start until its {@code readyUrl} answers with a 200, without class data sharing ({@code -Xshare:off}), with the
+ * JDK's default archive, and with an AppCDS archive recorded by a training run of the service (see
+ * {@code clustered-launcher/appcds.sh}).
+ *
+ * The configuration is read from {@code startup_default_config.json} and, optionally, from a JSON file given as the
+ * only argument, which overrides the defaults. If the archive does not exist yet, it is trained first, which needs a
+ * JDK 13 or newer.
+ */
+public class StartupBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StartupBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+        JsonObject config = loadConfig(args.length > 0 ? args[0] : null);
+        File jar = new File(config.getString("jar")).getAbsoluteFile();
+        if (!jar.isFile()) {
+            LOG.error("The service jar {} does not exist, build it first", jar);
+            System.exit(1);
+        }
+        File archive = new File(config.getString("archive", jar.getPath() + ".jsa")).getAbsoluteFile();
+        // Every run uses the same, fresh working directory, so that they all start against the same embedded database
+        Path workDir = Files.createTempDirectory("startup-benchmark");
+
+        if (!archive.isFile()) {
+            train(config, jar, archive, workDir.toFile());
+        }
+
+        JsonObject modes = new JsonObject();
+        JsonObject flags = config.getJsonObject("modes");
+        for (String mode : flags.fieldNames()) {
+            List<String> jvmArgs = new ArrayList<>();
+            for (Object flag : flags.getJsonArray(mode)) {
+                jvmArgs.add(flag.toString().replace("${archive}", archive.getPath()));
+            }
+            List<Long> times = new ArrayList<>();
+            for (int run = 0; run < config.getInteger("runs"); run++) {
+                long millis = timeToReady(config, jar, jvmArgs, workDir.toFile());
+                LOG.info("{} run {}: ready in {} ms", mode, run + 1, millis);
+                times.add(millis);
+            }
+            modes.put(mode, stats(times).put("jvmArgs", new JsonArray(jvmArgs)));
+        }
+
+        JsonObject report = new JsonObject().put("config", config).put("modes", modes);
+        System.out.println(summary(modes));
+        String path = config.getString("report");
+        if (path != null) {
+            Files.write(Paths.get(path), report.encodePrettily().getBytes(StandardCharsets.UTF_8));
+            LOG.info("Report written to {}", path);
+        }
+    }
+
+    /**
+     * Load the configuration of the startup benchmark
+     * @param path An optional path to a JSON file which overrides the default configuration
+     * @return The configuration
+     * @throws IOException If a configuration file could not be read
+     */
+    private static JsonObject loadConfig(String path) throws IOException {
+        JsonObject config;
+        try (InputStream in = StartupBenchmark.class.getClassLoader()
+                .getResourceAsStream("startup_default_config.json")) {
+            config = new JsonObject(new Scanner(in, "UTF-8").useDelimiter("\\A").next());
+        }
+        if (path != null) {
+            config.mergeIn(new JsonObject(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8)));
+        }
+        return config;
+    }
+
+    /**
+     * Record the AppCDS archive with a training run of the service, which exits by itself once it has been warmed up
+     * @param config The configuration of the startup benchmark
+     * @param jar The service's fat jar
+     * @param archive The archive to be written
+     * @param workDir The working directory of the service
+     * @throws Exception If the training run failed or did not write the archive
+     */
+    private static void train(JsonObject config, File jar, File archive, File workDir) throws Exception {
+        LOG.info("Training {} for {}", archive, jar);
+        List<String> command = new ArrayList<>(Arrays.asList(config.getString("java"),
+                "-XX:ArchiveClassesAtExit=" + archive.getPath(),
+                "-Drhoar.cds.train=" + String.join(",", config.getJsonArray("train").getList()),
+                "-jar", jar.getPath()));
+        command.addAll(args(config));
+        Process process = new ProcessBuilder(command)
+                .directory(workDir)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(workDir, "training.log"))
+                .start();
+        if (!process.waitFor(config.getInteger("timeout"), TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            throw new IllegalStateException("The training run did not finish, see " + workDir + "/training.log");
+        }
+        if (process.exitValue() != 0 || !archive.isFile()) {
+            throw new IllegalStateException("The training run failed, see " + workDir + "/training.log");
+        }
+    }
+
+    /**
+     * Start the service and wait until its {@code readyUrl} answers with a 200
+     * @param config The configuration of the startup benchmark
+     * @param jar The service's fat jar
+     * @param jvmArgs The JVM options of the mode being measured
+     * @param workDir The working directory of the service
+     * @return The milliseconds from starting the process until it was ready
+     * @throws Exception If the service did not become ready in time
+     */
+    private static long timeToReady(JsonObject config, File jar, List<String> jvmArgs, File workDir)
+            throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(config.getString("java"));
+        command.addAll(jvmArgs);
+        command.add("-jar");
+        command.add(jar.getPath());
+        command.addAll(args(config));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getInteger("timeout"));
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(workDir)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(workDir, "service.log"))
+                .start();
+        try {
+            while (System.nanoTime() < deadline) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("The service exited, see " + workDir + "/service.log");
+                }
+                if (isReady(config.getString("readyUrl"))) {
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                }
+                Thread.sleep(config.getInteger("pollInterval"));
+            }
+            throw new IllegalStateException("The service was not ready in time, see " + workDir + "/service.log");
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> args(JsonObject config) {
+        return config.getJsonArray("args", new JsonArray()).getList();
+    }
+
+    private static boolean isReady(String readyUrl) {
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(readyUrl).openConnection();
+            conn.setConnectTimeout(200);
+            conn.setReadTimeout(1000);
+            try {
+                return conn.getResponseCode() == 200;
+            } finally {
+                conn.disconnect();
+            }
+        } catch (IOException e) {
+            // Not listening yet
+            return false;
+        }
+    }
+
+    private static JsonObject stats(List<Long> times) {
+        List<Long> sorted = new ArrayList<>(times);
+        Collections.sort(sorted);
+        int n = sorted.size();
+        double median = n % 2 == 1 ? sorted.get(n / 2) : (sorted.get(n / 2 - 1) + sorted.get(n / 2)) / 2.0;
+        return new JsonObject()
+                .put("runs", new JsonArray(new ArrayList<>(times)))
+                .put("min", sorted.get(0))
+                .put("median", median)
+                .put("mean", sorted.stream().mapToLong(Long::longValue).average().orElse(0))
+                .put("max", sorted.get(n - 1));
+    }
+
+    /**
+     * Format the time to ready of each mode as a table
+     * @param modes The statistics of each mode
+     * @return The table
+     */
+    private static String summary(JsonObject modes) {
+        StringBuilder table = new StringBuilder(String.format("%nTime to ready (ms)%n"));
+        String row = "%-10s %6s %9s %9s %9s %9s%n";
+        table.append(String.format(row, "mode", "runs", "min", "median", "mean", "max"));
+        for (String mode : modes.fieldNames()) {
+            JsonObject stats = modes.getJsonObject(mode);
+            table.append(String.format(Locale.ROOT, row, mode,
+                    stats.getJsonArray("runs").size(),
+                    stats.getLong("min"),
+                    String.format(Locale.ROOT, "%.1f", stats.getDouble("median")),
+                    String.format(Locale.ROOT, "%.1f", stats.getDouble("mean")),
+                    stats.getLong("max")));
+        }
+        return table.toString();
+    }
+}
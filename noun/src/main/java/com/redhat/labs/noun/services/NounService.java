@@ -22,5 +22,9 @@ public interface NounService {
 
     void get(Handler<AsyncResult<String>> handler);
 
+    void getMany(int count, boolean distinct, Handler<AsyncResult<String>> handler);
+
+    void getAll(Handler<AsyncResult<String>> handler);
+
     void check(Handler<AsyncResult<String>> handler);
 }
\ No newline at end of file
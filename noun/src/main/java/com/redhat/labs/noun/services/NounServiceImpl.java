@@ -1,43 +1,129 @@
 package com.redhat.labs.noun.services;
 
+import com.redhat.labs.rhoar.vertx.db.BulkIngest;
+import com.redhat.labs.rhoar.vertx.db.DbClient;
+import com.redhat.labs.rhoar.vertx.db.RandomWords;
+import com.redhat.labs.rhoar.vertx.db.WriteBehind;
+import com.redhat.labs.rhoar.vertx.json.EncodedWords;
+import com.redhat.labs.rhoar.vertx.launcher.StartupTimer;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.core.streams.ReadStream;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLClient;
 import io.vertx.ext.sql.SQLConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public class NounServiceImpl implements NounService {
 
     private static final Logger LOG = LoggerFactory.getLogger(NounServiceImpl.class);
 
+    private static final String INSERT_SQL = "INSERT INTO nouns (noun) VALUES (?)";
+
+    private static final String VERSION_SQL = "SELECT COUNT(*), COALESCE(MAX(id), 0) FROM nouns";
+
+    Vertx vertx;
+
     SQLClient client;
 
+    /**
+     * Whether the connections of the {@link #client} support {@code batchWithParams}, see {@link DbClient}
+     */
+    boolean batchInserts;
+
+    String eventsAddress;
+
+    int bulkChunkSize;
+
+    /**
+     * Queues single Noun saves and writes them with multi-row INSERTs, or {@code null} if every save is written
+     * straight away
+     */
+    WriteBehind writeBehind;
+
+    /**
+     * Compact, pre-encoded responses for single Nouns, so that serving a known Noun needs no JSON encoding
+     */
+    EncodedWords encodedWords;
+
     /**
      * Default constructor for the Service Implementation
      * @param vertx The {@link Vertx} instance
      */
     public NounServiceImpl(Vertx vertx) {
+        this.vertx = vertx;
         JsonObject dbConfig = vertx.getOrCreateContext().config().getJsonObject("db");
-        client = JDBCClient.createShared(vertx, dbConfig, "noun");
+        DbClient dbClient = DbClient.select(dbConfig);
+        client = dbClient.create(vertx, dbConfig, "noun");
+        batchInserts = dbClient.supportsBatch();
+        bulkChunkSize = vertx.getOrCreateContext().config().getJsonObject("bulk", new JsonObject()).getInteger("chunkSize", 500);
+        JsonObject responsesCfg = vertx.getOrCreateContext().config().getJsonObject("responses", new JsonObject());
+        encodedWords = new EncodedWords("NOUN", responsesCfg.getInteger("wordCacheSize", 10000));
+        JsonObject eventsCfg = vertx.getOrCreateContext().config().getJsonObject("events", new JsonObject());
+        if (eventsCfg.getBoolean("enabled", Boolean.FALSE)) {
+            eventsAddress = eventsCfg.getString("address", "noun.events");
+        }
+        JsonObject writeBehindCfg = vertx.getOrCreateContext().config().getJsonObject("writeBehind", new JsonObject());
+        if (writeBehindCfg.getBoolean("enabled", Boolean.FALSE)) {
+            writeBehind = new WriteBehind(vertx, client, INSERT_SQL, "noun", writeBehindCfg)
+                    .writtenHandler(this::handleWritten);
+        }
     }
 
     /**
-     * A method for adding a new Adjective to the database
+     * A method for adding a new Adjective to the database. When write-behind is enabled, the Noun is queued to be
+     * written with others.
      * @param adjective The Adjective to be added to the database
      * @param resultHandler The {@link Handler} to be used to callback with the results
      */
     @Override
     public void save(String adjective, Handler<AsyncResult<String>> resultHandler) {
+        if (writeBehind != null) {
+            writeBehind.save(adjective, res -> resultHandler.handle(res.map(v -> savedResponse(adjective))));
+            return;
+        }
         client.getConnection(connRes -> saveConnHandler(adjective, resultHandler, connRes));
     }
 
+    /**
+     * Write any Nouns which are still queued by write-behind, so that saves which have been acknowledged are not lost
+     * when the service is stopped. This is not part of the Service Proxy interface, it is called by the verticle.
+     * @param resultHandler Called once nothing is left to write
+     */
+    public void close(Handler<AsyncResult<Void>> resultHandler) {
+        if (writeBehind == null) {
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        writeBehind.close(resultHandler);
+    }
+
+    /**
+     * A method for adding many Nouns to the database from a streamed request body (a JSON array or NDJSON) using
+     * batches in a single transaction. This is not part of the {@link NounService} Service Proxy interface, because
+     * the body is streamed rather than sent as a single message.
+     * @param body The request body, which should be paused until the database connection is ready
+     * @param resultHandler The {@link Handler} to be called with a report of the rows inserted per chunk
+     */
+    public void bulkSave(ReadStream<Buffer> body, Handler<AsyncResult<JsonObject>> resultHandler) {
+        BulkIngest.ingest(client, INSERT_SQL, "noun", bulkChunkSize, batchInserts, body, res -> {
+            if (res.succeeded() && eventsAddress != null) {
+                vertx.eventBus().publish(eventsAddress, new JsonObject().put("action", "reload"));
+            }
+            resultHandler.handle(res);
+        });
+    }
+
     /**
      * A {@link Handler} method which handles the results of requesting a new database connection
      * @param adjective The Adjective to be saved
@@ -48,11 +134,11 @@ public class NounServiceImpl implements NounService {
         if (connRes.succeeded()) {
             SQLConnection conn = connRes.result();
             JsonArray params = new JsonArray().add(adjective);
-            conn.queryWithParams("INSERT INTO nouns (noun) VALUES (?)", params, queryRes -> {
+            conn.queryWithParams(INSERT_SQL, params, queryRes -> {
+                conn.close();
                 if (queryRes.succeeded()) {
-                    JsonObject result = new JsonObject()
-                            .put("url", String.format("/%s", adjective));
-                    resultHandler.handle(Future.succeededFuture(result.encodePrettily()));
+                    handleWritten(Collections.singletonList(adjective));
+                    resultHandler.handle(Future.succeededFuture(savedResponse(adjective)));
                 } else {
                     resultHandler.handle(Future.failedFuture(queryRes.cause()));
                 }
@@ -63,11 +149,44 @@ public class NounServiceImpl implements NounService {
     }
 
     /**
-     * A service method to retrieve a random Adjective from the database
+     * Once Nouns have been written to the database, tell any replicas about them, along with the version of the
+     * vocabulary after the write
+     * @param nouns The Nouns which were added
+     */
+    private void handleWritten(List<String> nouns) {
+        if (eventsAddress != null) {
+            client.query(VERSION_SQL, versionRes -> {
+                JsonObject event = new JsonObject().put("action", "add").put("words", new JsonArray(nouns));
+                if (versionRes.succeeded()) {
+                    JsonArray row = versionRes.result().getResults().get(0);
+                    event.put("version", version(row.getLong(0), row.getLong(1)));
+                }
+                vertx.eventBus().publish(eventsAddress, event);
+            });
+        }
+    }
+
+    private static String savedResponse(String noun) {
+        return new JsonObject().put("url", String.format("/%s", noun)).encode();
+    }
+
+    /**
+     * A service method to retrieve a random Noun from the database
      * @param resultHandler The {@link Handler} to be used to callback with the results
      */
     @Override
     public void get(Handler<AsyncResult<String>> resultHandler) {
+        getEncoded(res -> resultHandler.handle(res.map(Buffer::toString)));
+    }
+
+    /**
+     * A method to retrieve a random Noun from the database as a compact, pre-encoded JSON response. The returned
+     * {@link Buffer} is shared between requests, so it can be written to an HTTP response without being copied but
+     * must not be modified. This is not part of the {@link NounService} Service Proxy interface, which can only return
+     * Strings.
+     * @param resultHandler The {@link Handler} to be used to callback with the results
+     */
+    public void getEncoded(Handler<AsyncResult<Buffer>> resultHandler) {
         client.getConnection(connRes -> handleGetConnectionResult(resultHandler, connRes));
     }
 
@@ -76,17 +195,16 @@ public class NounServiceImpl implements NounService {
      * @param resultHandler The {@link Handler} to be used to callback with the results
      * @param connRes The result of the request for a new database connection instance
      */
-    private void handleGetConnectionResult(Handler<AsyncResult<String>> resultHandler, AsyncResult<SQLConnection> connRes) {
+    private void handleGetConnectionResult(Handler<AsyncResult<Buffer>> resultHandler, AsyncResult<SQLConnection> connRes) {
         if (connRes.succeeded()) {
             LOG.debug("DB connection retrieved");
             SQLConnection conn = connRes.result();
-            conn.query("SELECT noun FROM nouns ORDER BY RAND() LIMIT 1", queryRes -> {
+            conn.query("SELECT noun FROM nouns ORDER BY RANDOM() LIMIT 1", queryRes -> {
                 LOG.debug("DB Query complete");
                 if (queryRes.succeeded()) {
                     LOG.debug("Got noun from DB");
-                    ResultSet resultSet = queryRes.result();
-                    JsonObject result = resultSet.getRows().get(0);
-                    resultHandler.handle(Future.succeededFuture(result.encodePrettily()));
+                    String noun = queryRes.result().getResults().get(0).getString(0);
+                    resultHandler.handle(Future.succeededFuture(encodedWords.get(noun)));
                     connRes.result().close();
                 } else {
                     LOG.debug("Failed to get noun from DB", queryRes.cause());
@@ -98,6 +216,84 @@ public class NounServiceImpl implements NounService {
         }
     }
 
+    /**
+     * A service method to retrieve {@code count} random Nouns from the database using a single query
+     * @param count The number of Nouns to return, from 1 to {@link RandomWords#MAX_COUNT}
+     * @param distinct If {@code true}, no Noun will be returned more than once (so fewer than {@code count} Nouns may
+     *                 be returned when there are not enough Nouns in the database)
+     * @param resultHandler The {@link Handler} to be used to callback with the results
+     */
+    @Override
+    public void getMany(int count, boolean distinct, Handler<AsyncResult<String>> resultHandler) {
+        String invalid = RandomWords.checkCount(count);
+        if (invalid != null) {
+            resultHandler.handle(Future.failedFuture(new IllegalArgumentException(invalid)));
+            return;
+        }
+        client.queryWithParams("SELECT noun FROM nouns ORDER BY RANDOM() LIMIT ?", new JsonArray().add(count),
+                queryRes -> handleGetManyResult(count, distinct, resultHandler, queryRes));
+    }
+
+    /**
+     * A {@link Handler} method which processes the results of the query for multiple Nouns. The query can only return
+     * each row once, so if duplicates are allowed and there are not enough rows, the remainder is filled by picking
+     * from the rows returned.
+     * @param count The number of Nouns requested
+     * @param distinct If {@code true}, no Noun will be returned more than once
+     * @param resultHandler The {@link Handler} to be used to callback with the results
+     * @param queryRes The results of the SQL query
+     */
+    void handleGetManyResult(int count, boolean distinct, Handler<AsyncResult<String>> resultHandler, AsyncResult<ResultSet> queryRes) {
+        if (queryRes.succeeded()) {
+            String[] nouns = queryRes.result().getResults().stream()
+                    .map(row -> row.getString(0))
+                    .toArray(String[]::new);
+            if (!distinct && nouns.length > 0 && nouns.length < count) {
+                nouns = RandomWords.pick(nouns, count, false);
+            }
+            JsonObject result = new JsonObject().put("nouns", new JsonArray(Arrays.asList((Object[]) nouns)));
+            resultHandler.handle(Future.succeededFuture(result.encode()));
+        } else {
+            LOG.debug("Failed to get nouns from DB", queryRes.cause());
+            resultHandler.handle(Future.failedFuture(queryRes.cause()));
+        }
+    }
+
+    /**
+     * A service method to retrieve ALL Nouns along with a version for the vocabulary, so that replicas can detect
+     * when they have missed updates. The version is made up of the number of Nouns and the highest ID.
+     * @param resultHandler The {@link Handler} to be used to callback with the results
+     */
+    @Override
+    public void getAll(Handler<AsyncResult<String>> resultHandler) {
+        client.query("SELECT noun, id FROM nouns ORDER BY id", queryRes -> {
+            if (queryRes.succeeded()) {
+                JsonArray nouns = new JsonArray();
+                long maxId = 0;
+                for (JsonArray row : queryRes.result().getResults()) {
+                    nouns.add(row.getString(0));
+                    maxId = Math.max(maxId, row.getLong(1));
+                }
+                JsonObject result = new JsonObject()
+                        .put("nouns", nouns)
+                        .put("version", version(nouns.size(), maxId));
+                resultHandler.handle(Future.succeededFuture(result.encode()));
+            } else {
+                resultHandler.handle(Future.failedFuture(queryRes.cause()));
+            }
+        });
+    }
+
+    /**
+     * The version of the vocabulary, made up of the number of Nouns and the highest ID
+     * @param count The number of Nouns
+     * @param maxId The highest ID
+     * @return The version
+     */
+    static String version(long count, long maxId) {
+        return String.format("%d-%d", count, maxId);
+    }
+
     /**
      * A service method which verifies connectivity to the database for a health check
      * @param resultHandler The {@link Handler} to be used to callback with the results
@@ -107,9 +303,15 @@ public class NounServiceImpl implements NounService {
             if (connRes.succeeded()) {
                 connRes.result().query("SELECT 1 FROM nouns LIMIT 1", queryRes -> {
                     if (queryRes.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(new JsonObject()
-                                .put("status", "OK")
-                                .encodePrettily()));
+                        JsonObject health = new JsonObject().put("status", "OK");
+                        JsonObject startup = StartupTimer.report(vertx, "noun");
+                        if (startup != null) {
+                            health.put("startup", startup);
+                        }
+                        if (writeBehind != null) {
+                            health.put("writeBehind", writeBehind.stats());
+                        }
+                        resultHandler.handle(Future.succeededFuture(health.encode()));
                         connRes.result().close();
                     } else {
                         resultHandler.handle(Future.failedFuture(queryRes.cause()));
@@ -0,0 +1,96 @@
+package com.redhat.labs.noun.services
+
+import com.redhat.labs.rhoar.vertx.db.RandomWords
+import io.vertx.core.AbstractVerticle
+import io.vertx.core.DeploymentOptions
+import io.vertx.core.Vertx
+import io.vertx.core.json.JsonObject
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.BlockingVariable
+
+import java.sql.DriverManager
+
+/**
+ * Runs {@code getMany} against an in-memory H2 database holding three nouns
+ */
+class GetManySpec extends Specification {
+
+    private static final String URL = "jdbc:h2:mem:getmany-nouns;DB_CLOSE_DELAY=-1;MODE=PostgreSQL"
+
+    private static final List<String> VOCABULARY = ['apple-john', 'baggage', 'barnacle']
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    @Shared
+    private NounServiceImpl underTest
+
+    def setupSpec() {
+        def conn = DriverManager.getConnection(URL, "sa", "")
+        try {
+            conn.createStatement().execute("CREATE TABLE nouns (id SERIAL PRIMARY KEY, noun VARCHAR(240))")
+            conn.createStatement().execute("INSERT INTO nouns (noun) VALUES ('apple-john'), ('baggage'), ('barnacle')")
+        } finally {
+            conn.close()
+        }
+        def config = new JsonObject().put("db", new JsonObject()
+                .put("url", URL)
+                .put("user", "sa")
+                .put("password", "")
+                .put("driver_class", "org.h2.Driver"))
+        def deployed = new BlockingVariable<String>(10)
+        vertx.deployVerticle(new AbstractVerticle() {
+            @Override
+            void start() {
+                underTest = new NounServiceImpl(vertx)
+            }
+        }, new DeploymentOptions().setConfig(config), { res -> deployed.set(res.succeeded() ? res.result() : null) })
+        assert deployed.get() != null
+    }
+
+    @Unroll
+    def "test #count distinct nouns are returned as #expected"() {
+        when: "We request distinct nouns"
+            def nouns = getMany(count, true)
+        then: "No noun is repeated, and no more are returned than there are"
+            nouns.size() == expected
+            nouns.unique(false).size() == expected
+            VOCABULARY.containsAll(nouns)
+        where:
+            count || expected
+            2     || 2
+            5     || 3
+    }
+
+    def "test more nouns than the vocabulary holds are returned when duplicates are allowed"() {
+        when: "We request more nouns than there are"
+            def nouns = getMany(7, false)
+        then: "The result is filled with nouns from the vocabulary"
+            nouns.size() == 7
+            VOCABULARY.containsAll(nouns)
+    }
+
+    @Unroll
+    def "test a count of #count is rejected"() {
+        given: "A variable for the result"
+            def result = new BlockingVariable<Throwable>(10)
+        when: "We request an invalid number of nouns"
+            underTest.getMany(count, false, { res -> result.set(res.failed() ? res.cause() : null) })
+        then: "The request fails without a query"
+            result.get() instanceof IllegalArgumentException
+        where:
+            count << [0, -1, RandomWords.MAX_COUNT + 1]
+    }
+
+    private List<String> getMany(int count, boolean distinct) {
+        def result = new BlockingVariable<JsonObject>(10)
+        underTest.getMany(count, distinct, { res -> result.set(res.succeeded() ? new JsonObject(res.result()) : null) })
+        result.get().getJsonArray("nouns").list
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+    }
+}
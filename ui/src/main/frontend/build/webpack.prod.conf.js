@@ -10,10 +10,20 @@ var
   OptimizeCSSPlugin = require('optimize-css-assets-webpack-plugin'),
   CopyWebpackPlugin = require('copy-webpack-plugin'),
   SWPrecacheWebpackPlugin = require('sw-precache-webpack-plugin'),
+  CompressionPlugin = require('compression-webpack-plugin'),
+  BrotliPlugin = require('brotli-webpack-plugin'),
   fsUtils = require('./fs-utils');
 var UglifyJSPlugin = require('uglifyjs-webpack-plugin');
 
+// Text assets which are worth serving precompressed; the UI MainVerticle picks the .br or .gz variant of a file
+// which matches the Accept-Encoding of the request
+var compressible = /\.(js|css|html|json|svg|ttf|eot)$/
+
 module.exports = merge(baseWebpackConfig, {
+  output: {
+    // Fingerprint the entry chunks too, so that every asset except index.html can be cached forever
+    filename: 'js/[name].[chunkhash].js'
+  },
   module: {
     rules: cssUtils.styleRules({
       sourceMap: config.build.productionSourceMap,
@@ -96,6 +106,20 @@ module.exports = merge(baseWebpackConfig, {
       staticFileGlobs: ['dist/**/*.{js,html,css,woff,ttf,eof,woff2,json,svg,gif,jpg,png,mp3}'],
       minify: true,
       stripPrefix: 'dist/'
+    }),
+    // precompress the text assets with gzip and brotli
+    new CompressionPlugin({
+      asset: '[path].gz[query]',
+      algorithm: 'gzip',
+      test: compressible,
+      threshold: 1024,
+      minRatio: 0.8
+    }),
+    new BrotliPlugin({
+      asset: '[path].br[query]',
+      test: compressible,
+      threshold: 1024,
+      minRatio: 0.8
     })
   ]
 })
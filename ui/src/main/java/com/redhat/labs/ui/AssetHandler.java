@@ -0,0 +1,287 @@
+package com.redhat.labs.ui;
+
+import io.vertx.core.Handler;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.FileSystemException;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.http.HttpServerResponse;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_MODIFIED;
+
+/**
+ * Serves the files of the Vue bundle from the {@code webroot} ahead of the {@code StaticHandler}, which only sees the
+ * requests for anything that is not a plain file (e.g. directories).
+ *
+ * The frontend build writes a brotli ({@code .br}) and a gzip ({@code .gz}) variant next to every text asset, and the
+ * variant which matches the {@code Accept-Encoding} of the request is sent with {@code sendFile} as it is, so nothing
+ * is compressed at request time. Assets with a content hash in their name (e.g. {@code js/app.3f2c9a1b.js}) never
+ * change, so they are cached for {@code immutableMaxAge} seconds; everything else, including {@code index.html}, gets
+ * {@code maxAge} seconds (0 means {@code no-cache}, i.e. always revalidate). Every response carries a strong
+ * {@code ETag}, which is a hash of the content of the variant which is sent, so it is the same on every replica and
+ * across restarts for as long as the file is unchanged; {@code If-None-Match} is answered with a 304.
+ *
+ * The variants of each file and their ETags are looked up once, on a worker thread, and kept, as the {@code webroot} is
+ * packaged in the jar and does not change while the UI is running.
+ */
+class AssetHandler implements Handler<RoutingContext> {
+
+    private static final Pattern FINGERPRINTED = Pattern.compile(".*\\.[0-9a-f]{7,32}\\.[a-z0-9]+$");
+    private static final String INDEX_PAGE = "index.html";
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", "text/html;charset=utf-8");
+        CONTENT_TYPES.put("js", "application/javascript;charset=utf-8");
+        CONTENT_TYPES.put("css", "text/css;charset=utf-8");
+        CONTENT_TYPES.put("json", "application/json;charset=utf-8");
+        CONTENT_TYPES.put("map", "application/json;charset=utf-8");
+        CONTENT_TYPES.put("txt", "text/plain;charset=utf-8");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("woff", "font/woff");
+        CONTENT_TYPES.put("woff2", "font/woff2");
+        CONTENT_TYPES.put("ttf", "font/ttf");
+        CONTENT_TYPES.put("eot", "application/vnd.ms-fontobject");
+    }
+
+    private final Vertx vertx;
+    private final String webRoot;
+    private final String immutableCacheControl;
+    private final String cacheControl;
+    private final Map<String, Asset> assets = new HashMap<>();
+
+    /**
+     * Create an {@link AssetHandler}
+     * @param vertx The {@link Vertx} instance
+     * @param webRoot The directory (or classpath location) of the assets, e.g. {@code webroot}
+     * @param cfg The {@code assets} configuration block, which may be empty
+     */
+    AssetHandler(Vertx vertx, String webRoot, JsonObject cfg) {
+        this.vertx = vertx;
+        this.webRoot = webRoot;
+        this.immutableCacheControl = "public, max-age=" + cfg.getLong("immutableMaxAge", 31536000L) + ", immutable";
+        long maxAge = cfg.getLong("maxAge", 0L);
+        this.cacheControl = maxAge > 0 ? "public, max-age=" + maxAge : "no-cache";
+    }
+
+    @Override
+    public void handle(RoutingContext ctx) {
+        HttpMethod method = ctx.request().method();
+        String path = ctx.normalisedPath();
+        if ((method != HttpMethod.GET && method != HttpMethod.HEAD) || path == null) {
+            ctx.next();
+            return;
+        }
+        if (path.endsWith("/")) {
+            path += INDEX_PAGE;
+        }
+        Asset cached = assets.get(path);
+        if (cached != null) {
+            send(ctx, cached);
+            return;
+        }
+        String name = path;
+        vertx.getDelegate().<Asset>executeBlocking(f -> f.complete(load(webRoot + name)), false, res -> {
+            if (res.failed() || res.result() == null) {
+                ctx.next();
+                return;
+            }
+            assets.put(name, res.result());
+            send(ctx, res.result());
+        });
+    }
+
+    /**
+     * Read a file and its precompressed variants. This blocks, so it must run on a worker thread.
+     * @param file The path of the file
+     * @return The {@link Asset}, or {@code null} if there is no such regular file
+     */
+    private Asset load(String file) {
+        Variant plain = variant(file, null);
+        if (plain == null) {
+            return null;
+        }
+        return new Asset(plain, variant(file + ".br", "br"), variant(file + ".gz", "gzip"));
+    }
+
+    /**
+     * Read one encoding of a file, to derive its ETag from its content
+     * @param file The path of the file
+     * @param encoding The {@code Content-Encoding} of the file, or {@code null}
+     * @return The {@link Variant}, or {@code null} if there is no such regular file
+     */
+    private Variant variant(String file, String encoding) {
+        FileSystem fs = vertx.getDelegate().fileSystem();
+        try {
+            if (!fs.existsBlocking(file) || !fs.propsBlocking(file).isRegularFile()) {
+                return null;
+            }
+            return new Variant(file, encoding, fs.readFileBlocking(file).getBytes());
+        } catch (FileSystemException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A strong ETag for some content: the start of its SHA-256 hash
+     * @param content The content
+     * @return The quoted ETag
+     */
+    static String etag(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 22) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The {@code Content-Type} of a file of the bundle, from its extension
+     * @param file The name of the file
+     * @return The content type, with the charset for text
+     */
+    static String contentType(String file) {
+        int dot = file.lastIndexOf('.');
+        String type = dot < 0 ? null : CONTENT_TYPES.get(file.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type == null ? DEFAULT_CONTENT_TYPE : type;
+    }
+
+    private void send(RoutingContext ctx, Asset asset) {
+        Variant variant = asset.choose(ctx.request().getHeader("Accept-Encoding"));
+        HttpServerResponse response = ctx.response()
+                .putHeader("Cache-Control", asset.immutable ? immutableCacheControl : cacheControl)
+                .putHeader("ETag", variant.etag);
+        if (asset.br != null || asset.gz != null) {
+            response.putHeader("Vary", "Accept-Encoding");
+        }
+        if (matches(ctx.request().getHeader("If-None-Match"), variant.etag)) {
+            response.setStatusCode(NOT_MODIFIED.code()).end();
+            return;
+        }
+        response.putHeader("Content-Type", asset.contentType);
+        if (variant.encoding != null) {
+            response.putHeader("Content-Encoding", variant.encoding);
+        }
+        if (ctx.request().method() == HttpMethod.HEAD) {
+            response.putHeader("Content-Length", String.valueOf(variant.length)).end();
+        } else {
+            response.sendFile(variant.file, res -> {
+                if (res.failed()) {
+                    ctx.fail(res.cause());
+                }
+            });
+        }
+    }
+
+    /**
+     * Check an {@code If-None-Match} header against an ETag, using the weak comparison which RFC 7232 requires
+     * @param ifNoneMatch The value of the header, or {@code null}
+     * @param etag The ETag of the representation which would be sent
+     * @return {@code true} if the client already has the representation
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag) || (tag.startsWith("W/") && tag.substring(2).equals(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether an {@code Accept-Encoding} header accepts an encoding
+     * @param acceptEncoding The value of the header, or {@code null}
+     * @param encoding The encoding, e.g. {@code br}
+     * @return {@code true} if the encoding (or {@code *}) is listed without {@code q=0}
+     */
+    static boolean accepts(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (name.equals(encoding) || name.equals("*")) {
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(param.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One encoding of an asset as a file on disk (or in the jar)
+     */
+    private static class Variant {
+        final String file;
+        final long length;
+        final String encoding;
+        final String etag;
+
+        Variant(String file, String encoding, byte[] content) {
+            this.file = file;
+            this.encoding = encoding;
+            this.length = content.length;
+            this.etag = etag(content);
+        }
+    }
+
+    /**
+     * A file of the bundle and its precompressed variants
+     */
+    private static class Asset {
+        final Variant plain;
+        final Variant br;
+        final Variant gz;
+        final String contentType;
+        final boolean immutable;
+
+        Asset(Variant plain, Variant br, Variant gz) {
+            this.plain = plain;
+            this.br = br;
+            this.gz = gz;
+            this.contentType = contentType(plain.file);
+            this.immutable = FINGERPRINTED.matcher(plain.file).matches();
+        }
+
+        Variant choose(String acceptEncoding) {
+            if (br != null && accepts(acceptEncoding, "br")) {
+                return br;
+            }
+            if (gz != null && accepts(acceptEncoding, "gzip")) {
+                return gz;
+            }
+            return plain;
+        }
+    }
+}
@@ -1,39 +1,85 @@
 package com.redhat.labs.ui;
 
+import com.redhat.labs.rhoar.vertx.launcher.PerProcess;
+import com.redhat.labs.rhoar.vertx.launcher.StartupTimer;
+import com.redhat.labs.rhoar.vertx.metrics.RouteMetrics;
 import io.reactivex.Maybe;
+import io.reactivex.Single;
+import io.vertx.config.ConfigChange;
 import io.vertx.config.ConfigRetrieverOptions;
 import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.Future;
+import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
 import io.vertx.reactivex.config.ConfigRetriever;
 import io.vertx.reactivex.core.AbstractVerticle;
+import io.vertx.reactivex.core.buffer.Buffer;
 import io.vertx.reactivex.core.http.HttpServer;
+import io.vertx.reactivex.core.http.HttpServerResponse;
 import io.vertx.reactivex.ext.web.Router;
 import io.vertx.reactivex.ext.web.RoutingContext;
 import io.vertx.reactivex.ext.web.handler.StaticHandler;
 
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_MODIFIED;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
 
 public class MainVerticle extends AbstractVerticle {
 
     private final Logger LOG = LoggerFactory.getLogger(MainVerticle.class);
 
+    private static final String WEB_ROOT = "webroot";
+    private static final String SETTINGS_KEY = "settings.js";
+    private static final long DEFAULT_SCAN_PERIOD = 5000L;
+
+    // Only set in the instance which reads the configuration for the process
+    private ConfigRetriever retriever;
+    private String settingsCacheControl;
+    private SharedSettings settings;
+
     @Override
     public void start(Future<Void> startFuture) throws Exception {
+        settings = SharedSettings.of(vertx.getDelegate());
+        StartupTimer timer = new StartupTimer(vertx.getDelegate(), "ui");
         getConfig()
+                .compose(timer.phase("config"))
                 .flatMap(this::provisionRouter)
-                .flatMap(this::provisionHttpServer)
+                .flatMap(router -> provisionHttpServer(router)
+                        .compose(timer.phase("http")))
                 .doOnError(startFuture::fail)
-                .subscribe(h -> startFuture.complete());
+                .subscribe(h -> {
+                    LOG.info("Started in " + timer.ready());
+                    startFuture.complete();
+                });
     }
 
     /**
-     * Retrieve the configuration (possibly from Kubernetes ConfigMap) and return the result as a {@link Maybe}
+     * Retrieve the configuration (possibly from Kubernetes ConfigMap) and return the result as a {@link Maybe}. The
+     * configuration is read, and scanned for changes every {@code assets.settingsScanPeriod} milliseconds of the
+     * deployment configuration (0 to never rescan it), once per process; every instance gets its own copy of it.
      * @return A {@link Maybe} which may contain the configuration as a {@link JsonObject}
      */
     Maybe<JsonObject> getConfig() {
+        long scanPeriod = config().getJsonObject("assets", new JsonObject())
+                .getLong("settingsScanPeriod", DEFAULT_SCAN_PERIOD);
+        return PerProcess.rxRun(vertx, "ui.config", Single.defer(() -> {
+            retriever = ConfigRetriever.create(vertx, retrieverOptions(scanPeriod));
+            return retriever.rxGetConfig().doOnSuccess(cfg -> {
+                settings.set(RenderedSettings.render(cfg.getString(SETTINGS_KEY)));
+                if (scanPeriod > 0) {
+                    retriever.listen(this::configChanged);
+                }
+            });
+        })).map(JsonObject::copy).toMaybe();
+    }
+
+    private static ConfigRetrieverOptions retrieverOptions(long scanPeriod) {
         ConfigStoreOptions localConfig = new ConfigStoreOptions()
                 .setType("file")
                 .setFormat("json")
@@ -41,6 +87,7 @@ public class MainVerticle extends AbstractVerticle {
                 .setOptional(true);
 
         ConfigRetrieverOptions retrieverOptions = new ConfigRetrieverOptions()
+                .setScanPeriod(scanPeriod)
                 .addStore(localConfig);
         // Check to see if we are running on Kubernetes/OCP
         if (System.getenv().containsKey("KUBERNETES_NAMESPACE")) {
@@ -53,7 +100,7 @@ public class MainVerticle extends AbstractVerticle {
                     );
             retrieverOptions.addStore(confOpts);
         }
-        return ConfigRetriever.create(vertx, retrieverOptions).rxGetConfig().toMaybe();
+        return retrieverOptions;
     }
 
     /**
@@ -63,31 +110,68 @@ public class MainVerticle extends AbstractVerticle {
      */
     Maybe<Router> provisionRouter(JsonObject cfg) {
         vertx.getOrCreateContext().config().mergeIn(cfg);
+        settingsCacheControl = "public, max-age="
+                + cfg.getJsonObject("assets", new JsonObject()).getLong("settingsMaxAge", 60L);
         Router router = Router.router(vertx);
-        router.route("/api/v1/health").handler(this::healthCheck);
-        if (cfg.containsKey("settings.js")) {
-            router.route("/statics/js/settings.js").handler(this::getConfig);
-        }
-        router.route().handler(StaticHandler.create("webroot").setIndexPage("index.html"));
+        RouteMetrics metrics = RouteMetrics.create(vertx, "ui", cfg.getJsonObject("metrics"));
+        metrics.mount(router);
+        router.route("/api/v1/health").handler(metrics.timed("health", this::healthCheck));
+        router.route("/statics/js/settings.js").handler(metrics.timed("settings", this::getConfig));
+        router.route().handler(metrics.timed("assets",
+                new AssetHandler(vertx, WEB_ROOT, cfg.getJsonObject("assets", new JsonObject()))));
+        router.route().handler(StaticHandler.create(WEB_ROOT).setIndexPage("index.html"));
         return Maybe.just(router);
     }
 
     /**
-     * Provision the {@link HttpServer} using the {@link Router} instance
+     * Provision the {@link HttpServer} using the {@link Router} instance. The optional {@code http} block accepts ANY
+     * of the {@link HttpServerOptions} properties, e.g. {@code "ssl": true, "useAlpn": true} and a
+     * {@code pemKeyCertOptions} block to serve HTTP/2 to browsers.
      * @param router A {@link Router} instance
      * @return A {@link Maybe} which is completed if/when the {@link HttpServer} is created
      */
     Maybe<HttpServer> provisionHttpServer(Router router) {
-        return vertx.createHttpServer().requestHandler(router::accept).rxListen(8080, "0.0.0.0").toMaybe();
+        HttpServerOptions httpConfig = new HttpServerOptions(new JsonObject()
+                .put("port", 8080)
+                .put("host", "0.0.0.0")
+                .mergeIn(config().getJsonObject("http", new JsonObject())));
+        return vertx.createHttpServer(httpConfig).requestHandler(router::accept).rxListen().toMaybe();
+    }
+
+    /**
+     * Re-render the "settings.js" file when the configuration (e.g. the ConfigMap) changes, without a restart. The
+     * rendered file is shared, so every instance serves it from then on.
+     * @param change The {@link ConfigChange} from the {@link ConfigRetriever}
+     */
+    void configChanged(ConfigChange change) {
+        String content = change.getNewConfiguration().getString(SETTINGS_KEY);
+        RenderedSettings current = settings.get();
+        if (current == null ? content != null : !current.content.equals(content)) {
+            settings.set(RenderedSettings.render(content));
+            LOG.info("Reloaded settings.js from the changed configuration");
+        }
     }
 
     /**
-     * Handle requests for the "settings.js" file when running in Kubernetes/OpenShift
+     * Handle requests for the "settings.js" file when running in Kubernetes/OpenShift. The file is rendered once per
+     * configuration and revalidated with its ETag; without a "settings.js" in the configuration, the file from the
+     * webroot is served instead.
      * @param ctx An instance of {@link RoutingContext} which represents the HTTP request
      */
     void getConfig(RoutingContext ctx) {
-        ctx.response().headers().add("Content-Type", "application/javascript");
-        ctx.response().end(config().getString("settings.js"));
+        RenderedSettings current = settings.get();
+        if (current == null) {
+            ctx.next();
+            return;
+        }
+        HttpServerResponse response = ctx.response()
+                .putHeader("Cache-Control", settingsCacheControl)
+                .putHeader("ETag", current.etag);
+        if (AssetHandler.matches(ctx.request().getHeader("If-None-Match"), current.etag)) {
+            response.setStatusCode(NOT_MODIFIED.code()).end();
+        } else {
+            response.putHeader("Content-Type", "application/javascript;charset=utf-8").end(current.body);
+        }
     }
 
     /**
@@ -97,4 +181,40 @@ public class MainVerticle extends AbstractVerticle {
     void healthCheck(RoutingContext ctx) {
         ctx.response().setStatusCode(OK.code()).setStatusMessage(OK.reasonPhrase()).end();
     }
+
+    /**
+     * The rendered "settings.js" file of the process, which is replaced as a whole whenever the configuration changes,
+     * so a request always sees a matching body and ETag
+     */
+    static final class SharedSettings extends AtomicReference<RenderedSettings> implements Shareable {
+
+        private static final String MAP_NAME = "ui.settings";
+
+        static SharedSettings of(io.vertx.core.Vertx vertx) {
+            LocalMap<String, SharedSettings> map = vertx.sharedData().getLocalMap(MAP_NAME);
+            SharedSettings created = new SharedSettings();
+            SharedSettings existing = map.putIfAbsent(SETTINGS_KEY, created);
+            return existing == null ? created : existing;
+        }
+    }
+
+    /**
+     * The "settings.js" file rendered into a {@link Buffer} which is written to every response, and its strong ETag
+     */
+    static final class RenderedSettings {
+        final String content;
+        final Buffer body;
+        final String etag;
+
+        private RenderedSettings(String content) {
+            this.content = content;
+            byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            this.body = Buffer.newInstance(io.vertx.core.buffer.Buffer.buffer(bytes));
+            this.etag = AssetHandler.etag(bytes);
+        }
+
+        static RenderedSettings render(String content) {
+            return content == null ? null : new RenderedSettings(content);
+        }
+    }
 }
@@ -0,0 +1,152 @@
+package com.redhat.labs.ui
+
+import io.vertx.core.http.HttpClientResponse
+import io.vertx.core.json.JsonObject
+import io.vertx.reactivex.core.Vertx
+import io.vertx.reactivex.ext.web.Router
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.BlockingVariable
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class AssetHandlerSpec extends Specification {
+
+    private static final String SCRIPT = "console.log('artless bawdy canker-blossom');"
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    @Shared
+    private Path webRoot
+
+    @Shared
+    private int port
+
+    def setupSpec() {
+        webRoot = Files.createTempDirectory("webroot")
+        Files.createDirectories(webRoot.resolve("js"))
+        Files.write(webRoot.resolve("index.html"), "<html></html>".bytes)
+        Files.write(webRoot.resolve("js/app.3f2c9a1b.js"), SCRIPT.bytes)
+        Files.write(webRoot.resolve("js/app.3f2c9a1b.js.br"), "brotli".bytes)
+        Files.write(webRoot.resolve("js/app.3f2c9a1b.js.gz"), "gzip".bytes)
+        Files.write(webRoot.resolve("js/copy.js"), SCRIPT.bytes)
+        def router = Router.router(vertx)
+        router.route().handler(new AssetHandler(vertx, webRoot.toString(), new JsonObject()))
+        router.route().handler({ ctx -> ctx.response().setStatusCode(404).end() })
+        def listening = new BlockingVariable<Integer>(10)
+        vertx.createHttpServer().requestHandler(router.&accept).listen(0, { res -> listening.set(res.result().actualPort()) })
+        port = listening.get()
+    }
+
+    @Unroll
+    def "test an Accept-Encoding of '#header' #outcome #encoding"() {
+        expect: "Only encodings which are listed (or matched by *) without a q-value of 0 are accepted"
+            AssetHandler.accepts(header, encoding) == accepted
+        where:
+            header                  | encoding || accepted
+            null                    | "gzip"   || false
+            "gzip, deflate, br"     | "br"     || true
+            "gzip, deflate, br"     | "gzip"   || true
+            "GZIP"                  | "gzip"   || true
+            "gzip;q=0.5"            | "gzip"   || true
+            "gzip;q=0"              | "gzip"   || false
+            "br;q=0.0, gzip"        | "br"     || false
+            "*"                     | "br"     || true
+            "*;q=0"                 | "br"     || false
+            "identity"              | "gzip"   || false
+            "gzip;q=nonsense"       | "gzip"   || false
+        and:
+            outcome = accepted ? "accepts" : "does not accept"
+    }
+
+    @Unroll
+    def "test an If-None-Match of '#header' #outcome"() {
+        expect: "Weak and listed ETags are compared by their opaque tag"
+            AssetHandler.matches(header, '"abc"') == matched
+        where:
+            header              || matched
+            null                || false
+            '"abc"'             || true
+            'W/"abc"'           || true
+            '"xyz", "abc"'      || true
+            '"xyz" ,W/"abc"'    || true
+            '*'                 || true
+            '"abd"'             || false
+            'abc'               || false
+        and:
+            outcome = matched ? "matches" : "does not match"
+    }
+
+    @Unroll
+    def "test a request accepting '#acceptEncoding' is sent the #expected variant"() {
+        when: "A fingerprinted script is requested"
+            def response = get("/js/app.3f2c9a1b.js", ["Accept-Encoding": acceptEncoding])
+        then: "The preferred precompressed variant is sent as it is"
+            response.status == 200
+            response.headers.get("Content-Encoding") == encoding
+            response.body == body
+            response.headers.get("Vary") == "Accept-Encoding"
+            response.headers.get("Content-Type") == "application/javascript;charset=utf-8"
+        and: "It is cached for good, as its name changes with its content"
+            response.headers.get("Cache-Control") == "public, max-age=31536000, immutable"
+        where:
+            acceptEncoding      || encoding | body
+            "gzip, deflate, br" || "br"     | "brotli"
+            "gzip, br;q=0"      || "gzip"   | "gzip"
+            "deflate"           || null     | SCRIPT
+        and:
+            expected = encoding ?: "plain"
+    }
+
+    def "test the ETag is derived from the content of the variant which is sent"() {
+        when: "The plain and brotli variants of a script, and a copy of it under another name, are requested"
+            def plain = get("/js/app.3f2c9a1b.js", [:])
+            def br = get("/js/app.3f2c9a1b.js", ["Accept-Encoding": "br"])
+            def copy = get("/js/copy.js", [:])
+        then: "Each ETag is the hash of the bytes which were sent, whatever the file is called or when it was written"
+            plain.headers.get("ETag") == AssetHandler.etag(SCRIPT.bytes)
+            br.headers.get("ETag") == AssetHandler.etag("brotli".bytes)
+            copy.headers.get("ETag") == plain.headers.get("ETag")
+    }
+
+    def "test a revalidation with a matching ETag is answered with a 304"() {
+        given: "The ETag of the index page"
+            def first = get("/", [:])
+        when: "The page is requested again with that ETag, once as a weak one"
+            def strong = get("/index.html", ["If-None-Match": first.headers.get("ETag")])
+            def weak = get("/", ["If-None-Match": "W/" + first.headers.get("ETag")])
+        then: "The page is not sent again"
+            first.status == 200
+            first.body == "<html></html>"
+            first.headers.get("Cache-Control") == "no-cache"
+            first.headers.get("Vary") == null
+            strong.status == 304
+            weak.status == 304
+            strong.headers.get("ETag") == first.headers.get("ETag")
+    }
+
+    def "test a request for a file which is not in the webroot is passed on"() {
+        expect: "The next handler answers"
+            get("/js/missing.js", [:]).status == 404
+    }
+
+    private Map get(String path, Map<String, String> headers) {
+        def result = new BlockingVariable<Map>(10)
+        def request = vertx.getDelegate().createHttpClient().get(port, "localhost", path, { HttpClientResponse res ->
+            res.bodyHandler({ body ->
+                result.set([status: res.statusCode(), headers: res.headers(), body: body.toString()])
+            })
+        })
+        headers.each { name, value -> request.putHeader(name, value) }
+        request.end()
+        result.get()
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+        webRoot.toFile().deleteDir()
+    }
+}
@@ -0,0 +1,100 @@
+package com.redhat.labs.ui
+
+import io.vertx.config.ConfigChange
+import io.vertx.core.DeploymentOptions
+import io.vertx.core.Vertx
+import io.vertx.core.http.HttpClientResponse
+import io.vertx.core.json.JsonObject
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.util.concurrent.BlockingVariable
+
+/**
+ * Runs two instances of the UI, as the launcher does on a machine with more than one event loop
+ */
+class MainVerticleSpec extends Specification {
+
+    private static final String SETTINGS = "window.base_url = 'http://localhost:8081';"
+    private static final String CHANGED = "window.base_url = 'http://localhost:8082';"
+
+    @Shared
+    private Vertx vertx = Vertx.vertx()
+
+    @Shared
+    private List<MainVerticle> instances = []
+
+    @Shared
+    private int port
+
+    def setupSpec() {
+        def socket = new ServerSocket(0)
+        port = socket.localPort
+        socket.close()
+        def config = new JsonObject()
+                .put("http", new JsonObject().put("port", port))
+                .put("assets", new JsonObject().put("settingsScanPeriod", 0))
+        2.times {
+            def verticle = new MainVerticle()
+            def deployed = new BlockingVariable<String>(10)
+            vertx.deployVerticle(verticle, new DeploymentOptions().setConfig(config),
+                    { res -> deployed.set(res.succeeded() ? res.result() : null) })
+            assert deployed.get() != null
+            instances << verticle
+        }
+    }
+
+    def "test the configuration is read once per process"() {
+        expect: "Only one instance created a retriever, and both serve the same settings"
+            instances.count { it.retriever != null } == 1
+            instances[0].settings.is(instances[1].settings)
+    }
+
+    def "test a changed settings.js is served with a new ETag and revalidated with a 304"() {
+        given: "The settings which are served before the configuration changes"
+            change(null, SETTINGS)
+            def before = get([:])
+        when: "The settings are revalidated with their ETag"
+            def revalidated = get(["If-None-Match": before.headers.get("ETag")])
+        then: "They are not sent again"
+            before.status == 200
+            before.body == SETTINGS
+            before.headers.get("ETag") == AssetHandler.etag(SETTINGS.bytes)
+            before.headers.get("Cache-Control") == "public, max-age=60"
+            revalidated.status == 304
+        when: "The ConfigMap changes and the old ETag is sent"
+            change(SETTINGS, CHANGED)
+            def after = get(["If-None-Match": before.headers.get("ETag")])
+        then: "The new settings are sent with a new ETag"
+            after.status == 200
+            after.body == CHANGED
+            after.headers.get("ETag") == AssetHandler.etag(CHANGED.bytes)
+            after.headers.get("ETag") != before.headers.get("ETag")
+        and: "The new ETag is answered with a 304"
+            get(["If-None-Match": after.headers.get("ETag")]).status == 304
+    }
+
+    /**
+     * Hand a change of "settings.js" to the instance which reads the configuration, as its retriever would
+     */
+    private void change(String previous, String content) {
+        def listener = instances.find { it.retriever != null }
+        listener.configChanged(new ConfigChange(
+                new JsonObject().put("settings.js", previous), new JsonObject().put("settings.js", content)))
+    }
+
+    private Map get(Map<String, String> headers) {
+        def result = new BlockingVariable<Map>(10)
+        def request = vertx.createHttpClient().get(port, "localhost", "/statics/js/settings.js", { HttpClientResponse res ->
+            res.bodyHandler({ body ->
+                result.set([status: res.statusCode(), headers: res.headers(), body: body.toString()])
+            })
+        })
+        headers.each { name, value -> request.putHeader(name, value) }
+        request.end()
+        result.get()
+    }
+
+    def cleanupSpec() {
+        vertx.close()
+    }
+}